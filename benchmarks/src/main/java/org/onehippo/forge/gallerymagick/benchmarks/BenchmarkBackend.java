@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.command.GraphicsMagickCommandUtils;
+import org.onehippo.forge.gallerymagick.core.command.ImageMagickCommandUtils;
+import org.onehippo.forge.gallerymagick.core.command.ScalrProcessorUtils;
+
+/**
+ * Image processing backends compared by the benchmarks, each delegating to its utility class.
+ */
+public enum BenchmarkBackend {
+
+    IMAGE_MAGICK {
+        @Override
+        public void checkAvailable() throws IOException {
+            ImageMagickCommandUtils.identifyVersion();
+        }
+
+        @Override
+        public ImageDimension identifyDimension(File sourceFile) throws IOException {
+            return ImageMagickCommandUtils.identifyDimension(sourceFile);
+        }
+
+        @Override
+        public String identifyAllMetadata(File sourceFile) throws IOException {
+            return ImageMagickCommandUtils.identifyAllMetadata(sourceFile);
+        }
+
+        @Override
+        public void resizeImage(File sourceFile, File targetFile, ImageDimension dimension) throws IOException {
+            ImageMagickCommandUtils.resizeImage(sourceFile, targetFile, dimension);
+        }
+    },
+
+    GRAPHICS_MAGICK {
+        @Override
+        public void checkAvailable() throws IOException {
+            GraphicsMagickCommandUtils.identifyVersion();
+        }
+
+        @Override
+        public ImageDimension identifyDimension(File sourceFile) throws IOException {
+            return GraphicsMagickCommandUtils.identifyDimension(sourceFile);
+        }
+
+        @Override
+        public String identifyAllMetadata(File sourceFile) throws IOException {
+            return GraphicsMagickCommandUtils.identifyAllMetadata(sourceFile);
+        }
+
+        @Override
+        public void resizeImage(File sourceFile, File targetFile, ImageDimension dimension) throws IOException {
+            GraphicsMagickCommandUtils.resizeImage(sourceFile, targetFile, dimension);
+        }
+    },
+
+    SCALR {
+        @Override
+        public void checkAvailable() {
+        }
+
+        @Override
+        public ImageDimension identifyDimension(File sourceFile) throws IOException {
+            return ScalrProcessorUtils.identifyDimension(sourceFile);
+        }
+
+        @Override
+        public String identifyAllMetadata(File sourceFile) {
+            throw new UnsupportedOperationException("ScalrProcessorUtils doesn't extract metadata.");
+        }
+
+        @Override
+        public void resizeImage(File sourceFile, File targetFile, ImageDimension dimension) throws IOException {
+            ScalrProcessorUtils.resizeImage(sourceFile, targetFile, dimension);
+        }
+    };
+
+    /**
+     * Throws an exception if the backend is not available, e.g, if the command is not installed,
+     * so a benchmark of the backend fails in the setup instead of in each invocation.
+     * @throws IOException if the backend is not available
+     */
+    public abstract void checkAvailable() throws IOException;
+
+    public abstract ImageDimension identifyDimension(File sourceFile) throws IOException;
+
+    public abstract String identifyAllMetadata(File sourceFile) throws IOException;
+
+    public abstract void resizeImage(File sourceFile, File targetFile, ImageDimension dimension) throws IOException;
+}
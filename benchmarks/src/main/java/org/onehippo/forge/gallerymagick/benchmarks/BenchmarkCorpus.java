@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.lang3.StringUtils;
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+
+/**
+ * Generated corpus of benchmark source images, identified by a name in the form of <code>format-WxH</code>,
+ * e.g, <code>jpg-4000x3000</code>.
+ * <P>
+ * Images are generated once into the directory configured by the system property, {@link #PROP_DIRECTORY},
+ * and reused by the following benchmark runs. Each image is a smooth gradient overlaid by pseudo random noise blocks
+ * from a fixed seed, so the compressed sizes are closer to photos than a flat or a purely random image.
+ * </P>
+ */
+public class BenchmarkCorpus {
+
+    /**
+     * System property name for the directory of the generated benchmark source images.
+     */
+    public static final String PROP_DIRECTORY = "org.onehippo.forge.gallerymagick.benchmarks.corpus.directory";
+
+    private static final String DEFAULT_DIRECTORY = "target/benchmark-corpus";
+
+    private static final int NOISE_BLOCK_SIZE = 8;
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Returns the source image file of the {@code name}, generating it first if not existing.
+     * @param name image name in the form of <code>format-WxH</code>
+     * @return the source image file of the {@code name}
+     * @throws IOException if IO exception occurs
+     */
+    public static synchronized File getImageFile(final String name) throws IOException {
+        final String format = StringUtils.substringBefore(name, "-");
+        final ImageDimension dimension = ImageDimension.from(StringUtils.substringAfter(name, "-"));
+
+        if (StringUtils.isEmpty(format) || dimension.getWidth() <= 0 || dimension.getHeight() <= 0) {
+            throw new IllegalArgumentException("Invalid benchmark image name: " + name);
+        }
+
+        final File directory = new File(System.getProperty(PROP_DIRECTORY, DEFAULT_DIRECTORY));
+        final File file = new File(directory, name + "." + format);
+
+        if (!file.isFile()) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create the benchmark corpus directory: " + directory);
+            }
+
+            final File tempFile = new File(directory, name + ".tmp." + format);
+            final BufferedImage image = createImage(dimension.getWidth(), dimension.getHeight(),
+                    "gif".equals(format) || "bmp".equals(format));
+
+            if (!ImageIO.write(image, format, tempFile)) {
+                throw new IllegalArgumentException("No image writer for the benchmark image format: " + format);
+            }
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Cannot move the benchmark image to " + file);
+            }
+        }
+
+        return file;
+    }
+
+    private static BufferedImage createImage(final int width, final int height, final boolean indexed) {
+        final BufferedImage image = new BufferedImage(width, height,
+                indexed ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_INT_RGB);
+        final Random random = new Random(width * 31L + height);
+        final int [] row = new int[width];
+        final int [] noise = new int[(width + NOISE_BLOCK_SIZE - 1) / NOISE_BLOCK_SIZE];
+
+        for (int y = 0; y < height; y++) {
+            if (y % NOISE_BLOCK_SIZE == 0) {
+                for (int i = 0; i < noise.length; i++) {
+                    noise[i] = random.nextInt(64) - 32;
+                }
+            }
+
+            for (int x = 0; x < width; x++) {
+                final int n = noise[x / NOISE_BLOCK_SIZE];
+                final int r = clamp(255 * x / width + n);
+                final int g = clamp(255 * y / height + n);
+                final int b = clamp(128 + n * 2);
+                row[x] = (r << 16) | (g << 8) | b;
+            }
+
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+
+        return image;
+    }
+
+    private static int clamp(final int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
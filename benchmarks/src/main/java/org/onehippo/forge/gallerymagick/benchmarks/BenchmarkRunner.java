@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of the benchmarks jar, accepting the standard JMH command line options.
+ * <P>
+ * Unless specified otherwise on the command line, the results are written in JSON to
+ * <code>target/jmh-result.json</code>, and the GC profiler is added to report the allocation rate
+ * (<code>gc.alloc.rate.norm</code>) next to the throughput of each benchmark, as well as
+ * {@link MagickProcessMemoryProfiler} to report the peak resident set size of the Magick processes
+ * (<code>magick.rss.peak</code>) if <code>/usr/bin/time</code> is available.
+ * </P>
+ */
+public class BenchmarkRunner {
+
+    /**
+     * JVM argument disabling the identification cache in the forked benchmark JVMs.
+     */
+    static final String DISABLE_IDENTIFY_CACHE =
+            "-Dorg.onehippo.forge.gallerymagick.core.command.identify.cache.maxEntries=0";
+
+    private static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        if (commandLineOptions.shouldHelp()) {
+            commandLineOptions.showHelp();
+            return;
+        }
+
+        if (commandLineOptions.shouldList()) {
+            new Runner(commandLineOptions).list();
+            return;
+        }
+
+        final ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLineOptions);
+
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+
+        if (!commandLineOptions.getResult().hasValue()) {
+            builder.result(DEFAULT_RESULT_FILE);
+        }
+
+        if (commandLineOptions.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+
+            if (MagickProcessMemoryProfiler.isAvailable()) {
+                builder.addProfiler(MagickProcessMemoryProfiler.class);
+            } else {
+                System.err.println("The peak RSS of Magick processes is not measured as "
+                        + MagickProcessMemoryProfiler.TIME_EXECUTABLE + " is not available.");
+            }
+        }
+
+        new Runner(builder.build()).run();
+    }
+}
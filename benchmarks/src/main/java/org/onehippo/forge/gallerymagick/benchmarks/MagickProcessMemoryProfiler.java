@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.onehippo.forge.gallerymagick.core.command.AbstractMagickCommand;
+import org.onehippo.forge.gallerymagick.core.command.GraphicsMagickCommand;
+import org.onehippo.forge.gallerymagick.core.command.ImageMagickCommand;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.profile.ProfilerException;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * JMH profiler reporting the peak resident set size of the ImageMagick and GraphicsMagick processes
+ * started in each iteration, as <code>magick.rss.peak</code> in megabytes.
+ * <P>
+ * JMH measures the benchmark JVM only, so the Magick executables are replaced by wrapper scripts, through the
+ * executable system properties, running the original executables under GNU <code>/usr/bin/time</code> which records
+ * the maximum resident set size of each process when it exits. Starting <code>/usr/bin/time</code> adds to the time
+ * of each Magick process, so compare the throughput of runs with the same profilers only.
+ * Long-lived <code>gm batch</code> processes are not measured, as they do not exit in an iteration.
+ * </P>
+ */
+public class MagickProcessMemoryProfiler implements InternalProfiler {
+
+    /**
+     * GNU time executable recording the maximum resident set size of a process.
+     */
+    static final String TIME_EXECUTABLE = "/usr/bin/time";
+
+    private File logFile;
+
+    public MagickProcessMemoryProfiler() throws ProfilerException {
+        if (!isAvailable()) {
+            throw new ProfilerException(TIME_EXECUTABLE + " is not available to measure the Magick processes.");
+        }
+    }
+
+    /**
+     * Returns true if GNU time is available to measure the Magick processes.
+     * @return true if GNU time is available to measure the Magick processes
+     */
+    public static boolean isAvailable() {
+        return new File(TIME_EXECUTABLE).canExecute();
+    }
+
+    @Override
+    public String getDescription() {
+        return "Peak resident set size of ImageMagick and GraphicsMagick processes, measured by " + TIME_EXECUTABLE;
+    }
+
+    @Override
+    public void beforeIteration(final BenchmarkParams benchmarkParams, final IterationParams iterationParams) {
+        try {
+            if (logFile == null) {
+                installWrappers();
+            }
+
+            Files.write(logFile.toPath(), new byte[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(final BenchmarkParams benchmarkParams,
+            final IterationParams iterationParams, final IterationResult result) {
+        final List<String> lines;
+
+        try {
+            lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long maxResidentKilobytes = -1L;
+
+        // GNU time also writes a line such as "Command exited with non-zero status 1" for a failed process.
+        for (String line : lines) {
+            final String value = StringUtils.trim(line);
+
+            if (NumberUtils.isDigits(value)) {
+                maxResidentKilobytes = Math.max(maxResidentKilobytes, NumberUtils.toLong(value));
+            }
+        }
+
+        if (maxResidentKilobytes < 0L) {
+            return Collections.emptyList();
+        }
+
+        return Collections.singletonList(
+                new ScalarResult("magick.rss.peak", maxResidentKilobytes / 1024.0, "MB", AggregationPolicy.MAX));
+    }
+
+    private void installWrappers() throws IOException {
+        final File wrapperDir = Files.createTempDirectory("benchmark-magick-rss-").toFile();
+        wrapperDir.deleteOnExit();
+        logFile = new File(wrapperDir, "rss.log");
+        logFile.deleteOnExit();
+
+        installWrapper(wrapperDir, ImageMagickCommand.PROP_EXECUTABLE_CONVERT,
+                AbstractMagickCommand.DEFAULT_SUBCOMMAND_CONVERT);
+        installWrapper(wrapperDir, ImageMagickCommand.PROP_EXECUTABLE_IDENTIFY, "identify");
+        installWrapper(wrapperDir, GraphicsMagickCommand.PROP_EXECUTABLE, GraphicsMagickCommand.DEFAULT_EXECUTABLE);
+    }
+
+    private void installWrapper(final File wrapperDir, final String executableProperty,
+            final String defaultExecutable) throws IOException {
+        final String executable = StringUtils.defaultIfBlank(System.getProperty(executableProperty), defaultExecutable);
+        final File wrapper = new File(wrapperDir, defaultExecutable);
+        final String script = "#!/bin/sh\n"
+                + "exec " + quote(TIME_EXECUTABLE) + " -f '%M' -a -o " + quote(logFile.getAbsolutePath()) + " "
+                + quote(executable) + " \"$@\"\n";
+
+        Files.write(wrapper.toPath(), script.getBytes(StandardCharsets.UTF_8));
+        wrapper.deleteOnExit();
+
+        if (!wrapper.setExecutable(true)) {
+            throw new IOException("Cannot make the wrapper executable: " + wrapper);
+        }
+
+        System.setProperty(executableProperty, wrapper.getAbsolutePath());
+    }
+
+    private static String quote(final String value) {
+        return "'" + StringUtils.replace(value, "'", "'\\''") + "'";
+    }
+}
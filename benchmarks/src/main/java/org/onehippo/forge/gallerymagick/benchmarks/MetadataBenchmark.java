@@ -0,0 +1,72 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of <code>identifyAllMetadata(File)</code>, running <code>identify -verbose</code>,
+ * of the Magick backends. {@link BenchmarkBackend#SCALR} doesn't extract metadata.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = { BenchmarkRunner.DISABLE_IDENTIFY_CACHE })
+public class MetadataBenchmark {
+
+    @Param({ "IMAGE_MAGICK", "GRAPHICS_MAGICK" })
+    public BenchmarkBackend backend;
+
+    @Param({ "jpg-640x480", "jpg-1600x1200", "jpg-4000x3000", "jpg-8160x6120",
+            "png-640x480", "png-1600x1200", "png-4000x3000", "png-8160x6120",
+            "gif-1600x1200", "bmp-1600x1200", "tiff-1600x1200" })
+    public String image;
+
+    private File sourceFile;
+
+    @Setup
+    public void setup() throws Exception {
+        backend.checkAvailable();
+        sourceFile = BenchmarkCorpus.getImageFile(image);
+    }
+
+    @Benchmark
+    public String identifyAllMetadata() throws Exception {
+        return backend.identifyAllMetadata(sourceFile);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String identifyAllMetadataContended() throws Exception {
+        return backend.identifyAllMetadata(sourceFile);
+    }
+}
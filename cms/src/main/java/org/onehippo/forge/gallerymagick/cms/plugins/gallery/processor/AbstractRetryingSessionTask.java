@@ -0,0 +1,174 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background task updating an image set node through a separate system session, retried with an exponential backoff.
+ * <P>
+ * The image set node is usually not saved yet by the uploading session when the task runs first,
+ * so the task is rescheduled after {@code retryDelay}, doubling the delay on each attempt up to a minute,
+ * until it succeeds or the maximum attempts are exhausted. The system session is logged out when the task ends.
+ * </P>
+ */
+abstract class AbstractRetryingSessionTask implements Runnable {
+
+    /**
+     * The maximum delay between attempts, not to keep growing the exponential backoff.
+     */
+    private static final long MAX_RETRY_DELAY = 60000L;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Session session;
+
+    private final ScheduledExecutorService executor;
+
+    private final int maxAttempts;
+
+    private final long retryDelay;
+
+    private int attempts;
+
+    AbstractRetryingSessionTask(final Session session, final ScheduledExecutorService executor, final int maxAttempts,
+            final long retryDelay) {
+        this.session = session;
+        this.executor = executor;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelay = Math.max(0L, retryDelay);
+    }
+
+    @Override
+    public final void run() {
+        ++attempts;
+
+        try {
+            session.refresh(false);
+            attempt(session);
+            session.save();
+            succeeded();
+            dispose();
+        } catch (Exception e) {
+            refreshQuietly();
+
+            if (attempts < maxAttempts) {
+                if (reschedule()) {
+                    log.debug("Failed {} at '{}' in attempt {}. Retrying: {}", getDescription(), getNodePath(),
+                            attempts, e.toString());
+                    return;
+                }
+
+                if (stopped()) {
+                    dispose();
+                    return;
+                }
+            }
+
+            if (e instanceof ItemNotFoundException) {
+                log.warn("Gave up {} at '{}' after {} attempt(s) because the node was never saved.", getDescription(),
+                        getNodePath(), attempts);
+            } else {
+                log.error("Gave up {} at '{}' after {} attempt(s).", getDescription(), getNodePath(), attempts, e);
+            }
+
+            gaveUp();
+            dispose();
+        }
+    }
+
+    /**
+     * Updates the image set node through the refreshed system session, which is saved afterward.
+     */
+    protected abstract void attempt(Session session) throws Exception;
+
+    /**
+     * Returns the description of the task in the log messages, e.g, "storing the image metadata".
+     */
+    protected abstract String getDescription();
+
+    /**
+     * Returns the path of the image set node in the log messages.
+     */
+    protected abstract String getNodePath();
+
+    /**
+     * Called when an attempt succeeds, before {@link #dispose()}.
+     */
+    protected void succeeded() {
+    }
+
+    /**
+     * Called when the task cannot be rescheduled because the executor is shut down. Returns true if the task is
+     * stopped to resume later, or false to give up. Gives up by default.
+     */
+    protected boolean stopped() {
+        return false;
+    }
+
+    /**
+     * Called when the task gives up, before {@link #dispose()}.
+     */
+    protected void gaveUp() {
+    }
+
+    /**
+     * Logs out the system session. Called only once when the task ends.
+     */
+    void dispose() {
+        session.logout();
+    }
+
+    /**
+     * Returns the number of the attempts so far.
+     */
+    int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Returns the delay in milliseconds before the next attempt after the {@code attempts}.
+     */
+    long getRetryDelay(final int attempts) {
+        return Math.min(retryDelay << Math.min(Math.max(0, attempts - 1), 16), MAX_RETRY_DELAY);
+    }
+
+    private boolean reschedule() {
+        try {
+            executor.schedule(this, getRetryDelay(attempts), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException e) {
+            log.debug("Failed to refresh the session: {}", e.toString());
+        }
+    }
+}
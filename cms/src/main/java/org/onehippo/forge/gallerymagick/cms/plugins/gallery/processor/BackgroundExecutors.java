@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors of the background image processing tasks, shared by all the processors in the JVM as a processor
+ * is created per user session.
+ * <P>
+ * Each executor is created on the first call by the number of threads of the first caller, runs daemon threads
+ * named <code>gallery-magick-&lt;name&gt;-&lt;n&gt;</code>, and lets idle threads time out.
+ * </P>
+ */
+final class BackgroundExecutors {
+
+    /**
+     * Name of the bounded executor rendering image variants.
+     */
+    static final String VARIANT = "variant";
+
+    /**
+     * Name of the executor running the background metadata extraction tasks.
+     */
+    static final String METADATA = "metadata";
+
+    /**
+     * Name of the executor running the background deferred image variant generation tasks.
+     */
+    static final String DEFERRED = "deferred";
+
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    private static final ConcurrentMap<String, ExecutorService> executors = new ConcurrentHashMap<>();
+
+    private BackgroundExecutors() {
+    }
+
+    /**
+     * Returns the bounded executor rendering image variants, running the task in the caller thread if the queue
+     * is full.
+     */
+    static ExecutorService getVariantExecutor(final int threads) {
+        return executors.computeIfAbsent(VARIANT, name -> {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(threads * 16), newDaemonThreadFactory(name),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+    }
+
+    /**
+     * Returns the scheduled executor by the {@code name}, {@link #METADATA} or {@link #DEFERRED}.
+     */
+    static ScheduledExecutorService getScheduledExecutor(final String name, final int threads) {
+        return (ScheduledExecutorService) executors.computeIfAbsent(name, key -> {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads,
+                    newDaemonThreadFactory(key));
+            executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+    }
+
+    /**
+     * Stops all the executors, interrupting the running tasks. An executor is created again on the next call.
+     */
+    static void shutdownNow() {
+        for (Iterator<ExecutorService> it = executors.values().iterator(); it.hasNext(); ) {
+            final ExecutorService executor = it.next();
+            it.remove();
+            executor.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory newDaemonThreadFactory(final String name) {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "gallery-magick-" + name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
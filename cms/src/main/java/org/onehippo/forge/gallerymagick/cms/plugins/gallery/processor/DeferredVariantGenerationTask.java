@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background task generating the deferred image variants of an uploaded image from the original image stored
+ * in the image set node, through a separate system session.
+ * <P>
+ * The first attempt is scheduled after the retry delay, giving the uploading session time to save the node.
+ * The job is removed from the {@link DeferredVariantJournal} when the task ends, except when it cannot be
+ * rescheduled because the executor is shut down, so the job is replayed on the next start.
+ * </P>
+ */
+class DeferredVariantGenerationTask extends AbstractRetryingSessionTask {
+
+    private static final Logger log = LoggerFactory.getLogger(DeferredVariantGenerationTask.class);
+
+    private final MagickCommandGalleryProcessor processor;
+
+    private final DeferredVariantJournal journal;
+
+    private final DeferredVariantJournal.Job job;
+
+    private final ScheduledExecutorService executor;
+
+    private List<String> generated;
+
+    DeferredVariantGenerationTask(final MagickCommandGalleryProcessor processor, final DeferredVariantJournal journal,
+            final DeferredVariantJournal.Job job, final Session session, final ScheduledExecutorService executor,
+            final int maxAttempts, final long retryDelay) {
+        super(session, executor, maxAttempts, retryDelay);
+        this.processor = processor;
+        this.journal = journal;
+        this.job = job;
+        this.executor = executor;
+    }
+
+    /**
+     * Schedules the first attempt after the retry delay, giving the uploading session time to save the node.
+     */
+    void schedule() {
+        executor.schedule(this, getRetryDelay(0), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void attempt(final Session session) throws Exception {
+        final Node node = session.getNodeByIdentifier(job.getNodeIdentifier());
+        generated = processor.regenerateImageVariants(node, job.getVariantNames());
+    }
+
+    @Override
+    protected String getDescription() {
+        return "generating the deferred image variant(s)";
+    }
+
+    @Override
+    protected String getNodePath() {
+        return job.getNodePath();
+    }
+
+    @Override
+    protected void succeeded() {
+        log.debug("Generated the deferred image variant(s), {}, at '{}' in {} attempt(s).", generated, getNodePath(),
+                getAttempts());
+        journal.remove(job);
+    }
+
+    @Override
+    protected boolean stopped() {
+        log.info("Stopped generating the deferred image variant(s) at '{}'. It is replayed on the next start.",
+                getNodePath());
+        return true;
+    }
+
+    @Override
+    protected void gaveUp() {
+        journal.remove(job);
+    }
+}
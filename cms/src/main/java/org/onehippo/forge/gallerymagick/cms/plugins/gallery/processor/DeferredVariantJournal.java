@@ -0,0 +1,249 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable journal of the image variants whose generation is deferred to the background after an upload.
+ * <P>
+ * Each job is written to its own file in the journal directory before it is queued, and the file is deleted
+ * when the job ends. So the jobs left in the directory after a restart are the unfinished ones, which are
+ * replayed once per JVM by {@link #beginReplay()}.
+ * </P>
+ */
+class DeferredVariantJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(DeferredVariantJournal.class);
+
+    private static final String JOB_FILE_SUFFIX = ".job";
+
+    private static final String NODE_IDENTIFIER = "nodeIdentifier";
+
+    private static final String NODE_PATH = "nodePath";
+
+    private static final String VARIANT_NAMES = "variantNames";
+
+    private static final String CREATED = "created";
+
+    private static final ConcurrentMap<File, DeferredVariantJournal> journals = new ConcurrentHashMap<>();
+
+    private final File directory;
+
+    private boolean replayed;
+
+    /**
+     * Creates a journal in the {@code directory}, e.g, to read it again as if the JVM restarted in tests.
+     * Use {@link #getInstance(File)} otherwise.
+     */
+    DeferredVariantJournal(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the journal in the {@code directory}, shared by all the processors in the JVM.
+     */
+    static DeferredVariantJournal getInstance(final File directory) {
+        return journals.computeIfAbsent(directory.getAbsoluteFile(), DeferredVariantJournal::new);
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes a job to generate the image variants of an image set node, durably before returning.
+     */
+    synchronized Job append(final String nodeIdentifier, final String nodePath, final Collection<String> variantNames)
+            throws IOException {
+        final Job job = new Job(new File(directory, UUID.randomUUID() + JOB_FILE_SUFFIX), nodeIdentifier, nodePath,
+                new ArrayList<>(variantNames), System.currentTimeMillis());
+        final Properties props = new Properties();
+        props.setProperty(NODE_IDENTIFIER, nodeIdentifier);
+        props.setProperty(NODE_PATH, nodePath);
+        props.setProperty(VARIANT_NAMES, String.join(",", variantNames));
+        props.setProperty(CREATED, Long.toString(job.getCreated()));
+
+        FileUtils.forceMkdir(directory);
+        final File tempFile = File.createTempFile(job.getFile().getName(), ".tmp", directory);
+
+        try {
+            try (FileOutputStream output = new FileOutputStream(tempFile)) {
+                props.store(output, "Gallery Magick deferred image variant generation job");
+                output.getFD().sync();
+            }
+
+            try {
+                Files.move(tempFile.toPath(), job.getFile().toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), job.getFile().toPath());
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+
+        syncDirectory();
+
+        log.debug("Journaled the deferred image variant(s), {}, of '{}' at '{}'.", variantNames, nodePath,
+                job.getFile());
+        return job;
+    }
+
+    /**
+     * Removes the job from the journal when it ends, successfully or not.
+     */
+    void remove(final Job job) {
+        if (job.getFile().isFile() && !job.getFile().delete()) {
+            log.warn("Failed to delete the deferred image variant generation job file, '{}'.", job.getFile());
+        }
+    }
+
+    /**
+     * Returns the unfinished jobs in the order of creation on the first call in the JVM, or an empty list afterward.
+     * The jobs appended by this JVM are never returned, as appending waits for the first call to end.
+     */
+    synchronized List<Job> beginReplay() {
+        if (replayed) {
+            return Collections.emptyList();
+        }
+
+        replayed = true;
+        final File [] files = directory.listFiles((dir, name) -> name.endsWith(JOB_FILE_SUFFIX));
+
+        if (files == null || files.length == 0) {
+            return Collections.emptyList();
+        }
+
+        final List<Job> jobs = new ArrayList<>();
+
+        for (File file : files) {
+            final Job job = readJob(file);
+
+            if (job != null) {
+                jobs.add(job);
+            } else {
+                log.warn("Deleting the invalid deferred image variant generation job file, '{}'.", file);
+                file.delete();
+            }
+        }
+
+        jobs.sort(Comparator.comparingLong(Job::getCreated));
+        return jobs;
+    }
+
+    /**
+     * Flushes the directory entries, so the renamed job file survives a crash as well as its content.
+     * Some platforms, e.g, Windows, cannot open a directory, where the directory is not flushed.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Cannot flush the deferred image variant journal directory, '{}': {}", directory, e.toString());
+        }
+    }
+
+    private static Job readJob(final File file) {
+        final Properties props = new Properties();
+
+        try (InputStream input = new FileInputStream(file)) {
+            props.load(input);
+        } catch (IOException e) {
+            log.warn("Failed to read the deferred image variant generation job file, '{}'.", file, e);
+            return null;
+        }
+
+        final String nodeIdentifier = props.getProperty(NODE_IDENTIFIER);
+        final String [] variantNames = StringUtils.split(props.getProperty(VARIANT_NAMES), ',');
+
+        if (StringUtils.isEmpty(nodeIdentifier) || variantNames == null || variantNames.length == 0) {
+            return null;
+        }
+
+        return new Job(file, nodeIdentifier, props.getProperty(NODE_PATH, nodeIdentifier), Arrays.asList(variantNames),
+                NumberUtils.toLong(props.getProperty(CREATED), file.lastModified()));
+    }
+
+    /**
+     * Journaled job to generate the deferred image variants of an image set node.
+     */
+    static class Job {
+
+        private final File file;
+
+        private final String nodeIdentifier;
+
+        private final String nodePath;
+
+        private final List<String> variantNames;
+
+        private final long created;
+
+        private Job(final File file, final String nodeIdentifier, final String nodePath,
+                final List<String> variantNames, final long created) {
+            this.file = file;
+            this.nodeIdentifier = nodeIdentifier;
+            this.nodePath = nodePath;
+            this.variantNames = Collections.unmodifiableList(variantNames);
+            this.created = created;
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        String getNodeIdentifier() {
+            return nodeIdentifier;
+        }
+
+        String getNodePath() {
+            return nodePath;
+        }
+
+        List<String> getVariantNames() {
+            return variantNames;
+        }
+
+        long getCreated() {
+            return created;
+        }
+    }
+}
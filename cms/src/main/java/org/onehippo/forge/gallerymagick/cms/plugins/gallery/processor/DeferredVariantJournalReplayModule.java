@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.onehippo.repository.modules.DaemonModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repository daemon module replaying the deferred image variant generation jobs left unfinished in the journal
+ * by the previous run as soon as the repository starts, without waiting for a CMS user to log in.
+ * <P>
+ * The jobs are queued to a {@link MagickCommandGalleryProcessor} created from the configuration node of
+ * {@link MagickCommandGalleryProcessorPlugin} at {@link #getPluginConfigPath()} by
+ * {@link ImageVariantRegenerationJob#createGalleryProcessor(javax.jcr.Node)}, and each job runs through a system
+ * session impersonated from the session of the module. Nothing is replayed if the deferred mode is disabled.
+ * </P>
+ */
+public class DeferredVariantJournalReplayModule implements DaemonModule {
+
+    private static final Logger log = LoggerFactory.getLogger(DeferredVariantJournalReplayModule.class);
+
+    /**
+     * The default path of the configuration node of {@link MagickCommandGalleryProcessorPlugin}.
+     */
+    public static final String DEFAULT_PLUGIN_CONFIG_PATH =
+            "/hippo:configuration/hippo:frontend/cms/cms-services/magickCommandGalleryProcessorService";
+
+    @Override
+    public void initialize(final Session session) throws RepositoryException {
+        final String pluginConfigPath = getPluginConfigPath();
+
+        if (!session.nodeExists(pluginConfigPath)) {
+            log.info("No gallery processor configuration at '{}'. Nothing to replay.", pluginConfigPath);
+            return;
+        }
+
+        final MagickCommandGalleryProcessor processor = ImageVariantRegenerationJob
+                .createGalleryProcessor(session.getNode(pluginConfigPath));
+
+        if (!processor.isDeferredVariantGeneration()) {
+            return;
+        }
+
+        final int queued = processor.replayDeferredVariantJournal(session);
+        log.debug("Queued {} deferred image variant generation job(s) on startup.", queued);
+    }
+
+    /**
+     * Stops the background tasks of all the processors in the JVM, leaving the unfinished deferred jobs in the journal
+     * to be replayed on the next start.
+     */
+    @Override
+    public void shutdown() {
+        MagickCommandGalleryProcessor.shutdownBackgroundTasks();
+    }
+
+    /**
+     * Returns the path of the configuration node of {@link MagickCommandGalleryProcessorPlugin},
+     * {@link #DEFAULT_PLUGIN_CONFIG_PATH} by default.
+     * @return the path of the configuration node of {@link MagickCommandGalleryProcessorPlugin}
+     */
+    protected String getPluginConfigPath() {
+        return DEFAULT_PLUGIN_CONFIG_PATH;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.hippoecm.repository.HippoStdNodeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background task extracting the metadata of an uploaded image from its own copy of the source image file
+ * and storing it in the image set node through a separate system session.
+ * <P>
+ * The metadata is extracted only once, and only storing it is retried.
+ * </P>
+ */
+class ImageMetadataExtractionTask extends AbstractRetryingSessionTask {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageMetadataExtractionTask.class);
+
+    private final MagickCommandGalleryProcessor processor;
+
+    private final String nodeIdentifier;
+
+    private final String nodePath;
+
+    private final File sourceFile;
+
+    private Map<String, Object> metadataProperties;
+
+    ImageMetadataExtractionTask(final MagickCommandGalleryProcessor processor, final String nodeIdentifier,
+            final String nodePath, final File sourceFile, final Session session, final ScheduledExecutorService executor,
+            final int maxAttempts, final long retryDelay) {
+        super(session, executor, maxAttempts, retryDelay);
+        this.processor = processor;
+        this.nodeIdentifier = nodeIdentifier;
+        this.nodePath = nodePath;
+        this.sourceFile = sourceFile;
+    }
+
+    @Override
+    protected void attempt(final Session session) throws Exception {
+        if (metadataProperties == null) {
+            final ImageProcessingEvent metadataEvent = ImageProcessingEvent
+                    .begin(ImageProcessingEvent.PHASE_METADATA, nodePath, null, processor.getBackendName());
+            metadataProperties = processor.extractImageMetadataProperties(sourceFile);
+            metadataEvent.commit(sourceFile, null, null);
+        }
+
+        final Node node = session.getNodeByIdentifier(nodeIdentifier);
+
+        if (!node.isNodeType(HippoStdNodeType.NT_RELAXED)) {
+            node.addMixin(HippoStdNodeType.NT_RELAXED);
+        }
+
+        for (Map.Entry<String, Object> entry : metadataProperties.entrySet()) {
+            MagickCommandGalleryProcessor.setMetadataProperty(node, entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    protected String getDescription() {
+        return "extracting or storing the image metadata";
+    }
+
+    @Override
+    protected String getNodePath() {
+        return nodePath;
+    }
+
+    @Override
+    protected void succeeded() {
+        log.debug("Stored the image metadata at '{}' in {} attempt(s).", nodePath, getAttempts());
+    }
+
+    /**
+     * Deletes the copy of the source image file and logs out the system session. Called only once when the task ends.
+     */
+    @Override
+    void dispose() {
+        MagickCommandGalleryProcessor.deleteTempFile(sourceFile);
+        super.dispose();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.command.SpooledSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processing context of an image upload, holding the spooled source image file and the image variants being
+ * rendered from it.
+ * <P>
+ * A context is bound to the image set node in {@link MagickCommandGalleryProcessor#makeImage} while the image variant
+ * nodes are initialized, so {@link MagickCommandGalleryProcessor#initGalleryResource} can look it up by the parent
+ * node of an image variant node, regardless of the thread.
+ * </P>
+ */
+class ImageProcessingContext {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageProcessingContext.class);
+
+    private static final ConcurrentMap<ContextKey, ImageProcessingContext> boundContexts = new ConcurrentHashMap<>();
+
+    private final SpooledSource source;
+
+    private final Map<String, CompletableFuture<RenderedImageVariant>> renderingVariants = new HashMap<>();
+
+    private Set<String> deferredVariantNames = Collections.emptySet();
+
+    private volatile ImageDimension sourceDimension;
+
+    private Binary sourceBinary;
+
+    private boolean sourceBinaryOwned;
+
+    ImageProcessingContext(final SpooledSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Binds the {@code context} to the image set node.
+     */
+    static void bind(final Node imageSetNode, final ImageProcessingContext context) throws RepositoryException {
+        boundContexts.put(new ContextKey(imageSetNode), context);
+    }
+
+    /**
+     * Unbinds the context from the image set node.
+     */
+    static void unbind(final Node imageSetNode) throws RepositoryException {
+        boundContexts.remove(new ContextKey(imageSetNode));
+    }
+
+    /**
+     * Returns the context bound to the image set node, or null if not bound.
+     */
+    static ImageProcessingContext lookup(final Node imageSetNode) throws RepositoryException {
+        return boundContexts.get(new ContextKey(imageSetNode));
+    }
+
+    /**
+     * Returns the spooled source image, with the length, the content digest and the format detected while spooling.
+     */
+    SpooledSource getSource() {
+        return source;
+    }
+
+    File getSourceFile() {
+        return source.getFile();
+    }
+
+    /**
+     * Returns the dimension of the source image file identified once for all the image variants, or null if unknown.
+     */
+    ImageDimension getSourceDimension() {
+        return sourceDimension;
+    }
+
+    void setSourceDimension(final ImageDimension sourceDimension) {
+        this.sourceDimension = sourceDimension;
+    }
+
+    /**
+     * Returns the binary of the source image file shared by all the image variants storing the source image as it is,
+     * or null if not created yet.
+     */
+    synchronized Binary getSourceBinary() {
+        return sourceBinary;
+    }
+
+    /**
+     * Sets the binary of the source image file shared by all the image variants storing the source image as it is.
+     * The binary is disposed with this context if {@code owned}.
+     */
+    synchronized void setSourceBinary(final Binary sourceBinary, final boolean owned) {
+        this.sourceBinary = sourceBinary;
+        this.sourceBinaryOwned = owned;
+    }
+
+    /**
+     * Sets the names of the image variants generated later in the background, which keep the original image
+     * as a placeholder until then.
+     */
+    void setDeferredVariantNames(final Collection<String> deferredVariantNames) {
+        this.deferredVariantNames = new HashSet<>(deferredVariantNames);
+    }
+
+    boolean isDeferredVariant(final String nodeName) {
+        return deferredVariantNames.contains(nodeName);
+    }
+
+    void addRenderingVariant(final String nodeName, final CompletableFuture<RenderedImageVariant> future) {
+        synchronized (renderingVariants) {
+            renderingVariants.put(nodeName, future);
+        }
+    }
+
+    /**
+     * Waits for the image variant to be rendered and returns it, or returns null if the image variant was not
+     * requested or if rendering it failed.
+     */
+    RenderedImageVariant takeRenderedVariant(final String nodeName) {
+        final CompletableFuture<RenderedImageVariant> future;
+
+        synchronized (renderingVariants) {
+            future = renderingVariants.remove(nodeName);
+        }
+
+        if (future == null) {
+            return null;
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            deleteWhenRendered(future);
+            log.warn("Interrupted while waiting for the image variant, '{}'.", nodeName);
+        } catch (ExecutionException e) {
+            log.warn("Failed to render the image variant, '{}'.", nodeName, e.getCause());
+        }
+
+        return null;
+    }
+
+    /**
+     * Deletes all the image variant files which have not been taken, as soon as they are rendered,
+     * and disposes the source binary if owned.
+     */
+    void dispose() {
+        synchronized (this) {
+            if (sourceBinary != null && sourceBinaryOwned) {
+                sourceBinary.dispose();
+            }
+
+            sourceBinary = null;
+        }
+
+        synchronized (renderingVariants) {
+            for (CompletableFuture<RenderedImageVariant> future : renderingVariants.values()) {
+                deleteWhenRendered(future);
+            }
+
+            renderingVariants.clear();
+        }
+    }
+
+    private static void deleteWhenRendered(final CompletableFuture<RenderedImageVariant> future) {
+        future.thenAccept(variant -> {
+            if (variant != null) {
+                log.debug("Deleting the unused rendered image variant file at '{}'.", variant.getFile());
+                MagickCommandGalleryProcessor.deleteTempFile(variant.getFile());
+            }
+        });
+    }
+
+    /**
+     * Key of a bound context, identifying the image set node by its session and path.
+     */
+    private static class ContextKey {
+
+        private final Session session;
+
+        private final String path;
+
+        private ContextKey(final Node imageSetNode) throws RepositoryException {
+            session = imageSetNode.getSession();
+            path = imageSetNode.getPath();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContextKey)) {
+                return false;
+            }
+
+            final ContextKey other = (ContextKey) o;
+            return session == other.session && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(session) + path.hashCode();
+        }
+    }
+}
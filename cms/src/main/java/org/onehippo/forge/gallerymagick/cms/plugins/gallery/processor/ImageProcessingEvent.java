@@ -0,0 +1,171 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.File;
+
+import javax.jcr.Node;
+
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event spanning a phase of processing an uploaded image in {@link MagickCommandGalleryProcessor}.
+ * <P>
+ * Usage: <code>ImageProcessingEvent event = ImageProcessingEvent.begin(PHASE_RESIZE, node, variantName, backend);</code>
+ * before the phase, and <code>event.commit(sourceFile, targetFile, dimension);</code> after it.
+ * Nothing but the event instance is created if the event is not recorded.
+ * </P>
+ */
+@Name(ImageProcessingEvent.NAME)
+@Label("Image Processing Phase")
+@Description("A phase of processing an uploaded image")
+@Category({ "Gallery Magick", "Image Processing" })
+@StackTrace(false)
+class ImageProcessingEvent extends Event {
+
+    static final String NAME = "org.onehippo.forge.gallerymagick.ImageProcessing";
+
+    /**
+     * Spooling the uploaded image data to a temporary file.
+     */
+    static final String PHASE_SPOOL = "spool";
+
+    /**
+     * Extracting the image metadata.
+     */
+    static final String PHASE_METADATA = "metadata";
+
+    /**
+     * Resizing the source image to an image variant.
+     */
+    static final String PHASE_RESIZE = "resize";
+
+    /**
+     * Identifying the dimension of a resized or original image.
+     */
+    static final String PHASE_IDENTIFY = "identify";
+
+    /**
+     * Creating the JCR binary of an image variant.
+     */
+    static final String PHASE_BINARY = "binary";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Node Path")
+    String nodePath;
+
+    @Label("Variant Name")
+    String variantName;
+
+    @Label("Backend")
+    String backend;
+
+    @Label("Source Size")
+    @DataAmount
+    long sourceSize;
+
+    @Label("Target Size")
+    @DataAmount
+    long targetSize;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    /**
+     * Creates and begins an event of the {@code phase}.
+     * @param phase phase name
+     * @param node (optional) node being processed
+     * @param variantName (optional) image variant name
+     * @param backend (optional) backend name
+     * @return the begun event
+     */
+    static ImageProcessingEvent begin(final String phase, final Node node, final String variantName,
+            final String backend) {
+        final ImageProcessingEvent event = begin(phase, (String) null, variantName, backend);
+
+        if (event.isEnabled()) {
+            event.nodePath = getPathQuietly(node);
+        }
+
+        return event;
+    }
+
+    /**
+     * Creates and begins an event of the {@code phase} for the node at {@code nodePath}.
+     * @param phase phase name
+     * @param nodePath (optional) path of the node being processed
+     * @param variantName (optional) image variant name
+     * @param backend (optional) backend name
+     * @return the begun event
+     */
+    static ImageProcessingEvent begin(final String phase, final String nodePath, final String variantName,
+            final String backend) {
+        final ImageProcessingEvent event = new ImageProcessingEvent();
+
+        if (event.isEnabled()) {
+            event.phase = phase;
+            event.nodePath = nodePath;
+            event.variantName = variantName;
+            event.backend = backend;
+            event.begin();
+        }
+
+        return event;
+    }
+
+    /**
+     * Ends and commits this event if it is to be recorded, with the sizes of the files and the image dimension.
+     * @param sourceFile (optional) source file of the phase
+     * @param targetFile (optional) target file of the phase
+     * @param dimension (optional) image dimension resulting from the phase
+     */
+    void commit(final File sourceFile, final File targetFile, final ImageDimension dimension) {
+        end();
+
+        if (shouldCommit()) {
+            sourceSize = (sourceFile != null) ? sourceFile.length() : 0L;
+            targetSize = (targetFile != null) ? targetFile.length() : 0L;
+
+            if (dimension != null) {
+                width = dimension.getWidth();
+                height = dimension.getHeight();
+            }
+
+            commit();
+        }
+    }
+
+    private static String getPathQuietly(final Node node) {
+        try {
+            return (node != null) ? node.getPath() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,764 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.Value;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.hippoecm.frontend.plugins.gallery.imageutil.ScalingParameters;
+import org.hippoecm.repository.HippoStdNodeType;
+import org.hippoecm.repository.api.HippoNodeType;
+import org.hippoecm.repository.gallery.HippoGalleryNodeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Job regenerating the image variants of the existing image sets under a gallery folder by
+ * {@link MagickCommandGalleryProcessor#regenerateImageVariants(Node, Collection)}, e.g, after changing the scaling
+ * parameters of an image variant or adding a new image variant.
+ * <P>
+ * The job walks the gallery folder in the document order with the given session, and the image sets are processed
+ * in parallel by {@link #getWorkers()} workers, each saving its own session every {@link #getBatchSize()} image sets.
+ * After each save, the path of the last image set up to which all the image sets are saved is stored in
+ * the {@link #getCheckpointFile() checkpoint file} if set, so a job stopped or failed in the middle resumes after it
+ * in the next run. The checkpoint never advances past a failed image set, so the next run retries it.
+ * The checkpoint file is deleted when the job completes without any failed image set.
+ * </P>
+ * <P>
+ * The progress, throughput and estimated remaining time are logged every {@link #getProgressInterval()} milliseconds,
+ * and available through the getters while running. The job depends only on the JCR API, so it can be run
+ * by an updater script in the CMS, or against an in-memory repository.
+ * </P>
+ */
+public class ImageVariantRegenerationJob implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageVariantRegenerationJob.class);
+
+    /**
+     * The default number of workers processing image sets in parallel.
+     */
+    public static final int DEFAULT_WORKERS = 4;
+
+    /**
+     * The default number of image sets saved at once by a worker.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * The default interval in milliseconds between progress logs.
+     */
+    public static final long DEFAULT_PROGRESS_INTERVAL = 30000L;
+
+    private static final String CHECKPOINT_ROOT_PATH = "rootPath";
+
+    private static final String CHECKPOINT_LAST_PATH = "lastPath";
+
+    /**
+     * Queue item telling a worker that there is no more image set.
+     */
+    private static final Item END_OF_ITEMS = new Item(-1L, null);
+
+    private final Session session;
+
+    private final MagickCommandGalleryProcessor processor;
+
+    private final String rootPath;
+
+    private int workers = DEFAULT_WORKERS;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+    private Collection<String> variantNames;
+
+    private File checkpointFile;
+
+    private volatile boolean running;
+
+    private volatile boolean stopRequested;
+
+    private volatile long totalCount;
+
+    private volatile long startNanos;
+
+    private final AtomicLong processedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong lastProgressNanos = new AtomicLong();
+
+    /**
+     * Paths of the image sets saved by the workers, by sequence, after the next sequence not saved yet.
+     */
+    private final TreeMap<Long, String> donePaths = new TreeMap<>();
+
+    private long nextUndoneSequence;
+
+    /**
+     * The sequence of the first image set failed in the document order, which the checkpoint never advances past.
+     */
+    private long firstFailedSequence;
+
+    private String checkpointPath;
+
+    /**
+     * Constructs a job.
+     * @param session session to walk the gallery folder, also impersonated by the workers
+     * @param processor gallery processor regenerating the image variants
+     * @param rootPath path of the gallery folder, e.g, <code>/content/gallery</code>
+     */
+    public ImageVariantRegenerationJob(final Session session, final MagickCommandGalleryProcessor processor,
+            final String rootPath) {
+        this.session = session;
+        this.processor = processor;
+        this.rootPath = rootPath;
+    }
+
+    /**
+     * Creates a gallery processor for the job from the configuration node of {@link MagickCommandGalleryProcessorPlugin},
+     * e.g, <code>/hippo:configuration/hippo:frontend/cms/cms-services/magickCommandGalleryProcessorService</code>,
+     * reading the properties affecting the image variants and the variant generation. It is also used by
+     * {@link DeferredVariantJournalReplayModule} to replay the deferred image variant generation jobs.
+     * @param pluginConfigNode configuration node of the plugin
+     * @return a gallery processor for the job
+     * @throws RepositoryException if repository exception occurs
+     */
+    public static MagickCommandGalleryProcessor createGalleryProcessor(final Node pluginConfigNode)
+            throws RepositoryException {
+        final Map<String, ScalingParameters> scalingParametersMap = new HashMap<>();
+        final Map<String, String> variantBackends = new HashMap<>();
+
+        for (NodeIterator it = pluginConfigNode.getNodes(); it.hasNext(); ) {
+            final Node childConfigNode = it.nextNode();
+            final String nodeName = childConfigNode.getName();
+            final ScalingParameters.Builder builder = new ScalingParameters.Builder(
+                    (int) getLongProperty(childConfigNode, "width", 0L),
+                    (int) getLongProperty(childConfigNode, "height", 0L));
+
+            if (getBooleanProperty(childConfigNode, MagickCommandGalleryProcessorPlugin.UPSCALING, true)) {
+                builder.upscaling();
+            }
+
+            scalingParametersMap.put(nodeName, builder.build());
+
+            final String variantBackend = getStringProperty(childConfigNode,
+                    MagickCommandGalleryProcessorPlugin.BACKEND, null);
+
+            if (StringUtils.isNotEmpty(variantBackend)) {
+                variantBackends.put(nodeName, variantBackend);
+            }
+        }
+
+        final MagickCommandGalleryProcessor processor = new MagickCommandGalleryProcessor(
+                getStringProperty(pluginConfigNode, MagickCommandGalleryProcessorPlugin.MAGICK_IMAGE_PROCESSOR, null),
+                scalingParametersMap);
+        processor.setParallelVariantGeneration(getBooleanProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.PARALLEL_VARIANT_GENERATION, false));
+        processor.setStreamingVariantGeneration(getBooleanProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.STREAMING_VARIANT_GENERATION, false));
+        processor.setVariantGenerationThreads((int) getLongProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.VARIANT_GENERATION_THREADS, processor.getVariantGenerationThreads()));
+        processor.setResizeCacheDirectory(getStringProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.RESIZE_CACHE_DIRECTORY, null));
+        processor.setResizeCacheMaxSize(getLongProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.RESIZE_CACHE_MAX_SIZE, processor.getResizeCacheMaxSize()));
+        processor.setBackend(getStringProperty(pluginConfigNode, MagickCommandGalleryProcessorPlugin.BACKEND,
+                processor.getBackend()));
+        variantBackends.forEach(processor::setVariantBackend);
+        processor.setDeferredVariantGeneration(getBooleanProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.DEFERRED_VARIANT_GENERATION, false));
+
+        if (pluginConfigNode.hasProperty(MagickCommandGalleryProcessorPlugin.PRIORITY_VARIANTS)) {
+            processor.setPriorityVariants(
+                    getStringValues(pluginConfigNode, MagickCommandGalleryProcessorPlugin.PRIORITY_VARIANTS));
+        }
+
+        processor.setDeferredJournalDirectory(getStringProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.DEFERRED_JOURNAL_DIRECTORY, null));
+        processor.setDeferredVariantGenerationThreads((int) getLongProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.DEFERRED_VARIANT_GENERATION_THREADS,
+                processor.getDeferredVariantGenerationThreads()));
+        processor.setDeferredVariantGenerationMaxAttempts((int) getLongProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.DEFERRED_VARIANT_GENERATION_MAX_ATTEMPTS,
+                processor.getDeferredVariantGenerationMaxAttempts()));
+        processor.setDeferredVariantGenerationRetryDelay(getLongProperty(pluginConfigNode,
+                MagickCommandGalleryProcessorPlugin.DEFERRED_VARIANT_GENERATION_RETRY_DELAY,
+                processor.getDeferredVariantGenerationRetryDelay()));
+
+        return processor;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Returns the names of the image variants to regenerate, or null if all the image variants are regenerated.
+     * @return the names of the image variants to regenerate, or null if all the image variants are regenerated
+     */
+    public Collection<String> getVariantNames() {
+        return variantNames;
+    }
+
+    public void setVariantNames(Collection<String> variantNames) {
+        this.variantNames = variantNames;
+    }
+
+    /**
+     * Returns the checkpoint file to resume from, or null if the job is not resumable.
+     * @return the checkpoint file to resume from, or null if the job is not resumable
+     */
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Returns true if the job is running.
+     * @return true if the job is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Requests the running job to stop after the image sets being processed are saved, so it can be resumed
+     * from the checkpoint.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Returns the number of image sets to process in the current or last run, excluding the ones skipped by resuming.
+     * @return the number of image sets to process in the current or last run
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the number of image sets regenerated and saved in the current or last run.
+     * @return the number of image sets regenerated and saved in the current or last run
+     */
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * Returns the number of image sets failed in the current or last run.
+     * @return the number of image sets failed in the current or last run
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Returns the number of image sets done per second in the current or last run.
+     * @return the number of image sets done per second in the current or last run
+     */
+    public double getThroughput() {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        if (startNanos == 0L || elapsedNanos <= 0L) {
+            return 0.0;
+        }
+
+        return (getProcessedCount() + getFailedCount()) * (double) TimeUnit.SECONDS.toNanos(1L) / elapsedNanos;
+    }
+
+    /**
+     * Returns the estimated remaining time in milliseconds by the throughput, or -1 if unknown yet.
+     * @return the estimated remaining time in milliseconds, or -1 if unknown yet
+     */
+    public long getEstimatedRemainingTime() {
+        final double throughput = getThroughput();
+
+        if (throughput <= 0.0) {
+            return -1L;
+        }
+
+        final long remaining = Math.max(0L, totalCount - getProcessedCount() - getFailedCount());
+        return (long) (remaining * 1000.0 / throughput);
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        stopRequested = false;
+        processedCount.set(0L);
+        failedCount.set(0L);
+        donePaths.clear();
+        nextUndoneSequence = 0L;
+        firstFailedSequence = Long.MAX_VALUE;
+        checkpointPath = null;
+
+        final List<Session> workerSessions = new ArrayList<>();
+        ExecutorService executor = null;
+
+        try {
+            final Node rootNode = session.getNode(rootPath);
+            final String resumePath = readCheckpoint();
+
+            totalCount = walk(rootNode, resumePath, null, new AtomicLong());
+            startNanos = System.nanoTime();
+            lastProgressNanos.set(startNanos);
+            log.info("Regenerating the image variants of {} image set(s) under '{}' by {} worker(s){}.", totalCount,
+                    rootPath, workers, (resumePath != null) ? ", resuming after '" + resumePath + "'" : "");
+
+            for (int i = 0; i < workers; i++) {
+                workerSessions.add(session.impersonate(new SimpleCredentials(session.getUserID(), new char[] {})));
+            }
+
+            final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(2 * workers);
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(workers, runnable -> {
+                final Thread thread = new Thread(runnable, "gallery-magick-regeneration-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            for (Session workerSession : workerSessions) {
+                executor.execute(new Worker(workerSession, queue));
+            }
+
+            try {
+                walk(rootNode, resumePath, queue, new AtomicLong());
+            } finally {
+                for (int i = 0; i < workers; i++) {
+                    queue.put(END_OF_ITEMS);
+                }
+
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+
+            logProgress();
+
+            if (stopRequested) {
+                log.info("Stopped regenerating the image variants under '{}'. Resumable after '{}'.", rootPath,
+                        getCheckpointPath());
+            } else if (getFailedCount() > 0L) {
+                log.warn("Completed regenerating the image variants under '{}' with {} failed image set(s). "
+                        + "Resumable after '{}'.", rootPath, getFailedCount(), getCheckpointPath());
+            } else {
+                deleteCheckpoint();
+                log.info("Completed regenerating the image variants under '{}'.", rootPath);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopRequested = true;
+            log.warn("Interrupted while regenerating the image variants under '{}'.", rootPath);
+        } catch (RepositoryException e) {
+            log.error("Failed to regenerate the image variants under '{}'.", rootPath, e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+
+            workerSessions.forEach(Session::logout);
+            running = false;
+        }
+    }
+
+    /**
+     * Walks the image sets under {@code node} in the document order, skipping the ones up to {@code resumePath}
+     * if not null, and puts each of them in {@code queue} if not null, and returns the number of the image sets found.
+     */
+    private long walk(final Node node, final String resumePath, final BlockingQueue<Item> queue,
+            final AtomicLong sequence) throws RepositoryException, InterruptedException {
+        boolean resuming = resumePath != null;
+
+        for (NodeIterator it = node.getNodes(); it.hasNext() && !stopRequested; ) {
+            final Node child = it.nextNode();
+
+            if (child == null) {
+                continue;
+            }
+
+            final String childPath = child.getPath();
+
+            if (resuming) {
+                if (childPath.equals(resumePath)) {
+                    resuming = false;
+                    continue;
+                }
+
+                if (!resumePath.startsWith(childPath + "/")) {
+                    // every image set in this subtree precedes the checkpoint.
+                    continue;
+                }
+            }
+
+            if (child.isNodeType(HippoGalleryNodeType.IMAGE_SET)) {
+                final long seq = sequence.getAndIncrement();
+
+                if (queue != null) {
+                    queue.put(new Item(seq, childPath));
+                }
+            } else if (child.isNodeType(HippoStdNodeType.NT_FOLDER) || child.isNodeType(HippoStdNodeType.NT_DIRECTORY)
+                    || child.isNodeType(HippoNodeType.NT_HANDLE)) {
+                walk(child, resuming ? resumePath : null, queue, sequence);
+                resuming = false;
+            }
+        }
+
+        return sequence.get();
+    }
+
+    /**
+     * Marks the image sets done, advances the checkpoint to the last one up to which all the image sets are saved,
+     * and logs the progress if due. A failed image set stops the checkpoint before it, so the paths after it
+     * are not kept any more.
+     */
+    private void done(final List<Item> items, final boolean succeeded) {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        (succeeded ? processedCount : failedCount).addAndGet(items.size());
+
+        synchronized (donePaths) {
+            for (Item item : items) {
+                if (!succeeded) {
+                    firstFailedSequence = Math.min(firstFailedSequence, item.getSequence());
+                    donePaths.tailMap(firstFailedSequence).clear();
+                } else if (item.getSequence() < firstFailedSequence) {
+                    donePaths.put(item.getSequence(), item.getPath());
+                }
+            }
+
+            String lastPath = null;
+
+            while (!donePaths.isEmpty() && donePaths.firstKey() == nextUndoneSequence) {
+                lastPath = donePaths.pollFirstEntry().getValue();
+                ++nextUndoneSequence;
+            }
+
+            if (lastPath != null) {
+                checkpointPath = lastPath;
+                writeCheckpoint(lastPath);
+            }
+        }
+
+        final long now = System.nanoTime();
+        final long last = lastProgressNanos.get();
+
+        if (now - last >= TimeUnit.MILLISECONDS.toNanos(progressInterval) && lastProgressNanos.compareAndSet(last, now)) {
+            logProgress();
+        }
+    }
+
+    private String getCheckpointPath() {
+        synchronized (donePaths) {
+            return checkpointPath;
+        }
+    }
+
+    private void logProgress() {
+        final long remainingTime = getEstimatedRemainingTime();
+        log.info("Regenerated the image variants of {} of {} image set(s) under '{}', {} failed, {} image set(s)/s, ETA {}.",
+                getProcessedCount() + getFailedCount(), totalCount, rootPath, getFailedCount(),
+                String.format("%.2f", getThroughput()),
+                (remainingTime >= 0L) ? DurationFormatUtils.formatDuration(remainingTime, "HH:mm:ss") : "unknown");
+    }
+
+    /**
+     * Reads the checkpoint path to resume after, or returns null if there is no valid checkpoint for the root path.
+     */
+    private String readCheckpoint() throws RepositoryException {
+        if (checkpointFile == null || !checkpointFile.isFile()) {
+            return null;
+        }
+
+        final Properties checkpoint = new Properties();
+
+        try (InputStream input = new FileInputStream(checkpointFile)) {
+            checkpoint.load(input);
+        } catch (IOException e) {
+            log.warn("Failed to read the checkpoint file, '{}'. Starting from the beginning.", checkpointFile, e);
+            return null;
+        }
+
+        final String lastPath = checkpoint.getProperty(CHECKPOINT_LAST_PATH);
+
+        if (!rootPath.equals(checkpoint.getProperty(CHECKPOINT_ROOT_PATH)) || StringUtils.isEmpty(lastPath)) {
+            log.info("The checkpoint file, '{}', is not for '{}'. Starting from the beginning.", checkpointFile,
+                    rootPath);
+            return null;
+        }
+
+        if (!lastPath.startsWith(rootPath + "/") || !session.nodeExists(lastPath)) {
+            log.warn("The checkpoint, '{}', does not exist under '{}' any more. Starting from the beginning.",
+                    lastPath, rootPath);
+            return null;
+        }
+
+        return lastPath;
+    }
+
+    private void writeCheckpoint(final String lastPath) {
+        if (checkpointFile == null) {
+            return;
+        }
+
+        final Properties checkpoint = new Properties();
+        checkpoint.setProperty(CHECKPOINT_ROOT_PATH, rootPath);
+        checkpoint.setProperty(CHECKPOINT_LAST_PATH, lastPath);
+        File tempFile = null;
+
+        try {
+            final File folder = checkpointFile.getAbsoluteFile().getParentFile();
+            FileUtils.forceMkdir(folder);
+            tempFile = File.createTempFile(checkpointFile.getName(), ".tmp", folder);
+
+            try (OutputStream output = new FileOutputStream(tempFile)) {
+                checkpoint.store(output, "Gallery Magick image variant regeneration checkpoint");
+            }
+
+            try {
+                Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            tempFile = null;
+        } catch (IOException e) {
+            log.warn("Failed to write the checkpoint file, '{}'.", checkpointFile, e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private void deleteCheckpoint() {
+        if (checkpointFile != null && checkpointFile.isFile() && !checkpointFile.delete()) {
+            log.warn("Failed to delete the checkpoint file, '{}'.", checkpointFile);
+        }
+    }
+
+    private static String getStringProperty(final Node node, final String name, final String defaultValue)
+            throws RepositoryException {
+        return node.hasProperty(name) ? StringUtils.trim(node.getProperty(name).getString()) : defaultValue;
+    }
+
+    private static List<String> getStringValues(final Node node, final String name) throws RepositoryException {
+        final Property property = node.getProperty(name);
+
+        if (!property.isMultiple()) {
+            return Collections.singletonList(StringUtils.trim(property.getString()));
+        }
+
+        final List<String> values = new ArrayList<>();
+
+        for (Value value : property.getValues()) {
+            values.add(StringUtils.trim(value.getString()));
+        }
+
+        return values;
+    }
+
+    private static long getLongProperty(final Node node, final String name, final long defaultValue)
+            throws RepositoryException {
+        return node.hasProperty(name) ? node.getProperty(name).getLong() : defaultValue;
+    }
+
+    private static boolean getBooleanProperty(final Node node, final String name, final boolean defaultValue)
+            throws RepositoryException {
+        return node.hasProperty(name) ? node.getProperty(name).getBoolean() : defaultValue;
+    }
+
+    /**
+     * Worker regenerating the image variants of the image sets taken from the queue through its own session,
+     * saving every batch. If an image set fails, the unsaved changes of the batch are discarded, and the other
+     * image sets of the batch are regenerated and saved one by one.
+     */
+    private class Worker implements Runnable {
+
+        private final Session workerSession;
+
+        private final BlockingQueue<Item> queue;
+
+        private final List<Item> pending = new ArrayList<>();
+
+        private Worker(final Session workerSession, final BlockingQueue<Item> queue) {
+            this.workerSession = workerSession;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Item item;
+
+                while ((item = queue.take()) != END_OF_ITEMS) {
+                    try {
+                        regenerate(item);
+                        pending.add(item);
+                    } catch (Exception e) {
+                        log.warn("Failed to regenerate the image variants at '{}'.", item.getPath(), e);
+                        refreshQuietly();
+                        done(Collections.singletonList(item), false);
+                        retryPendingOneByOne();
+                    }
+
+                    if (pending.size() >= batchSize) {
+                        savePending();
+                    }
+                }
+
+                savePending();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void regenerate(final Item item) throws Exception {
+            processor.regenerateImageVariants(workerSession.getNode(item.getPath()), variantNames);
+        }
+
+        private void savePending() {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            try {
+                workerSession.save();
+                done(new ArrayList<>(pending), true);
+                pending.clear();
+            } catch (Exception e) {
+                log.warn("Failed to save the image variants of {} image set(s). Retrying one by one: {}",
+                        pending.size(), e.toString());
+                refreshQuietly();
+                retryPendingOneByOne();
+            }
+        }
+
+        private void retryPendingOneByOne() {
+            final List<Item> items = new ArrayList<>(pending);
+            pending.clear();
+
+            for (Item item : items) {
+                boolean succeeded = false;
+
+                try {
+                    regenerate(item);
+                    workerSession.save();
+                    succeeded = true;
+                } catch (Exception e) {
+                    log.warn("Failed to regenerate the image variants at '{}'.", item.getPath(), e);
+                    refreshQuietly();
+                }
+
+                done(Collections.singletonList(item), succeeded);
+            }
+        }
+
+        private void refreshQuietly() {
+            try {
+                workerSession.refresh(false);
+            } catch (RepositoryException e) {
+                log.warn("Failed to refresh the session: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * Image set to process, with its sequence in the document order.
+     */
+    private static class Item {
+
+        private final long sequence;
+
+        private final String path;
+
+        private Item(final long sequence, final String path) {
+            this.sequence = sequence;
+            this.path = path;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        String getPath() {
+            return path;
+        }
+    }
+}
@@ -19,16 +19,31 @@ import java.awt.Dimension;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.nodetype.NodeDefinition;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -40,11 +55,28 @@ import org.hippoecm.frontend.plugins.gallery.model.GalleryException;
 import org.hippoecm.frontend.plugins.gallery.model.GalleryProcessor;
 import org.hippoecm.frontend.plugins.gallery.processor.AbstractGalleryProcessor;
 import org.hippoecm.repository.HippoStdNodeType;
+import org.hippoecm.repository.api.HippoNodeType;
 import org.hippoecm.repository.gallery.HippoGalleryNodeType;
 import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.ImageHeaderReader;
+import org.onehippo.forge.gallerymagick.core.ImageMetadataProfile;
+import org.onehippo.forge.gallerymagick.core.backend.GraphicsMagickBackend;
+import org.onehippo.forge.gallerymagick.core.backend.ImageMagickBackend;
+import org.onehippo.forge.gallerymagick.core.backend.ImageProcessingBackend;
+import org.onehippo.forge.gallerymagick.core.backend.ImageProcessingBackendRouter;
+import org.onehippo.forge.gallerymagick.core.backend.ScalrBackend;
+import org.onehippo.forge.gallerymagick.core.command.AbstractMagickCommand;
+import org.onehippo.forge.gallerymagick.core.command.CachingResizeOperation;
+import org.onehippo.forge.gallerymagick.core.command.GraphicsMagickCommand;
 import org.onehippo.forge.gallerymagick.core.command.GraphicsMagickCommandUtils;
+import org.onehippo.forge.gallerymagick.core.command.ImageMagickCommand;
 import org.onehippo.forge.gallerymagick.core.command.ImageMagickCommandUtils;
+import org.onehippo.forge.gallerymagick.core.command.MagickCommandMetrics;
 import org.onehippo.forge.gallerymagick.core.command.MagickExecuteException;
+import org.onehippo.forge.gallerymagick.core.command.MagickTempFileManager;
+import org.onehippo.forge.gallerymagick.core.command.ShrinkOnLoadUtils;
+import org.onehippo.forge.gallerymagick.core.command.SourceSpooler;
+import org.onehippo.forge.gallerymagick.core.command.SpooledSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,20 +85,67 @@ import org.slf4j.LoggerFactory;
  */
 public class MagickCommandGalleryProcessor extends AbstractGalleryProcessor {
 
+    /**
+     * Backend preference value to resize images by the configured Magick image processor as before,
+     * without routing through {@link ImageProcessingBackendRouter}.
+     */
+    public static final String BACKEND_MAGICK = "magick";
+
     private static final long serialVersionUID = 1L;
 
     private static final Logger log = LoggerFactory.getLogger(MagickCommandGalleryProcessor.class);
 
-    private static final String MAGICK_COMMAND_TEMP_FILE_PREFIX = "_magickproc";
+    private static final String MAGICK_COMMAND_TEMP_FILE_PREFIX = MagickTempFileManager.TEMP_FILE_PREFIX;
 
     private static final String GALLERY_MAGICK_METADATA_PROP_NAME = "gallerymagick.metadata";
 
-    private static final ThreadLocal<File> tlSourceDataFile = new ThreadLocal<>();
-
     private final Map<String, ScalingParameters> scalingParametersMap = new HashMap<>();
 
     private final String magickImageProcessor;
 
+    private boolean parallelVariantGeneration;
+
+    private boolean streamingVariantGeneration;
+
+    private int variantGenerationThreads = Runtime.getRuntime().availableProcessors();
+
+    private String resizeCacheDirectory;
+
+    private long resizeCacheMaxSize = CachingResizeOperation.DEFAULT_MAX_SIZE;
+
+    private transient volatile CachingResizeOperation resizeCache;
+
+    private transient volatile boolean resizeCacheInitialized;
+
+    private ImageMetadataProfile metadataProfile;
+
+    private boolean asyncMetadataExtraction;
+
+    private int metadataExtractionThreads = 1;
+
+    private int metadataExtractionMaxAttempts = 5;
+
+    private long metadataExtractionRetryDelay = 1000L;
+
+    private String backend = BACKEND_MAGICK;
+
+    private final Map<String, String> variantBackends = new HashMap<>();
+
+    private boolean deferredVariantGeneration;
+
+    private final Set<String> priorityVariants = new LinkedHashSet<>(
+            Collections.singleton(HippoGalleryNodeType.IMAGE_SET_THUMBNAIL));
+
+    private String deferredJournalDirectory;
+
+    private int deferredVariantGenerationThreads = 1;
+
+    private int deferredVariantGenerationMaxAttempts = 10;
+
+    private long deferredVariantGenerationRetryDelay = 1000L;
+
+    private transient volatile boolean deferredJournalDirectoryMissingLogged;
+
     public MagickCommandGalleryProcessor(final String magickImageProcessor, final Map<String, ScalingParameters> initScalingParametersMap) {
         this.magickImageProcessor = magickImageProcessor;
 
@@ -86,24 +165,57 @@ public class MagickCommandGalleryProcessor extends AbstractGalleryProcessor {
             throws GalleryException, RepositoryException {
         File sourceFile = null;
         InputStream sourceFileInput = null;
+        ImageProcessingContext context = null;
 
         try {
-            sourceFile = saveOriginalImageDataToFile(data, fileName);
-            extractAndSaveImageMetadata(node, sourceFile);
+            final ImageProcessingEvent spoolEvent = ImageProcessingEvent.begin(ImageProcessingEvent.PHASE_SPOOL, node,
+                    null, null);
+            final SpooledSource source = saveOriginalImageDataToFile(data, fileName);
+            sourceFile = source.getFile();
+            spoolEvent.commit(sourceFile, null, null);
+
+            context = new ImageProcessingContext(source);
+            final Set<String> deferredVariantNames = getDeferredVariantNames(mimeType);
+
+            if (deferredVariantNames.isEmpty()) {
+                submitImageVariants(context, mimeType, fileName, null);
+            } else {
+                final Set<String> priorityVariantNames = new LinkedHashSet<>(getScalingParametersMap().keySet());
+                priorityVariantNames.removeAll(deferredVariantNames);
+                context.setDeferredVariantNames(deferredVariantNames);
+                submitImageVariants(context, mimeType, fileName, priorityVariantNames);
+            }
+
+            if (isAsyncMetadataExtraction()) {
+                submitImageMetadataExtraction(node, sourceFile);
+            } else {
+                final ImageProcessingEvent metadataEvent = ImageProcessingEvent
+                        .begin(ImageProcessingEvent.PHASE_METADATA, node, null, getBackendName());
+                extractAndSaveImageMetadata(node, sourceFile);
+                metadataEvent.commit(sourceFile, null, null);
+            }
+
             sourceFileInput = new FileInputStream(sourceFile);
-            tlSourceDataFile.set(sourceFile);
+            ImageProcessingContext.bind(node, context);
             super.makeImage(node, sourceFileInput, mimeType, fileName);
+
+            if (!deferredVariantNames.isEmpty()) {
+                submitDeferredVariants(node, deferredVariantNames);
+            }
         } catch (IOException e) {
             throw new GalleryException(e.toString(), e);
         } finally {
-            tlSourceDataFile.remove();
+            if (context != null) {
+                ImageProcessingContext.unbind(node);
+                context.dispose();
+            }
 
             IOUtils.closeQuietly(sourceFileInput);
             IOUtils.closeQuietly(data);
 
             if (sourceFile != null) {
                 log.debug("Deleting the original image file at '{}'.", sourceFile);
-                sourceFile.delete();
+                deleteTempFile(sourceFile);
             }
         }
     }
@@ -111,44 +223,97 @@ public class MagickCommandGalleryProcessor extends AbstractGalleryProcessor {
     @Override
     public void initGalleryResource(final Node node, final InputStream data, final String mimeType,
             final String fileName, final Calendar lastModified) throws RepositoryException {
+        final String nodeName = node.getName();
+        final long startNanos = System.nanoTime();
+        boolean succeeded = false;
+
+        try {
+            doInitGalleryResource(node, data, mimeType, fileName, lastModified);
+            succeeded = true;
+        } finally {
+            MagickCommandMetrics.getDefaultInstance().recordVariant(nodeName, System.nanoTime() - startNanos,
+                    succeeded);
+        }
+    }
+
+    private void doInitGalleryResource(final Node node, final InputStream data, final String mimeType,
+            final String fileName, final Calendar lastModified) throws RepositoryException {
         node.setProperty("jcr:mimeType", mimeType);
         node.setProperty("jcr:lastModified", lastModified);
 
         final String nodeName = node.getName();
         boolean sourceFileCreated = false;
-        File sourceFile = tlSourceDataFile.get();
+        final ImageProcessingContext context = ImageProcessingContext.lookup(node.getParent());
+        SpooledSource source = (context != null) ? context.getSource() : null;
 
-        if (sourceFile == null) {
+        if (source == null) {
             // sourceFile can be null sometimes when a user clicks on 'Restore' button to restore thumbnail in UI.
             try {
-                sourceFile = saveOriginalImageDataToFile(data, fileName);
+                final ImageProcessingEvent spoolEvent = ImageProcessingEvent.begin(ImageProcessingEvent.PHASE_SPOOL,
+                        node, nodeName, null);
+                source = saveOriginalImageDataToFile(data, fileName);
                 sourceFileCreated = true;
+                spoolEvent.commit(source.getFile(), null, null);
             } catch (IOException e) {
                 throw new RuntimeException(e.toString(), e);
             }
         }
 
+        final File sourceFile = source.getFile();
+
         File targetFile = null;
         File targetTempFile = null;
+        ImageDimension targetDimension = null;
+
+        final RenderedImageVariant renderedVariant = (context != null) ? context.takeRenderedVariant(nodeName) : null;
 
-        if (MimeTypeHelper.isImageMimeType(mimeType)) {
+        if (renderedVariant != null) {
+            log.debug("Using the image variant file ('{}') rendered with dimension, {}.", renderedVariant.getFile(),
+                    renderedVariant.getDimension());
+            targetFile = renderedVariant.getFile();
+            targetDimension = renderedVariant.getDimension();
+        } else if (context != null && context.isDeferredVariant(nodeName)) {
+            log.debug("Storing the original image as a placeholder of the deferred image variant, '{}'.", nodeName);
+        } else if (MimeTypeHelper.isImageMimeType(mimeType)) {
             final ScalingParameters scalingParameters = getScalingParametersMap().get(nodeName);
 
             if (scalingParameters != null && scalingParameters.getWidth() > 0 && scalingParameters.getHeight() > 0) {
-                try {
-                    targetTempFile = File.createTempFile(
-                            MAGICK_COMMAND_TEMP_FILE_PREFIX + "_" + StringUtils.replace(nodeName, ":", "_"),
-                            "." + FilenameUtils.getExtension(fileName));
-
-                    ImageDimension dimension = ImageDimension.from(scalingParameters.getWidth(),
-                            scalingParameters.getHeight());
-                    log.debug("Resizing the original image file ('{}') to '{}' with dimension, {}.", sourceFile,
-                            targetTempFile, dimension);
-                    resizeImage(sourceFile, targetTempFile, dimension);
-                    targetFile = targetTempFile;
-                    targetTempFile = null;
-                } catch (Exception e) {
-                    log.warn("Scaling failed, using original image instead", e);
+                final ImageDimension dimension = getResizeGeometry(scalingParameters);
+                final ImageDimension sourceDimension = identifySourceDimension(context, sourceFile);
+                final ImageProcessingBackend selectedBackend = selectResizeBackend(nodeName, sourceFile,
+                        sourceDimension);
+
+                if (sourceDimension != null && sourceDimension.equals(dimension.resize(sourceDimension))) {
+                    log.debug("The original image file ('{}') is already within {}. So use original image", sourceFile,
+                            dimension);
+                } else if (isConfiguredMagickBackend(selectedBackend) && isStreamingVariant(fileName)
+                        && storeImageVariantByStreaming(node, sourceFile, dimension,
+                                predictResizedDimension(getSourceFormat(source), dimension, sourceDimension),
+                                FilenameUtils.getExtension(fileName))) {
+                    if (sourceFileCreated) {
+                        log.debug("Deleting the original source image file at '{}'.", sourceFile);
+                        deleteTempFile(sourceFile);
+                    }
+
+                    return;
+                } else {
+                    try {
+                        targetTempFile = createVariantTempFile(nodeName, fileName, source.getLength());
+
+                        log.debug("Resizing the original image file ('{}') to '{}' with dimension, {}.", sourceFile,
+                                targetTempFile, dimension);
+                        final ImageProcessingEvent resizeEvent = ImageProcessingEvent.begin(
+                                ImageProcessingEvent.PHASE_RESIZE, node, nodeName,
+                                (selectedBackend != null) ? selectedBackend.getName() : getBackendName());
+                        resizeImageByBackend(selectedBackend, sourceFile, targetTempFile, dimension, sourceDimension);
+                        targetDimension = getResizedDimension(getSourceFormat(source), targetTempFile, dimension,
+                                sourceDimension);
+                        resizeEvent.commit(sourceFile, targetTempFile, targetDimension);
+                        targetFile = targetTempFile;
+                        targetTempFile = null;
+                    } catch (Exception e) {
+                        log.warn("Scaling failed, using original image instead", e);
+                    }
                 }
             } else {
                 log.debug(
@@ -163,30 +328,60 @@ public class MagickCommandGalleryProcessor extends AbstractGalleryProcessor {
         InputStream imageFileIn = null;
         BufferedInputStream imageBufIn = null;
         Binary imageBinary = null;
+        // the source image is stored as it is, sharing the dimension and the binary with the other image variants.
+        final boolean passThrough = targetFile == null && context != null;
 
         try {
-            if (targetFile != null) {
-                dimension = identifyDimension(targetFile);
-                imageFileIn = new FileInputStream(targetFile);
+            final File storedFile = (targetFile != null) ? targetFile : sourceFile;
+
+            if (targetFile != null && targetDimension != null) {
+                dimension = targetDimension;
+            } else if (passThrough && context.getSourceDimension() != null) {
+                dimension = context.getSourceDimension();
             } else {
-                dimension = identifyDimension(sourceFile);
-                imageFileIn = new FileInputStream(sourceFile);
+                final ImageProcessingEvent identifyEvent = ImageProcessingEvent
+                        .begin(ImageProcessingEvent.PHASE_IDENTIFY, node, nodeName, getBackendName());
+                dimension = identifyDimension(storedFile);
+                identifyEvent.commit(storedFile, null, dimension);
+
+                if (passThrough) {
+                    context.setSourceDimension(dimension);
+                }
             }
 
-            imageBufIn = new BufferedInputStream(imageFileIn);
-            imageBinary = ResourceHelper.getValueFactory(node).createBinary(imageBufIn);
+            final ImageProcessingEvent binaryEvent = ImageProcessingEvent.begin(ImageProcessingEvent.PHASE_BINARY,
+                    node, nodeName, null);
 
-            log.debug("Storing an image binary at '{}' from file at '{}'.", node.getPath(),
-                    targetFile != null ? targetFile : sourceFile);
+            if (passThrough) {
+                synchronized (context) {
+                    imageBinary = context.getSourceBinary();
+
+                    if (imageBinary == null) {
+                        imageFileIn = new FileInputStream(storedFile);
+                        imageBufIn = new BufferedInputStream(imageFileIn);
+                        imageBinary = ResourceHelper.getValueFactory(node).createBinary(imageBufIn);
+                        context.setSourceBinary(imageBinary, true);
+                    } else {
+                        log.debug("Reusing the binary of the source image at '{}'.", node.getPath());
+                    }
+                }
+            } else {
+                imageFileIn = new FileInputStream(storedFile);
+                imageBufIn = new BufferedInputStream(imageFileIn);
+                imageBinary = ResourceHelper.getValueFactory(node).createBinary(imageBufIn);
+            }
+
+            log.debug("Storing an image binary at '{}' from file at '{}'.", node.getPath(), storedFile);
 
             node.setProperty("jcr:data", imageBinary);
             node.setProperty(HippoGalleryNodeType.IMAGE_WIDTH, (long) dimension.getWidth());
             node.setProperty(HippoGalleryNodeType.IMAGE_HEIGHT, (long) dimension.getHeight());
+            binaryEvent.commit(storedFile, null, dimension);
         } catch (IOException e) {
             log.error("Failed to store an image variant due to IO error.", e);
         } finally {
             try {
-                if (imageBinary != null) {
+                if (imageBinary != null && !passThrough) {
                     imageBinary.dispose();
                 }
             } catch (Exception ignore) {
@@ -197,21 +392,141 @@ public class MagickCommandGalleryProcessor extends AbstractGalleryProcessor {
 
             if (targetTempFile != null) {
                 log.debug("Deleting the temporary resized target image file at '{}'.", targetTempFile);
-                targetTempFile.delete();
+                deleteTempFile(targetTempFile);
             }
 
             if (targetFile != null) {
                 log.debug("Deleting the resized target image file at '{}'.", targetFile);
-                targetFile.delete();
+                deleteTempFile(targetFile);
             }
 
             if (sourceFileCreated && sourceFile != null) {
                 log.debug("Deleting the original source image file at '{}'.", sourceFile);
-                sourceFile.delete();
+                deleteTempFile(sourceFile);
             }
         }
     }
 
+    /**
+     * Regenerates the image variants of an existing image set node from its original image, e.g, after changing
+     * the scaling parameters of an image variant or adding a new image variant. An image variant node is added if it
+     * is missing but defined by the node type of the image set. The changes are not saved.
+     * @param imageSetNode image set node
+     * @param variantNames (optional) names of the image variants to regenerate. All the image variants having
+     *        scaling parameters except for the original if null or empty.
+     * @return the names of the regenerated image variants
+     * @throws GalleryException if the original image cannot be read
+     * @throws RepositoryException if repository exception occurs
+     */
+    public List<String> regenerateImageVariants(final Node imageSetNode, final Collection<String> variantNames)
+            throws GalleryException, RepositoryException {
+        final Node originalNode = imageSetNode.getNode(HippoGalleryNodeType.IMAGE_SET_ORIGINAL);
+        final String mimeType = originalNode.getProperty("jcr:mimeType").getString();
+        final String fileName = imageSetNode.hasProperty(HippoGalleryNodeType.IMAGE_SET_FILE_NAME)
+                ? imageSetNode.getProperty(HippoGalleryNodeType.IMAGE_SET_FILE_NAME).getString()
+                : imageSetNode.getName();
+        final List<String> regeneratedVariantNames = new ArrayList<>();
+
+        for (String variantName : getScalingParametersMap().keySet()) {
+            if (HippoGalleryNodeType.IMAGE_SET_ORIGINAL.equals(variantName)
+                    || (variantNames != null && !variantNames.isEmpty() && !variantNames.contains(variantName))) {
+                continue;
+            }
+
+            if (imageSetNode.hasNode(variantName)) {
+                regeneratedVariantNames.add(variantName);
+            } else if (isResourceChildNodeDefined(imageSetNode, variantName)) {
+                log.debug("Adding the missing image variant, '{}', at '{}'.", variantName, imageSetNode.getPath());
+                imageSetNode.addNode(variantName);
+                regeneratedVariantNames.add(variantName);
+            }
+        }
+
+        if (regeneratedVariantNames.isEmpty()) {
+            return regeneratedVariantNames;
+        }
+
+        File sourceFile = null;
+        Binary originalBinary = null;
+        InputStream originalInput = null;
+        ImageProcessingContext context = null;
+
+        try {
+            final ImageProcessingEvent spoolEvent = ImageProcessingEvent.begin(ImageProcessingEvent.PHASE_SPOOL,
+                    imageSetNode, null, null);
+            originalBinary = originalNode.getProperty("jcr:data").getBinary();
+            originalInput = originalBinary.getStream();
+            final SpooledSource source = saveOriginalImageDataToFile(originalInput, fileName);
+            sourceFile = source.getFile();
+            spoolEvent.commit(sourceFile, null, null);
+
+            context = new ImageProcessingContext(source);
+            context.setSourceDimension(getStoredDimension(originalNode));
+            context.setSourceBinary(originalBinary, false);
+            submitImageVariants(context, mimeType, fileName, regeneratedVariantNames);
+            ImageProcessingContext.bind(imageSetNode, context);
+
+            for (String variantName : regeneratedVariantNames) {
+                try (InputStream sourceFileInput = new FileInputStream(sourceFile)) {
+                    initGalleryResource(imageSetNode.getNode(variantName), sourceFileInput, mimeType, fileName,
+                            Calendar.getInstance());
+                }
+            }
+        } catch (IOException e) {
+            throw new GalleryException(e.toString(), e);
+        } finally {
+            if (context != null) {
+                ImageProcessingContext.unbind(imageSetNode);
+                context.dispose();
+            }
+
+            IOUtils.closeQuietly(originalInput);
+
+            if (originalBinary != null) {
+                originalBinary.dispose();
+            }
+
+            if (sourceFile != null) {
+                log.debug("Deleting the original image file at '{}'.", sourceFile);
+                deleteTempFile(sourceFile);
+            }
+        }
+
+        return regeneratedVariantNames;
+    }
+
+    /**
+     * Returns the dimension stored in the width and height properties of an image node, or null if not stored.
+     */
+    private static ImageDimension getStoredDimension(final Node imageNode) throws RepositoryException {
+        if (imageNode.hasProperty(HippoGalleryNodeType.IMAGE_WIDTH)
+                && imageNode.hasProperty(HippoGalleryNodeType.IMAGE_HEIGHT)) {
+            final long width = imageNode.getProperty(HippoGalleryNodeType.IMAGE_WIDTH).getLong();
+            final long height = imageNode.getProperty(HippoGalleryNodeType.IMAGE_HEIGHT).getLong();
+
+            if (width > 0L && height > 0L && width <= Integer.MAX_VALUE && height <= Integer.MAX_VALUE) {
+                return ImageDimension.from((int) width, (int) height);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns true if the node type of the image set node defines a child resource node named {@code variantName}.
+     */
+    private static boolean isResourceChildNodeDefined(final Node imageSetNode, final String variantName)
+            throws RepositoryException {
+        for (NodeDefinition childDef : imageSetNode.getPrimaryNodeType().getChildNodeDefinitions()) {
+            if (variantName.equals(childDef.getName()) && childDef.getDefaultPrimaryType() != null
+                    && childDef.getDefaultPrimaryType().isNodeType(HippoNodeType.NT_RESOURCE)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public Dimension getDesiredResourceDimension(Node resource) throws GalleryException, RepositoryException {
         String nodeName = resource.getName();
@@ -231,12 +546,346 @@ public class MagickCommandGalleryProcessor extends AbstractGalleryProcessor {
         return scalingParametersMap;
     }
 
+    /**
+     * Returns true if each image variant of an upload is resized by a separate command in parallel.
+     * @return true if each image variant of an upload is resized by a separate command in parallel
+     */
+    public boolean isParallelVariantGeneration() {
+        return parallelVariantGeneration;
+    }
+
+    /**
+     * Sets whether or not each image variant of an upload is resized by a separate command in parallel.
+     * If false, all the image variants of an upload are resized by a single command, decoding the original only once.
+     * @param parallelVariantGeneration whether or not each image variant of an upload is resized in parallel
+     */
+    public void setParallelVariantGeneration(boolean parallelVariantGeneration) {
+        this.parallelVariantGeneration = parallelVariantGeneration;
+    }
+
+    /**
+     * Returns true if the image variants in a streamable format are resized from the standard input to the standard
+     * output of a Magick process and stored directly into the repository, without temporary files.
+     * @return true if the image variants in a streamable format are resized without temporary files
+     */
+    public boolean isStreamingVariantGeneration() {
+        return streamingVariantGeneration;
+    }
+
+    /**
+     * Sets whether or not the image variants in a streamable format are resized from the standard input to the
+     * standard output of a Magick process and stored directly into the repository, without temporary files.
+     * Image variants in other formats, such as TIFF, are still resized through temporary files.
+     * @param streamingVariantGeneration whether or not the image variants are resized without temporary files
+     */
+    public void setStreamingVariantGeneration(boolean streamingVariantGeneration) {
+        this.streamingVariantGeneration = streamingVariantGeneration;
+    }
+
+    /**
+     * Returns the maximum number of threads rendering image variants in the background, shared in the JVM.
+     * @return the maximum number of threads rendering image variants in the background
+     */
+    public int getVariantGenerationThreads() {
+        return variantGenerationThreads;
+    }
+
+    /**
+     * Sets the maximum number of threads rendering image variants in the background, shared by all uploads in the JVM.
+     * @param variantGenerationThreads the maximum number of threads rendering image variants in the background
+     */
+    public void setVariantGenerationThreads(int variantGenerationThreads) {
+        this.variantGenerationThreads = Math.max(1, variantGenerationThreads);
+    }
+
+    /**
+     * Returns the path of the directory caching resized images, or null if resized images are not cached.
+     * @return the path of the directory caching resized images, or null if resized images are not cached
+     */
+    public String getResizeCacheDirectory() {
+        return resizeCacheDirectory;
+    }
+
+    /**
+     * Sets the path of the directory caching resized images. Resized images are not cached if blank.
+     * @param resizeCacheDirectory the path of the directory caching resized images
+     */
+    public void setResizeCacheDirectory(String resizeCacheDirectory) {
+        this.resizeCacheDirectory = StringUtils.trimToNull(resizeCacheDirectory);
+    }
+
+    /**
+     * Returns the maximum total size in bytes of the cached resized images.
+     * @return the maximum total size in bytes of the cached resized images
+     */
+    public long getResizeCacheMaxSize() {
+        return resizeCacheMaxSize;
+    }
+
+    /**
+     * Sets the maximum total size in bytes of the cached resized images.
+     * @param resizeCacheMaxSize the maximum total size in bytes of the cached resized images
+     */
+    public void setResizeCacheMaxSize(long resizeCacheMaxSize) {
+        this.resizeCacheMaxSize = resizeCacheMaxSize;
+    }
+
+    /**
+     * Returns the metadata profile extracted to the typed metadata properties of the gallery node,
+     * or null if all the metadata is extracted by <code>identify -verbose</code> to a single text property.
+     * @return the metadata profile, or null if all the metadata is extracted to a single text property
+     */
+    public ImageMetadataProfile getMetadataProfile() {
+        return metadataProfile;
+    }
+
+    public void setMetadataProfile(ImageMetadataProfile metadataProfile) {
+        this.metadataProfile = metadataProfile;
+    }
+
+    /**
+     * Returns true if the image metadata is extracted and stored by a background task, off the upload request.
+     * @return true if the image metadata is extracted and stored by a background task
+     */
+    public boolean isAsyncMetadataExtraction() {
+        return asyncMetadataExtraction;
+    }
+
+    /**
+     * Sets whether or not the image metadata is extracted and stored by a background task, off the upload request.
+     * The task extracts the metadata from its own copy of the uploaded image and stores it through a system session
+     * once the image set node is saved.
+     * @param asyncMetadataExtraction whether or not the image metadata is extracted by a background task
+     */
+    public void setAsyncMetadataExtraction(boolean asyncMetadataExtraction) {
+        this.asyncMetadataExtraction = asyncMetadataExtraction;
+    }
+
+    /**
+     * Returns the number of threads extracting image metadata in the background, shared by all uploads in the JVM.
+     * @return the number of threads extracting image metadata in the background
+     */
+    public int getMetadataExtractionThreads() {
+        return metadataExtractionThreads;
+    }
+
+    public void setMetadataExtractionThreads(int metadataExtractionThreads) {
+        this.metadataExtractionThreads = Math.max(1, metadataExtractionThreads);
+    }
+
+    /**
+     * Returns the maximum number of attempts of a background task to extract and store image metadata.
+     * @return the maximum number of attempts of a background task to extract and store image metadata
+     */
+    public int getMetadataExtractionMaxAttempts() {
+        return metadataExtractionMaxAttempts;
+    }
+
+    public void setMetadataExtractionMaxAttempts(int metadataExtractionMaxAttempts) {
+        this.metadataExtractionMaxAttempts = Math.max(1, metadataExtractionMaxAttempts);
+    }
+
+    /**
+     * Returns the delay in milliseconds before the second attempt of a background task to extract and store
+     * image metadata, doubled on each further attempt.
+     * @return the delay in milliseconds before the second attempt
+     */
+    public long getMetadataExtractionRetryDelay() {
+        return metadataExtractionRetryDelay;
+    }
+
+    public void setMetadataExtractionRetryDelay(long metadataExtractionRetryDelay) {
+        this.metadataExtractionRetryDelay = Math.max(0L, metadataExtractionRetryDelay);
+    }
+
+    /**
+     * Returns the default backend preference of the image variants: {@link #BACKEND_MAGICK} by default,
+     * {@link ImageProcessingBackendRouter#AUTO} to let the router pick a backend per image,
+     * or a backend name such as <code>scalr</code> to pick the backend whenever it supports the image format.
+     * @return the default backend preference of the image variants
+     */
+    public String getBackend() {
+        return backend;
+    }
+
+    public void setBackend(String backend) {
+        this.backend = StringUtils.defaultIfBlank(backend, BACKEND_MAGICK);
+    }
+
+    /**
+     * Returns the backend preferences per image variant name, overriding {@link #getBackend()}.
+     * @return the backend preferences per image variant name
+     */
+    public Map<String, String> getVariantBackends() {
+        return Collections.unmodifiableMap(variantBackends);
+    }
+
+    public void setVariantBackend(String variantName, String backend) {
+        if (StringUtils.isBlank(backend)) {
+            variantBackends.remove(variantName);
+        } else {
+            variantBackends.put(variantName, backend);
+        }
+    }
+
+    /**
+     * Returns true if only the {@link #getPriorityVariants() priority image variants} are generated during
+     * the upload request, and the other image variants are generated later in the background.
+     * @return true if the image variants other than the priority ones are generated in the background
+     */
+    public boolean isDeferredVariantGeneration() {
+        return deferredVariantGeneration;
+    }
+
+    /**
+     * Sets whether or not only the {@link #getPriorityVariants() priority image variants} are generated during
+     * the upload request. The other image variants keep the original image until a background task generates them
+     * from the original image once the image set node is saved. The background tasks are journaled in
+     * {@link #getDeferredJournalDirectory()}, so the unfinished ones are replayed after a restart. All the image variants
+     * are generated during the upload request if the journal directory is not set.
+     * @param deferredVariantGeneration whether or not the image variants other than the priority ones are generated
+     *        in the background
+     */
+    public void setDeferredVariantGeneration(boolean deferredVariantGeneration) {
+        this.deferredVariantGeneration = deferredVariantGeneration;
+    }
+
+    /**
+     * Returns the names of the image variants generated during the upload request in the deferred mode,
+     * <code>hippogallery:thumbnail</code> by default.
+     * @return the names of the image variants generated during the upload request in the deferred mode
+     */
+    public Set<String> getPriorityVariants() {
+        return Collections.unmodifiableSet(priorityVariants);
+    }
+
+    public void setPriorityVariants(Collection<String> priorityVariants) {
+        this.priorityVariants.clear();
+
+        if (priorityVariants != null) {
+            this.priorityVariants.addAll(priorityVariants);
+        }
+    }
+
+    /**
+     * Returns the directory of the journal of the deferred image variant generation jobs, which must be on a persistent
+     * file system, not cleared on restart. It is required in the deferred mode, so there is no default.
+     * @return the directory of the journal of the deferred image variant generation jobs, or null if not set
+     */
+    public String getDeferredJournalDirectory() {
+        return deferredJournalDirectory;
+    }
+
+    public void setDeferredJournalDirectory(String deferredJournalDirectory) {
+        this.deferredJournalDirectory = StringUtils.trimToNull(deferredJournalDirectory);
+    }
+
+    /**
+     * Returns the number of threads generating the deferred image variants in the background, shared by all uploads
+     * in the JVM.
+     * @return the number of threads generating the deferred image variants in the background
+     */
+    public int getDeferredVariantGenerationThreads() {
+        return deferredVariantGenerationThreads;
+    }
+
+    public void setDeferredVariantGenerationThreads(int deferredVariantGenerationThreads) {
+        this.deferredVariantGenerationThreads = Math.max(1, deferredVariantGenerationThreads);
+    }
+
+    /**
+     * Returns the maximum number of attempts of a background task to generate the deferred image variants.
+     * @return the maximum number of attempts of a background task to generate the deferred image variants
+     */
+    public int getDeferredVariantGenerationMaxAttempts() {
+        return deferredVariantGenerationMaxAttempts;
+    }
+
+    public void setDeferredVariantGenerationMaxAttempts(int deferredVariantGenerationMaxAttempts) {
+        this.deferredVariantGenerationMaxAttempts = Math.max(1, deferredVariantGenerationMaxAttempts);
+    }
+
+    /**
+     * Returns the delay in milliseconds before the first attempt of a background task to generate the deferred
+     * image variants and before retrying it, doubled on each further attempt.
+     * @return the delay in milliseconds before the first attempt
+     */
+    public long getDeferredVariantGenerationRetryDelay() {
+        return deferredVariantGenerationRetryDelay;
+    }
+
+    public void setDeferredVariantGenerationRetryDelay(long deferredVariantGenerationRetryDelay) {
+        this.deferredVariantGenerationRetryDelay = Math.max(0L, deferredVariantGenerationRetryDelay);
+    }
+
+    /**
+     * Queues the deferred image variant generation jobs left unfinished in the journal, e.g, by a restart.
+     * The journal is replayed only once in the JVM, and nothing is done on the further calls or if the deferred
+     * mode is disabled.
+     * @param session session to impersonate a system session for each job
+     * @return the number of the jobs queued
+     */
+    public int replayDeferredVariantJournal(Session session) {
+        if (!isDeferredVariantGeneration() || deferredJournalDirectory == null) {
+            return 0;
+        }
+
+        final DeferredVariantJournal journal = getDeferredVariantJournal();
+        final List<DeferredVariantJournal.Job> jobs = journal.beginReplay();
+        int queued = 0;
+
+        for (DeferredVariantJournal.Job job : jobs) {
+            Session systemSession = null;
+
+            try {
+                systemSession = session.impersonate(new SimpleCredentials("system", new char[] {}));
+                queueDeferredVariantJob(journal, job, systemSession);
+                ++queued;
+            } catch (Exception e) {
+                log.warn("Failed to replay the deferred image variant generation job of '{}': {}", job.getNodePath(),
+                        e.toString());
+
+                if (systemSession != null) {
+                    systemSession.logout();
+                }
+            }
+        }
+
+        if (queued > 0) {
+            log.info("Replayed {} deferred image variant generation job(s) from '{}'.", queued,
+                    journal.getDirectory());
+        }
+
+        return queued;
+    }
+
+    /**
+     * Stops the background tasks shared in the JVM, rendering image variants, extracting image metadata and
+     * generating the deferred image variants, leaving the unfinished deferred jobs in the journal to be replayed
+     * after a restart.
+     */
+    public static void shutdownBackgroundTasks() {
+        BackgroundExecutors.shutdownNow();
+    }
+
     protected boolean isImageMagickImageProcessor() {
         return StringUtils.equalsIgnoreCase("ImageMagick", magickImageProcessor);
     }
 
+    /**
+     * Returns the backend name of the configured Magick image processor, as recorded in metrics and events.
+     * @return the backend name of the configured Magick image processor
+     */
+    protected String getBackendName() {
+        return isImageMagickImageProcessor() ? ImageMagickCommand.BACKEND_NAME : GraphicsMagickCommand.BACKEND_NAME;
+    }
+
     protected void resizeImage(File sourceFile, File targetFile, ImageDimension dimension) throws MagickExecuteException, IOException {
-        if (isImageMagickImageProcessor()) {
+        final CachingResizeOperation cache = getResizeCache();
+
+        if (cache != null) {
+            cache.resizeImage(sourceFile, targetFile, dimension);
+        } else if (isImageMagickImageProcessor()) {
             ImageMagickCommandUtils.resizeImage(sourceFile, targetFile, dimension);
         } else {
             GraphicsMagickCommandUtils.resizeImage(sourceFile, targetFile, dimension);
@@ -251,6 +900,24 @@ public class MagickCommandGalleryProcessor extends AbstractGalleryProcessor {
         }
     }
 
+    protected Map<String, Object> identifyMetadata(File sourceFile, ImageMetadataProfile profile)
+            throws MagickExecuteException, IOException {
+        if (isImageMagickImageProcessor()) {
+            return ImageMagickCommandUtils.identifyMetadata(sourceFile, profile);
+        } else {
+            return GraphicsMagickCommandUtils.identifyMetadata(sourceFile, profile);
+        }
+    }
+
+    protected Map<File, ImageDimension> resizeImages(File sourceFile, Map<File, ImageDimension> targets)
+            throws MagickExecuteException, IOException {
+        if (isImageMagickImageProcessor()) {
+            return ImageMagickCommandUtils.resizeImages(sourceFile, targets);
+        } else {
+            return GraphicsMagickCommandUtils.resizeImages(sourceFile, targets);
+        }
+    }
+
     protected ImageDimension identifyDimension(File sourceFile) throws MagickExecuteException, IOException {
         if (isImageMagickImageProcessor()) {
             return ImageMagickCommandUtils.identifyDimension(sourceFile);
@@ -259,7 +926,30 @@ public class MagickCommandGalleryProcessor extends AbstractGalleryProcessor {
         }
     }
 
+    protected InputStream resizeImageAsStream(InputStream sourceStream, String format, ImageDimension dimension)
+            throws MagickExecuteException, IOException {
+        if (isImageMagickImageProcessor()) {
+            return ImageMagickCommandUtils.resizeImageAsStream(sourceStream, format, dimension);
+        } else {
+            return GraphicsMagickCommandUtils.resizeImageAsStream(sourceStream, format, dimension);
+        }
+    }
+
+    protected ImageDimension identifyDimension(InputStream sourceStream, String format)
+            throws MagickExecuteException, IOException {
+        if (isImageMagickImageProcessor()) {
+            return ImageMagickCommandUtils.identifyDimension(sourceStream, format);
+        } else {
+            return GraphicsMagickCommandUtils.identifyDimension(sourceStream, format);
+        }
+    }
+
     protected void extractAndSaveImageMetadata(Node node, File sourceFile) {
+        if (metadataProfile != null) {
+            extractAndSaveImageMetadataProfile(node, sourceFile, metadataProfile);
+            return;
+        }
+
         String nodePath = null;
 
         try {
@@ -276,20 +966,761 @@ public class MagickCommandGalleryProcessor extends AbstractGalleryProcessor {
         }
     }
 
-    private File saveOriginalImageDataToFile(final InputStream dataIput, final String fileName) throws IOException {
-        File sourceFile = null;
-        FileOutputStream fos = null;
+    /**
+     * Extracts the fields of the {@code profile} from the {@code sourceFile} and stores each field value in a typed
+     * property named after the field, prefixed by <code>gallerymagick.metadata.</code>, e.g,
+     * <code>gallerymagick.metadata.exif.model</code>.
+     */
+    protected void extractAndSaveImageMetadataProfile(Node node, File sourceFile, ImageMetadataProfile profile) {
+        String nodePath = null;
 
         try {
-            sourceFile = File.createTempFile(MAGICK_COMMAND_TEMP_FILE_PREFIX,
-                    "." + FilenameUtils.getExtension(fileName));
-            fos = new FileOutputStream(sourceFile);
-            log.debug("Storing original image source file ('{}') to '{}'.", fileName, sourceFile);
-            IOUtils.copy(dataIput, fos);
+            final Map<String, Object> values = identifyMetadata(sourceFile, profile);
+            nodePath = node.getPath();
+
+            if (!node.isNodeType(HippoStdNodeType.NT_RELAXED)) {
+                node.addMixin(HippoStdNodeType.NT_RELAXED);
+            }
+
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                setMetadataProperty(node, GALLERY_MAGICK_METADATA_PROP_NAME + "." + entry.getKey(), entry.getValue());
+            }
+        } catch (Exception e) {
+            log.error("Failed to extract image metadata or failed to store the metadata in '{}.*' properties at '{}'.",
+                    GALLERY_MAGICK_METADATA_PROP_NAME, nodePath, e);
+        }
+    }
+
+    /**
+     * Extracts the image metadata from the {@code sourceFile} and returns the map of property name to value
+     * to be stored in the image set node, as {@link #extractAndSaveImageMetadata(Node, File)} does.
+     * @param sourceFile source image file
+     * @return the map of property name to value to be stored in the image set node
+     * @throws MagickExecuteException if execution exception occurs
+     * @throws IOException if IO exception occurs
+     */
+    protected Map<String, Object> extractImageMetadataProperties(File sourceFile) throws MagickExecuteException, IOException {
+        if (metadataProfile == null) {
+            return Collections.singletonMap(GALLERY_MAGICK_METADATA_PROP_NAME,
+                    StringUtils.defaultString(identifyAllMetadata(sourceFile)));
+        }
+
+        final Map<String, Object> properties = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Object> entry : identifyMetadata(sourceFile, metadataProfile).entrySet()) {
+            properties.put(GALLERY_MAGICK_METADATA_PROP_NAME + "." + entry.getKey(), entry.getValue());
+        }
+
+        return properties;
+    }
+
+    /**
+     * Queues a background task extracting and storing the image metadata, with a copy of the {@code sourceFile}
+     * which is deleted when the upload request ends. Falls back to {@link #extractAndSaveImageMetadata(Node, File)}
+     * if the task cannot be queued.
+     */
+    protected void submitImageMetadataExtraction(Node node, File sourceFile) {
+        File metadataSourceFile = null;
+        Session systemSession = null;
+
+        try {
+            // Like extractAndSaveImageMetadata, the verbose metadata is stored only in a new image set node.
+            if (metadataProfile == null && node.isNodeType(HippoStdNodeType.NT_RELAXED)) {
+                return;
+            }
+
+            metadataSourceFile = MagickTempFileManager.getDefaultInstance().createTempFile(
+                    MAGICK_COMMAND_TEMP_FILE_PREFIX + "_metadata", "." + FilenameUtils.getExtension(sourceFile.getName()),
+                    sourceFile.length());
+            linkOrCopyFile(sourceFile, metadataSourceFile);
+            systemSession = node.getSession().impersonate(new SimpleCredentials("system", new char[] {}));
+
+            final ScheduledExecutorService executor = getMetadataExecutor();
+            executor.execute(new ImageMetadataExtractionTask(this, node.getIdentifier(), node.getPath(),
+                    metadataSourceFile, systemSession, executor, getMetadataExtractionMaxAttempts(),
+                    getMetadataExtractionRetryDelay()));
+        } catch (Exception e) {
+            log.warn("Failed to queue the image metadata extraction. Extracting it synchronously: {}", e.toString());
+
+            if (metadataSourceFile != null) {
+                deleteTempFile(metadataSourceFile);
+            }
+
+            if (systemSession != null) {
+                systemSession.logout();
+            }
+
+            extractAndSaveImageMetadata(node, sourceFile);
+        }
+    }
+
+    /**
+     * Returns the names of the image variants to generate in the background instead of the upload request,
+     * which are the ones having both width and height except for the original and the priority image variants,
+     * or an empty set if the deferred mode is disabled or the journal directory is not set.
+     */
+    private Set<String> getDeferredVariantNames(final String mimeType) throws RepositoryException {
+        if (!isDeferredVariantGeneration() || !MimeTypeHelper.isImageMimeType(mimeType)) {
+            return Collections.emptySet();
+        }
+
+        if (deferredJournalDirectory == null) {
+            if (!deferredJournalDirectoryMissingLogged) {
+                deferredJournalDirectoryMissingLogged = true;
+                log.error("No deferred image variant journal directory is set, so the deferred image variants would be "
+                        + "lost on restart. Generating all the image variants during the upload request instead.");
+            }
+
+            return Collections.emptySet();
+        }
+
+        final Set<String> deferredVariantNames = new LinkedHashSet<>();
+
+        for (Map.Entry<String, ScalingParameters> entry : getScalingParametersMap().entrySet()) {
+            final String variantName = entry.getKey();
+            final ScalingParameters scalingParameters = entry.getValue();
+
+            if (!HippoGalleryNodeType.IMAGE_SET_ORIGINAL.equals(variantName) && !priorityVariants.contains(variantName)
+                    && scalingParameters != null && scalingParameters.getWidth() > 0
+                    && scalingParameters.getHeight() > 0) {
+                deferredVariantNames.add(variantName);
+            }
+        }
+
+        return deferredVariantNames;
+    }
+
+    /**
+     * Journals and queues a background task generating the deferred image variants once the image set node is saved.
+     * Falls back to generating them in the upload request if the job cannot be journaled or queued.
+     */
+    protected void submitDeferredVariants(Node node, Collection<String> deferredVariantNames)
+            throws GalleryException, RepositoryException {
+        if (deferredJournalDirectory == null) {
+            regenerateImageVariants(node, deferredVariantNames);
+            return;
+        }
+
+        final DeferredVariantJournal journal = getDeferredVariantJournal();
+        DeferredVariantJournal.Job job = null;
+        Session systemSession = null;
+
+        try {
+            replayDeferredVariantJournal(node.getSession());
+            job = journal.append(node.getIdentifier(), node.getPath(), deferredVariantNames);
+            systemSession = node.getSession().impersonate(new SimpleCredentials("system", new char[] {}));
+            queueDeferredVariantJob(journal, job, systemSession);
+        } catch (Exception e) {
+            log.warn("Failed to queue the deferred image variant generation. Generating them synchronously: {}",
+                    e.toString());
+
+            if (job != null) {
+                journal.remove(job);
+            }
+
+            if (systemSession != null) {
+                systemSession.logout();
+            }
+
+            regenerateImageVariants(node, deferredVariantNames);
+        }
+    }
+
+    private void queueDeferredVariantJob(final DeferredVariantJournal journal, final DeferredVariantJournal.Job job,
+            final Session systemSession) {
+        new DeferredVariantGenerationTask(this, journal, job, systemSession, getDeferredVariantExecutor(),
+                getDeferredVariantGenerationMaxAttempts(), getDeferredVariantGenerationRetryDelay()).schedule();
+    }
+
+    private DeferredVariantJournal getDeferredVariantJournal() {
+        return DeferredVariantJournal.getInstance(new File(deferredJournalDirectory));
+    }
+
+    /**
+     * Sets the {@code value} of a metadata property in the type of the value: {@link Long}, {@link Double},
+     * {@link Calendar} or a text otherwise.
+     */
+    static void setMetadataProperty(final Node node, final String propName, final Object value)
+            throws RepositoryException {
+        if (value instanceof Long) {
+            node.setProperty(propName, (Long) value);
+        } else if (value instanceof Double) {
+            node.setProperty(propName, (Double) value);
+        } else if (value instanceof Calendar) {
+            node.setProperty(propName, (Calendar) value);
+        } else {
+            node.setProperty(propName, String.valueOf(value));
+        }
+    }
+
+    /**
+     * Submits rendering tasks to resize the source image file to all the image variants having both width and height
+     * in the background, so the resized files are ready when the image variant nodes are initialized.
+     * If rendering an image variant fails, it is resized again in {@link #initGalleryResource} afterward.
+     * Only the image variants in {@code requestedVariantNames} are rendered unless it is null.
+     */
+    private void submitImageVariants(final ImageProcessingContext context, final String mimeType,
+            final String fileName, final Collection<String> requestedVariantNames) {
+        if (!MimeTypeHelper.isImageMimeType(mimeType)) {
+            return;
+        }
+
+        if (isStreamingVariant(fileName)) {
+            log.debug("Image variants of '{}' are resized by streaming when initialized.", fileName);
+            return;
+        }
+
+        final Map<String, File> targetFiles = new LinkedHashMap<>();
+        final Map<File, ImageDimension> targets = new LinkedHashMap<>();
+        final ImageDimension sourceDimension = identifySourceDimension(context, context.getSourceFile());
+
+        try {
+            for (Map.Entry<String, ScalingParameters> entry : getScalingParametersMap().entrySet()) {
+                if (requestedVariantNames != null && !requestedVariantNames.contains(entry.getKey())) {
+                    continue;
+                }
+
+                final ScalingParameters scalingParameters = entry.getValue();
+
+                if (scalingParameters != null && scalingParameters.getWidth() > 0 && scalingParameters.getHeight() > 0) {
+                    final ImageDimension dimension = getResizeGeometry(scalingParameters);
+
+                    if (sourceDimension != null && sourceDimension.equals(dimension.resize(sourceDimension))) {
+                        // no need to resize. see initGalleryResource.
+                        continue;
+                    }
+
+                    final File targetFile = createVariantTempFile(entry.getKey(), fileName,
+                            context.getSource().getLength());
+                    targetFiles.put(entry.getKey(), targetFile);
+                    targets.put(targetFile, dimension);
+                }
+            }
+        } catch (RepositoryException | IOException e) {
+            log.warn("Failed to prepare rendering image variants. Resizing each image variant later instead.", e);
+            targetFiles.values().forEach(MagickCommandGalleryProcessor::deleteTempFile);
+            return;
+        }
+
+        final File sourceFile = context.getSourceFile();
+        final String sourceFormat = getSourceFormat(context.getSource());
+        final ExecutorService executor = getVariantExecutor();
+
+        for (String variantName : new ArrayList<>(targetFiles.keySet())) {
+            final ImageProcessingBackend selectedBackend = selectResizeBackend(variantName, sourceFile,
+                    sourceDimension);
+
+            if (selectedBackend != null) {
+                // routed image variants are resized one by one, so the latency of each backend can be measured.
+                final File targetFile = targetFiles.remove(variantName);
+                final ImageDimension dimension = targets.remove(targetFile);
+                context.addRenderingVariant(variantName, CompletableFuture.supplyAsync(() -> renderImageVariant(
+                        variantName, selectedBackend, sourceFile, sourceFormat, targetFile, dimension, sourceDimension),
+                        executor));
+            }
+        }
+
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        if (isParallelVariantGeneration()) {
+            log.debug("Resizing the original image file ('{}') to {} image variant(s) in parallel.", sourceFile,
+                    targets.size());
+
+            for (Map.Entry<String, File> entry : targetFiles.entrySet()) {
+                final File targetFile = entry.getValue();
+                final ImageDimension dimension = targets.get(targetFile);
+                context.addRenderingVariant(entry.getKey(), CompletableFuture.supplyAsync(
+                        () -> renderImageVariants(entry.getKey(), sourceFile, sourceFormat, sourceDimension,
+                                Collections.singletonMap(targetFile, dimension)).get(targetFile), executor));
+            }
+        } else {
+            log.debug("Resizing the original image file ('{}') to {} image variant(s) at once.", sourceFile,
+                    targets.size());
+            final String variantNames = String.join(",", targetFiles.keySet());
+            final CompletableFuture<Map<File, RenderedImageVariant>> allRendered = CompletableFuture
+                    .supplyAsync(() -> renderImageVariants(variantNames, sourceFile, sourceFormat, sourceDimension,
+                            targets), executor);
+
+            for (Map.Entry<String, File> entry : targetFiles.entrySet()) {
+                final File targetFile = entry.getValue();
+                context.addRenderingVariant(entry.getKey(), allRendered.thenApply(rendered -> rendered.get(targetFile)));
+            }
+        }
+    }
+
+    /**
+     * Returns the resize geometry of the scaling parameters, which only shrinks images if upscaling is disabled.
+     */
+    private ImageDimension getResizeGeometry(final ScalingParameters scalingParameters) {
+        return ImageDimension.from(scalingParameters.getWidth(), scalingParameters.getHeight(),
+                scalingParameters.isUpscaling() ? ImageDimension.ResizeMode.FIT : ImageDimension.ResizeMode.SHRINK_ONLY);
+    }
+
+    /**
+     * Returns the dimension of the source image file, identified only once per context, or returns null if it
+     * cannot be identified, so the dimension of a resized image cannot be predicted from it.
+     */
+    private ImageDimension identifySourceDimension(final ImageProcessingContext context, final File sourceFile) {
+        ImageDimension sourceDimension = (context != null) ? context.getSourceDimension() : null;
+
+        if (sourceDimension == null) {
+            sourceDimension = identifyDimensionQuietly(sourceFile);
+
+            if (context != null) {
+                context.setSourceDimension(sourceDimension);
+            }
+        }
+
+        return sourceDimension;
+    }
+
+    private ImageDimension identifyDimensionQuietly(final File sourceFile) {
+        final ImageProcessingBackend selectedBackend = StringUtils.equalsIgnoreCase(ImageProcessingBackendRouter.AUTO,
+                getBackend()) ? getBackendRouter().route(ImageProcessingBackend.Operation.IDENTIFY,
+                        FilenameUtils.getExtension(sourceFile.getName()), 0L) : null;
+
+        if (selectedBackend != null && !isConfiguredMagickBackend(selectedBackend)) {
+            final long startNanos = System.nanoTime();
+
+            try {
+                final ImageProcessingEvent identifyEvent = ImageProcessingEvent.begin(
+                        ImageProcessingEvent.PHASE_IDENTIFY, (String) null, null, selectedBackend.getName());
+                final ImageDimension dimension = selectedBackend.identifyDimension(sourceFile);
+                identifyEvent.commit(sourceFile, null, dimension);
+                getBackendRouter().recordLatency(selectedBackend, ImageProcessingBackend.Operation.IDENTIFY, 0L,
+                        System.nanoTime() - startNanos);
+                return dimension;
+            } catch (Exception e) {
+                log.debug("Cannot identify the dimension of {} by {}: {}", sourceFile, selectedBackend.getName(),
+                        e.toString());
+            }
+        }
+
+        try {
+            final long startNanos = System.nanoTime();
+            final ImageProcessingEvent identifyEvent = ImageProcessingEvent.begin(ImageProcessingEvent.PHASE_IDENTIFY,
+                    (String) null, null, getBackendName());
+            final ImageDimension dimension = identifyDimension(sourceFile);
+            identifyEvent.commit(sourceFile, null, dimension);
+
+            if (selectedBackend != null) {
+                // records the latency of the configured Magick image processor, not of the backend that failed.
+                final ImageProcessingBackendRouter router = getBackendRouter();
+                router.recordLatency(router.getBackend(getBackendName()), ImageProcessingBackend.Operation.IDENTIFY,
+                        0L, System.nanoTime() - startNanos);
+            }
+
+            return dimension;
+        } catch (Exception e) {
+            log.debug("Cannot identify the dimension of {}: {}", sourceFile, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the backend to resize the source image file to the image variant by the backend preference of the
+     * image variant, or null if the image variant is resized by the configured Magick image processor as before.
+     * A backend explicitly preferred is picked only if it supports the image format.
+     */
+    private ImageProcessingBackend selectResizeBackend(final String variantName, final File sourceFile,
+            final ImageDimension sourceDimension) {
+        final String preference = variantBackends.getOrDefault(variantName, getBackend());
+
+        if (StringUtils.equalsIgnoreCase(BACKEND_MAGICK, preference)) {
+            return null;
+        }
+
+        final ImageProcessingBackendRouter router = getBackendRouter();
+        final String format = FilenameUtils.getExtension(sourceFile.getName());
+
+        if (StringUtils.equalsIgnoreCase(ImageProcessingBackendRouter.AUTO, preference)) {
+            final ImageProcessingBackend selectedBackend = router.route(ImageProcessingBackend.Operation.RESIZE,
+                    format, getPixels(sourceDimension));
+            log.debug("Routed resizing '{}' to {} to the backend, {}.", sourceFile, variantName, selectedBackend);
+            return selectedBackend;
+        }
+
+        ImageProcessingBackend selectedBackend = router.getBackend(StringUtils.lowerCase(preference));
+
+        if (selectedBackend == null) {
+            selectedBackend = createBackend(StringUtils.lowerCase(preference));
+        }
+
+        if (selectedBackend == null) {
+            log.warn("Unknown backend, '{}', for {}. Resizing by {} instead.", preference, variantName,
+                    getBackendName());
+            return null;
+        }
+
+        if (!selectedBackend.supports(ImageProcessingBackend.Operation.RESIZE, format)) {
+            log.debug("The backend, {}, does not support resizing '{}'. Resizing by {} instead.", selectedBackend,
+                    sourceFile, getBackendName());
+            return null;
+        }
+
+        return selectedBackend;
+    }
+
+    /**
+     * Resizes the source image file by the selected backend, recording the latency for the router, or by
+     * {@link #resizeImage(File, File, ImageDimension)} if no backend is selected. The image is resized by the
+     * configured Magick image processor instead if any other backend fails.
+     */
+    private void resizeImageByBackend(final ImageProcessingBackend selectedBackend, final File sourceFile,
+            final File targetFile, final ImageDimension dimension, final ImageDimension sourceDimension)
+            throws IOException {
+        if (selectedBackend == null) {
+            resizeImage(sourceFile, targetFile, dimension);
+            return;
+        }
+
+        final boolean configuredMagick = isConfiguredMagickBackend(selectedBackend);
+        final CachingResizeOperation cache = configuredMagick ? getResizeCache() : null;
+
+        if (cache != null && cache.fetch(sourceFile, targetFile, dimension)) {
+            return;
+        }
+
+        final long startNanos = System.nanoTime();
+
+        try {
+            selectedBackend.resizeImage(sourceFile, targetFile, dimension);
+        } catch (IOException | RuntimeException e) {
+            if (configuredMagick) {
+                throw e;
+            }
+
+            log.warn("Resizing '{}' by {} failed. Resizing by {} instead: {}", sourceFile, selectedBackend,
+                    getBackendName(), e.toString());
+            resizeImage(sourceFile, targetFile, dimension);
+            return;
+        }
+
+        getBackendRouter().recordLatency(selectedBackend, ImageProcessingBackend.Operation.RESIZE,
+                getPixels(sourceDimension), System.nanoTime() - startNanos);
+
+        if (cache != null) {
+            cache.store(sourceFile, targetFile, dimension);
+        }
+    }
+
+    /**
+     * Returns the dimension of the image resized from the source image in the {@code sourceFormat} to the
+     * {@code dimension}, predicted from the source dimension, or null if the source dimension is unknown or if the
+     * decoder shrinks the source image while loading it, as the image is then resized from the rounded up size of
+     * the shrunk image.
+     */
+    private static ImageDimension predictResizedDimension(final String sourceFormat, final ImageDimension dimension,
+            final ImageDimension sourceDimension) {
+        if (sourceDimension == null
+                || ShrinkOnLoadUtils.isShrunkOnLoad(sourceFormat, sourceDimension, dimension)) {
+            return null;
+        }
+
+        return dimension.resize(sourceDimension);
+    }
+
+    /**
+     * Returns the dimension of the target file resized from the source image in the {@code sourceFormat} to the
+     * {@code dimension}, predicted from the source dimension if possible, or read from the header of the target file,
+     * or identified otherwise.
+     */
+    private ImageDimension getResizedDimension(final String sourceFormat, final File targetFile,
+            final ImageDimension dimension, final ImageDimension sourceDimension) throws IOException {
+        ImageDimension resizedDimension = predictResizedDimension(sourceFormat, dimension, sourceDimension);
+
+        if (resizedDimension == null) {
+            resizedDimension = ImageHeaderReader.readDimension(targetFile);
+        }
+
+        return (resizedDimension != null) ? resizedDimension : identifyDimension(targetFile);
+    }
+
+    /**
+     * Returns true if no backend is selected or the selected backend is the configured Magick image processor.
+     */
+    private boolean isConfiguredMagickBackend(final ImageProcessingBackend selectedBackend) {
+        return selectedBackend == null
+                || (!selectedBackend.isInProcess() && getBackendName().equals(selectedBackend.getName()));
+    }
+
+    /**
+     * Returns the backend router shared in the JVM, learning the latencies from all the user sessions.
+     * The router prefers the in-process backend and falls back to the configured Magick image processor.
+     */
+    private ImageProcessingBackendRouter getBackendRouter() {
+        return ImageProcessingBackendRouter.getDefaultInstance(getBackendName());
+    }
+
+    private static ImageProcessingBackend createBackend(final String name) {
+        if (ScalrBackend.NAME.equals(name)) {
+            return new ScalrBackend();
+        } else if (ImageMagickBackend.NAME.equals(name)) {
+            return new ImageMagickBackend();
+        } else if (GraphicsMagickBackend.NAME.equals(name)) {
+            return new GraphicsMagickBackend();
+        }
+
+        return null;
+    }
+
+    private static long getPixels(final ImageDimension dimension) {
+        return (dimension != null) ? (long) dimension.getWidth() * dimension.getHeight() : 0L;
+    }
+
+    /**
+     * Returns true if the image variants of the uploaded {@code fileName} are resized without temporary files.
+     */
+    private boolean isStreamingVariant(final String fileName) {
+        return isStreamingVariantGeneration()
+                && AbstractMagickCommand.isStreamableFormat(FilenameUtils.getExtension(fileName));
+    }
+
+    /**
+     * Resizes the source image file by streaming it through a Magick process into the image binary of the image
+     * variant node. The dimension of the stored binary is identified by streaming it again unless predicted by
+     * {@link #predictResizedDimension(String, ImageDimension, ImageDimension)}.
+     * Returns false if it fails, so the image variant can be resized through a temporary file instead.
+     */
+    private boolean storeImageVariantByStreaming(final Node node, final File sourceFile,
+            final ImageDimension dimension, final ImageDimension predictedDimension, final String format) {
+        InputStream sourceIn = null;
+        InputStream resizedIn = null;
+        InputStream storedIn = null;
+        Binary imageBinary = null;
+
+        try {
+            log.debug("Resizing the original image file ('{}') by streaming to '{}' with dimension, {}.", sourceFile,
+                    node.getPath(), dimension);
+            final ImageProcessingEvent resizeEvent = ImageProcessingEvent.begin(ImageProcessingEvent.PHASE_RESIZE,
+                    node, node.getName(), getBackendName());
+            sourceIn = new FileInputStream(sourceFile);
+            resizedIn = resizeImageAsStream(sourceIn, format, dimension);
+            imageBinary = ResourceHelper.getValueFactory(node).createBinary(resizedIn);
+            final ImageDimension resizedDimension;
+
+            if (predictedDimension != null) {
+                resizedDimension = predictedDimension;
+            } else {
+                storedIn = imageBinary.getStream();
+                resizedDimension = identifyDimension(storedIn, format);
+            }
+
+            node.setProperty("jcr:data", imageBinary);
+            node.setProperty(HippoGalleryNodeType.IMAGE_WIDTH, (long) resizedDimension.getWidth());
+            node.setProperty(HippoGalleryNodeType.IMAGE_HEIGHT, (long) resizedDimension.getHeight());
+            resizeEvent.commit(sourceFile, null, resizedDimension);
+            return true;
+        } catch (Exception e) {
+            log.warn("Scaling by streaming failed, resizing through a temporary file instead", e);
+            return false;
         } finally {
-            IOUtils.closeQuietly(fos);
+            IOUtils.closeQuietly(storedIn);
+
+            try {
+                if (imageBinary != null) {
+                    imageBinary.dispose();
+                }
+            } catch (Exception ignore) {
+            }
+
+            IOUtils.closeQuietly(resizedIn);
+            IOUtils.closeQuietly(sourceIn);
+        }
+    }
+
+    /**
+     * Resizes the source image file to the target file of an image variant by the selected backend,
+     * deleting the target file on failure.
+     */
+    private RenderedImageVariant renderImageVariant(final String variantName,
+            final ImageProcessingBackend selectedBackend, final File sourceFile, final String sourceFormat,
+            final File targetFile, final ImageDimension dimension, final ImageDimension sourceDimension) {
+        final ImageProcessingEvent resizeEvent = ImageProcessingEvent.begin(ImageProcessingEvent.PHASE_RESIZE,
+                (String) null, variantName, selectedBackend.getName());
+
+        try {
+            resizeImageByBackend(selectedBackend, sourceFile, targetFile, dimension, sourceDimension);
+            final ImageDimension resizedDimension = getResizedDimension(sourceFormat, targetFile, dimension,
+                    sourceDimension);
+            resizeEvent.commit(sourceFile, targetFile, resizedDimension);
+            return new RenderedImageVariant(targetFile, resizedDimension);
+        } catch (Exception e) {
+            deleteTempFile(targetFile);
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Resizes the source image file to the target files, deleting the target files on failure.
+     * The dimension of a cached image variant is predicted from the source dimension if possible.
+     */
+    private Map<File, RenderedImageVariant> renderImageVariants(final String variantNames, final File sourceFile,
+            final String sourceFormat, final ImageDimension sourceDimension, final Map<File, ImageDimension> targets) {
+        final ImageProcessingEvent resizeEvent = ImageProcessingEvent.begin(ImageProcessingEvent.PHASE_RESIZE,
+                (String) null, variantNames, getBackendName());
+
+        try {
+            final Map<File, RenderedImageVariant> rendered = new HashMap<>();
+            final CachingResizeOperation cache = getResizeCache();
+            Map<File, ImageDimension> misses = targets;
+
+            if (cache != null) {
+                misses = new LinkedHashMap<>();
+
+                for (Map.Entry<File, ImageDimension> entry : targets.entrySet()) {
+                    if (cache.fetch(sourceFile, entry.getKey(), entry.getValue())) {
+                        final ImageDimension cachedDimension = getResizedDimension(sourceFormat, entry.getKey(),
+                                entry.getValue(), sourceDimension);
+                        rendered.put(entry.getKey(), new RenderedImageVariant(entry.getKey(), cachedDimension));
+                    } else {
+                        misses.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+
+            for (Map.Entry<File, ImageDimension> entry : resizeImages(sourceFile, misses).entrySet()) {
+                rendered.put(entry.getKey(), new RenderedImageVariant(entry.getKey(), entry.getValue()));
+
+                if (cache != null) {
+                    cache.store(sourceFile, entry.getKey(), misses.get(entry.getKey()));
+                }
+            }
+
+            if (rendered.size() == 1) {
+                final RenderedImageVariant variant = rendered.values().iterator().next();
+                resizeEvent.commit(sourceFile, variant.getFile(), variant.getDimension());
+            } else {
+                resizeEvent.commit(sourceFile, null, null);
+            }
+
+            return rendered;
+        } catch (Exception e) {
+            targets.keySet().forEach(MagickCommandGalleryProcessor::deleteTempFile);
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Returns the resized image cache if a cache directory is configured, shared in the JVM by all the processors
+     * caching in the same directory. Returns null if the cache is not configured, or if the installed Magick version
+     * cannot be identified as a cache entry must not outlive an upgrade of the Magick command.
+     */
+    private CachingResizeOperation getResizeCache() {
+        if (!resizeCacheInitialized) {
+            synchronized (this) {
+                if (!resizeCacheInitialized) {
+                    resizeCache = createResizeCache();
+                    resizeCacheInitialized = true;
+                }
+            }
+        }
+
+        return resizeCache;
+    }
+
+    private CachingResizeOperation createResizeCache() {
+        if (getResizeCacheDirectory() == null) {
+            return null;
+        }
+
+        final File cacheDirectory = new File(getResizeCacheDirectory());
+
+        try {
+            return CachingResizeOperation.getInstance(cacheDirectory, () -> {
+                if (isImageMagickImageProcessor()) {
+                    return new CachingResizeOperation(ImageMagickCommandUtils::resizeImage,
+                            ImageMagickCommandUtils.identifyVersion(), cacheDirectory, getResizeCacheMaxSize());
+                } else {
+                    return new CachingResizeOperation(GraphicsMagickCommandUtils::resizeImage,
+                            GraphicsMagickCommandUtils.identifyVersion(), cacheDirectory, getResizeCacheMaxSize());
+                }
+            });
+        } catch (Exception e) {
+            log.error("Failed to initialize the resized image cache at '{}'. Resized images are not cached.",
+                    getResizeCacheDirectory(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the bounded executor rendering image variants, shared in the JVM.
+     */
+    private ExecutorService getVariantExecutor() {
+        return BackgroundExecutors.getVariantExecutor(getVariantGenerationThreads());
+    }
+
+    /**
+     * Returns the executor running the background metadata extraction tasks, shared in the JVM.
+     */
+    private ScheduledExecutorService getMetadataExecutor() {
+        return BackgroundExecutors.getScheduledExecutor(BackgroundExecutors.METADATA, getMetadataExtractionThreads());
+    }
+
+    /**
+     * Returns the executor running the background deferred image variant generation tasks, shared in the JVM.
+     */
+    private ScheduledExecutorService getDeferredVariantExecutor() {
+        return BackgroundExecutors.getScheduledExecutor(BackgroundExecutors.DEFERRED,
+                getDeferredVariantGenerationThreads());
+    }
+
+    /**
+     * Hard links the {@code targetFile} to the {@code sourceFile} to avoid copying the content,
+     * or copies it if the file system doesn't support hard links.
+     */
+    private static void linkOrCopyFile(final File sourceFile, final File targetFile) throws IOException {
+        Files.deleteIfExists(targetFile.toPath());
+
+        try {
+            Files.createLink(targetFile.toPath(), sourceFile.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(sourceFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
+    }
+
+    private File createVariantTempFile(final String nodeName, final String fileName, final long expectedSize)
+            throws IOException {
+        return MagickTempFileManager.getDefaultInstance().createTempFile(
+                MAGICK_COMMAND_TEMP_FILE_PREFIX + "_" + StringUtils.replace(nodeName, ":", "_"),
+                "." + FilenameUtils.getExtension(fileName), expectedSize);
+    }
+
+    /**
+     * Deletes a temporary file created by {@link MagickTempFileManager}, releasing its share of the size budget.
+     */
+    static void deleteTempFile(final File file) {
+        MagickTempFileManager.getDefaultInstance().delete(file);
+    }
+
+    /**
+     * Spools the original image data to a temporary file in a single pass, computing its content digest
+     * for the caches keyed by the digest and detecting its format.
+     */
+    private SpooledSource saveOriginalImageDataToFile(final InputStream dataIput, final String fileName)
+            throws IOException {
+        final File sourceFile = MagickTempFileManager.getDefaultInstance().createTempFile(
+                MAGICK_COMMAND_TEMP_FILE_PREFIX, "." + FilenameUtils.getExtension(fileName), -1L);
+
+        try {
+            log.debug("Storing original image source file ('{}') to '{}'.", fileName, sourceFile);
+            final SpooledSource spooled = SourceSpooler.spool(dataIput, sourceFile);
+            log.debug("Stored original image source file: {}", spooled);
+            return spooled;
+        } catch (IOException | RuntimeException e) {
+            deleteTempFile(sourceFile);
+            throw e;
+        }
+    }
 
-        return sourceFile;
+    /**
+     * Returns the format of the spooled source image detected by the magic bytes, or its file extension
+     * if not detected.
+     */
+    private static String getSourceFormat(final SpooledSource source) {
+        return (source.getFormat() != null) ? source.getFormat()
+                : FilenameUtils.getExtension(source.getFile().getName());
     }
 }
\ No newline at end of file
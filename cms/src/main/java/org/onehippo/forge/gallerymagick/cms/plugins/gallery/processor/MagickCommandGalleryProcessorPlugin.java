@@ -15,6 +15,7 @@
  */
 package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -24,6 +25,7 @@ import org.hippoecm.frontend.plugin.Plugin;
 import org.hippoecm.frontend.plugin.config.IPluginConfig;
 import org.hippoecm.frontend.plugins.gallery.imageutil.ScalingParameters;
 import org.hippoecm.frontend.plugins.gallery.model.GalleryProcessor;
+import org.onehippo.forge.gallerymagick.core.ImageMetadataProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +40,54 @@ public class MagickCommandGalleryProcessorPlugin extends Plugin {
 
     public static final String MAGICK_IMAGE_PROCESSOR = "magick.image.processor";
 
+    public static final String PARALLEL_VARIANT_GENERATION = "parallel.variant.generation";
+
+    public static final String VARIANT_GENERATION_THREADS = "variant.generation.threads";
+
+    public static final String STREAMING_VARIANT_GENERATION = "streaming.variant.generation";
+
+    public static final String RESIZE_CACHE_DIRECTORY = "resize.cache.directory";
+
+    public static final String RESIZE_CACHE_MAX_SIZE = "resize.cache.maxSize";
+
+    public static final String UPSCALING = "upscaling";
+
+    public static final String BACKEND = "backend";
+
+    public static final String METADATA_PROFILE = "metadata.profile";
+
+    public static final String METADATA_PROFILE_FIELDS = "metadata.profile.fields";
+
+    public static final String ASYNC_METADATA_EXTRACTION = "async.metadata.extraction";
+
+    public static final String METADATA_EXTRACTION_THREADS = "metadata.extraction.threads";
+
+    public static final String METADATA_EXTRACTION_MAX_ATTEMPTS = "metadata.extraction.maxAttempts";
+
+    public static final String METADATA_EXTRACTION_RETRY_DELAY = "metadata.extraction.retryDelay";
+
+    public static final String DEFERRED_VARIANT_GENERATION = "deferred.variant.generation";
+
+    public static final String PRIORITY_VARIANTS = "priority.variants";
+
+    public static final String DEFERRED_JOURNAL_DIRECTORY = "deferred.journal.directory";
+
+    public static final String DEFERRED_VARIANT_GENERATION_THREADS = "deferred.variant.generation.threads";
+
+    public static final String DEFERRED_VARIANT_GENERATION_MAX_ATTEMPTS = "deferred.variant.generation.maxAttempts";
+
+    public static final String DEFERRED_VARIANT_GENERATION_RETRY_DELAY = "deferred.variant.generation.retryDelay";
+
+    /**
+     * {@link #METADATA_PROFILE} value to extract all the metadata by <code>identify -verbose</code> to a single property.
+     */
+    public static final String METADATA_PROFILE_VERBOSE = "verbose";
+
+    /**
+     * {@link #METADATA_PROFILE} value to extract the metadata fields to typed properties.
+     */
+    public static final String METADATA_PROFILE_FIELDS_VALUE = "fields";
+
     public MagickCommandGalleryProcessorPlugin(final IPluginContext context, final IPluginConfig config) {
         super(context, config);
         final GalleryProcessor processor = createGalleryProcessor(config);
@@ -50,6 +100,7 @@ public class MagickCommandGalleryProcessorPlugin extends Plugin {
         final String magickImageProcessor = StringUtils.trim(config.getString(MAGICK_IMAGE_PROCESSOR, null));
 
         final Map<String, ScalingParameters> initScalingParametersMap = new HashMap<>();
+        final Map<String, String> variantBackends = new HashMap<>();
 
         for (IPluginConfig childConfig : config.getPluginConfigSet()) {
             final String nodeName = StringUtils.substringAfterLast(childConfig.getName(), ".");
@@ -57,13 +108,88 @@ public class MagickCommandGalleryProcessorPlugin extends Plugin {
             if (StringUtils.isNotBlank(nodeName)) {
                 int width = childConfig.getAsInteger("width", 0);
                 int height = childConfig.getAsInteger("height", 0);
-                final ScalingParameters parameters = new ScalingParameters.Builder(width, height).build();
+                final ScalingParameters.Builder builder = new ScalingParameters.Builder(width, height);
+
+                if (childConfig.getAsBoolean(UPSCALING, true)) {
+                    builder.upscaling();
+                }
+
+                final ScalingParameters parameters = builder.build();
                 log.debug("Scaling parameters for {}: {}", nodeName, parameters);
                 initScalingParametersMap.put(nodeName, parameters);
+
+                final String variantBackend = StringUtils.trim(childConfig.getString(BACKEND, null));
+
+                if (StringUtils.isNotEmpty(variantBackend)) {
+                    variantBackends.put(nodeName, variantBackend);
+                }
+            }
+        }
+
+        final GalleryProcessor processor = createGalleryProcessor(magickImageProcessor, initScalingParametersMap);
+
+        if (processor instanceof MagickCommandGalleryProcessor) {
+            final MagickCommandGalleryProcessor magickProcessor = (MagickCommandGalleryProcessor) processor;
+            magickProcessor.setParallelVariantGeneration(config.getAsBoolean(PARALLEL_VARIANT_GENERATION, false));
+            magickProcessor.setStreamingVariantGeneration(config.getAsBoolean(STREAMING_VARIANT_GENERATION, false));
+            magickProcessor.setVariantGenerationThreads(
+                    config.getAsInteger(VARIANT_GENERATION_THREADS, magickProcessor.getVariantGenerationThreads()));
+            magickProcessor.setResizeCacheDirectory(config.getString(RESIZE_CACHE_DIRECTORY));
+            magickProcessor.setResizeCacheMaxSize(
+                    config.getAsLong(RESIZE_CACHE_MAX_SIZE, magickProcessor.getResizeCacheMaxSize()));
+            magickProcessor.setBackend(StringUtils.trim(config.getString(BACKEND, magickProcessor.getBackend())));
+            variantBackends.forEach(magickProcessor::setVariantBackend);
+            magickProcessor.setMetadataProfile(createMetadataProfile(config));
+            magickProcessor.setAsyncMetadataExtraction(config.getAsBoolean(ASYNC_METADATA_EXTRACTION, false));
+            magickProcessor.setMetadataExtractionThreads(
+                    config.getAsInteger(METADATA_EXTRACTION_THREADS, magickProcessor.getMetadataExtractionThreads()));
+            magickProcessor.setMetadataExtractionMaxAttempts(config.getAsInteger(METADATA_EXTRACTION_MAX_ATTEMPTS,
+                    magickProcessor.getMetadataExtractionMaxAttempts()));
+            magickProcessor.setMetadataExtractionRetryDelay(config.getAsLong(METADATA_EXTRACTION_RETRY_DELAY,
+                    magickProcessor.getMetadataExtractionRetryDelay()));
+            magickProcessor.setDeferredVariantGeneration(config.getAsBoolean(DEFERRED_VARIANT_GENERATION, false));
+
+            final String [] priorityVariants = config.getStringArray(PRIORITY_VARIANTS);
+
+            if (priorityVariants != null) {
+                magickProcessor.setPriorityVariants(Arrays.asList(StringUtils.stripAll(priorityVariants)));
             }
+
+            magickProcessor.setDeferredJournalDirectory(config.getString(DEFERRED_JOURNAL_DIRECTORY));
+            magickProcessor.setDeferredVariantGenerationThreads(config.getAsInteger(
+                    DEFERRED_VARIANT_GENERATION_THREADS, magickProcessor.getDeferredVariantGenerationThreads()));
+            magickProcessor.setDeferredVariantGenerationMaxAttempts(config.getAsInteger(
+                    DEFERRED_VARIANT_GENERATION_MAX_ATTEMPTS, magickProcessor.getDeferredVariantGenerationMaxAttempts()));
+            magickProcessor.setDeferredVariantGenerationRetryDelay(config.getAsLong(
+                    DEFERRED_VARIANT_GENERATION_RETRY_DELAY, magickProcessor.getDeferredVariantGenerationRetryDelay()));
+        }
+
+        return processor;
+    }
+
+    /**
+     * Creates the metadata profile configured by {@link #METADATA_PROFILE} and {@link #METADATA_PROFILE_FIELDS},
+     * or returns null if all the metadata is extracted by <code>identify -verbose</code> as before.
+     */
+    protected ImageMetadataProfile createMetadataProfile(IPluginConfig config) {
+        final String profile = StringUtils.trim(config.getString(METADATA_PROFILE, METADATA_PROFILE_VERBOSE));
+
+        if (!StringUtils.equalsIgnoreCase(METADATA_PROFILE_FIELDS_VALUE, profile)) {
+            return null;
         }
 
-        return createGalleryProcessor(magickImageProcessor, initScalingParametersMap);
+        final String [] fieldSpecs = config.getStringArray(METADATA_PROFILE_FIELDS);
+
+        if (fieldSpecs == null || fieldSpecs.length == 0) {
+            return ImageMetadataProfile.DEFAULT;
+        }
+
+        try {
+            return ImageMetadataProfile.parse(fieldSpecs);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid metadata profile fields. The default metadata profile is used instead: {}", e.toString());
+            return ImageMetadataProfile.DEFAULT;
+        }
     }
 
     protected GalleryProcessor createGalleryProcessor(final String magickImageProcessor, final Map<String, ScalingParameters> initScalingParametersMap) {
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.File;
+
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+
+/**
+ * Image variant file rendered in advance, with its final dimension.
+ */
+class RenderedImageVariant {
+
+    private final File file;
+
+    private final ImageDimension dimension;
+
+    RenderedImageVariant(final File file, final ImageDimension dimension) {
+        this.file = file;
+        this.dimension = dimension;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    ImageDimension getDimension() {
+        return dimension;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeferredVariantGenerationTaskTest extends RepositoryTestCase {
+
+    private static final long TIMEOUT = 10000L;
+
+    private File journalDirectory;
+
+    private DeferredVariantJournal journal;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private Node imageSetNode;
+
+    private Session systemSession;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        imageSetNode = session.getRootNode().addNode("test").addNode("imageset");
+        imageSetNode.addMixin("mix:referenceable");
+        session.save();
+
+        journalDirectory = new File("target/DeferredVariantGenerationTaskTest");
+        FileUtils.deleteDirectory(journalDirectory);
+        journal = new DeferredVariantJournal(journalDirectory);
+        executor = new ScheduledThreadPoolExecutor(1);
+        systemSession = session.impersonate(new SimpleCredentials("system", new char[] {}));
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        if (systemSession.isLive()) {
+            systemSession.logout();
+        }
+
+        FileUtils.deleteDirectory(journalDirectory);
+        super.tearDown();
+    }
+
+    @Test
+    public void testSucceeded() throws Exception {
+        final FailingGalleryProcessor processor = new FailingGalleryProcessor(0);
+        final DeferredVariantJournal.Job job = journal.append(imageSetNode.getIdentifier(), imageSetNode.getPath(),
+                Collections.singletonList("thumbnail"));
+
+        createTask(processor, job, 3).schedule();
+        waitUntilEnded();
+
+        assertEquals(1, processor.getAttemptedPaths().size());
+        assertEquals(imageSetNode.getPath(), processor.getAttemptedPaths().get(0));
+        assertEquals(Collections.singletonList("thumbnail"), processor.getVariantNames());
+        assertFalse(job.getFile().exists());
+    }
+
+    @Test
+    public void testRetriedUntilSucceeded() throws Exception {
+        final FailingGalleryProcessor processor = new FailingGalleryProcessor(2);
+        final DeferredVariantJournal.Job job = journal.append(imageSetNode.getIdentifier(), imageSetNode.getPath(),
+                Collections.singletonList("thumbnail"));
+
+        createTask(processor, job, 3).schedule();
+        waitUntilEnded();
+
+        assertEquals(3, processor.getAttemptedPaths().size());
+        assertFalse(job.getFile().exists());
+    }
+
+    @Test
+    public void testGaveUp() throws Exception {
+        final FailingGalleryProcessor processor = new FailingGalleryProcessor(Integer.MAX_VALUE);
+        final DeferredVariantJournal.Job job = journal.append(imageSetNode.getIdentifier(), imageSetNode.getPath(),
+                Collections.singletonList("thumbnail"));
+
+        createTask(processor, job, 3).schedule();
+        waitUntilEnded();
+
+        assertEquals(3, processor.getAttemptedPaths().size());
+        assertFalse(job.getFile().exists());
+    }
+
+    @Test
+    public void testGaveUpOnNodeNeverSaved() throws Exception {
+        final FailingGalleryProcessor processor = new FailingGalleryProcessor(0);
+        final DeferredVariantJournal.Job job = journal.append("cafebabe-cafe-babe-cafe-babecafebabe",
+                "/test/unsaved", Collections.singletonList("thumbnail"));
+
+        createTask(processor, job, 2).schedule();
+        waitUntilEnded();
+
+        assertTrue(processor.getAttemptedPaths().isEmpty());
+        assertFalse(job.getFile().exists());
+    }
+
+    @Test
+    public void testStoppedOnShutdown() throws Exception {
+        final FailingGalleryProcessor processor = new FailingGalleryProcessor(Integer.MAX_VALUE) {
+            @Override
+            public List<String> regenerateImageVariants(final Node imageSetNode,
+                    final Collection<String> variantNames) throws RepositoryException {
+                executor.shutdown();
+                return super.regenerateImageVariants(imageSetNode, variantNames);
+            }
+        };
+        final DeferredVariantJournal.Job job = journal.append(imageSetNode.getIdentifier(), imageSetNode.getPath(),
+                Collections.singletonList("thumbnail"));
+
+        createTask(processor, job, 3).schedule();
+        waitUntilEnded();
+
+        // the job is left in the journal to be replayed on the next start.
+        assertEquals(1, processor.getAttemptedPaths().size());
+        assertTrue(job.getFile().isFile());
+    }
+
+    private DeferredVariantGenerationTask createTask(final MagickCommandGalleryProcessor processor,
+            final DeferredVariantJournal.Job job, final int maxAttempts) {
+        return new DeferredVariantGenerationTask(processor, journal, job, systemSession, executor, maxAttempts, 10L);
+    }
+
+    /**
+     * Waits until the task ends, logging out the system session.
+     */
+    private void waitUntilEnded() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (systemSession.isLive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+
+        assertFalse(systemSession.isLive());
+    }
+
+    /**
+     * Gallery processor recording the attempts and failing the first {@code failures} attempts.
+     */
+    private static class FailingGalleryProcessor extends MagickCommandGalleryProcessor {
+
+        private final int failures;
+
+        private final List<String> attemptedPaths = Collections.synchronizedList(new ArrayList<>());
+
+        private volatile List<String> variantNames;
+
+        private FailingGalleryProcessor(final int failures) {
+            super(null, null);
+            this.failures = failures;
+        }
+
+        @Override
+        public List<String> regenerateImageVariants(final Node imageSetNode, final Collection<String> variantNames)
+                throws RepositoryException {
+            attemptedPaths.add(imageSetNode.getPath());
+            this.variantNames = new ArrayList<>(variantNames);
+
+            if (attemptedPaths.size() <= failures) {
+                throw new RepositoryException("Failing attempt " + attemptedPaths.size());
+            }
+
+            return this.variantNames;
+        }
+
+        private List<String> getAttemptedPaths() {
+            return attemptedPaths;
+        }
+
+        private List<String> getVariantNames() {
+            return variantNames;
+        }
+    }
+}
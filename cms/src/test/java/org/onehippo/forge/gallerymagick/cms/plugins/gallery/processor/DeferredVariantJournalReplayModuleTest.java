@@ -0,0 +1,167 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Collections;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.FileUtils;
+import org.hippoecm.repository.HippoStdNodeType;
+import org.hippoecm.repository.api.HippoNodeType;
+import org.hippoecm.repository.gallery.HippoGalleryNodeType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertTrue;
+
+public class DeferredVariantJournalReplayModuleTest extends RepositoryTestCase {
+
+    private static final String PLUGIN_CONFIG_PATH = "/test/config";
+
+    private static final long TIMEOUT = 10000L;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private File journalDirectory;
+
+    private Node imageSetNode;
+
+    private DeferredVariantJournalReplayModule module;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // the journal is replayed once per directory in the JVM, so each test replays its own directory.
+        journalDirectory = new File("target/DeferredVariantJournalReplayModuleTest/" + testName.getMethodName());
+        FileUtils.deleteDirectory(journalDirectory);
+
+        final Node testNode = session.getRootNode().addNode("test");
+        final Node configNode = testNode.addNode("config");
+        configNode.setProperty(MagickCommandGalleryProcessorPlugin.DEFERRED_VARIANT_GENERATION, true);
+        configNode.setProperty(MagickCommandGalleryProcessorPlugin.DEFERRED_JOURNAL_DIRECTORY,
+                journalDirectory.getAbsolutePath());
+        configNode.setProperty(MagickCommandGalleryProcessorPlugin.DEFERRED_VARIANT_GENERATION_MAX_ATTEMPTS, 1L);
+        configNode.setProperty(MagickCommandGalleryProcessorPlugin.DEFERRED_VARIANT_GENERATION_RETRY_DELAY, 0L);
+
+        final Node galleryNode = testNode.addNode("gallery", HippoStdNodeType.NT_FOLDER);
+        imageSetNode = addImageSet(galleryNode, "a");
+        session.save();
+
+        module = new DeferredVariantJournalReplayModule() {
+            @Override
+            protected String getPluginConfigPath() {
+                return PLUGIN_CONFIG_PATH;
+            }
+        };
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        module.shutdown();
+        FileUtils.deleteDirectory(journalDirectory);
+        super.tearDown();
+    }
+
+    @Test
+    public void testJobRemovedOnSuccess() throws Exception {
+        // written by the previous run, before restarting the repository.
+        final DeferredVariantJournal.Job job = new DeferredVariantJournal(journalDirectory)
+                .append(imageSetNode.getIdentifier(), imageSetNode.getPath(), Collections.singletonList("thumbnail"));
+
+        module.initialize(session);
+
+        assertTrue(waitUntilDeleted(job.getFile()));
+    }
+
+    @Test
+    public void testJobRemovedOnGiveUp() throws Exception {
+        final DeferredVariantJournal.Job job = new DeferredVariantJournal(journalDirectory)
+                .append("cafebabe-cafe-babe-cafe-babecafebabe", "/test/gallery/deleted",
+                        Collections.singletonList("thumbnail"));
+
+        module.initialize(session);
+
+        assertTrue(waitUntilDeleted(job.getFile()));
+    }
+
+    @Test
+    public void testNothingReplayedIfDisabled() throws Exception {
+        session.getNode(PLUGIN_CONFIG_PATH).setProperty(MagickCommandGalleryProcessorPlugin.DEFERRED_VARIANT_GENERATION,
+                false);
+        session.save();
+
+        final DeferredVariantJournal.Job job = new DeferredVariantJournal(journalDirectory)
+                .append(imageSetNode.getIdentifier(), imageSetNode.getPath(), Collections.singletonList("thumbnail"));
+
+        module.initialize(session);
+
+        assertTrue(job.getFile().isFile());
+    }
+
+    @Test
+    public void testNothingReplayedWithoutConfiguration() throws Exception {
+        session.getNode(PLUGIN_CONFIG_PATH).remove();
+        session.save();
+
+        final DeferredVariantJournal.Job job = new DeferredVariantJournal(journalDirectory)
+                .append(imageSetNode.getIdentifier(), imageSetNode.getPath(), Collections.singletonList("thumbnail"));
+
+        module.initialize(session);
+
+        assertTrue(job.getFile().isFile());
+    }
+
+    private static boolean waitUntilDeleted(final File file) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+
+        return !file.exists();
+    }
+
+    private static Node addImageSet(final Node folderNode, final String name) throws RepositoryException {
+        final Node handleNode = folderNode.addNode(name, HippoNodeType.NT_HANDLE);
+        final Node imageSetNode = handleNode.addNode(name, HippoGalleryNodeType.IMAGE_SET);
+        imageSetNode.setProperty(HippoGalleryNodeType.IMAGE_SET_FILE_NAME, name + ".png");
+        addImage(imageSetNode, HippoGalleryNodeType.IMAGE_SET_ORIGINAL);
+        addImage(imageSetNode, HippoGalleryNodeType.IMAGE_SET_THUMBNAIL);
+        return imageSetNode;
+    }
+
+    private static void addImage(final Node imageSetNode, final String variantName) throws RepositoryException {
+        final Node imageNode = imageSetNode.addNode(variantName, HippoGalleryNodeType.IMAGE);
+        imageNode.setProperty("jcr:data", imageSetNode.getSession().getValueFactory()
+                .createBinary(new ByteArrayInputStream("image".getBytes(StandardCharsets.UTF_8))));
+        imageNode.setProperty("jcr:mimeType", "image/png");
+        imageNode.setProperty("jcr:lastModified", Calendar.getInstance());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeferredVariantJournalTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File("target/DeferredVariantJournalTest");
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testSharedInstancePerDirectory() throws Exception {
+        assertSame(DeferredVariantJournal.getInstance(directory),
+                DeferredVariantJournal.getInstance(directory.getAbsoluteFile()));
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        final DeferredVariantJournal journal = new DeferredVariantJournal(directory);
+        final DeferredVariantJournal.Job job = journal.append("id-1", "/content/gallery/a.jpg",
+                Arrays.asList("thumbnail", "large"));
+
+        // the job file is complete once appended, and the temporary file is renamed to it.
+        assertTrue(job.getFile().isFile());
+        assertArrayEquals(new File[] { job.getFile() }, directory.listFiles());
+
+        final Properties props = new Properties();
+
+        try (InputStream input = new FileInputStream(job.getFile())) {
+            props.load(input);
+        }
+
+        assertEquals("id-1", props.getProperty("nodeIdentifier"));
+        assertEquals("/content/gallery/a.jpg", props.getProperty("nodePath"));
+        assertEquals("thumbnail,large", props.getProperty("variantNames"));
+        assertEquals(Long.toString(job.getCreated()), props.getProperty("created"));
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws Exception {
+        final DeferredVariantJournal journal = new DeferredVariantJournal(directory);
+        final DeferredVariantJournal.Job job1 = journal.append("id-1", "/content/gallery/a.jpg",
+                Arrays.asList("thumbnail", "large"));
+        final DeferredVariantJournal.Job job2 = journal.append("id-2", "/content/gallery/b.jpg",
+                Arrays.asList("thumbnail"));
+        final DeferredVariantJournal.Job job3 = journal.append("id-3", "/content/gallery/c.jpg",
+                Arrays.asList("large"));
+        journal.remove(job2);
+        assertFalse(job2.getFile().exists());
+
+        // an invalid job file, e.g, by a crash while writing it without the atomic rename.
+        final File invalidFile = new File(directory, "invalid.job");
+        FileUtils.writeStringToFile(invalidFile, "nodePath=/content/gallery/d.jpg", StandardCharsets.ISO_8859_1);
+
+        final List<DeferredVariantJournal.Job> jobs = new DeferredVariantJournal(directory).beginReplay();
+
+        assertEquals(2, jobs.size());
+        final DeferredVariantJournal.Job replayedJob1 = jobs.get(jobs.get(0).getFile().equals(job1.getFile()) ? 0 : 1);
+        final DeferredVariantJournal.Job replayedJob3 = jobs.get(jobs.get(0).getFile().equals(job1.getFile()) ? 1 : 0);
+        assertEquals(job1.getFile(), replayedJob1.getFile());
+        assertEquals("id-1", replayedJob1.getNodeIdentifier());
+        assertEquals("/content/gallery/a.jpg", replayedJob1.getNodePath());
+        assertEquals(Arrays.asList("thumbnail", "large"), replayedJob1.getVariantNames());
+        assertEquals(job1.getCreated(), replayedJob1.getCreated());
+        assertEquals(job3.getFile(), replayedJob3.getFile());
+        assertTrue(replayedJob1.getCreated() <= replayedJob3.getCreated());
+        assertFalse(invalidFile.exists());
+    }
+
+    @Test
+    public void testBeginReplayOnlyOnce() throws Exception {
+        new DeferredVariantJournal(directory).append("id-1", "/content/gallery/a.jpg", Arrays.asList("thumbnail"));
+
+        final DeferredVariantJournal journal = new DeferredVariantJournal(directory);
+        assertEquals(1, journal.beginReplay().size());
+
+        journal.append("id-2", "/content/gallery/b.jpg", Arrays.asList("thumbnail"));
+        assertTrue(journal.beginReplay().isEmpty());
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    @Test
+    public void testBeginReplayWithoutDirectory() throws Exception {
+        assertTrue(new DeferredVariantJournal(directory).beginReplay().isEmpty());
+    }
+}
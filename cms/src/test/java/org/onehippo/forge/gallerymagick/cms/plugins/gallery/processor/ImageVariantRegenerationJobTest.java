@@ -0,0 +1,262 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.cms.plugins.gallery.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.io.FileUtils;
+import org.hippoecm.repository.HippoStdNodeType;
+import org.hippoecm.repository.api.HippoNodeType;
+import org.hippoecm.repository.gallery.HippoGalleryNodeType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImageVariantRegenerationJobTest extends RepositoryTestCase {
+
+    private static final String GALLERY_PATH = "/test/gallery";
+
+    private static final String REGENERATED_PATH = "/test/regenerated";
+
+    private File checkpointFile;
+
+    private RecordingGalleryProcessor processor;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        final Node testNode = session.getRootNode().addNode("test");
+        testNode.addNode("regenerated");
+        final Node galleryNode = testNode.addNode("gallery", HippoStdNodeType.NT_FOLDER);
+
+        for (String folderName : Arrays.asList("a", "b")) {
+            final Node folderNode = galleryNode.addNode(folderName, HippoStdNodeType.NT_FOLDER);
+
+            for (int i = 0; i < 3; i++) {
+                addImageSet(folderNode, folderName + i);
+            }
+        }
+
+        session.save();
+
+        checkpointFile = new File("target/ImageVariantRegenerationJobTest/checkpoint.properties");
+        FileUtils.deleteDirectory(checkpointFile.getParentFile());
+
+        processor = new RecordingGalleryProcessor();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(checkpointFile.getParentFile());
+        super.tearDown();
+    }
+
+    @Test
+    public void testResumeAfterCheckpoint() throws Exception {
+        final Properties checkpoint = new Properties();
+        checkpoint.setProperty("rootPath", GALLERY_PATH);
+        checkpoint.setProperty("lastPath", GALLERY_PATH + "/a/a2/a2");
+        FileUtils.forceMkdir(checkpointFile.getParentFile());
+
+        try (OutputStream output = new FileOutputStream(checkpointFile)) {
+            checkpoint.store(output, null);
+        }
+
+        final ImageVariantRegenerationJob job = createJob(1, 2);
+        job.run();
+
+        assertEquals(3L, job.getTotalCount());
+        assertEquals(3L, job.getProcessedCount());
+        assertEquals(0L, job.getFailedCount());
+        assertEquals(Arrays.asList(GALLERY_PATH + "/b/b0/b0", GALLERY_PATH + "/b/b1/b1", GALLERY_PATH + "/b/b2/b2"),
+                processor.getRegeneratedPaths());
+        assertEquals(new HashSet<>(Arrays.asList("b0", "b1", "b2")), getSavedImageSetNames());
+    }
+
+    @Test
+    public void testFailedBatchRetriedOneByOne() throws Exception {
+        processor.setUnsavableImageSetName("a1");
+
+        final ImageVariantRegenerationJob job = createJob(1, 3);
+        job.run();
+
+        assertEquals(6L, job.getTotalCount());
+        assertEquals(5L, job.getProcessedCount());
+        assertEquals(1L, job.getFailedCount());
+        // the first batch is regenerated again one by one after failing to save, the second batch is saved at once.
+        assertEquals(Arrays.asList(
+                GALLERY_PATH + "/a/a0/a0", GALLERY_PATH + "/a/a1/a1", GALLERY_PATH + "/a/a2/a2",
+                GALLERY_PATH + "/a/a0/a0", GALLERY_PATH + "/a/a1/a1", GALLERY_PATH + "/a/a2/a2",
+                GALLERY_PATH + "/b/b0/b0", GALLERY_PATH + "/b/b1/b1", GALLERY_PATH + "/b/b2/b2"),
+                processor.getRegeneratedPaths());
+        assertEquals(new HashSet<>(Arrays.asList("a0", "a2", "b0", "b1", "b2")), getSavedImageSetNames());
+    }
+
+    @Test
+    public void testCheckpointKeptBeforeFailedImageSet() throws Exception {
+        processor.setUnsavableImageSetName("a1");
+
+        createJob(1, 3).run();
+
+        // the checkpoint stops before the failed image set, and is kept to retry it in the next run.
+        assertEquals(GALLERY_PATH + "/a/a0/a0", readCheckpoint().getProperty("lastPath"));
+
+        processor.setUnsavableImageSetName(null);
+        processor.getRegeneratedPaths().clear();
+        final ImageVariantRegenerationJob job = createJob(1, 3);
+        job.run();
+
+        assertEquals(5L, job.getTotalCount());
+        assertEquals(5L, job.getProcessedCount());
+        assertEquals(0L, job.getFailedCount());
+        assertEquals(GALLERY_PATH + "/a/a1/a1", processor.getRegeneratedPaths().get(0));
+        assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void testCheckpointDeletedOnCompletion() throws Exception {
+        final ImageVariantRegenerationJob job = createJob(1, 2);
+        job.run();
+
+        assertEquals(6L, job.getProcessedCount());
+        assertEquals(0L, job.getFailedCount());
+        // the checkpoint is written once the first batch is saved, and deleted when the job completes.
+        assertFalse(processor.getCheckpointExistences().get(0));
+        assertTrue(processor.getCheckpointExistences().get(5));
+        assertFalse(checkpointFile.exists());
+    }
+
+    private ImageVariantRegenerationJob createJob(final int workers, final int batchSize) {
+        final ImageVariantRegenerationJob job = new ImageVariantRegenerationJob(session, processor, GALLERY_PATH);
+        job.setWorkers(workers);
+        job.setBatchSize(batchSize);
+        job.setCheckpointFile(checkpointFile);
+        return job;
+    }
+
+    private Properties readCheckpoint() throws IOException {
+        final Properties checkpoint = new Properties();
+
+        try (InputStream input = new FileInputStream(checkpointFile)) {
+            checkpoint.load(input);
+        }
+
+        return checkpoint;
+    }
+
+    private Set<String> getSavedImageSetNames() throws RepositoryException {
+        session.refresh(false);
+        final Set<String> names = new HashSet<>();
+
+        for (NodeIterator it = session.getNode(REGENERATED_PATH).getNodes(); it.hasNext(); ) {
+            names.add(it.nextNode().getName());
+        }
+
+        return names;
+    }
+
+    private static void addImageSet(final Node folderNode, final String name) throws RepositoryException {
+        final Node handleNode = folderNode.addNode(name, HippoNodeType.NT_HANDLE);
+        final Node imageSetNode = handleNode.addNode(name, HippoGalleryNodeType.IMAGE_SET);
+        imageSetNode.setProperty(HippoGalleryNodeType.IMAGE_SET_FILE_NAME, name + ".png");
+        addImage(imageSetNode, HippoGalleryNodeType.IMAGE_SET_ORIGINAL);
+        addImage(imageSetNode, HippoGalleryNodeType.IMAGE_SET_THUMBNAIL);
+    }
+
+    private static void addImage(final Node imageSetNode, final String variantName) throws RepositoryException {
+        final Node imageNode = imageSetNode.addNode(variantName, HippoGalleryNodeType.IMAGE);
+        imageNode.setProperty("jcr:data", imageSetNode.getSession().getValueFactory()
+                .createBinary(new ByteArrayInputStream("image".getBytes(StandardCharsets.UTF_8))));
+        imageNode.setProperty("jcr:mimeType", "image/png");
+        imageNode.setProperty("jcr:lastModified", Calendar.getInstance());
+    }
+
+    /**
+     * Gallery processor recording the regenerated image sets in the order of the regeneration, and marking each
+     * regenerated image set by a node under {@link #REGENERATED_PATH}, saved with the regenerated image variants.
+     */
+    private class RecordingGalleryProcessor extends MagickCommandGalleryProcessor {
+
+        private final List<String> regeneratedPaths = Collections.synchronizedList(new ArrayList<>());
+
+        private final List<Boolean> checkpointExistences = Collections.synchronizedList(new ArrayList<>());
+
+        private String unsavableImageSetName;
+
+        private RecordingGalleryProcessor() {
+            super(null, null);
+        }
+
+        @Override
+        public List<String> regenerateImageVariants(final Node imageSetNode, final Collection<String> variantNames)
+                throws RepositoryException {
+            regeneratedPaths.add(imageSetNode.getPath());
+            checkpointExistences.add(checkpointFile.isFile());
+
+            final Session workerSession = imageSetNode.getSession();
+            final Node regeneratedNode = workerSession.getNode(REGENERATED_PATH);
+            regeneratedNode.addNode(imageSetNode.getName());
+
+            if (imageSetNode.getName().equals(unsavableImageSetName)) {
+                // an nt:resource without the mandatory jcr:data fails on save, not when added.
+                regeneratedNode.addNode(imageSetNode.getName() + "-unsavable", "nt:resource");
+            }
+
+            return Collections.emptyList();
+        }
+
+        private List<String> getRegeneratedPaths() {
+            return regeneratedPaths;
+        }
+
+        private List<Boolean> getCheckpointExistences() {
+            return checkpointExistences;
+        }
+
+        private void setUnsavableImageSetName(final String unsavableImageSetName) {
+            this.unsavableImageSetName = unsavableImageSetName;
+        }
+    }
+}
@@ -23,13 +23,76 @@ import org.apache.commons.lang3.math.NumberUtils;
 
 /**
  * Image Dimension.
+ * <P>
+ * An image dimension may also be used as a resize geometry with a {@link ResizeMode}. {@link #resize(ImageDimension)}
+ * predicts the dimension of an image resized by the geometry, in the same way as ImageMagick or GraphicsMagick
+ * <code>-resize</code> option does, so the resized image doesn't need to be identified again.
+ * </P>
  */
 public class ImageDimension implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Resize mode of a geometry, represented by a flag appended to the geometry in the command line.
+     */
+    public enum ResizeMode {
+
+        /**
+         * Fit the image within the geometry keeping the aspect ratio, enlarging or shrinking it. e.g, <code>120x120</code>.
+         */
+        FIT(""),
+
+        /**
+         * Shrink the image to fit within the geometry only if it is larger than the geometry.
+         * e.g, <code>120x120&gt;</code>.
+         */
+        SHRINK_ONLY(">"),
+
+        /**
+         * Fill the geometry keeping the aspect ratio, so the smaller side of the image matches the geometry.
+         * e.g, <code>120x120^</code>.
+         */
+        FILL("^"),
+
+        /**
+         * Resize the image to the exact geometry, ignoring the aspect ratio. e.g, <code>120x120!</code>.
+         */
+        EXACT("!");
+
+        private final String flag;
+
+        ResizeMode(final String flag) {
+            this.flag = flag;
+        }
+
+        /**
+         * Returns the geometry flag of the resize mode.
+         * @return the geometry flag of the resize mode
+         */
+        public String getFlag() {
+            return flag;
+        }
+
+        /**
+         * Returns the resize mode of the geometry {@code flag}, or {@link #FIT} if not a geometry flag.
+         * @param flag geometry flag
+         * @return the resize mode of the geometry {@code flag}
+         */
+        public static ResizeMode fromFlag(final char flag) {
+            for (ResizeMode mode : values()) {
+                if (mode.flag.length() == 1 && mode.flag.charAt(0) == flag) {
+                    return mode;
+                }
+            }
+
+            return FIT;
+        }
+    }
+
     private int width;
     private int height;
+    private ResizeMode resizeMode = ResizeMode.FIT;
 
     public ImageDimension() {
     }
@@ -39,6 +102,11 @@ public class ImageDimension implements Serializable {
         setHeight(height);
     }
 
+    public ImageDimension(int width, int height, ResizeMode resizeMode) {
+        this(width, height);
+        setResizeMode(resizeMode);
+    }
+
     public int getWidth() {
         return width;
     }
@@ -63,6 +131,58 @@ public class ImageDimension implements Serializable {
         this.height = height;
     }
 
+    /**
+     * Returns the resize mode when used as a resize geometry.
+     * @return the resize mode when used as a resize geometry
+     */
+    public ResizeMode getResizeMode() {
+        return resizeMode;
+    }
+
+    public void setResizeMode(ResizeMode resizeMode) {
+        this.resizeMode = (resizeMode != null) ? resizeMode : ResizeMode.FIT;
+    }
+
+    /**
+     * Returns the dimension of an image of {@code sourceDimension} resized by this geometry and its resize mode,
+     * with the same rounding as ImageMagick and GraphicsMagick: each side is scaled by the same factor and rounded
+     * to the nearest integer, but not less than 1 pixel.
+     * A width or height of 0 is unbounded, and the image is not resized at all if both are 0.
+     * @param sourceDimension dimension of the source image
+     * @return the dimension of the resized image
+     */
+    public ImageDimension resize(final ImageDimension sourceDimension) {
+        final int sourceWidth = sourceDimension.getWidth();
+        final int sourceHeight = sourceDimension.getHeight();
+
+        if ((width == 0 && height == 0) || sourceWidth == 0 || sourceHeight == 0) {
+            return ImageDimension.from(sourceWidth, sourceHeight);
+        }
+
+        if (resizeMode == ResizeMode.EXACT && width > 0 && height > 0) {
+            return ImageDimension.from(width, height);
+        }
+
+        final double xScale = (double) width / sourceWidth;
+        final double yScale = (double) height / sourceHeight;
+        double scale;
+
+        if (width > 0 && height > 0) {
+            scale = (resizeMode == ResizeMode.FILL) ? Math.max(xScale, yScale) : Math.min(xScale, yScale);
+        } else if (width > 0) {
+            scale = xScale;
+        } else {
+            scale = yScale;
+        }
+
+        if (resizeMode == ResizeMode.SHRINK_ONLY && scale >= 1.0) {
+            return ImageDimension.from(sourceWidth, sourceHeight);
+        }
+
+        return ImageDimension.from(Math.max((int) Math.floor(scale * sourceWidth + 0.5), 1),
+                Math.max((int) Math.floor(scale * sourceHeight + 0.5), 1));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof ImageDimension)) {
@@ -71,17 +191,17 @@ public class ImageDimension implements Serializable {
 
         ImageDimension other = (ImageDimension) o;
 
-        return width == other.width && height == other.height;
+        return width == other.width && height == other.height && resizeMode == other.resizeMode;
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder().append(width).append(height).toHashCode();
+        return new HashCodeBuilder().append(width).append(height).append(resizeMode).toHashCode();
     }
 
     @Override
     public String toString() {
-        return new StringBuilder(20).append(width).append('x').append(height).toString();
+        return new StringBuilder(20).append(width).append('x').append(height).append(resizeMode.getFlag()).toString();
     }
 
     /**
@@ -89,6 +209,7 @@ public class ImageDimension implements Serializable {
      * A width or height of 0 means "unbounded", and results in a bounding box that does not restrict scaling in either
      * the width or height, respectively.
      * When both width and height are 0 or less, the image is not scaled at all but merely copied.
+     * Otherwise, the flag of the resize mode is appended, e.g, <code>120x120&gt;</code>.
      */
     public String toCommandArgument() {
         StringBuilder arg = new StringBuilder(20);
@@ -102,6 +223,10 @@ public class ImageDimension implements Serializable {
             arg.append('x').append(height);
         }
 
+        if (width > 0 || height > 0) {
+            arg.append(resizeMode.getFlag());
+        }
+
         return arg.toString();
     }
 
@@ -113,16 +238,37 @@ public class ImageDimension implements Serializable {
         return new ImageDimension(width, height);
     }
 
+    public static ImageDimension from(final int width, final int height, final ResizeMode resizeMode) {
+        final ImageDimension dimension = from(width, height);
+        dimension.setResizeMode(resizeMode);
+        return dimension;
+    }
+
+    /**
+     * Parses a dimension such as <code>120x80</code>, or a resize geometry such as <code>120x</code>,
+     * <code>x80</code> or <code>120x80&gt;</code> with a trailing flag of {@link ResizeMode}.
+     * @param dimension dimension string
+     * @return the parsed dimension
+     */
     public static ImageDimension from(final String dimension) {
         int width = -1;
         int height = -1;
+        ResizeMode resizeMode = ResizeMode.FIT;
 
         if (StringUtils.isNotBlank(dimension)) {
-            int offset = dimension.indexOf('x');
+            String geometry = dimension.trim();
+            final char lastChar = geometry.charAt(geometry.length() - 1);
+
+            if (ResizeMode.fromFlag(lastChar) != ResizeMode.FIT) {
+                resizeMode = ResizeMode.fromFlag(lastChar);
+                geometry = geometry.substring(0, geometry.length() - 1);
+            }
+
+            int offset = geometry.indexOf('x');
 
             if (offset != -1) {
-                width = NumberUtils.toInt(dimension.substring(0, offset));
-                height = NumberUtils.toInt(dimension.substring(offset + 1));
+                width = NumberUtils.toInt(geometry.substring(0, offset));
+                height = NumberUtils.toInt(geometry.substring(offset + 1));
             }
         }
 
@@ -130,6 +276,6 @@ public class ImageDimension implements Serializable {
             throw new IllegalArgumentException("Invalid dimension: '" + dimension + "'.");
         }
 
-        return new ImageDimension(width, height);
+        return new ImageDimension(width, height, resizeMode);
     }
 }
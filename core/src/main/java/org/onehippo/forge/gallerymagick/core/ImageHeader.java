@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core;
+
+import java.io.Serializable;
+
+/**
+ * Image format, dimension and orientation read from the header of an image by {@link ImageHeaderReader}.
+ */
+public class ImageHeader implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * EXIF orientation value of an image stored upright.
+     */
+    public static final int ORIENTATION_TOP_LEFT = 1;
+
+    private final String format;
+    private final int width;
+    private final int height;
+    private final int orientation;
+
+    public ImageHeader(final String format, final int width, final int height, final int orientation) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.orientation = (orientation >= 1 && orientation <= 8) ? orientation : ORIENTATION_TOP_LEFT;
+    }
+
+    /**
+     * Returns the image format name, e.g, <code>jpeg</code>, <code>png</code>.
+     * @return the image format name
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the EXIF orientation value from 1 to 8, or {@link #ORIENTATION_TOP_LEFT} if not specified.
+     * @return the EXIF orientation value from 1 to 8
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Returns the stored dimension of the image, which is what <code>identify -format %wx%h</code> reports.
+     * @return the stored dimension of the image
+     */
+    public ImageDimension getDimension() {
+        return ImageDimension.from(width, height);
+    }
+
+    /**
+     * Returns the dimension of the image as displayed, swapping the width and the height
+     * if the EXIF orientation rotates the image by 90 degrees (orientation 5 to 8).
+     * @return the dimension of the image as displayed
+     */
+    public ImageDimension getDisplayDimension() {
+        if (orientation >= 5) {
+            return ImageDimension.from(height, width);
+        }
+
+        return getDimension();
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(40).append(format).append(' ').append(width).append('x').append(height)
+                .append(" orientation=").append(orientation).toString();
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the dimension and the EXIF orientation from the header of JPEG, PNG, GIF, WebP, BMP and TIFF images
+ * without decoding them, typically reading less than a few hundred bytes.
+ * <P>
+ * {@link #read(File)} returns null for any other format or for a header it cannot parse,
+ * so the caller may fall back to a full identification, e.g, by <code>identify</code> command.
+ * </P>
+ */
+public class ImageHeaderReader {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageHeaderReader.class);
+
+    /**
+     * The number of the magic bytes at the beginning of an image to detect its format.
+     */
+    public static final int MAGIC_LENGTH = 12;
+
+    private static final int TIFF_TAG_IMAGE_WIDTH = 256;
+    private static final int TIFF_TAG_IMAGE_LENGTH = 257;
+    private static final int TIFF_TAG_ORIENTATION = 274;
+
+    private static final int TIFF_TYPE_SHORT = 3;
+    private static final int TIFF_TYPE_LONG = 4;
+
+    /**
+     * Maximum number of JPEG segments to walk through before giving up finding a frame header.
+     */
+    private static final int MAX_JPEG_SEGMENTS = 256;
+
+    /**
+     * Maximum number of GIF extension blocks to skip before giving up finding the first image descriptor.
+     */
+    private static final int MAX_GIF_BLOCKS = 4096;
+
+    private ImageHeaderReader() {
+    }
+
+    /**
+     * Reads the header of the image {@code file}.
+     * @param file image file
+     * @return the image header, or null if the format is not supported or the header cannot be parsed
+     */
+    public static ImageHeader read(final File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return read(raf);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to read the image header of {}: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the stored dimension of the image {@code file} from its header.
+     * @param file image file
+     * @return the stored dimension of the image, or null if the format is not supported or the header cannot be parsed
+     */
+    public static ImageDimension readDimension(final File file) {
+        final ImageHeader header = read(file);
+        return (header != null) ? header.getDimension() : null;
+    }
+
+    /**
+     * Detects the image format by the magic bytes at the beginning of an image, which are at least
+     * {@link #MAGIC_LENGTH} bytes to detect all the formats.
+     * @param magic the bytes at the beginning of an image
+     * @param length the number of the valid bytes in {@code magic}
+     * @return the image format name, e.g, <code>jpeg</code>, <code>png</code>, or null if not detected
+     */
+    public static String detectFormat(final byte [] magic, final int length) {
+        if (length >= 2 && u8(magic, 0) == 0xFF && u8(magic, 1) == 0xD8) {
+            return "jpeg";
+        }
+
+        if (length >= 4 && u8(magic, 0) == 0x89 && magic[1] == 'P' && magic[2] == 'N' && magic[3] == 'G') {
+            return "png";
+        }
+
+        if (length >= 4 && magic[0] == 'G' && magic[1] == 'I' && magic[2] == 'F' && magic[3] == '8') {
+            return "gif";
+        }
+
+        if (length >= 12 && magic[0] == 'R' && magic[1] == 'I' && magic[2] == 'F' && magic[3] == 'F'
+                && magic[8] == 'W' && magic[9] == 'E' && magic[10] == 'B' && magic[11] == 'P') {
+            return "webp";
+        }
+
+        if (length >= 2 && magic[0] == 'B' && magic[1] == 'M') {
+            return "bmp";
+        }
+
+        if (length >= 4 && ((magic[0] == 'I' && magic[1] == 'I' && magic[2] == 42 && magic[3] == 0)
+                || (magic[0] == 'M' && magic[1] == 'M' && magic[2] == 0 && magic[3] == 42))) {
+            return "tiff";
+        }
+
+        return null;
+    }
+
+    private static ImageHeader read(final RandomAccessFile raf) throws IOException {
+        final byte [] magic = new byte[MAGIC_LENGTH];
+        final int len = raf.read(magic);
+
+        if (len < MAGIC_LENGTH) {
+            return null;
+        }
+
+        final String format = detectFormat(magic, len);
+
+        if ("jpeg".equals(format)) {
+            return readJpeg(raf);
+        } else if ("png".equals(format)) {
+            return readPng(raf);
+        } else if ("gif".equals(format)) {
+            return readGif(raf);
+        } else if ("webp".equals(format)) {
+            return readWebp(raf);
+        } else if ("bmp".equals(format)) {
+            return readBmp(raf);
+        } else if ("tiff".equals(format)) {
+            final TiffHeader tiff = readTiff(raf, 0L, true);
+            return (tiff != null && tiff.width > 0 && tiff.height > 0)
+                    ? new ImageHeader("tiff", tiff.width, tiff.height, tiff.orientation) : null;
+        }
+
+        return null;
+    }
+
+    private static ImageHeader readJpeg(final RandomAccessFile raf) throws IOException {
+        long pos = 2L;
+        int orientation = ImageHeader.ORIENTATION_TOP_LEFT;
+
+        for (int i = 0; i < MAX_JPEG_SEGMENTS; i++) {
+            raf.seek(pos);
+            int marker = raf.readUnsignedByte();
+
+            if (marker != 0xFF) {
+                return null;
+            }
+
+            while (marker == 0xFF) {
+                marker = raf.readUnsignedByte();
+            }
+
+            pos = raf.getFilePointer();
+
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // standalone markers without length.
+                continue;
+            }
+
+            if (marker == 0xD9 || marker == 0xDA) {
+                // end of image or start of scan before any frame header.
+                return null;
+            }
+
+            final int length = raf.readUnsignedShort();
+
+            if (length < 2) {
+                return null;
+            }
+
+            if (isJpegStartOfFrame(marker)) {
+                raf.readUnsignedByte(); // sample precision
+                final int height = raf.readUnsignedShort();
+                final int width = raf.readUnsignedShort();
+                return (width > 0 && height > 0) ? new ImageHeader("jpeg", width, height, orientation) : null;
+            }
+
+            if (marker == 0xE1 && length >= 16) {
+                final byte [] exifId = new byte[6];
+                raf.readFully(exifId);
+
+                if (exifId[0] == 'E' && exifId[1] == 'x' && exifId[2] == 'i' && exifId[3] == 'f'
+                        && exifId[4] == 0 && exifId[5] == 0) {
+                    final TiffHeader tiff = readTiff(raf, pos + 8L, false);
+
+                    if (tiff != null) {
+                        orientation = tiff.orientation;
+                    }
+                }
+            }
+
+            pos += length;
+        }
+
+        return null;
+    }
+
+    private static boolean isJpegStartOfFrame(final int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static ImageHeader readPng(final RandomAccessFile raf) throws IOException {
+        final byte [] buf = new byte[24];
+        raf.seek(0L);
+        raf.readFully(buf);
+
+        if (buf[12] != 'I' || buf[13] != 'H' || buf[14] != 'D' || buf[15] != 'R') {
+            return null;
+        }
+
+        final long width = u32be(buf, 16);
+        final long height = u32be(buf, 20);
+        return (width > 0 && height > 0 && width <= Integer.MAX_VALUE && height <= Integer.MAX_VALUE)
+                ? new ImageHeader("png", (int) width, (int) height, ImageHeader.ORIENTATION_TOP_LEFT) : null;
+    }
+
+    private static ImageHeader readGif(final RandomAccessFile raf) throws IOException {
+        final byte [] buf = new byte[13];
+        raf.seek(0L);
+        raf.readFully(buf);
+
+        long pos = 13L;
+        final int flags = u8(buf, 10);
+
+        if ((flags & 0x80) != 0) {
+            pos += 3L * (1 << ((flags & 0x07) + 1));
+        }
+
+        for (int i = 0; i < MAX_GIF_BLOCKS; i++) {
+            raf.seek(pos);
+            final int introducer = raf.readUnsignedByte();
+
+            if (introducer == 0x2C) {
+                // image descriptor: left, top, width, height in little endian.
+                final byte [] desc = new byte[8];
+                raf.readFully(desc);
+                final int width = u16le(desc, 4);
+                final int height = u16le(desc, 6);
+                return (width > 0 && height > 0) ? new ImageHeader("gif", width, height,
+                        ImageHeader.ORIENTATION_TOP_LEFT) : null;
+            } else if (introducer == 0x21) {
+                raf.readUnsignedByte(); // extension label
+                int blockSize;
+
+                while ((blockSize = raf.readUnsignedByte()) != 0) {
+                    raf.seek(raf.getFilePointer() + blockSize);
+                }
+
+                pos = raf.getFilePointer();
+            } else {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    private static ImageHeader readWebp(final RandomAccessFile raf) throws IOException {
+        final byte [] buf = new byte[30];
+        raf.seek(0L);
+        raf.readFully(buf);
+
+        if (buf[12] == 'V' && buf[13] == 'P' && buf[14] == '8' && buf[15] == ' ') {
+            // lossy: frame tag (3 bytes), start code 9d 01 2a, then 14 bit width and height.
+            if (u8(buf, 23) != 0x9D || u8(buf, 24) != 0x01 || u8(buf, 25) != 0x2A) {
+                return null;
+            }
+
+            return new ImageHeader("webp", u16le(buf, 26) & 0x3FFF, u16le(buf, 28) & 0x3FFF,
+                    ImageHeader.ORIENTATION_TOP_LEFT);
+        } else if (buf[12] == 'V' && buf[13] == 'P' && buf[14] == '8' && buf[15] == 'L') {
+            // lossless: signature 0x2f, then 14 bit (width - 1) and 14 bit (height - 1).
+            if (u8(buf, 20) != 0x2F) {
+                return null;
+            }
+
+            final long bits = u32le(buf, 21);
+            return new ImageHeader("webp", (int) (bits & 0x3FFF) + 1, (int) ((bits >> 14) & 0x3FFF) + 1,
+                    ImageHeader.ORIENTATION_TOP_LEFT);
+        } else if (buf[12] == 'V' && buf[13] == 'P' && buf[14] == '8' && buf[15] == 'X') {
+            // extended: flags (4 bytes), then 24 bit (canvas width - 1) and 24 bit (canvas height - 1).
+            return new ImageHeader("webp", u24le(buf, 24) + 1, u24le(buf, 27) + 1, ImageHeader.ORIENTATION_TOP_LEFT);
+        }
+
+        return null;
+    }
+
+    private static ImageHeader readBmp(final RandomAccessFile raf) throws IOException {
+        final byte [] buf = new byte[26];
+        raf.seek(0L);
+        raf.readFully(buf);
+
+        final long dibHeaderSize = u32le(buf, 14);
+
+        if (dibHeaderSize == 12L) {
+            return new ImageHeader("bmp", u16le(buf, 18), u16le(buf, 20), ImageHeader.ORIENTATION_TOP_LEFT);
+        } else if (dibHeaderSize >= 40L) {
+            final int width = (int) u32le(buf, 18);
+            // negative height means a top-down bitmap.
+            final int height = Math.abs((int) u32le(buf, 22));
+            return (width > 0 && height > 0) ? new ImageHeader("bmp", width, height,
+                    ImageHeader.ORIENTATION_TOP_LEFT) : null;
+        }
+
+        return null;
+    }
+
+    private static class TiffHeader {
+        private int width;
+        private int height;
+        private int orientation = ImageHeader.ORIENTATION_TOP_LEFT;
+    }
+
+    /**
+     * Reads the first IFD of the TIFF structure starting at {@code base}, which is either a TIFF file
+     * or the EXIF data in a JPEG APP1 segment.
+     */
+    private static TiffHeader readTiff(final RandomAccessFile raf, final long base, final boolean dimensionRequired)
+            throws IOException {
+        final byte [] buf = new byte[8];
+        raf.seek(base);
+        raf.readFully(buf);
+
+        final boolean littleEndian;
+
+        if (buf[0] == 'I' && buf[1] == 'I') {
+            littleEndian = true;
+        } else if (buf[0] == 'M' && buf[1] == 'M') {
+            littleEndian = false;
+        } else {
+            return null;
+        }
+
+        final long ifdOffset = u32(buf, 4, littleEndian);
+        raf.seek(base + ifdOffset);
+        final byte [] countBuf = new byte[2];
+        raf.readFully(countBuf);
+        final int entryCount = u16(countBuf, 0, littleEndian);
+
+        final TiffHeader tiff = new TiffHeader();
+        final byte [] entry = new byte[12];
+
+        for (int i = 0; i < entryCount; i++) {
+            raf.readFully(entry);
+            final int tag = u16(entry, 0, littleEndian);
+            final int type = u16(entry, 2, littleEndian);
+            final long value;
+
+            if (type == TIFF_TYPE_SHORT) {
+                value = u16(entry, 8, littleEndian);
+            } else if (type == TIFF_TYPE_LONG) {
+                value = u32(entry, 8, littleEndian);
+            } else {
+                continue;
+            }
+
+            if (tag == TIFF_TAG_IMAGE_WIDTH) {
+                tiff.width = (int) value;
+            } else if (tag == TIFF_TAG_IMAGE_LENGTH) {
+                tiff.height = (int) value;
+            } else if (tag == TIFF_TAG_ORIENTATION && value >= 1 && value <= 8) {
+                tiff.orientation = (int) value;
+            }
+
+            if (!dimensionRequired && tag > TIFF_TAG_ORIENTATION) {
+                // IFD entries are sorted by tag.
+                break;
+            }
+        }
+
+        return tiff;
+    }
+
+    private static int u8(final byte [] buf, final int offset) {
+        return buf[offset] & 0xFF;
+    }
+
+    private static int u16le(final byte [] buf, final int offset) {
+        return u8(buf, offset) | (u8(buf, offset + 1) << 8);
+    }
+
+    private static int u24le(final byte [] buf, final int offset) {
+        return u16le(buf, offset) | (u8(buf, offset + 2) << 16);
+    }
+
+    private static long u32le(final byte [] buf, final int offset) {
+        return (u16le(buf, offset) | ((long) u16le(buf, offset + 2) << 16)) & 0xFFFFFFFFL;
+    }
+
+    private static long u32be(final byte [] buf, final int offset) {
+        return (((long) u8(buf, offset) << 24) | (u8(buf, offset + 1) << 16) | (u8(buf, offset + 2) << 8)
+                | u8(buf, offset + 3)) & 0xFFFFFFFFL;
+    }
+
+    private static int u16(final byte [] buf, final int offset, final boolean littleEndian) {
+        return littleEndian ? u16le(buf, offset) : ((u8(buf, offset) << 8) | u8(buf, offset + 1));
+    }
+
+    private static long u32(final byte [] buf, final int offset, final boolean littleEndian) {
+        return littleEndian ? u32le(buf, offset) : u32be(buf, offset);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core;
+
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.lang3.time.DateUtils;
+
+/**
+ * A metadata field of an {@link ImageMetadataProfile}, extracted by a <code>-format</code> escape,
+ * e.g, <code>%[EXIF:Model]</code>, of the Image Magick or Graphics Magick <code>identify</code> command.
+ */
+public class ImageMetadataField implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Type of a metadata field value.
+     */
+    public enum Type {
+
+        /**
+         * Trimmed text value.
+         */
+        STRING,
+
+        /**
+         * Integer value, parsed from the leading integer of the text, e.g, <code>72</code> from <code>72 PixelsPerInch</code>.
+         */
+        LONG,
+
+        /**
+         * Decimal value, parsed from a decimal or an EXIF rational like <code>28/10</code>.
+         */
+        DOUBLE,
+
+        /**
+         * Date value, parsed from an EXIF date like <code>2024:05:31 14:02:11</code> or an ISO 8601 date.
+         */
+        DATE
+    }
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]*");
+
+    private static final Pattern LEADING_INTEGER_PATTERN = Pattern.compile("^[-+]?\\d+");
+
+    private static final String [] DATE_PATTERNS = { "yyyy:MM:dd HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ssXXX",
+            "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd HH:mm:ss", "yyyy:MM:dd", "yyyy-MM-dd" };
+
+    private final String name;
+    private final Type type;
+    private final String imageMagickEscape;
+    private final String graphicsMagickEscape;
+
+    public ImageMetadataField(final String name, final Type type, final String escape) {
+        this(name, type, escape, escape);
+    }
+
+    public ImageMetadataField(final String name, final Type type, final String imageMagickEscape,
+            final String graphicsMagickEscape) {
+        if (name == null || !NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid metadata field name: " + name);
+        }
+
+        if (!isValidEscape(imageMagickEscape) || !isValidEscape(graphicsMagickEscape)) {
+            throw new IllegalArgumentException("Invalid metadata field escape: " + imageMagickEscape + ", "
+                    + graphicsMagickEscape);
+        }
+
+        this.name = name;
+        this.type = (type != null) ? type : Type.STRING;
+        this.imageMagickEscape = imageMagickEscape;
+        this.graphicsMagickEscape = graphicsMagickEscape;
+    }
+
+    /**
+     * Parses a metadata field specification in the form of <code>name[:type]=escape[|escape]</code>, e.g,
+     * <code>exif.isoSpeed:long=%[EXIF:ISOSpeedRatings]</code> or <code>colorspace=%[colorspace]|%r</code>.
+     * The type is one of {@link Type}, case insensitive, and {@link Type#STRING} if omitted.
+     * The second escape is for Graphics Magick, and the same escape is used for both if omitted.
+     * @param spec metadata field specification
+     * @return a parsed {@link ImageMetadataField}
+     */
+    public static ImageMetadataField parse(final String spec) {
+        final String nameAndType = StringUtils.trim(StringUtils.substringBefore(spec, "="));
+        final String escapes = StringUtils.trim(StringUtils.substringAfter(spec, "="));
+
+        if (StringUtils.isEmpty(nameAndType) || StringUtils.isEmpty(escapes)) {
+            throw new IllegalArgumentException("Invalid metadata field specification: " + spec);
+        }
+
+        final String name = StringUtils.substringBefore(nameAndType, ":");
+        final String typeName = StringUtils.substringAfter(nameAndType, ":");
+        final Type type = StringUtils.isEmpty(typeName) ? Type.STRING : Type.valueOf(StringUtils.upperCase(typeName));
+        final String imageMagickEscape = StringUtils.substringBefore(escapes, "|");
+        final String graphicsMagickEscape = StringUtils.defaultIfEmpty(StringUtils.substringAfter(escapes, "|"),
+                imageMagickEscape);
+
+        return new ImageMetadataField(name, type, imageMagickEscape, graphicsMagickEscape);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getImageMagickEscape() {
+        return imageMagickEscape;
+    }
+
+    public String getGraphicsMagickEscape() {
+        return graphicsMagickEscape;
+    }
+
+    /**
+     * Converts the text extracted by the escape to a value of the {@link #getType()}: {@link String}, {@link Long},
+     * {@link Double} or {@link Calendar}. Returns null if the text is blank or cannot be converted.
+     * @param text the text extracted by the escape
+     * @return a value of the {@link #getType()}, or null if the text is blank or cannot be converted
+     */
+    public Object toValue(final String text) {
+        final String value = StringUtils.trim(text);
+
+        if (StringUtils.isEmpty(value)) {
+            return null;
+        }
+
+        switch (type) {
+        case LONG:
+            final Matcher m = LEADING_INTEGER_PATTERN.matcher(value);
+            return m.find() ? Long.valueOf(Long.parseLong(m.group())) : null;
+        case DOUBLE:
+            return toDouble(value);
+        case DATE:
+            return toCalendar(value);
+        default:
+            return value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + StringUtils.lowerCase(type.name()) + "=" + imageMagickEscape
+                + (imageMagickEscape.equals(graphicsMagickEscape) ? "" : "|" + graphicsMagickEscape);
+    }
+
+    private static Double toDouble(final String value) {
+        final String numerator = StringUtils.trim(StringUtils.substringBefore(value, "/"));
+        final String denominator = StringUtils.trim(StringUtils.substringAfter(value, "/"));
+
+        if (!NumberUtils.isCreatable(numerator)) {
+            return null;
+        }
+
+        if (StringUtils.isEmpty(denominator)) {
+            return NumberUtils.createDouble(numerator);
+        }
+
+        if (!NumberUtils.isCreatable(denominator) || NumberUtils.createDouble(denominator) == 0.0) {
+            return null;
+        }
+
+        return NumberUtils.createDouble(numerator) / NumberUtils.createDouble(denominator);
+    }
+
+    private static Calendar toCalendar(final String value) {
+        try {
+            final Date date = DateUtils.parseDateStrictly(value, DATE_PATTERNS);
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTime(date);
+            return calendar;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static boolean isValidEscape(final String escape) {
+        // Arguments having whitespaces are quoted by the command line, so they cannot be passed as they are.
+        return StringUtils.isNotEmpty(escape) && !StringUtils.containsWhitespace(escape)
+                && !StringUtils.contains(escape, '"') && !StringUtils.contains(escape, ImageMetadataProfile.FIELD_SEPARATOR);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.onehippo.forge.gallerymagick.core.ImageMetadataField.Type;
+
+/**
+ * An ordered set of {@link ImageMetadataField}s extracted together by a single <code>identify -format</code> command,
+ * which is much cheaper than <code>identify -verbose</code> computing the statistics of all the pixels,
+ * and gives typed values instead of a multi-kilobyte text.
+ */
+public class ImageMetadataProfile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Separator of the field values in the <code>-format</code> expression, which never appears in a metadata text.
+     */
+    static final char FIELD_SEPARATOR = '\u001F';
+
+    /**
+     * The default profile having the dimension, format, colorspace and depth, the EXIF camera fields
+     * and the IPTC caption, keywords, byline and copyright fields.
+     */
+    public static final ImageMetadataProfile DEFAULT = new ImageMetadataProfile(Arrays.asList(
+            new ImageMetadataField("width", Type.LONG, "%w"),
+            new ImageMetadataField("height", Type.LONG, "%h"),
+            new ImageMetadataField("format", Type.STRING, "%m"),
+            new ImageMetadataField("colorspace", Type.STRING, "%[colorspace]", "%r"),
+            new ImageMetadataField("depth", Type.LONG, "%z"),
+            new ImageMetadataField("exif.make", Type.STRING, "%[EXIF:Make]"),
+            new ImageMetadataField("exif.model", Type.STRING, "%[EXIF:Model]"),
+            new ImageMetadataField("exif.dateTimeOriginal", Type.DATE, "%[EXIF:DateTimeOriginal]"),
+            new ImageMetadataField("exif.orientation", Type.LONG, "%[EXIF:Orientation]"),
+            new ImageMetadataField("exif.exposureTime", Type.STRING, "%[EXIF:ExposureTime]"),
+            new ImageMetadataField("exif.fNumber", Type.DOUBLE, "%[EXIF:FNumber]"),
+            new ImageMetadataField("exif.isoSpeed", Type.LONG, "%[EXIF:ISOSpeedRatings]"),
+            new ImageMetadataField("exif.focalLength", Type.DOUBLE, "%[EXIF:FocalLength]"),
+            new ImageMetadataField("iptc.caption", Type.STRING, "%[IPTC:2:120]"),
+            new ImageMetadataField("iptc.keywords", Type.STRING, "%[IPTC:2:25]"),
+            new ImageMetadataField("iptc.byline", Type.STRING, "%[IPTC:2:80]"),
+            new ImageMetadataField("iptc.copyright", Type.STRING, "%[IPTC:2:116]")));
+
+    private final List<ImageMetadataField> fields;
+
+    public ImageMetadataProfile(final List<ImageMetadataField> fields) {
+        if (fields == null || fields.isEmpty()) {
+            throw new IllegalArgumentException("No metadata field.");
+        }
+
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+    }
+
+    /**
+     * Parses the metadata field specifications and returns a profile of them.
+     * See {@link ImageMetadataField#parse(String)} for the specification format.
+     * @param specs metadata field specifications
+     * @return a profile of the parsed metadata fields
+     */
+    public static ImageMetadataProfile parse(final String ... specs) {
+        final List<ImageMetadataField> fields = new ArrayList<>();
+
+        for (String spec : specs) {
+            if (StringUtils.isNotBlank(spec)) {
+                fields.add(ImageMetadataField.parse(spec));
+            }
+        }
+
+        return new ImageMetadataProfile(fields);
+    }
+
+    public List<ImageMetadataField> getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the <code>-format</code> expression for Image Magick <code>identify</code> command.
+     * @return the <code>-format</code> expression for Image Magick <code>identify</code> command
+     */
+    public String toImageMagickFormat() {
+        final StringBuilder sb = new StringBuilder(fields.size() * 16);
+
+        for (ImageMetadataField field : fields) {
+            sb.append(field.getImageMagickEscape()).append(FIELD_SEPARATOR);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the <code>-format</code> expression for Graphics Magick <code>identify</code> command.
+     * @return the <code>-format</code> expression for Graphics Magick <code>identify</code> command
+     */
+    public String toGraphicsMagickFormat() {
+        final StringBuilder sb = new StringBuilder(fields.size() * 16);
+
+        for (ImageMetadataField field : fields) {
+            sb.append(field.getGraphicsMagickEscape()).append(FIELD_SEPARATOR);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Parses the output of the <code>-format</code> expression and returns the ordered map of field name to its typed
+     * value, leaving out the fields having no value.
+     * @param output the output of the <code>-format</code> expression
+     * @return the ordered map of field name to its typed value
+     */
+    public Map<String, Object> toValues(final String output) {
+        final String [] texts = StringUtils.splitPreserveAllTokens(StringUtils.defaultString(output), FIELD_SEPARATOR);
+        final Map<String, Object> values = new LinkedHashMap<>();
+
+        for (int i = 0; i < fields.size() && i < texts.length; i++) {
+            final ImageMetadataField field = fields.get(i);
+            final Object value = field.toValue(texts[i]);
+
+            if (value != null) {
+                values.put(field.getName(), value);
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return fields.toString();
+    }
+}
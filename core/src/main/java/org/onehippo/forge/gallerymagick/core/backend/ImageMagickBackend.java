@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.command.ImageMagickCommand;
+import org.onehippo.forge.gallerymagick.core.command.ImageMagickCommandUtils;
+
+/**
+ * {@link ImageProcessingBackend} executing ImageMagick commands through {@link ImageMagickCommandUtils}.
+ * It supports any format, leaving unsupported ones to fail in the command.
+ */
+public class ImageMagickBackend implements ImageProcessingBackend {
+
+    /**
+     * Backend name.
+     */
+    public static final String NAME = ImageMagickCommand.BACKEND_NAME;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isInProcess() {
+        return false;
+    }
+
+    @Override
+    public boolean supports(final Operation operation, final String format) {
+        return true;
+    }
+
+    @Override
+    public ImageDimension identifyDimension(final File sourceFile) throws IOException {
+        return ImageMagickCommandUtils.identifyDimension(sourceFile);
+    }
+
+    @Override
+    public void resizeImage(final File sourceFile, final File targetFile, final ImageDimension dimension,
+            final String... extraOptions) throws IOException {
+        ImageMagickCommandUtils.resizeImage(sourceFile, targetFile, dimension, extraOptions);
+    }
+
+    @Override
+    public Map<File, ImageDimension> resizeImages(final File sourceFile, final Map<File, ImageDimension> targets)
+            throws IOException {
+        return ImageMagickCommandUtils.resizeImages(sourceFile, targets);
+    }
+
+    @Override
+    public String toString() {
+        return NAME;
+    }
+}
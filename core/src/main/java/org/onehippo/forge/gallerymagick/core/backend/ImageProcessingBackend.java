@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.command.ResizeOperation;
+
+/**
+ * An image processing backend identifying and resizing image files, e.g, by forking ImageMagick or GraphicsMagick
+ * processes, or in the JVM by Scalr.
+ * <P>
+ * {@link ImageProcessingBackendRouter} picks one of the backends for each operation.
+ * </P>
+ */
+public interface ImageProcessingBackend extends ResizeOperation {
+
+    /**
+     * Image processing operations that a backend may or may not support for a format.
+     */
+    enum Operation {
+        IDENTIFY, RESIZE
+    }
+
+    /**
+     * Returns the backend name, e.g, <code>imagemagick</code>, <code>graphicsmagick</code> or <code>scalr</code>.
+     * @return the backend name
+     */
+    String getName();
+
+    /**
+     * Returns true if this backend processes images in the JVM without forking a process, so the heap usage
+     * grows with the image size.
+     * @return true if this backend processes images in the JVM
+     */
+    boolean isInProcess();
+
+    /**
+     * Returns true if this backend supports the {@code operation} for the image {@code format}.
+     * @param operation operation
+     * @param format image format name or file extension, e.g, <code>jpg</code>
+     * @return true if this backend supports the {@code operation} for the image {@code format}
+     */
+    boolean supports(Operation operation, String format);
+
+    /**
+     * Identifies the dimension of the image {@code sourceFile}.
+     * @param sourceFile source image file
+     * @return the dimension of the image
+     * @throws IOException if IO exception occurs
+     */
+    ImageDimension identifyDimension(File sourceFile) throws IOException;
+
+    /**
+     * Resizes the image {@code sourceFile} to each target file and dimension in {@code targets}, and returns
+     * the final dimension of each target file. By default, it resizes the targets one by one.
+     * @param sourceFile source image file
+     * @param targets ordered map of target image file to image dimension
+     * @return map of target image file to its final image dimension, in the same order as {@code targets}
+     * @throws IOException if IO exception occurs
+     */
+    default Map<File, ImageDimension> resizeImages(File sourceFile, Map<File, ImageDimension> targets)
+            throws IOException {
+        final Map<File, ImageDimension> resized = new LinkedHashMap<>();
+
+        if (targets == null || targets.isEmpty()) {
+            return resized;
+        }
+
+        final ImageDimension sourceDimension = identifyDimension(sourceFile);
+
+        for (Map.Entry<File, ImageDimension> entry : targets.entrySet()) {
+            resizeImage(sourceFile, entry.getKey(), entry.getValue());
+            resized.put(entry.getKey(), entry.getValue().resize(sourceDimension));
+        }
+
+        return resized;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.onehippo.forge.gallerymagick.core.backend.ImageProcessingBackend.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks an {@link ImageProcessingBackend} for each operation from the image format, the pixel count
+ * and the latency measured so far.
+ * <P>
+ * A backend is eligible if it {@link ImageProcessingBackend#supports(Operation, String) supports} the operation
+ * for the format, and, if it is {@link ImageProcessingBackend#isInProcess() in-process}, the image has no more pixels
+ * than {@link #PROP_IN_PROCESS_MAX_PIXELS}. So, small thumbnails of common formats may be resized in the JVM
+ * without forking a process, while huge or exotic images are left to ImageMagick or GraphicsMagick.
+ * </P>
+ * <P>
+ * Among the eligible backends, it picks the one with the lowest moving average latency per operation and size class,
+ * recorded through {@link #recordLatency(ImageProcessingBackend, Operation, long, long)}. Until each of them has
+ * enough samples, the first one in the configured order is picked, and every {@link #PROP_EXPLORATION_INTERVAL}th
+ * decision picks the least sampled one to keep the latencies up to date.
+ * </P>
+ */
+public class ImageProcessingBackendRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageProcessingBackendRouter.class);
+
+    /**
+     * Backend preference value to let the router pick a backend.
+     */
+    public static final String AUTO = "auto";
+
+    /**
+     * System property name for the maximum number of pixels of an image to be processed by an in-process backend.
+     */
+    public static final String PROP_IN_PROCESS_MAX_PIXELS = "org.onehippo.forge.gallerymagick.core.backend.inProcess.maxPixels";
+
+    /**
+     * System property name for the number of decisions after which the least sampled backend is picked once.
+     * Zero or a negative value disables the exploration.
+     */
+    public static final String PROP_EXPLORATION_INTERVAL = "org.onehippo.forge.gallerymagick.core.backend.router.explorationInterval";
+
+    /**
+     * The default maximum number of pixels of an image to be processed by an in-process backend.
+     */
+    private static final long DEFAULT_IN_PROCESS_MAX_PIXELS = 4000L * 1000L;
+
+    /**
+     * The default number of decisions after which the least sampled backend is picked once.
+     */
+    private static final int DEFAULT_EXPLORATION_INTERVAL = 50;
+
+    /**
+     * The minimum number of latency samples of each eligible backend before comparing the latencies.
+     */
+    static final int MIN_SAMPLES = 3;
+
+    /**
+     * Weight of a new latency sample in the exponentially weighted moving average.
+     */
+    private static final double EWMA_ALPHA = 0.2;
+
+    /**
+     * Upper pixel bounds of the size classes, each of which keeps its own latencies.
+     */
+    private static final long[] SIZE_CLASS_BOUNDS = { 1000L * 1000L, 4000L * 1000L, 16000L * 1000L };
+
+    private static final ConcurrentMap<String, ImageProcessingBackendRouter> defaultInstances = new ConcurrentHashMap<>();
+
+    private final List<ImageProcessingBackend> backends;
+
+    private final long inProcessMaxPixels;
+
+    private final int explorationInterval;
+
+    private final ConcurrentMap<String, Latency> latencies = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> decisionCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a router over the {@code backends} in the order of preference, with the thresholds configured
+     * by the system properties.
+     * @param backends backends in the order of preference
+     */
+    public ImageProcessingBackendRouter(final List<ImageProcessingBackend> backends) {
+        this(backends,
+                NumberUtils.toLong(System.getProperty(PROP_IN_PROCESS_MAX_PIXELS), DEFAULT_IN_PROCESS_MAX_PIXELS),
+                NumberUtils.toInt(System.getProperty(PROP_EXPLORATION_INTERVAL), DEFAULT_EXPLORATION_INTERVAL));
+    }
+
+    /**
+     * Constructs a router over the {@code backends} in the order of preference.
+     * @param backends backends in the order of preference
+     * @param inProcessMaxPixels maximum number of pixels of an image to be processed by an in-process backend
+     * @param explorationInterval number of decisions after which the least sampled backend is picked once
+     */
+    public ImageProcessingBackendRouter(final List<ImageProcessingBackend> backends, final long inProcessMaxPixels,
+            final int explorationInterval) {
+        if (backends == null || backends.isEmpty()) {
+            throw new IllegalArgumentException("No backend to route to.");
+        }
+
+        this.backends = Collections.unmodifiableList(new ArrayList<>(backends));
+        this.inProcessMaxPixels = inProcessMaxPixels;
+        this.explorationInterval = explorationInterval;
+    }
+
+    /**
+     * Returns the default router shared in the JVM over {@link ScalrBackend} and the Magick backend by the
+     * {@code magickBackendName}, configured by the system properties. So the latencies are learned from all the
+     * images routed in the JVM.
+     * @param magickBackendName Magick backend name, {@link ImageMagickBackend#NAME} or {@link GraphicsMagickBackend#NAME}
+     * @return the default router over {@link ScalrBackend} and the Magick backend by the {@code magickBackendName}
+     * @throws IllegalArgumentException if {@code magickBackendName} is not a Magick backend name
+     */
+    public static ImageProcessingBackendRouter getDefaultInstance(final String magickBackendName) {
+        if (!ImageMagickBackend.NAME.equals(magickBackendName) && !GraphicsMagickBackend.NAME.equals(magickBackendName)) {
+            throw new IllegalArgumentException("Unknown Magick backend name: " + magickBackendName);
+        }
+
+        return defaultInstances.computeIfAbsent(magickBackendName,
+                name -> new ImageProcessingBackendRouter(Arrays.asList(new ScalrBackend(),
+                        ImageMagickBackend.NAME.equals(name) ? new ImageMagickBackend() : new GraphicsMagickBackend())));
+    }
+
+    /**
+     * Returns the backends in the order of preference.
+     * @return the backends in the order of preference
+     */
+    public List<ImageProcessingBackend> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Returns the backend by the {@code name}, or null if not found.
+     * @param name backend name
+     * @return the backend by the {@code name}, or null if not found
+     */
+    public ImageProcessingBackend getBackend(final String name) {
+        for (ImageProcessingBackend backend : backends) {
+            if (backend.getName().equals(name)) {
+                return backend;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Picks a backend for the {@code operation} on an image.
+     * @param operation operation
+     * @param format image format name or file extension
+     * @param pixels number of pixels of the source image, or zero or a negative value if unknown
+     * @return a backend for the {@code operation}, never null
+     * @throws IllegalArgumentException if no backend supports the {@code operation} for the {@code format}
+     */
+    public ImageProcessingBackend route(final Operation operation, final String format, final long pixels) {
+        final List<ImageProcessingBackend> candidates = new ArrayList<>(backends.size());
+
+        for (ImageProcessingBackend backend : backends) {
+            if (isEligible(backend, operation, format, pixels)) {
+                candidates.add(backend);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return getFallbackBackend(operation, format);
+        }
+
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        final int sizeClass = getSizeClass(pixels);
+        final long decision = decisionCounts
+                .computeIfAbsent(operation + "/" + sizeClass, key -> new AtomicLong()).incrementAndGet();
+
+        ImageProcessingBackend leastSampled = null;
+        long leastSamples = Long.MAX_VALUE;
+        ImageProcessingBackend fastest = null;
+        double fastestLatency = Double.MAX_VALUE;
+
+        for (ImageProcessingBackend candidate : candidates) {
+            final Latency latency = latencies.get(getLatencyKey(candidate, operation, sizeClass));
+            final long samples = (latency != null) ? latency.getSamples() : 0L;
+
+            if (samples < leastSamples) {
+                leastSampled = candidate;
+                leastSamples = samples;
+            }
+
+            if (latency != null && latency.getAverage() < fastestLatency) {
+                fastest = candidate;
+                fastestLatency = latency.getAverage();
+            }
+        }
+
+        if (explorationInterval > 0 && decision % explorationInterval == 0) {
+            log.debug("Exploring backend {} for {} of {} pixels.", leastSampled, operation, pixels);
+            return leastSampled;
+        }
+
+        if (leastSamples < MIN_SAMPLES) {
+            return candidates.get(0);
+        }
+
+        return fastest;
+    }
+
+    /**
+     * Records the latency of an operation executed by the {@code backend}.
+     * @param backend backend which executed the operation
+     * @param operation operation
+     * @param pixels number of pixels of the source image, or zero or a negative value if unknown
+     * @param durationNanos duration in nanoseconds
+     */
+    public void recordLatency(final ImageProcessingBackend backend, final Operation operation, final long pixels,
+            final long durationNanos) {
+        latencies.computeIfAbsent(getLatencyKey(backend, operation, getSizeClass(pixels)), key -> new Latency())
+                .record(durationNanos);
+    }
+
+    /**
+     * Returns the moving average latency in nanoseconds of the {@code backend} for the {@code operation} on images
+     * of the size class of {@code pixels}, or -1 if nothing recorded yet.
+     * @param backend backend
+     * @param operation operation
+     * @param pixels number of pixels of the source image, or zero or a negative value if unknown
+     * @return the moving average latency in nanoseconds, or -1 if nothing recorded yet
+     */
+    public double getAverageLatency(final ImageProcessingBackend backend, final Operation operation,
+            final long pixels) {
+        final Latency latency = latencies.get(getLatencyKey(backend, operation, getSizeClass(pixels)));
+        return (latency != null) ? latency.getAverage() : -1;
+    }
+
+    private boolean isEligible(final ImageProcessingBackend backend, final Operation operation, final String format,
+            final long pixels) {
+        if (!backend.supports(operation, format)) {
+            return false;
+        }
+
+        if (!backend.isInProcess()) {
+            return true;
+        }
+
+        if (pixels <= 0L) {
+            // Identifying reads the image header only, but resizing an image of unknown size may exhaust the heap.
+            return operation == Operation.IDENTIFY;
+        }
+
+        return pixels <= inProcessMaxPixels;
+    }
+
+    /**
+     * Returns the first backend supporting the operation for the format, preferring the ones not in-process
+     * as no backend is eligible for the number of pixels.
+     */
+    private ImageProcessingBackend getFallbackBackend(final Operation operation, final String format) {
+        ImageProcessingBackend inProcessBackend = null;
+
+        for (ImageProcessingBackend backend : backends) {
+            if (backend.supports(operation, format)) {
+                if (!backend.isInProcess()) {
+                    return backend;
+                }
+
+                if (inProcessBackend == null) {
+                    inProcessBackend = backend;
+                }
+            }
+        }
+
+        if (inProcessBackend == null) {
+            throw new IllegalArgumentException(
+                    "No backend supports " + operation + " for the image format, '" + format + "'.");
+        }
+
+        return inProcessBackend;
+    }
+
+    private static int getSizeClass(final long pixels) {
+        if (pixels <= 0L) {
+            return -1;
+        }
+
+        for (int i = 0; i < SIZE_CLASS_BOUNDS.length; i++) {
+            if (pixels < SIZE_CLASS_BOUNDS[i]) {
+                return i;
+            }
+        }
+
+        return SIZE_CLASS_BOUNDS.length;
+    }
+
+    private static String getLatencyKey(final ImageProcessingBackend backend, final Operation operation,
+            final int sizeClass) {
+        return backend.getName() + "/" + operation + "/" + sizeClass;
+    }
+
+    /**
+     * Exponentially weighted moving average of latencies.
+     */
+    private static class Latency {
+
+        private long samples;
+
+        private double average;
+
+        synchronized void record(final long durationNanos) {
+            average = (samples == 0L) ? durationNanos : EWMA_ALPHA * durationNanos + (1.0 - EWMA_ALPHA) * average;
+            ++samples;
+        }
+
+        synchronized long getSamples() {
+            return samples;
+        }
+
+        synchronized double getAverage() {
+            return average;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.command.ScalrProcessorUtils;
+
+/**
+ * {@link ImageProcessingBackend} identifying and resizing images in the JVM through {@link ScalrProcessorUtils}.
+ * <P>
+ * It supports only the common web formats for resizing. TIFF images may be identified, but not resized
+ * as the TIFF image writer does not write RGB images correctly.
+ * </P>
+ */
+public class ScalrBackend implements ImageProcessingBackend {
+
+    /**
+     * Backend name.
+     */
+    public static final String NAME = "scalr";
+
+    private static final Set<String> RESIZE_FORMATS = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList("jpg", "jpeg", "png", "gif", "bmp")));
+
+    private static final Set<String> IDENTIFY_FORMATS = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList("jpg", "jpeg", "png", "gif", "bmp", "tif", "tiff")));
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isInProcess() {
+        return true;
+    }
+
+    @Override
+    public boolean supports(final Operation operation, final String format) {
+        final String lowerFormat = StringUtils.lowerCase(format);
+
+        if (operation == Operation.IDENTIFY) {
+            return IDENTIFY_FORMATS.contains(lowerFormat);
+        }
+
+        return RESIZE_FORMATS.contains(lowerFormat);
+    }
+
+    @Override
+    public ImageDimension identifyDimension(final File sourceFile) throws IOException {
+        return ScalrProcessorUtils.identifyDimension(sourceFile);
+    }
+
+    @Override
+    public void resizeImage(final File sourceFile, final File targetFile, final ImageDimension dimension,
+            final String... extraOptions) throws IOException {
+        ScalrProcessorUtils.resizeImage(sourceFile, targetFile, dimension, extraOptions);
+    }
+
+    @Override
+    public String toString() {
+        return NAME;
+    }
+}
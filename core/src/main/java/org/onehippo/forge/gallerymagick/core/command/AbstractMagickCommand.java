@@ -15,23 +15,22 @@
  */
 package org.onehippo.forge.gallerymagick.core.command;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecuteResultHandler;
-import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.ExecuteException;
-import org.apache.commons.exec.ExecuteStreamHandler;
-import org.apache.commons.exec.ExecuteWatchdog;
-import org.apache.commons.exec.PumpStreamHandler;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
@@ -59,6 +58,17 @@ abstract public class AbstractMagickCommand {
      */
     private static final long DEFAULT_COMMAND_TIMEOUT = 3000L;
 
+    /**
+     * Environment variable name for the number of OpenMP threads of a Magick process.
+     */
+    static final String ENV_OMP_NUM_THREADS = "OMP_NUM_THREADS";
+
+    /**
+     * Image formats which can be decoded from a non-seekable standard input stream.
+     */
+    private static final Set<String> STREAMABLE_FORMATS = new HashSet<>(
+            Arrays.asList("jpg", "jpeg", "png", "gif", "bmp", "webp", "ppm", "pgm", "pnm"));
+
     /**
      * Working directory of a command execution.
      */
@@ -79,6 +89,11 @@ abstract public class AbstractMagickCommand {
      */
     private List<String> arguments;
 
+    /**
+     * Resource limits of the next execution, allocated from {@link MagickResourceBudget}.
+     */
+    private MagickResourceBudget.Limits resourceLimits;
+
     /**
      * Constructor with a sub-command.
      * @param executable executable of Magick command
@@ -158,6 +173,22 @@ abstract public class AbstractMagickCommand {
         }
     }
 
+    /**
+     * Returns the resource limits of the next execution, or null if not limited.
+     * @return the resource limits of the next execution, or null if not limited
+     */
+    MagickResourceBudget.Limits getResourceLimits() {
+        return resourceLimits;
+    }
+
+    /**
+     * Sets the resource limits of the next execution.
+     * @param resourceLimits (optional) resource limits of the next execution
+     */
+    void setResourceLimits(MagickResourceBudget.Limits resourceLimits) {
+        this.resourceLimits = resourceLimits;
+    }
+
     /**
      * Execute the Magick command with the sub-command and arguments.
      * @throws MagickExecuteException if an execution exception occurs
@@ -168,71 +199,300 @@ abstract public class AbstractMagickCommand {
     }
 
     /**
-     * Execute the Magick command with the sub-command and arguments.
-     * @param stdOut standard output stream
+     * Execute the Magick command with the sub-command and arguments,
+     * once admitted by the default {@link MagickProcessAdmissionController}.
+     * <P>
+     * The process is limited to its share of the default {@link MagickResourceBudget} by the number of processes
+     * running. If the process is killed for running out of memory before writing anything to {@code stdOut},
+     * it is retried once with its pixel cache on the disk.
+     * </P>
+     * @param stdOut (optional) standard output stream. The standard output is discarded if null.
+     * @throws MagickProcessRejectedException if the execution is not admitted
      * @throws MagickExecuteException if an execution exception occurs
      * @throws IOException if IO exception occurs
      */
     public void execute(final OutputStream stdOut) throws IOException {
-        CommandLine cmdLine = createCommandLine();
-        ByteArrayOutputStream errStream = null;
-        int exitValue = 0;
-        DefaultExecuteResultHandler resultHandler = null;
+        final MagickProcessAdmissionController admissionController = MagickProcessAdmissionController.getDefaultInstance();
+        admissionController.acquire();
 
         try {
-            errStream = new ByteArrayOutputStream(512);
+            final MagickResourceBudget budget = MagickResourceBudget.getDefaultInstance();
+            final int concurrency = admissionController.getRunningCount();
+            final CountingOutputStream outStream = (stdOut != null) ? new CountingOutputStream(stdOut) : null;
+            setResourceLimits(budget.allocate(concurrency));
+
+            try {
+                doExecute(outStream, MagickCommandMetrics.getDefaultInstance().startExecution(getBackendName(),
+                        getSubCommand(), getArguments()));
+            } catch (MagickExecuteException e) {
+                if (getResourceLimits() == null || !MagickResourceBudget.isOutOfMemoryKill(e.getExitValue())
+                        || (outStream != null && outStream.getByteCount() > 0L)) {
+                    throw e;
+                }
+
+                setResourceLimits(budget.allocateDiskBacked(concurrency));
+                log.warn("Magick process killed, probably for running out of memory. Retrying with {}: {}",
+                        getResourceLimits(), e.getMessage());
+                doExecute(outStream, MagickCommandMetrics.getDefaultInstance().startExecution(getBackendName(),
+                        getSubCommand(), getArguments()));
+            }
+        } finally {
+            admissionController.release();
+        }
+    }
 
-            final DefaultExecutor executor = new DefaultExecutor();
-            ExecuteStreamHandler streamHandler;
+    /**
+     * Execute the Magick command with the sub-command and arguments asynchronously, once admitted by the default
+     * {@link MagickProcessAdmissionController}, like {@link #execute(OutputStream)} but without blocking the caller
+     * thread. The returned future is completed when the process exits, without a thread waiting for it.
+     * <P>
+     * The command must not be modified or executed again until the returned future is completed.
+     * </P>
+     * @param stdOut (optional) standard output stream. The standard output is discarded if null.
+     * @return a future completed when the process exits successfully, or completed exceptionally with
+     *         a {@link MagickProcessRejectedException}, a {@link MagickExecuteException} or an {@link IOException}
+     */
+    public CompletableFuture<Void> executeAsync(final OutputStream stdOut) {
+        final MagickProcessAdmissionController admissionController = MagickProcessAdmissionController.getDefaultInstance();
+
+        return admissionController.acquireAsync(MagickProcessExecutor.getDefaultInstance().getAsyncExecutor())
+                .thenCompose(admitted -> {
+                    final CompletableFuture<Void> executed;
+
+                    try {
+                        final MagickResourceBudget budget = MagickResourceBudget.getDefaultInstance();
+                        final int concurrency = admissionController.getRunningCount();
+                        final CountingOutputStream outStream = (stdOut != null) ? new CountingOutputStream(stdOut)
+                                : null;
+                        setResourceLimits(budget.allocate(concurrency));
+
+                        executed = doExecuteAsync(outStream).exceptionallyCompose(t -> {
+                            final Throwable cause = (t instanceof CompletionException && t.getCause() != null)
+                                    ? t.getCause() : t;
+
+                            if (getResourceLimits() == null || !(cause instanceof MagickExecuteException)
+                                    || !MagickResourceBudget.isOutOfMemoryKill(
+                                            ((MagickExecuteException) cause).getExitValue())
+                                    || (outStream != null && outStream.getByteCount() > 0L)) {
+                                return CompletableFuture.failedFuture(cause);
+                            }
+
+                            setResourceLimits(budget.allocateDiskBacked(concurrency));
+                            log.warn("Magick process killed, probably for running out of memory. Retrying with {}: {}",
+                                    getResourceLimits(), cause.getMessage());
+                            return doExecuteAsync(outStream);
+                        });
+                    } catch (Exception e) {
+                        // the future to release the admission on completion doesn't exist yet.
+                        admissionController.release();
+                        return CompletableFuture.failedFuture(e);
+                    }
+
+                    return executed.whenComplete((result, t) -> admissionController.release());
+                });
+    }
 
-            if (stdOut != null) {
-                streamHandler = new PumpStreamHandler(stdOut, errStream);
-            } else {
-                streamHandler = new PumpStreamHandler(System.out, errStream);
-            }
+    /**
+     * Execute the Magick command with the sub-command and arguments, once admitted by the default
+     * {@link MagickProcessAdmissionController}, feeding {@code stdIn} to the standard input of the process
+     * and returning the standard output of the process as an input stream.
+     * <P>
+     * The returned stream must be closed by the caller. Reading the end of the returned stream throws
+     * a {@link MagickExecuteException} if the process failed or timed out.
+     * </P>
+     * @param stdIn (optional) input stream to feed to the standard input of the process
+     * @return the standard output of the process as an input stream
+     * @throws MagickProcessRejectedException if the execution is not admitted
+     * @throws IOException if the process cannot be started
+     */
+    public InputStream executeStreaming(final InputStream stdIn) throws IOException {
+        final MagickProcessAdmissionController admissionController = MagickProcessAdmissionController.getDefaultInstance();
+        admissionController.acquire();
 
-            executor.setStreamHandler(streamHandler);
+        final CommandLine cmdLine;
 
-            if (getWorkingDirectory() != null) {
-                executor.setWorkingDirectory(getWorkingDirectory());
-            }
+        try {
+            setResourceLimits(MagickResourceBudget.getDefaultInstance().allocate(admissionController.getRunningCount()));
+            cmdLine = createCommandLine();
+        } catch (RuntimeException e) {
+            admissionController.release();
+            throw e;
+        }
 
-            long timeout = NumberUtils.toLong(System.getProperty(PROP_TIMEOUT), DEFAULT_COMMAND_TIMEOUT);
-
-            if (timeout > 0) {
-                ExecuteWatchdog watchdog = new ExecuteWatchdog(DEFAULT_COMMAND_TIMEOUT);
-                executor.setWatchdog(watchdog);
-                resultHandler = new DefaultExecuteResultHandler();
-                executor.execute(cmdLine, resultHandler);
-                log.debug("Executed with watchdog: {}", cmdLine);
-                resultHandler.waitFor();
-            } else {
-                exitValue = executor.execute(cmdLine);
-                log.debug("Executed without watchdog: {}", cmdLine);
-            }
-        } catch (ExecuteException | InterruptedException e) {
-            if (resultHandler != null) {
-                exitValue = resultHandler.getExitValue();
-            }
-            if (e.getCause() == null) {
-                throw new MagickExecuteException(getExecutionErrorMessage(cmdLine, errStream, e), exitValue);
-            } else {
-                throw new MagickExecuteException(getExecutionErrorMessage(cmdLine, errStream, e), exitValue, e.getCause());
+        final MagickCommandMetrics.Execution execution = MagickCommandMetrics.getDefaultInstance()
+                .startExecution(getBackendName(), getSubCommand(), getArguments());
+        final Process process;
+
+        try {
+            process = createProcessBuilder(cmdLine).start();
+            log.debug("Executing in streaming mode: {}", cmdLine);
+        } catch (IOException | RuntimeException e) {
+            execution.end(-1, false, 0L, 0L);
+            admissionController.release();
+            throw e;
+        }
+
+        return new MagickProcessInputStream(process, cmdLine.toString(), stdIn, getCommandTimeout(),
+                admissionController::release, execution);
+    }
+
+    private void doExecute(final CountingOutputStream outStream, final MagickCommandMetrics.Execution execution)
+            throws IOException {
+        final CommandLine cmdLine = createCommandLine();
+        int exitValue = -1;
+        boolean timedOut = false;
+        final long bytesOutBefore = (outStream != null) ? outStream.getByteCount() : 0L;
+
+        try {
+            final MagickProcessExecutor.Result result = MagickProcessExecutor.getDefaultInstance()
+                    .execute(createProcessBuilder(cmdLine), outStream, getCommandTimeout());
+            exitValue = result.getExitValue();
+            timedOut = result.isTimedOut();
+            log.debug("Executed: {}", cmdLine);
+
+            if (exitValue != 0) {
+                throw new MagickExecuteException(getExecutionErrorMessage(cmdLine, result.getErrorOutput(),
+                        timedOut ? "Process timed out." : "Process exited with " + exitValue + "."), exitValue);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MagickExecuteException(getExecutionErrorMessage(cmdLine, null, "Interrupted."), exitValue, e);
         } finally {
-            IOUtils.closeQuietly(errStream);
+            execution.end(exitValue, timedOut, 0L,
+                    (outStream != null) ? outStream.getByteCount() - bytesOutBefore : 0L);
+        }
+    }
+
+    private CompletableFuture<Void> doExecuteAsync(final CountingOutputStream outStream) {
+        final CommandLine cmdLine = createCommandLine();
+        final MagickCommandMetrics.Execution execution = MagickCommandMetrics.getDefaultInstance()
+                .startExecution(getBackendName(), getSubCommand(), getArguments());
+        final long bytesOutBefore = (outStream != null) ? outStream.getByteCount() : 0L;
+        final CompletableFuture<MagickProcessExecutor.Result> resultFuture;
+
+        try {
+            resultFuture = MagickProcessExecutor.getDefaultInstance().executeAsync(createProcessBuilder(cmdLine),
+                    outStream, getCommandTimeout());
+            log.debug("Executing asynchronously: {}", cmdLine);
+        } catch (IOException | RuntimeException e) {
+            execution.end(-1, false, 0L, 0L);
+            return CompletableFuture.failedFuture(e);
         }
+
+        return resultFuture.thenApply(result -> {
+            final int exitValue = result.getExitValue();
+            execution.end(exitValue, result.isTimedOut(), 0L,
+                    (outStream != null) ? outStream.getByteCount() - bytesOutBefore : 0L);
+            log.debug("Executed: {}", cmdLine);
+
+            if (exitValue != 0) {
+                throw new CompletionException(new MagickExecuteException(getExecutionErrorMessage(cmdLine,
+                        result.getErrorOutput(),
+                        result.isTimedOut() ? "Process timed out." : "Process exited with " + exitValue + "."),
+                        exitValue));
+            }
+
+            return null;
+        });
     }
 
-    private String getExecutionErrorMessage(final CommandLine cmdLine, final ByteArrayOutputStream errStream,
-            final Exception e) throws UnsupportedEncodingException {
+    /**
+     * Creates a process builder of the command line in the working directory, limited to the number of threads
+     * of the resource limits.
+     */
+    private ProcessBuilder createProcessBuilder(final CommandLine cmdLine) {
+        final ProcessBuilder processBuilder = new ProcessBuilder(cmdLine.toStrings());
+
+        if (getWorkingDirectory() != null) {
+            processBuilder.directory(getWorkingDirectory());
+        }
+
+        if (getResourceLimits() != null) {
+            processBuilder.environment().put(ENV_OMP_NUM_THREADS, String.valueOf(getResourceLimits().getThreads()));
+        }
+
+        return processBuilder;
+    }
+
+    private String getExecutionErrorMessage(final CommandLine cmdLine, final String errorOutput,
+            final String reason) {
         StringBuilder sbMsg = new StringBuilder(256);
-        sbMsg.append(StringUtils.trim(errStream.toString("UTF-8")));
-        sbMsg.append(' ').append(cmdLine.toString());
-        sbMsg.append(". ").append(e.getMessage());
+
+        if (StringUtils.isNotEmpty(errorOutput)) {
+            sbMsg.append(errorOutput).append(' ');
+        }
+
+        sbMsg.append(cmdLine.toString());
+        sbMsg.append(". ").append(reason);
         return sbMsg.toString();
     }
 
+    /**
+     * Returns the command execution timeout in milliseconds, configured by the system property, {@link #PROP_TIMEOUT}.
+     * @return the command execution timeout in milliseconds
+     */
+    static long getCommandTimeout() {
+        return NumberUtils.toLong(System.getProperty(PROP_TIMEOUT), DEFAULT_COMMAND_TIMEOUT);
+    }
+
+    /**
+     * Returns true if an image in the {@code format} can be read from a non-seekable stream such as the standard
+     * input of a Magick process. Formats like TIFF or PSD, requiring random access, should be read from files.
+     * @param format image format name or file extension, e.g, <code>jpg</code>
+     * @return true if an image in the {@code format} can be read from a non-seekable stream
+     */
+    public static boolean isStreamableFormat(final String format) {
+        return format != null && STREAMABLE_FORMATS.contains(StringUtils.lowerCase(format.trim()));
+    }
+
+    /**
+     * Returns the backend name of this command, used in the metrics collected by {@link MagickCommandMetrics}.
+     * By default, the base name of the executable, or of the sub-command if no executable is set.
+     * @return the backend name of this command
+     */
+    public String getBackendName() {
+        return FilenameUtils.getBaseName(StringUtils.defaultIfBlank(getExecutable(), getSubCommand()));
+    }
+
+    /**
+     * Returns the name of the thread resource in <code>-limit</code> options, <code>thread</code> by default.
+     * @return the name of the thread resource in <code>-limit</code> options
+     */
+    protected String getThreadResourceName() {
+        return "thread";
+    }
+
+    /**
+     * Returns the <code>-limit</code> options of the resource limits to put before the arguments, or an empty list
+     * if not limited or if the command only prints the version.
+     * @return the <code>-limit</code> options of the resource limits
+     */
+    protected List<String> getResourceLimitArguments() {
+        final MagickResourceBudget.Limits limits = getResourceLimits();
+
+        if (limits == null || "version".equals(getSubCommand()) || getArguments().contains("-version")) {
+            return Collections.emptyList();
+        }
+
+        final List<String> limitArguments = new ArrayList<>(12);
+        addLimitArgument(limitArguments, getThreadResourceName(), String.valueOf(limits.getThreads()));
+        addLimitArgument(limitArguments, "memory", MagickResourceBudget.Limits.toOptionValue(limits.getMemory()));
+        addLimitArgument(limitArguments, "map", MagickResourceBudget.Limits.toOptionValue(limits.getMap()));
+
+        if (limits.getDisk() > 0L) {
+            addLimitArgument(limitArguments, "disk", MagickResourceBudget.Limits.toOptionValue(limits.getDisk()));
+        }
+
+        return limitArguments;
+    }
+
+    private static void addLimitArgument(final List<String> limitArguments, final String resource,
+            final String value) {
+        limitArguments.add("-limit");
+        limitArguments.add(resource);
+        limitArguments.add(value);
+    }
+
     /**
      * Create a {@link CommandLine} from executable and arguments.
      * @return a {@link CommandLine} from executable and arguments
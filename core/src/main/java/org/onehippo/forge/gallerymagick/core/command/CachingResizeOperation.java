@@ -0,0 +1,387 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ResizeOperation} decorator caching the resized images in a size-bounded directory.
+ * <P>
+ * A cache entry is keyed by the SHA-256 digest of the source image content, the target dimension, the target image
+ * format, the extra options and the identity of the delegate operation, e.g, <code>ImageMagick 7.1.1-21</code>,
+ * so the same source bytes resized in the same way are served from the cache even if uploaded again under a different
+ * name. The least recently used entries are evicted when the total size of the entries exceeds the maximum size.
+ * </P>
+ * <P>
+ * The entries in a cache directory must be indexed and evicted by a single instance in the JVM, shared by
+ * {@link #getInstance(File, Callable)}.
+ * </P>
+ */
+public class CachingResizeOperation implements ResizeOperation {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingResizeOperation.class);
+
+    /**
+     * The default maximum total size in bytes of the cached entries.
+     */
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024L * 1024L;
+
+    private static final String TEMP_FILE_PREFIX = "_tmp";
+
+    private static final ConcurrentMap<File, CachingResizeOperation> instances = new ConcurrentHashMap<>();
+
+    private final ResizeOperation delegate;
+
+    private final String identity;
+
+    private final File cacheDirectory;
+
+    private final long maxSize;
+
+    /**
+     * Access-ordered map of cache entry key to entry file size.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long totalSize;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Constructs a caching resize operation, indexing the entries already in {@code cacheDirectory}.
+     * @param delegate resize operation to execute on a cache miss
+     * @param identity identity and version of the {@code delegate}, which becomes a part of the cache keys
+     * @param cacheDirectory cache directory
+     * @param maxSize maximum total size in bytes of the cached entries
+     * @throws IOException if the cache directory cannot be created
+     */
+    public CachingResizeOperation(final ResizeOperation delegate, final String identity, final File cacheDirectory,
+            final long maxSize) throws IOException {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Resize operation delegate is null.");
+        }
+
+        if (cacheDirectory == null) {
+            throw new IllegalArgumentException("Cache directory is null.");
+        }
+
+        this.delegate = delegate;
+        this.identity = StringUtils.defaultString(identity);
+        this.cacheDirectory = cacheDirectory;
+        this.maxSize = maxSize;
+
+        FileUtils.forceMkdir(cacheDirectory);
+        loadEntries();
+    }
+
+    /**
+     * Returns the caching resize operation shared in the JVM for the canonical {@code cacheDirectory},
+     * constructing it by the {@code factory} on the first call. So the entries in the directory are indexed only once
+     * and the maximum size is enforced over all the users of the directory. The first operation constructed for
+     * a directory is shared, so a directory must not be shared by operations with different delegates.
+     * @param cacheDirectory cache directory
+     * @param factory factory constructing the caching resize operation for the {@code cacheDirectory}
+     * @return the caching resize operation shared in the JVM for the {@code cacheDirectory}
+     * @throws Exception if the {@code factory} fails to construct the caching resize operation
+     */
+    public static CachingResizeOperation getInstance(final File cacheDirectory,
+            final Callable<CachingResizeOperation> factory) throws Exception {
+        final File key = cacheDirectory.getCanonicalFile();
+        CachingResizeOperation instance = instances.get(key);
+
+        if (instance == null) {
+            synchronized (instances) {
+                instance = instances.get(key);
+
+                if (instance == null) {
+                    instance = factory.call();
+                    instances.put(key, instance);
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Copies the cached image to {@code targetFile} if available. Otherwise, resizes the image by the delegate
+     * operation and caches the resized image.
+     */
+    @Override
+    public void resizeImage(File sourceFile, File targetFile, ImageDimension dimension, String ... extraOptions)
+            throws IOException {
+        if (fetch(sourceFile, targetFile, dimension, extraOptions)) {
+            return;
+        }
+
+        delegate.resizeImage(sourceFile, targetFile, dimension, extraOptions);
+        store(sourceFile, targetFile, dimension, extraOptions);
+    }
+
+    /**
+     * Copies the cached image resized from {@code sourceFile} to {@code dimension} to {@code targetFile} if available.
+     * @param sourceFile source image file
+     * @param targetFile target image file
+     * @param dimension image dimension
+     * @param extraOptions extra command line options
+     * @return true if the cached image was copied to {@code targetFile}, or false on a cache miss
+     * @throws IOException if the source image file cannot be read
+     */
+    public boolean fetch(File sourceFile, File targetFile, ImageDimension dimension, String ... extraOptions)
+            throws IOException {
+        final String key = createKey(sourceFile, targetFile, dimension, extraOptions);
+        final File entryFile = getEntryFile(key, targetFile);
+
+        synchronized (entries) {
+            if (entries.get(key) == null) {
+                missCount.incrementAndGet();
+                return false;
+            }
+        }
+
+        try {
+            Files.copy(entryFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            entryFile.setLastModified(System.currentTimeMillis());
+            hitCount.incrementAndGet();
+            log.debug("Resized image cache hit: {}", entryFile);
+            return true;
+        } catch (IOException e) {
+            // evicted or removed meanwhile.
+            log.debug("Cached resized image not available: {}", entryFile, e);
+            removeEntry(key, entryFile);
+            missCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Stores a copy of the {@code targetFile} resized from {@code sourceFile} to {@code dimension} in the cache,
+     * evicting the least recently used entries if the total size exceeds the maximum size.
+     * @param sourceFile source image file
+     * @param targetFile resized target image file
+     * @param dimension image dimension
+     * @param extraOptions extra command line options
+     */
+    public void store(File sourceFile, File targetFile, ImageDimension dimension, String ... extraOptions) {
+        File tempFile = null;
+
+        try {
+            final String key = createKey(sourceFile, targetFile, dimension, extraOptions);
+            final File entryFile = getEntryFile(key, targetFile);
+            FileUtils.forceMkdir(entryFile.getParentFile());
+            tempFile = File.createTempFile(TEMP_FILE_PREFIX, ".tmp", entryFile.getParentFile());
+            Files.copy(targetFile.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            try {
+                Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            tempFile = null;
+
+            synchronized (entries) {
+                final Long oldSize = entries.put(key, entryFile.length());
+                totalSize += entryFile.length() - ((oldSize != null) ? oldSize : 0L);
+            }
+
+            evictEntries();
+        } catch (IOException e) {
+            log.warn("Failed to cache the resized image file: {}", targetFile, e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the identity and version of the delegate operation.
+     * @return the identity and version of the delegate operation
+     */
+    public String getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Returns the cache directory.
+     * @return the cache directory
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Returns the maximum total size in bytes of the cached entries.
+     * @return the maximum total size in bytes of the cached entries
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the current total size in bytes of the cached entries.
+     * @return the current total size in bytes of the cached entries
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return totalSize;
+        }
+    }
+
+    /**
+     * Returns the number of the cached entries.
+     * @return the number of the cached entries
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of cache hits.
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private String createKey(final File sourceFile, final File targetFile, final ImageDimension dimension,
+            final String ... extraOptions) throws IOException {
+        if (dimension == null) {
+            throw new IllegalArgumentException("Invalid dimension: " + dimension);
+        }
+
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append(ContentDigestUtils.sha256Hex(sourceFile)).append('\n');
+        sb.append(dimension.toCommandArgument()).append('\n');
+        sb.append(StringUtils.lowerCase(FilenameUtils.getExtension(targetFile.getName()))).append('\n');
+
+        if (extraOptions != null) {
+            for (String extraOption : extraOptions) {
+                sb.append(extraOption).append('\0');
+            }
+        }
+
+        sb.append('\n').append(identity);
+
+        return ContentDigestUtils.sha256Hex(sb.toString());
+    }
+
+    private File getEntryFile(final String key, final File targetFile) {
+        final String extension = StringUtils.lowerCase(FilenameUtils.getExtension(targetFile.getName()));
+        final File shardDirectory = new File(cacheDirectory, key.substring(0, 2));
+        return new File(shardDirectory, StringUtils.isNotEmpty(extension) ? key + "." + extension : key);
+    }
+
+    private void loadEntries() {
+        final Collection<File> files = FileUtils.listFiles(cacheDirectory, null, true);
+        final List<File> entryFiles = new ArrayList<>(files.size());
+
+        for (File file : files) {
+            if (file.getName().startsWith(TEMP_FILE_PREFIX)) {
+                file.delete();
+            } else {
+                entryFiles.add(file);
+            }
+        }
+
+        entryFiles.sort(Comparator.comparingLong(File::lastModified));
+
+        synchronized (entries) {
+            for (File file : entryFiles) {
+                entries.put(FilenameUtils.getBaseName(file.getName()), file.length());
+                totalSize += file.length();
+            }
+        }
+
+        log.debug("Indexed {} cached resized image(s) of {} bytes in {}.", entryFiles.size(), totalSize, cacheDirectory);
+        evictEntries();
+    }
+
+    private void evictEntries() {
+        final List<String> evictedKeys = new ArrayList<>();
+
+        synchronized (entries) {
+            final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+
+            while (totalSize > maxSize && it.hasNext()) {
+                final Map.Entry<String, Long> entry = it.next();
+                totalSize -= entry.getValue();
+                evictedKeys.add(entry.getKey());
+                it.remove();
+            }
+        }
+
+        for (String key : evictedKeys) {
+            final File shardDirectory = new File(cacheDirectory, key.substring(0, 2));
+            final File [] entryFiles = shardDirectory.listFiles((dir, name) -> name.startsWith(key));
+
+            if (entryFiles != null) {
+                for (File entryFile : entryFiles) {
+                    log.debug("Evicting the cached resized image: {}", entryFile);
+                    entryFile.delete();
+                }
+            }
+        }
+    }
+
+    private void removeEntry(final String key, final File entryFile) {
+        synchronized (entries) {
+            final Long size = entries.remove(key);
+
+            if (size != null) {
+                totalSize -= size;
+            }
+        }
+
+        entryFile.delete();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Utility to compute SHA-256 content digests of image files.
+ * <P>
+ * The digests of recently hashed files are remembered by file path, length and last modified time,
+ * so the same file is not hashed again when it is resized or identified several times.
+ * </P>
+ */
+public class ContentDigestUtils {
+
+    private static final int MAX_REMEMBERED_DIGESTS = 256;
+
+    private static final Map<String, String> rememberedDigests = new LinkedHashMap<String, String>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_REMEMBERED_DIGESTS;
+        }
+    };
+
+    private ContentDigestUtils() {
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 digest of the content of {@code file}.
+     * @param file file
+     * @return the hexadecimal SHA-256 digest of the content of {@code file}
+     * @throws IOException if IO exception occurs
+     */
+    public static String sha256Hex(final File file) throws IOException {
+        final String fileKey = getFileKey(file);
+
+        synchronized (rememberedDigests) {
+            final String digest = rememberedDigests.get(fileKey);
+
+            if (digest != null) {
+                return digest;
+            }
+        }
+
+        final MessageDigest messageDigest = createSha256Digest();
+        final byte [] buffer = new byte[8192];
+        int len;
+
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            while ((len = input.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, len);
+            }
+        }
+
+        final String digest = toHex(messageDigest.digest());
+
+        synchronized (rememberedDigests) {
+            rememberedDigests.put(fileKey, digest);
+        }
+
+        return digest;
+    }
+
+    /**
+     * Remembers the hexadecimal SHA-256 digest of the content of {@code file} computed elsewhere, e.g, while spooling
+     * the file, so {@link #sha256Hex(File)} does not hash the file again until it is modified.
+     * @param file file
+     * @param digest the hexadecimal SHA-256 digest of the content of {@code file}
+     * @throws IOException if IO exception occurs
+     */
+    public static void rememberDigest(final File file, final String digest) throws IOException {
+        final String fileKey = getFileKey(file);
+
+        synchronized (rememberedDigests) {
+            rememberedDigests.put(fileKey, digest);
+        }
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 digest of the UTF-8 bytes of {@code text}.
+     * @param text text
+     * @return the hexadecimal SHA-256 digest of the UTF-8 bytes of {@code text}
+     */
+    public static String sha256Hex(final String text) {
+        return toHex(createSha256Digest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String getFileKey(final File file) throws IOException {
+        return file.getCanonicalPath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    static MessageDigest createSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(final byte [] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+}
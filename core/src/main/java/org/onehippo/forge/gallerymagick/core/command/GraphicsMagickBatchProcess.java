@@ -0,0 +1,319 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A long-lived <code>gm batch</code> process which executes Graphics Magick commands sent through its standard input.
+ * <P>
+ * The process is started with unique <code>-pass</code> and <code>-fail</code> feedback texts, so the end of each
+ * command's output can be detected by reading the standard output until a feedback line shows up.
+ * The error output is appended to a temporary file, which is cleared after each command. As gm writes the error output
+ * of a command before its feedback, the file holds exactly the error output of the command when the feedback shows up.
+ * </P>
+ */
+class GraphicsMagickBatchProcess {
+
+    private static final Logger log = LoggerFactory.getLogger(GraphicsMagickBatchProcess.class);
+
+    /**
+     * Sub-command of <code>gm</code> command to run in batch mode.
+     */
+    static final String SUBCOMMAND_BATCH = "batch";
+
+    /**
+     * Expected size in bytes of the error output file reserved in the fast temporary directory.
+     */
+    private static final long ERROR_FILE_EXPECTED_SIZE = 64L * 1024L;
+
+    private final String executable;
+
+    private final String passToken;
+
+    private final String failToken;
+
+    private final Process process;
+
+    private final OutputStream stdIn;
+
+    private final InputStream stdOut;
+
+    private final File errFile;
+
+    private final FileChannel errChannel;
+
+    private int executionCount;
+
+    private volatile boolean broken;
+
+    /**
+     * Starts a new <code>gm batch</code> process.
+     * @param executable Graphics Magick command executable
+     * @param workingDirectory (optional) working directory of the process
+     * @throws IOException if the process cannot be started
+     */
+    GraphicsMagickBatchProcess(final String executable, final File workingDirectory) throws IOException {
+        this.executable = executable;
+
+        final String token = UUID.randomUUID().toString().replace("-", "");
+        passToken = "__GM_BATCH_PASS_" + token + "__";
+        failToken = "__GM_BATCH_FAIL_" + token + "__";
+
+        final List<String> command = new ArrayList<>();
+        command.add(executable);
+        command.add(SUBCOMMAND_BATCH);
+        command.add("-escape");
+        command.add("unix");
+        command.add("-echo");
+        command.add("off");
+        command.add("-stop-on-error");
+        command.add("off");
+        command.add("-feedback");
+        command.add("on");
+        command.add("-pass");
+        command.add(passToken);
+        command.add("-fail");
+        command.add(failToken);
+        command.add("-");
+
+        errFile = MagickTempFileManager.getDefaultInstance().createTempFile(
+                MagickTempFileManager.TEMP_FILE_PREFIX + "_gmbatch", ".err", ERROR_FILE_EXPECTED_SIZE);
+
+        FileChannel channel = null;
+
+        try {
+            channel = FileChannel.open(errFile.toPath(), StandardOpenOption.WRITE);
+
+            final ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectError(ProcessBuilder.Redirect.appendTo(errFile));
+
+            if (workingDirectory != null) {
+                builder.directory(workingDirectory);
+            }
+
+            process = builder.start();
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(channel);
+            MagickTempFileManager.getDefaultInstance().delete(errFile);
+            throw e;
+        }
+
+        errChannel = channel;
+        stdIn = process.getOutputStream();
+        stdOut = process.getInputStream();
+
+        log.debug("Started gm batch process ({}).", process.pid());
+    }
+
+    /**
+     * Returns the executable of this process.
+     * @return the executable of this process
+     */
+    String getExecutable() {
+        return executable;
+    }
+
+    /**
+     * Returns how many commands have been executed by this process.
+     * @return how many commands have been executed by this process
+     */
+    int getExecutionCount() {
+        return executionCount;
+    }
+
+    /**
+     * Returns true if this process is still alive and usable for the next command.
+     * @return true if this process is still alive and usable for the next command
+     */
+    boolean isUsable() {
+        return !broken && process.isAlive();
+    }
+
+    /**
+     * Executes the sub-command and arguments of {@code command} in this batch process,
+     * and copies the output of the command to {@code out}.
+     * @param command Graphics Magick command
+     * @param out standard output stream of the command
+     * @throws MagickExecuteException if the command failed
+     * @throws IOException if IO exception occurs while communicating with the process
+     */
+    void execute(final GraphicsMagickCommand command, final OutputStream out) throws IOException {
+        final String commandLine = toBatchCommandLine(command);
+        ++executionCount;
+
+        try {
+            stdIn.write(commandLine.getBytes(StandardCharsets.UTF_8));
+            stdIn.write('\n');
+            stdIn.flush();
+        } catch (IOException e) {
+            broken = true;
+            throw new MagickExecuteException("Failed to send command to gm batch process: " + commandLine + ". "
+                    + e.getMessage(), getExitValueQuietly(), e);
+        }
+
+        try {
+            if (!readOutput(out, commandLine)) {
+                throw new MagickExecuteException(getErrorOutput() + " " + commandLine
+                        + ". Command failed in gm batch.", 1);
+            }
+        } finally {
+            clearErrorOutput();
+        }
+    }
+
+    /**
+     * Stops this batch process by closing its standard input, and kills it if it doesn't exit by itself.
+     */
+    void destroy() {
+        broken = true;
+        IOUtils.closeQuietly(stdIn);
+
+        if (process.isAlive()) {
+            process.destroy();
+        }
+
+        deleteErrorFile();
+        log.debug("Stopped gm batch process ({}) after {} command(s).", process.pid(), executionCount);
+    }
+
+    /**
+     * Forcibly kills this batch process, which is used when a command execution times out.
+     */
+    void kill() {
+        broken = true;
+        process.destroyForcibly();
+        deleteErrorFile();
+    }
+
+    private boolean readOutput(final OutputStream out, final String commandLine) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        int b;
+
+        while ((b = stdOut.read()) != -1) {
+            if (b != '\n') {
+                line.write(b);
+                continue;
+            }
+
+            final String text = line.toString(StandardCharsets.UTF_8);
+
+            if (text.endsWith(passToken) || text.endsWith(failToken)) {
+                final boolean passed = text.endsWith(passToken);
+                final String prefix = StringUtils.removeEnd(StringUtils.removeEnd(text, passToken), failToken);
+
+                if (out != null && !prefix.isEmpty()) {
+                    out.write(prefix.getBytes(StandardCharsets.UTF_8));
+                }
+
+                return passed;
+            }
+
+            if (out != null) {
+                line.write('\n');
+                line.writeTo(out);
+            }
+
+            line.reset();
+        }
+
+        broken = true;
+        throw new MagickExecuteException(getErrorOutput() + " " + commandLine + ". gm batch process terminated.",
+                getExitValueQuietly());
+    }
+
+    /**
+     * Returns the error output of the current command, which is complete once its feedback is read.
+     */
+    private String getErrorOutput() {
+        try {
+            return StringUtils.trim(new String(Files.readAllBytes(errFile.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.debug("Failed to read the error output of gm batch process ({}): {}", process.pid(), e.toString());
+            return "";
+        }
+    }
+
+    private void clearErrorOutput() {
+        try {
+            errChannel.truncate(0L);
+        } catch (IOException e) {
+            log.debug("Failed to clear the error output of gm batch process ({}): {}", process.pid(), e.toString());
+        }
+    }
+
+    private void deleteErrorFile() {
+        IOUtils.closeQuietly(errChannel);
+        MagickTempFileManager.getDefaultInstance().delete(errFile);
+    }
+
+    private int getExitValueQuietly() {
+        try {
+            return process.exitValue();
+        } catch (IllegalThreadStateException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Converts the sub-command and arguments of {@code command} to a line for <code>gm batch</code>,
+     * quoting each token with the unix escape format.
+     * @param command Graphics Magick command
+     * @return a line for <code>gm batch</code>
+     */
+    static String toBatchCommandLine(final GraphicsMagickCommand command) {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append(command.getSubCommand());
+
+        for (String argument : command.getResourceLimitArguments()) {
+            sb.append(' ').append(argument);
+        }
+
+        for (String argument : command.getArguments()) {
+            sb.append(' ').append('"');
+
+            for (int i = 0; i < argument.length(); i++) {
+                final char c = argument.charAt(i);
+
+                if (c == '"' || c == '\\') {
+                    sb.append('\\');
+                }
+
+                sb.append(c);
+            }
+
+            sb.append('"');
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of long-lived <code>gm batch</code> processes, to execute Graphics Magick commands without forking
+ * a new <code>gm</code> process for each command.
+ * <P>
+ * The default pool is enabled only when the system property, {@link #PROP_POOL_SIZE}, is set to a positive number.
+ * In that case, {@link GraphicsMagickCommandUtils} routes its commands through the default pool.
+ * </P>
+ */
+public class GraphicsMagickBatchProcessPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GraphicsMagickBatchProcessPool.class);
+
+    /**
+     * System property name for the number of <code>gm batch</code> processes in the default pool.
+     * The default pool is disabled if not set to a positive number.
+     */
+    public static final String PROP_POOL_SIZE = "org.onehippo.forge.gallerymagick.core.command.gm.batch.pool.size";
+
+    /**
+     * System property name for the maximum number of commands executed by a <code>gm batch</code> process
+     * before it is recycled. The default value is {@link #DEFAULT_MAX_COMMANDS_PER_PROCESS}.
+     */
+    public static final String PROP_MAX_COMMANDS_PER_PROCESS = "org.onehippo.forge.gallerymagick.core.command.gm.batch.maxCommands";
+
+    /**
+     * The default maximum number of commands executed by a <code>gm batch</code> process before it is recycled.
+     */
+    public static final int DEFAULT_MAX_COMMANDS_PER_PROCESS = 500;
+
+    private static volatile GraphicsMagickBatchProcessPool defaultInstance;
+
+    private static volatile boolean defaultInstanceInitialized;
+
+    private final String executable;
+
+    private final File workingDirectory;
+
+    private final int maxCommandsPerProcess;
+
+    private final long timeout;
+
+    private final BlockingQueue<GraphicsMagickBatchProcess> idleProcesses;
+
+    private final Semaphore permits;
+
+    private volatile boolean closed;
+
+    /**
+     * Constructs a pool.
+     * @param executable (optional) Graphics Magick command executable
+     * @param workingDirectory (optional) working directory of the <code>gm batch</code> processes
+     * @param size maximum number of <code>gm batch</code> processes
+     * @param maxCommandsPerProcess maximum number of commands executed by a process before it is recycled
+     * @param timeout command execution timeout in milliseconds. No timeout if zero or negative.
+     */
+    public GraphicsMagickBatchProcessPool(final String executable, final File workingDirectory, final int size,
+            final int maxCommandsPerProcess, final long timeout) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid pool size: " + size);
+        }
+
+        this.executable = StringUtils.defaultIfBlank(executable,
+                StringUtils.defaultIfBlank(GraphicsMagickCommand.getExecutableFromSystemProperty(),
+                        GraphicsMagickCommand.DEFAULT_EXECUTABLE));
+        this.workingDirectory = workingDirectory;
+        this.maxCommandsPerProcess = maxCommandsPerProcess;
+        this.timeout = timeout;
+
+        idleProcesses = new LinkedBlockingQueue<>(size);
+        permits = new Semaphore(size, true);
+    }
+
+    /**
+     * Returns the default pool configured by system properties, or null if the default pool is disabled.
+     * @return the default pool configured by system properties, or null if the default pool is disabled
+     */
+    public static GraphicsMagickBatchProcessPool getDefaultInstance() {
+        if (!defaultInstanceInitialized) {
+            synchronized (GraphicsMagickBatchProcessPool.class) {
+                if (!defaultInstanceInitialized) {
+                    defaultInstance = createDefaultInstance();
+                    defaultInstanceInitialized = true;
+                }
+            }
+        }
+
+        return defaultInstance;
+    }
+
+    /**
+     * Executes the sub-command and arguments of {@code command} in one of the <code>gm batch</code> processes,
+     * once admitted by the default {@link MagickProcessAdmissionController}.
+     * @param command Graphics Magick command
+     * @param stdOut (optional) standard output stream. The standard output is discarded if null.
+     * @throws MagickExecuteException if an execution exception occurs
+     * @throws IOException if IO exception occurs
+     */
+    public void execute(final GraphicsMagickCommand command, final OutputStream stdOut) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("gm batch process pool closed.");
+        }
+
+        final MagickProcessAdmissionController admissionController = MagickProcessAdmissionController.getDefaultInstance();
+        admissionController.acquire();
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            admissionController.release();
+            Thread.currentThread().interrupt();
+            throw new MagickExecuteException("Interrupted while waiting for a gm batch process.", -1, e);
+        }
+
+        command.setResourceLimits(
+                MagickResourceBudget.getDefaultInstance().allocate(admissionController.getRunningCount()));
+        final MagickCommandMetrics.Execution execution = MagickCommandMetrics.getDefaultInstance()
+                .startExecution(command.getBackendName(), command.getSubCommand(), command.getArguments());
+        final CountingOutputStream outStream = new CountingOutputStream(
+                (stdOut != null) ? stdOut : OutputStream.nullOutputStream());
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        int exitValue = -1;
+        GraphicsMagickBatchProcess process = null;
+        ScheduledFuture<?> watchdog = null;
+
+        try {
+            process = borrowProcess();
+
+            if (timeout > 0) {
+                final GraphicsMagickBatchProcess timedProcess = process;
+                watchdog = MagickProcessExecutor.getDefaultInstance().scheduleTimeout(() -> {
+                    timedOut.set(true);
+                    timedProcess.kill();
+                }, timeout);
+            }
+
+            process.execute(command, outStream);
+            exitValue = 0;
+            log.debug("Executed in gm batch: {}", command.getArguments());
+        } catch (MagickExecuteException e) {
+            exitValue = e.getExitValue();
+            throw e;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+
+            execution.end(exitValue, timedOut.get(), 0L, outStream.getByteCount());
+
+            if (process != null) {
+                returnProcess(process);
+            }
+
+            permits.release();
+            admissionController.release();
+        }
+    }
+
+    /**
+     * Stops all the idle <code>gm batch</code> processes and disallows further executions.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        GraphicsMagickBatchProcess process;
+
+        while ((process = idleProcesses.poll()) != null) {
+            process.destroy();
+        }
+    }
+
+    private GraphicsMagickBatchProcess borrowProcess() throws IOException {
+        GraphicsMagickBatchProcess process;
+
+        while ((process = idleProcesses.poll()) != null) {
+            if (process.isUsable()) {
+                return process;
+            }
+
+            process.destroy();
+        }
+
+        return new GraphicsMagickBatchProcess(executable, workingDirectory);
+    }
+
+    private void returnProcess(final GraphicsMagickBatchProcess process) {
+        if (closed || !process.isUsable()) {
+            log.debug("Discarding a broken gm batch process.");
+            process.destroy();
+        } else if (maxCommandsPerProcess > 0 && process.getExecutionCount() >= maxCommandsPerProcess) {
+            log.debug("Recycling a gm batch process after {} command(s).", process.getExecutionCount());
+            process.destroy();
+        } else if (!idleProcesses.offer(process)) {
+            process.destroy();
+        }
+    }
+
+    private static GraphicsMagickBatchProcessPool createDefaultInstance() {
+        final int size = NumberUtils.toInt(System.getProperty(PROP_POOL_SIZE), 0);
+
+        if (size <= 0) {
+            return null;
+        }
+
+        final int maxCommands = NumberUtils.toInt(System.getProperty(PROP_MAX_COMMANDS_PER_PROCESS),
+                DEFAULT_MAX_COMMANDS_PER_PROCESS);
+        final File workingDirectory = MagickTempFileManager.getDefaultInstance().getWorkingDirectory();
+
+        final GraphicsMagickBatchProcessPool pool = new GraphicsMagickBatchProcessPool(null, workingDirectory, size,
+                maxCommands, AbstractMagickCommand.getCommandTimeout());
+        Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "gm-batch-pool-shutdown"));
+        log.info("gm batch process pool enabled with size {} and max {} command(s) per process.", size, maxCommands);
+
+        return pool;
+    }
+}
@@ -34,6 +34,11 @@ public class GraphicsMagickCommand extends AbstractMagickCommand {
      */
     public static final String DEFAULT_EXECUTABLE = "gm";
 
+    /**
+     * Backend name of Graphics Magick commands in the collected metrics.
+     */
+    public static final String BACKEND_NAME = "graphicsmagick";
+
     /**
      * Constructor with an {@code executable} and a {@code subCommand}.
      * If {@code executable} is null, it tries to find it from a system property keyed by {@link #PROP_EXECUTABLE}.
@@ -46,6 +51,22 @@ public class GraphicsMagickCommand extends AbstractMagickCommand {
                 StringUtils.defaultIfBlank(subCommand, DEFAULT_SUBCOMMAND_CONVERT));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getBackendName() {
+        return BACKEND_NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getThreadResourceName() {
+        return "threads";
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -55,6 +76,10 @@ public class GraphicsMagickCommand extends AbstractMagickCommand {
 
         cmdLine.addArgument(getSubCommand());
 
+        for (String argument : getResourceLimitArguments()) {
+            cmdLine.addArgument(argument);
+        }
+
         for (String argument : getArguments()) {
             cmdLine.addArgument(argument);
         }
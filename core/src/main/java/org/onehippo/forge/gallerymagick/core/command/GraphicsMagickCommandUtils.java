@@ -18,18 +18,53 @@ package org.onehippo.forge.gallerymagick.core.command;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.ImageHeaderReader;
+import org.onehippo.forge.gallerymagick.core.ImageMetadataProfile;
 
 /**
  * Utility to run Graphics Magick Commands.
  */
 public class GraphicsMagickCommandUtils {
 
+    /**
+     * Kind of the dimension identification results in {@link ImageIdentificationCache}.
+     */
+    private static final String DIMENSION_IDENTIFICATION = "gm.dimension";
+
+    /**
+     * Kind of the metadata identification results in {@link ImageIdentificationCache}.
+     */
+    private static final String METADATA_IDENTIFICATION = "gm.metadata";
+
+    /**
+     * Kind prefix of the metadata profile identification results in {@link ImageIdentificationCache},
+     * followed by the digest of the <code>-format</code> expression.
+     */
+    private static final String METADATA_PROFILE_IDENTIFICATION_PREFIX = "gm.profile.";
+
+    /**
+     * Pattern of the image geometry line in the <code>identify -verbose</code> output.
+     */
+    private static final Pattern VERBOSE_GEOMETRY_PATTERN = Pattern.compile("^\\s*Geometry:\\s*(\\d+)x(\\d+)",
+            Pattern.MULTILINE);
+
     private GraphicsMagickCommandUtils() {
     }
 
@@ -41,6 +76,51 @@ public class GraphicsMagickCommandUtils {
      * @throws IOException if IO exception occurs
      */
     public static String identifyAllMetadata(File sourceFile) throws MagickExecuteException, IOException {
+        final ImageIdentificationCache cache = ImageIdentificationCache.getDefaultInstance();
+        final String metadata = cache.identify(sourceFile, METADATA_IDENTIFICATION,
+                GraphicsMagickCommandUtils::executeIdentifyAllMetadata);
+        cache.putIfAbsent(sourceFile, DIMENSION_IDENTIFICATION, findSingleGeometry(metadata));
+        return metadata;
+    }
+
+    /**
+     * Asynchronous version of {@link #identifyAllMetadata(File)}, not blocking the caller thread while the process
+     * is running.
+     * @param sourceFile source image file
+     * @return the future of all extracted metadata, completed exceptionally with a {@link MagickExecuteException}
+     *         or an {@link IOException} on failure
+     */
+    public static CompletableFuture<String> identifyAllMetadataAsync(File sourceFile) {
+        final ImageIdentificationCache cache = ImageIdentificationCache.getDefaultInstance();
+        final MagickProcessExecutor executor = MagickProcessExecutor.getDefaultInstance();
+
+        return executor.supplyAsync(() -> cache.identifyAsync(sourceFile, METADATA_IDENTIFICATION,
+                GraphicsMagickCommandUtils::executeIdentifyAllMetadataAsync))
+                .thenCompose(Function.identity())
+                .thenCompose(metadata -> executor.supplyAsync(() -> {
+                    cache.putIfAbsent(sourceFile, DIMENSION_IDENTIFICATION, findSingleGeometry(metadata));
+                    return metadata;
+                }));
+    }
+
+    private static String executeIdentifyAllMetadata(File sourceFile) throws MagickExecuteException, IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+        execute(createIdentifyAllMetadataCommand(sourceFile), baos);
+        return StringUtils.trim(baos.toString("UTF-8"));
+    }
+
+    private static CompletableFuture<String> executeIdentifyAllMetadataAsync(File sourceFile) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+
+        try {
+            return executeAsync(createIdentifyAllMetadataCommand(sourceFile), baos)
+                    .thenApply(executed -> StringUtils.trim(baos.toString(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static GraphicsMagickCommand createIdentifyAllMetadataCommand(File sourceFile) throws IOException {
         GraphicsMagickCommand cmd = new GraphicsMagickCommand(null, "identify");
 
         final File tempFolder = getTempFolder();
@@ -51,20 +131,107 @@ public class GraphicsMagickCommandUtils {
 
         cmd.addArgument("-verbose");
         cmd.addArgument(sourceFile.getCanonicalPath());
+        return cmd;
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
-        cmd.execute(baos);
-        return StringUtils.trim(baos.toString("UTF-8"));
+    /**
+     * Execute <code>identify -ping -format</code> sub-command with the <code>-format</code> expression of
+     * the {@code profile} on the first frame of the image, and return the ordered map of field name to its typed value.
+     * Unlike <code>identify -verbose</code>, it doesn't decode the pixels to compute the image statistics.
+     * @param sourceFile source image file
+     * @param profile metadata profile
+     * @return the ordered map of field name to its typed value, leaving out the fields having no value
+     * @throws MagickExecuteException if execution exception occurs
+     * @throws IOException if IO exception occurs
+     */
+    public static Map<String, Object> identifyMetadata(File sourceFile, ImageMetadataProfile profile)
+            throws MagickExecuteException, IOException {
+        final String format = profile.toGraphicsMagickFormat();
+        final String output = ImageIdentificationCache.getDefaultInstance().identify(sourceFile,
+                METADATA_PROFILE_IDENTIFICATION_PREFIX + StringUtils.left(ContentDigestUtils.sha256Hex(format), 16),
+                file -> executeIdentifyFormat(file, format));
+        return profile.toValues(output);
+    }
+
+    private static String executeIdentifyFormat(File sourceFile, String format) throws MagickExecuteException, IOException {
+        GraphicsMagickCommand cmd = new GraphicsMagickCommand(null, "identify");
+
+        final File tempFolder = getTempFolder();
+
+        if (tempFolder != null) {
+            cmd.setWorkingDirectory(tempFolder);
+        }
+
+        cmd.addArgument("-ping");
+        cmd.addArgument("-format");
+        cmd.addArgument(format);
+        cmd.addArgument(sourceFile.getCanonicalPath() + "[0]");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+        execute(cmd, baos);
+        return baos.toString("UTF-8");
     }
 
     /**
      * Execute <code>identify</code> sub-command and return an {@link ImageDimension} instance from the output.
+     * The dimension is read from the image header by {@link ImageHeaderReader} without executing the command
+     * if the image format is supported by it.
      * @param sourceFile source image file
      * @return Execute <code>identify</code> sub-command and return an {@link ImageDimension} instance from the output
      * @throws MagickExecuteException if execution exception occurs
      * @throws IOException if IO exception occurs
      */
     public static ImageDimension identifyDimension(File sourceFile) throws MagickExecuteException, IOException {
+        final ImageDimension headerDimension = ImageHeaderReader.readDimension(sourceFile);
+
+        if (headerDimension != null) {
+            return headerDimension;
+        }
+
+        return ImageDimension.from(ImageIdentificationCache.getDefaultInstance().identify(sourceFile,
+                DIMENSION_IDENTIFICATION, GraphicsMagickCommandUtils::executeIdentifyDimension));
+    }
+
+    /**
+     * Asynchronous version of {@link #identifyDimension(File)}, not blocking the caller thread while the process
+     * is running.
+     * @param sourceFile source image file
+     * @return the future dimension, completed exceptionally with a {@link MagickExecuteException}
+     *         or an {@link IOException} on failure
+     */
+    public static CompletableFuture<ImageDimension> identifyDimensionAsync(File sourceFile) {
+        return MagickProcessExecutor.getDefaultInstance().supplyAsync(() -> {
+            final ImageDimension headerDimension = ImageHeaderReader.readDimension(sourceFile);
+
+            if (headerDimension != null) {
+                return CompletableFuture.completedFuture(headerDimension);
+            }
+
+            return ImageIdentificationCache.getDefaultInstance().identifyAsync(sourceFile, DIMENSION_IDENTIFICATION,
+                    GraphicsMagickCommandUtils::executeIdentifyDimensionAsync).thenApply(ImageDimension::from);
+        }).thenCompose(Function.identity());
+    }
+
+    private static String executeIdentifyDimension(File sourceFile) throws MagickExecuteException, IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(40);
+        execute(createIdentifyDimensionCommand(sourceFile), baos);
+        String output = StringUtils.trim(baos.toString("UTF-8"));
+
+        return ImageDimension.from(output).toString();
+    }
+
+    private static CompletableFuture<String> executeIdentifyDimensionAsync(File sourceFile) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(40);
+
+        try {
+            return executeAsync(createIdentifyDimensionCommand(sourceFile), baos).thenApply(
+                    executed -> ImageDimension.from(StringUtils.trim(baos.toString(StandardCharsets.UTF_8))).toString());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static GraphicsMagickCommand createIdentifyDimensionCommand(File sourceFile) throws IOException {
         GraphicsMagickCommand cmd = new GraphicsMagickCommand(null, "identify");
 
         final File tempFolder = getTempFolder();
@@ -76,12 +243,29 @@ public class GraphicsMagickCommandUtils {
         cmd.addArgument("-format");
         cmd.addArgument("%wx%h");
         cmd.addArgument(sourceFile.getCanonicalPath());
+        return cmd;
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(40);
-        cmd.execute(baos);
-        String output = StringUtils.trim(baos.toString("UTF-8"));
+    /**
+     * Execute <code>gm version</code> and return the first line of the output, e.g, <code>GraphicsMagick 1.3.42 2023-09-23 Q16 ...</code>,
+     * to identify the installed version.
+     * @return the first line of the version output
+     * @throws MagickExecuteException if execution exception occurs
+     * @throws IOException if IO exception occurs
+     */
+    public static String identifyVersion() throws MagickExecuteException, IOException {
+        GraphicsMagickCommand cmd = new GraphicsMagickCommand(null, "version");
+
+        final File tempFolder = getTempFolder();
+
+        if (tempFolder != null) {
+            cmd.setWorkingDirectory(tempFolder);
+        }
 
-        return ImageDimension.from(output);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+        cmd.execute(baos);
+        final String output = StringUtils.trim(baos.toString("UTF-8"));
+        return StringUtils.trim(StringUtils.substringBefore(output, "\n"));
     }
 
     /**
@@ -110,6 +294,34 @@ public class GraphicsMagickCommandUtils {
      */
     public static void resizeImage(File sourceFile, File targetFile, ImageDimension dimension, String ... extraOptions)
             throws MagickExecuteException, IOException {
+        execute(createResizeImageCommand(sourceFile, targetFile, dimension, extraOptions), null);
+    }
+
+    /**
+     * Asynchronous version of {@link #resizeImage(File, File, ImageDimension, String...)}, not blocking the caller
+     * thread while the process is running.
+     * @param sourceFile source image file
+     * @param targetFile target image file
+     * @param dimension image dimension
+     * @param extraOptions extra command line options
+     * @return the future completed when the resized image is stored, or completed exceptionally with
+     *         a {@link MagickExecuteException} or an {@link IOException} on failure
+     */
+    public static CompletableFuture<Void> resizeImageAsync(File sourceFile, File targetFile, ImageDimension dimension,
+            String ... extraOptions) {
+        final GraphicsMagickCommand cmd;
+
+        try {
+            cmd = createResizeImageCommand(sourceFile, targetFile, dimension, extraOptions);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return executeAsync(cmd, null);
+    }
+
+    private static GraphicsMagickCommand createResizeImageCommand(File sourceFile, File targetFile, ImageDimension dimension,
+            String ... extraOptions) throws IOException {
         if (dimension == null) {
             throw new IllegalArgumentException("Invalid dimension: " + dimension);
         }
@@ -122,22 +334,103 @@ public class GraphicsMagickCommandUtils {
             cmd.setWorkingDirectory(tempFolder);
         }
 
+        final List<String> extraOptionList = (extraOptions != null) ? Arrays.asList(extraOptions) : Collections.emptyList();
+
+        addDecodeHint(cmd, ShrinkOnLoadUtils.getSourceFormat(sourceFile), Collections.singletonList(dimension),
+                extraOptionList);
         cmd.addArgument(sourceFile.getCanonicalPath());
         final String dimensionArg = dimension.toCommandArgument();
         cmd.addArgument("-resize");
         cmd.addArgument(dimensionArg);
 
-        final List<String> extraOptionList = (extraOptions != null) ? Arrays.asList(extraOptions) : Collections.emptyList();
-
         for (String extraOption : extraOptionList) {
             cmd.addArgument(extraOption);
         }
 
-        if (dimension.getWidth() > 0 || dimension.getHeight() > 0) {
-            if (!extraOptionList.contains("-size")) {
-                cmd.addArgument("-size");
-                cmd.addArgument(dimensionArg);
-            }
+        if (!extraOptionList.contains("+profile") && !extraOptionList.contains("-profile")) {
+            cmd.addArgument("+profile");
+            cmd.addArgument("*");
+        }
+
+        cmd.addArgument(targetFile.getCanonicalPath());
+        return cmd;
+    }
+
+    /**
+     * Execute <code>identify</code> sub-command on the image read from {@code sourceStream}
+     * and return an {@link ImageDimension} instance from the output.
+     * @param sourceStream source image stream
+     * @param format source image format, e.g, <code>jpg</code>
+     * @return an {@link ImageDimension} instance from the output
+     * @throws MagickExecuteException if execution exception occurs
+     * @throws IOException if IO exception occurs
+     */
+    public static ImageDimension identifyDimension(InputStream sourceStream, String format)
+            throws MagickExecuteException, IOException {
+        GraphicsMagickCommand cmd = new GraphicsMagickCommand(null, "identify");
+
+        final File tempFolder = getTempFolder();
+
+        if (tempFolder != null) {
+            cmd.setWorkingDirectory(tempFolder);
+        }
+
+        cmd.addArgument("-format");
+        cmd.addArgument("%wx%h");
+        cmd.addArgument(toStandardStreamArgument(format));
+
+        try (InputStream output = cmd.executeStreaming(sourceStream)) {
+            return ImageDimension.from(StringUtils.trim(IOUtils.toString(output, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Resize the image read from {@code sourceStream} to {@code dimension} and return the standard output stream
+     * of the <code>convert</code> process, producing the resized image in the same {@code format},
+     * with appending {@code extraOptions} in the command line if provided.
+     * <P>
+     * No temporary file is used, so the {@code format} must be streamable.
+     * See {@link AbstractMagickCommand#isStreamableFormat(String)}.
+     * The returned stream must be closed by the caller. Reading the end of the returned stream throws
+     * a {@link MagickExecuteException} if the process failed.
+     * </P>
+     * @param sourceStream source image stream
+     * @param format image format of both the source and the resized image, e.g, <code>jpg</code>
+     * @param dimension image dimension
+     * @param extraOptions extra command line options
+     * @return the resized image stream
+     * @throws MagickExecuteException if execution exception occurs
+     * @throws IOException if IO exception occurs
+     */
+    public static InputStream resizeImageAsStream(InputStream sourceStream, String format, ImageDimension dimension,
+            String ... extraOptions) throws MagickExecuteException, IOException {
+        if (dimension == null) {
+            throw new IllegalArgumentException("Invalid dimension: " + dimension);
+        }
+
+        if (!AbstractMagickCommand.isStreamableFormat(format)) {
+            throw new IllegalArgumentException("Not a streamable format: " + format);
+        }
+
+        GraphicsMagickCommand cmd = new GraphicsMagickCommand(null, "convert");
+
+        final File tempFolder = getTempFolder();
+
+        if (tempFolder != null) {
+            cmd.setWorkingDirectory(tempFolder);
+        }
+
+        final List<String> extraOptionList = (extraOptions != null) ? Arrays.asList(extraOptions) : Collections.emptyList();
+
+        addDecodeHint(cmd, format, Collections.singletonList(dimension), extraOptionList);
+        final String streamArg = toStandardStreamArgument(format);
+        cmd.addArgument(streamArg);
+        final String dimensionArg = dimension.toCommandArgument();
+        cmd.addArgument("-resize");
+        cmd.addArgument(dimensionArg);
+
+        for (String extraOption : extraOptionList) {
+            cmd.addArgument(extraOption);
         }
 
         if (!extraOptionList.contains("+profile") && !extraOptionList.contains("-profile")) {
@@ -145,23 +438,145 @@ public class GraphicsMagickCommandUtils {
             cmd.addArgument("*");
         }
 
-        cmd.addArgument(targetFile.getCanonicalPath());
+        cmd.addArgument(streamArg);
 
-        cmd.execute();
+        return cmd.executeStreaming(sourceStream);
     }
 
     /**
-     * Returns the temporary folder file.
-     * @return the temporary foler file
+     * Resize the given image {@code sourceFile} to each target file and dimension in {@code targets},
+     * and return the final dimension of each target file.
+     * <P>
+     * Unlike ImageMagick, Graphics Magick <code>convert</code> doesn't support image sequence operators such as
+     * parentheses and <code>mpr:</code> registers, so each target image is resized by a separate command.
+     * Enable the {@link GraphicsMagickBatchProcessPool} to avoid forking a process for each command.
+     * </P>
+     * @param sourceFile source image file
+     * @param targets ordered map of target image file to image dimension
+     * @param extraOptions extra command line options applied to each target image
+     * @return map of target image file to its final image dimension, in the same order as {@code targets}
+     * @throws MagickExecuteException if execution exception occurs
+     * @throws IOException if IO exception occurs
      */
-    private static File getTempFolder() {
-        File tempFolder = null;
-        final String tmpDirPath = System.getProperty("java.io.tmpdir");
+    public static Map<File, ImageDimension> resizeImages(File sourceFile, Map<File, ImageDimension> targets,
+            String ... extraOptions) throws MagickExecuteException, IOException {
+        if (targets == null || targets.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        final Map<File, ImageDimension> dimensions = new LinkedHashMap<>();
+
+        for (Map.Entry<File, ImageDimension> entry : targets.entrySet()) {
+            resizeImage(sourceFile, entry.getKey(), entry.getValue(), extraOptions);
+            dimensions.put(entry.getKey(), identifyDimension(entry.getKey()));
+        }
+
+        return dimensions;
+    }
+
+    /**
+     * Execute the {@code cmd} through the default {@link GraphicsMagickBatchProcessPool} if enabled,
+     * or by forking a new process otherwise.
+     * @param cmd Graphics Magick command
+     * @param stdOut (optional) standard output stream
+     * @throws MagickExecuteException if execution exception occurs
+     * @throws IOException if IO exception occurs
+     */
+    private static void execute(GraphicsMagickCommand cmd, OutputStream stdOut) throws MagickExecuteException, IOException {
+        final GraphicsMagickBatchProcessPool pool = GraphicsMagickBatchProcessPool.getDefaultInstance();
+
+        if (pool != null) {
+            pool.execute(cmd, stdOut);
+        } else {
+            cmd.execute(stdOut);
+        }
+    }
+
+    /**
+     * Execute the {@code cmd} asynchronously through the default {@link GraphicsMagickBatchProcessPool} if enabled,
+     * waiting for a pooled process in the async executor of the default {@link MagickProcessExecutor},
+     * or by forking a new process otherwise.
+     * @param cmd Graphics Magick command
+     * @param stdOut (optional) standard output stream
+     * @return the future completed when the command is executed
+     */
+    private static CompletableFuture<Void> executeAsync(GraphicsMagickCommand cmd, OutputStream stdOut) {
+        final GraphicsMagickBatchProcessPool pool = GraphicsMagickBatchProcessPool.getDefaultInstance();
+
+        if (pool != null) {
+            return MagickProcessExecutor.getDefaultInstance().supplyAsync(() -> {
+                pool.execute(cmd, stdOut);
+                return null;
+            });
+        }
 
-        if (StringUtils.isNotBlank(tmpDirPath)) {
-            tempFolder = new File(tmpDirPath);
+        return cmd.executeAsync(stdOut);
+    }
+
+    /**
+     * Add <code>-size WxH</code> before the input image to let the JPEG decoder shrink the source image
+     * while loading it, unless disabled or a decoding hint is given in {@code extraOptionList} already.
+     * See {@link ShrinkOnLoadUtils}.
+     * @param cmd command
+     * @param format source image format
+     * @param dimensions target image dimensions
+     * @param extraOptionList extra command line options
+     */
+    private static void addDecodeHint(GraphicsMagickCommand cmd, String format, Collection<ImageDimension> dimensions,
+            List<String> extraOptionList) {
+        if (!ShrinkOnLoadUtils.isEnabled() || !ShrinkOnLoadUtils.isShrinkOnLoadFormat(format)
+                || ShrinkOnLoadUtils.containsDecodeHint(extraOptionList)) {
+            return;
+        }
+
+        final ImageDimension hint = ShrinkOnLoadUtils.getDecodeHint(dimensions);
+
+        if (hint != null) {
+            cmd.addArgument("-size");
+            cmd.addArgument(hint.toCommandArgument());
+        }
+    }
+
+    /**
+     * Returns the command line argument reading from the standard input or writing to the standard output
+     * in the {@code format}, e.g, <code>jpg:-</code>.
+     * @param format image format
+     * @return the command line argument for the standard input or output in the {@code format}
+     */
+    private static String toStandardStreamArgument(String format) {
+        if (StringUtils.isBlank(format)) {
+            throw new IllegalArgumentException("Blank image format.");
+        }
+
+        return StringUtils.lowerCase(format.trim()) + ":-";
+    }
+
+    /**
+     * Returns the dimension argument of the only image geometry in the {@code verboseMetadata},
+     * or null if not found or if there are multiple frames.
+     * @param verboseMetadata <code>identify -verbose</code> output
+     * @return the dimension argument of the only image geometry in the {@code verboseMetadata}
+     */
+    private static String findSingleGeometry(String verboseMetadata) {
+        if (verboseMetadata == null) {
+            return null;
         }
 
-        return tempFolder;
+        final Matcher m = VERBOSE_GEOMETRY_PATTERN.matcher(verboseMetadata);
+
+        if (!m.find()) {
+            return null;
+        }
+
+        final String geometry = m.group(1) + "x" + m.group(2);
+        return m.find() ? null : geometry;
+    }
+
+    /**
+     * Returns the working folder of the Magick processes, managed by {@link MagickTempFileManager}.
+     * @return the working folder of the Magick processes
+     */
+    private static File getTempFolder() {
+        return MagickTempFileManager.getDefaultInstance().getWorkingDirectory();
     }
 }
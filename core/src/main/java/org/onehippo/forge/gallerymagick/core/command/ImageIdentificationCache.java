@@ -0,0 +1,355 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of image identification results, such as dimensions and metadata, keyed by the SHA-256 digest
+ * of the image content and the kind of the identification, e.g, <code>im.dimension</code>.
+ * <P>
+ * The results are kept in an in-memory LRU map, and optionally persisted in a directory, one file per result,
+ * so they survive restarts. The default instance, used by {@link ImageMagickCommandUtils} and
+ * {@link GraphicsMagickCommandUtils}, is configured by the system properties, {@link #PROP_MAX_ENTRIES}
+ * and {@link #PROP_DIRECTORY}.
+ * </P>
+ */
+public class ImageIdentificationCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageIdentificationCache.class);
+
+    /**
+     * System property name for the maximum number of identification results kept in memory.
+     * The default value is {@link #DEFAULT_MAX_ENTRIES}. The in-memory cache is disabled if zero or negative.
+     */
+    public static final String PROP_MAX_ENTRIES = "org.onehippo.forge.gallerymagick.core.command.identify.cache.maxEntries";
+
+    /**
+     * System property name for the path of the directory persisting identification results.
+     * Identification results are not persisted if not set.
+     */
+    public static final String PROP_DIRECTORY = "org.onehippo.forge.gallerymagick.core.command.identify.cache.directory";
+
+    /**
+     * The default maximum number of identification results kept in memory.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final String TEMP_FILE_PREFIX = "_tmp";
+
+    private static volatile ImageIdentificationCache defaultInstance;
+
+    /**
+     * An identification of an image file.
+     */
+    @FunctionalInterface
+    public interface Identifier {
+
+        /**
+         * Identifies the {@code sourceFile} and returns the result.
+         * @param sourceFile source image file
+         * @return identification result
+         * @throws IOException if IO exception occurs
+         */
+        String identify(File sourceFile) throws IOException;
+
+    }
+
+    /**
+     * An asynchronous identification of an image file.
+     */
+    @FunctionalInterface
+    public interface AsyncIdentifier {
+
+        /**
+         * Starts identifying the {@code sourceFile} and returns the future result.
+         * @param sourceFile source image file
+         * @return future identification result
+         */
+        CompletableFuture<String> identify(File sourceFile);
+
+    }
+
+    private final int maxEntries;
+
+    private final File directory;
+
+    private final Map<String, String> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Constructs an identification cache.
+     * @param maxEntries maximum number of identification results kept in memory. Disabled if zero or negative.
+     * @param directory (optional) directory persisting identification results
+     */
+    public ImageIdentificationCache(final int maxEntries, final File directory) {
+        this.maxEntries = maxEntries;
+        this.directory = directory;
+
+        entries = new LinkedHashMap<String, String>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > ImageIdentificationCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the default identification cache configured by system properties.
+     * @return the default identification cache configured by system properties
+     */
+    public static ImageIdentificationCache getDefaultInstance() {
+        ImageIdentificationCache instance = defaultInstance;
+
+        if (instance == null) {
+            synchronized (ImageIdentificationCache.class) {
+                instance = defaultInstance;
+
+                if (instance == null) {
+                    final String directoryPath = System.getProperty(PROP_DIRECTORY);
+                    instance = new ImageIdentificationCache(
+                            NumberUtils.toInt(System.getProperty(PROP_MAX_ENTRIES), DEFAULT_MAX_ENTRIES),
+                            StringUtils.isNotBlank(directoryPath) ? new File(directoryPath) : null);
+                    defaultInstance = instance;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns true if either the in-memory cache or the persistence is enabled.
+     * @return true if either the in-memory cache or the persistence is enabled
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0 || directory != null;
+    }
+
+    /**
+     * Returns the cached {@code kind} of identification result of the content of {@code sourceFile},
+     * or identifies it by {@code identifier} and caches the result on a cache miss.
+     * @param sourceFile source image file
+     * @param kind kind of the identification, e.g, <code>im.dimension</code>
+     * @param identifier identification executed on a cache miss
+     * @return the identification result
+     * @throws IOException if IO exception occurs
+     */
+    public String identify(final File sourceFile, final String kind, final Identifier identifier) throws IOException {
+        if (!isEnabled()) {
+            return identifier.identify(sourceFile);
+        }
+
+        final String digest = ContentDigestUtils.sha256Hex(sourceFile);
+        String result = get(digest, kind);
+
+        if (result != null) {
+            hitCount.incrementAndGet();
+            log.debug("Identification cache hit for {} of {}.", kind, sourceFile);
+            return result;
+        }
+
+        missCount.incrementAndGet();
+        result = identifier.identify(sourceFile);
+        put(digest, kind, result);
+
+        return result;
+    }
+
+    /**
+     * Returns the future of the cached {@code kind} of identification result of the content of {@code sourceFile},
+     * or identifies it by {@code identifier} and caches the result on a cache miss when it is completed.
+     * The content digest is computed in the caller thread.
+     * @param sourceFile source image file
+     * @param kind kind of the identification, e.g, <code>im.dimension</code>
+     * @param identifier asynchronous identification started on a cache miss
+     * @return the future identification result, completed exceptionally if IO exception occurs
+     */
+    public CompletableFuture<String> identifyAsync(final File sourceFile, final String kind,
+            final AsyncIdentifier identifier) {
+        if (!isEnabled()) {
+            return identifier.identify(sourceFile);
+        }
+
+        final String digest;
+
+        try {
+            digest = ContentDigestUtils.sha256Hex(sourceFile);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        final String cached = get(digest, kind);
+
+        if (cached != null) {
+            hitCount.incrementAndGet();
+            log.debug("Identification cache hit for {} of {}.", kind, sourceFile);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        missCount.incrementAndGet();
+
+        return identifier.identify(sourceFile).thenApply(result -> {
+            put(digest, kind, result);
+            return result;
+        });
+    }
+
+    /**
+     * Caches the {@code kind} of identification {@code result} of the content of {@code sourceFile}
+     * unless already cached, e.g, a dimension found while extracting all the metadata.
+     * @param sourceFile source image file
+     * @param kind kind of the identification, e.g, <code>im.dimension</code>
+     * @param result identification result
+     * @throws IOException if IO exception occurs
+     */
+    public void putIfAbsent(final File sourceFile, final String kind, final String result) throws IOException {
+        if (!isEnabled() || result == null) {
+            return;
+        }
+
+        final String digest = ContentDigestUtils.sha256Hex(sourceFile);
+
+        if (get(digest, kind) == null) {
+            put(digest, kind, result);
+        }
+    }
+
+    /**
+     * Returns the maximum number of identification results kept in memory.
+     * @return the maximum number of identification results kept in memory
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the directory persisting identification results, or null if not persisted.
+     * @return the directory persisting identification results, or null if not persisted
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the number of cache hits.
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private String get(final String digest, final String kind) {
+        final String key = digest + "." + kind;
+        String result = null;
+
+        if (maxEntries > 0) {
+            synchronized (entries) {
+                result = entries.get(key);
+            }
+        }
+
+        if (result == null && directory != null) {
+            final File entryFile = getEntryFile(key);
+
+            if (entryFile.isFile()) {
+                try {
+                    result = FileUtils.readFileToString(entryFile, StandardCharsets.UTF_8);
+                    putInMemory(key, result);
+                } catch (IOException e) {
+                    log.debug("Failed to read the persisted identification result: {}", entryFile, e);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private void put(final String digest, final String kind, final String result) {
+        if (result == null) {
+            return;
+        }
+
+        final String key = digest + "." + kind;
+        putInMemory(key, result);
+
+        if (directory != null) {
+            final File entryFile = getEntryFile(key);
+            File tempFile = null;
+
+            try {
+                FileUtils.forceMkdir(entryFile.getParentFile());
+                tempFile = File.createTempFile(TEMP_FILE_PREFIX, ".tmp", entryFile.getParentFile());
+                FileUtils.writeStringToFile(tempFile, result, StandardCharsets.UTF_8);
+
+                try {
+                    Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                tempFile = null;
+            } catch (IOException e) {
+                log.warn("Failed to persist the identification result: {}", entryFile, e);
+            } finally {
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+            }
+        }
+    }
+
+    private void putInMemory(final String key, final String result) {
+        if (maxEntries > 0) {
+            synchronized (entries) {
+                entries.put(key, result);
+            }
+        }
+    }
+
+    private File getEntryFile(final String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+}
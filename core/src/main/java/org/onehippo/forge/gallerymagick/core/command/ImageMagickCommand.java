@@ -33,6 +33,11 @@ public class ImageMagickCommand extends AbstractMagickCommand {
      */
     public static final String PROP_EXECUTABLE_IDENTIFY = "org.onehippo.forge.gallerymagick.core.command.im.identify";
 
+    /**
+     * Backend name of Image Magick commands in the collected metrics.
+     */
+    public static final String BACKEND_NAME = "imagemagick";
+
     /**
      * Constructor with an {@code executable} and a {@code subCommand}.
      * If {@code executable} is null, it tries to find it from a system property keyed by {@link #PROP_EXECUTABLE_CONVERT}.
@@ -45,6 +50,14 @@ public class ImageMagickCommand extends AbstractMagickCommand {
                 StringUtils.defaultIfBlank(subCommand, DEFAULT_SUBCOMMAND_CONVERT));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getBackendName() {
+        return BACKEND_NAME;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -58,6 +71,10 @@ public class ImageMagickCommand extends AbstractMagickCommand {
 
         CommandLine cmdLine = new CommandLine(executable);
 
+        for (String argument : getResourceLimitArguments()) {
+            cmdLine.addArgument(argument);
+        }
+
         for (String argument : getArguments()) {
             cmdLine.addArgument(argument);
         }
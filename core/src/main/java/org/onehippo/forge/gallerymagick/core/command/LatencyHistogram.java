@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with fixed bucket bounds in milliseconds, {@link #BUCKET_BOUNDS}.
+ * Percentiles are estimated by the upper bound of the bucket they fall in.
+ */
+class LatencyHistogram {
+
+    /**
+     * Inclusive upper bounds in milliseconds of the buckets. The last bucket counts anything longer.
+     */
+    static final long[] BUCKET_BOUNDS = { 1L, 2L, 5L, 10L, 25L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L,
+            10000L, 30000L, 60000L };
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(final long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0L, nanos));
+        int index = 0;
+
+        while (index < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[index]) {
+            ++index;
+        }
+
+        buckets[index].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getTotalTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos.sum());
+    }
+
+    long getMaxTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    double getMeanTime() {
+        final long n = count.sum();
+        return (n > 0) ? (double) totalNanos.sum() / n / 1000000.0 : 0.0;
+    }
+
+    long[] getBucketCounts() {
+        final long[] counts = new long[buckets.length];
+
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns the estimated latency in milliseconds below which the {@code quantile} of the executions fall,
+     * or zero if nothing has been recorded.
+     * @param quantile quantile between 0 and 1, e.g, <code>0.99</code>
+     * @return the estimated latency in milliseconds
+     */
+    long getPercentile(final double quantile) {
+        final long[] counts = getBucketCounts();
+        long total = 0L;
+
+        for (long c : counts) {
+            total += c;
+        }
+
+        if (total == 0L) {
+            return 0L;
+        }
+
+        final long rank = (long) Math.ceil(quantile * total);
+        long cumulative = 0L;
+
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            cumulative += counts[i];
+
+            if (cumulative >= rank) {
+                return Math.min(BUCKET_BOUNDS[i], getMaxTime());
+            }
+        }
+
+        return getMaxTime();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+/**
+ * A completed Magick command execution, passed to {@link MagickCommandListener#commandCompleted(MagickCommandEvent)}.
+ */
+public class MagickCommandEvent {
+
+    private final String backend;
+
+    private final String subCommand;
+
+    private final long durationNanos;
+
+    private final int exitValue;
+
+    private final boolean timedOut;
+
+    private final long bytesIn;
+
+    private final long bytesOut;
+
+    /**
+     * Constructs a completed Magick command execution.
+     * @param backend backend name of the command
+     * @param subCommand sub-command
+     * @param durationNanos execution time in nanoseconds
+     * @param exitValue exit value of the process, or <code>-1</code> if unknown
+     * @param timedOut whether or not the process was killed after the execution timeout
+     * @param bytesIn number of bytes written to the standard input of the process
+     * @param bytesOut number of bytes read from the standard output of the process
+     */
+    public MagickCommandEvent(final String backend, final String subCommand, final long durationNanos,
+            final int exitValue, final boolean timedOut, final long bytesIn, final long bytesOut) {
+        this.backend = backend;
+        this.subCommand = subCommand;
+        this.durationNanos = durationNanos;
+        this.exitValue = exitValue;
+        this.timedOut = timedOut;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+    }
+
+    /**
+     * Returns the backend name of the command, e.g, <code>imagemagick</code> or <code>graphicsmagick</code>.
+     * @return the backend name of the command
+     */
+    public String getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the sub-command, e.g, <code>convert</code> or <code>identify</code>.
+     * @return the sub-command
+     */
+    public String getSubCommand() {
+        return subCommand;
+    }
+
+    /**
+     * Returns the execution time in nanoseconds, excluding the time waiting to be admitted.
+     * @return the execution time in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Returns the exit value of the process, or <code>-1</code> if unknown, e.g, if it failed to start.
+     * @return the exit value of the process
+     */
+    public int getExitValue() {
+        return exitValue;
+    }
+
+    /**
+     * Returns true if the process was killed after the execution timeout.
+     * @return true if the process was killed after the execution timeout
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Returns true if the process exited with zero without timing out.
+     * @return true if the process exited with zero without timing out
+     */
+    public boolean isSucceeded() {
+        return exitValue == 0 && !timedOut;
+    }
+
+    /**
+     * Returns the number of bytes written to the standard input of the process.
+     * @return the number of bytes written to the standard input of the process
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Returns the number of bytes read from the standard output of the process.
+     * @return the number of bytes read from the standard output of the process
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    @Override
+    public String toString() {
+        return backend + " " + subCommand + " (exit: " + exitValue + ", timedOut: " + timedOut + ", duration: "
+                + durationNanos + "ns, in: " + bytesIn + "B, out: " + bytesOut + "B)";
+    }
+}
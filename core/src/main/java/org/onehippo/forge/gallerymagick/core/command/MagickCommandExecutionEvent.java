@@ -0,0 +1,63 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event spanning a Magick command execution, from the process start to its exit,
+ * excluding the time waiting to be admitted. Emitted through {@link MagickCommandMetrics}.
+ */
+@Name(MagickCommandExecutionEvent.NAME)
+@Label("Magick Command Execution")
+@Description("Execution of an ImageMagick or GraphicsMagick command")
+@Category({ "Gallery Magick", "Command" })
+@StackTrace(false)
+class MagickCommandExecutionEvent extends Event {
+
+    static final String NAME = "org.onehippo.forge.gallerymagick.MagickCommandExecution";
+
+    @Label("Backend")
+    String backend;
+
+    @Label("Sub-command")
+    String subCommand;
+
+    @Label("Arguments")
+    String arguments;
+
+    @Label("Exit Value")
+    int exitValue;
+
+    @Label("Timed Out")
+    boolean timedOut;
+
+    @Label("Bytes In")
+    @Description("Bytes written to the standard input of the process")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @Description("Bytes read from the standard output of the process")
+    @DataAmount
+    long bytesOut;
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+/**
+ * Listener notified of Magick command executions and image variant processing by {@link MagickCommandMetrics},
+ * to forward them to a metrics library of choice.
+ * <P>
+ * A listener can be added by {@link MagickCommandMetrics#addListener(MagickCommandListener)}, or registered in
+ * <code>META-INF/services/org.onehippo.forge.gallerymagick.core.command.MagickCommandListener</code> to be loaded
+ * when the default {@link MagickCommandMetrics} instance is created.
+ * Listeners are invoked synchronously by the executing thread, so they should return quickly and not throw exceptions.
+ * </P>
+ */
+public interface MagickCommandListener {
+
+    /**
+     * Invoked when a Magick command is about to be executed.
+     * @param backend backend name of the command, e.g, <code>imagemagick</code> or <code>graphicsmagick</code>
+     * @param subCommand sub-command, e.g, <code>convert</code> or <code>identify</code>
+     */
+    default void commandStarted(String backend, String subCommand) {
+    }
+
+    /**
+     * Invoked when a Magick command execution completed, either successfully or not.
+     * @param event the completed execution
+     */
+    default void commandCompleted(MagickCommandEvent event) {
+    }
+
+    /**
+     * Invoked when an image variant has been processed.
+     * @param variantName image variant name, e.g, <code>hippogallery:thumbnail</code>
+     * @param durationNanos processing time in nanoseconds
+     * @param succeeded whether or not the image variant was processed without an exception
+     */
+    default void variantProcessed(String variantName, long durationNanos, boolean succeeded) {
+    }
+}
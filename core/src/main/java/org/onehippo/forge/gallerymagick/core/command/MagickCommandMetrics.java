@@ -0,0 +1,397 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide registry of Magick command execution metrics, per backend and sub-command, and of image variant
+ * processing times.
+ * <P>
+ * It records latency histograms, exit value counts, timeouts, bytes through the standard input and output, and
+ * the number of executions in flight. The statistics are exposed through JMX as {@link #OBJECT_NAME} unless disabled
+ * by the system property, {@link #PROP_JMX_ENABLED}, and each execution is passed to the registered
+ * {@link MagickCommandListener}s, so the metrics can be forwarded to any metrics library without depending on it.
+ * Each execution is also emitted as a JDK Flight Recorder event, {@link MagickCommandExecutionEvent}, when recorded.
+ * </P>
+ */
+public class MagickCommandMetrics implements MagickCommandMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(MagickCommandMetrics.class);
+
+    /**
+     * System property name for whether or not to register the default instance as an MBean. True by default.
+     */
+    public static final String PROP_JMX_ENABLED = "org.onehippo.forge.gallerymagick.core.command.metrics.jmx.enabled";
+
+    /**
+     * JMX object name of the default instance.
+     */
+    public static final String OBJECT_NAME = "org.onehippo.forge.gallerymagick:type=MagickCommandMetrics";
+
+    private static volatile MagickCommandMetrics defaultInstance;
+
+    private final List<MagickCommandListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final ConcurrentMap<String, AtomicInteger> inFlightCounts = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, CommandStats> commandStats = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, VariantStats> variantStats = new ConcurrentHashMap<>();
+
+    private ObjectName registeredName;
+
+    /**
+     * Returns the default metrics registry, loading the {@link MagickCommandListener} services and registering
+     * it as an MBean on the first call.
+     * @return the default metrics registry
+     */
+    public static MagickCommandMetrics getDefaultInstance() {
+        MagickCommandMetrics instance = defaultInstance;
+
+        if (instance == null) {
+            synchronized (MagickCommandMetrics.class) {
+                instance = defaultInstance;
+
+                if (instance == null) {
+                    instance = new MagickCommandMetrics();
+                    instance.loadListeners();
+
+                    if (BooleanUtils.toBoolean(System.getProperty(PROP_JMX_ENABLED, "true"))) {
+                        instance.registerMBean(OBJECT_NAME);
+                    }
+
+                    defaultInstance = instance;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Adds a listener notified of command executions and image variant processing.
+     * @param listener listener
+     */
+    public void addListener(final MagickCommandListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     * @param listener listener
+     */
+    public void removeListener(final MagickCommandListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the registered listeners.
+     * @return the registered listeners
+     */
+    public List<MagickCommandListener> getListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+
+    /**
+     * Registers this as an MBean in the platform MBean server. Failures are logged, not thrown,
+     * e.g, if another web application in the same JVM has registered the name already.
+     * @param objectName JMX object name
+     */
+    public synchronized void registerMBean(final String objectName) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(objectName);
+            server.registerMBean(this, name);
+            registeredName = name;
+            log.debug("Registered Magick command metrics MBean: {}", name);
+        } catch (JMException | RuntimeException e) {
+            log.warn("Cannot register Magick command metrics MBean, {}: {}", objectName, e.toString());
+        }
+    }
+
+    /**
+     * Unregisters this from the platform MBean server if registered by {@link #registerMBean(String)}.
+     */
+    public synchronized void unregisterMBean() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException | RuntimeException e) {
+                log.warn("Cannot unregister Magick command metrics MBean, {}: {}", registeredName, e.toString());
+            } finally {
+                registeredName = null;
+            }
+        }
+    }
+
+    /**
+     * Records the processing time of an image variant.
+     * @param variantName image variant name
+     * @param durationNanos processing time in nanoseconds
+     * @param succeeded whether or not the image variant was processed without an exception
+     */
+    public void recordVariant(final String variantName, final long durationNanos, final boolean succeeded) {
+        final VariantStats stats = variantStats.computeIfAbsent(variantName, key -> new VariantStats());
+        stats.histogram.record(durationNanos);
+
+        if (!succeeded) {
+            stats.failures.increment();
+        }
+
+        for (MagickCommandListener listener : listeners) {
+            try {
+                listener.variantProcessed(variantName, durationNanos, succeeded);
+            } catch (RuntimeException e) {
+                log.warn("Magick command listener failed: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * Starts recording an execution of the {@code subCommand} of the {@code backend}.
+     * {@link Execution#end(int, boolean, long, long)} must be called when the execution completes.
+     * @param backend backend name
+     * @param subCommand sub-command
+     * @return the execution in flight
+     */
+    Execution startExecution(final String backend, final String subCommand) {
+        return startExecution(backend, subCommand, null);
+    }
+
+    /**
+     * Starts recording an execution of the {@code subCommand} of the {@code backend}, and begins
+     * a {@link MagickCommandExecutionEvent} including the {@code arguments} if the event is enabled.
+     * {@link Execution#end(int, boolean, long, long)} must be called when the execution completes.
+     * @param backend backend name
+     * @param subCommand sub-command
+     * @param arguments (optional) command line arguments after the sub-command
+     * @return the execution in flight
+     */
+    Execution startExecution(final String backend, final String subCommand, final List<String> arguments) {
+        final String key = toKey(backend, subCommand);
+        final AtomicInteger inFlight = inFlightCounts.computeIfAbsent(key, k -> new AtomicInteger());
+        inFlight.incrementAndGet();
+
+        for (MagickCommandListener listener : listeners) {
+            try {
+                listener.commandStarted(backend, subCommand);
+            } catch (RuntimeException e) {
+                log.warn("Magick command listener failed: {}", e.toString());
+            }
+        }
+
+        final MagickCommandExecutionEvent event = new MagickCommandExecutionEvent();
+
+        if (event.isEnabled()) {
+            event.backend = backend;
+            event.subCommand = subCommand;
+            event.arguments = (arguments != null) ? String.join(" ", arguments) : null;
+            event.begin();
+        }
+
+        return new Execution(backend, subCommand, key, inFlight, event);
+    }
+
+    @Override
+    public int getInFlight() {
+        int sum = 0;
+
+        for (AtomicInteger inFlight : inFlightCounts.values()) {
+            sum += inFlight.get();
+        }
+
+        return sum;
+    }
+
+    @Override
+    public long[] getLatencyBucketBounds() {
+        return LatencyHistogram.BUCKET_BOUNDS.clone();
+    }
+
+    @Override
+    public List<MagickCommandStatistics> getCommandStatistics() {
+        final List<MagickCommandStatistics> list = new ArrayList<>();
+
+        for (String key : new TreeMap<>(inFlightCounts).keySet()) {
+            final int separator = key.indexOf(' ');
+            final String backend = key.substring(0, separator);
+            final String subCommand = key.substring(separator + 1);
+            final CommandStats stats = commandStats.getOrDefault(key, new CommandStats());
+            final Map<Integer, Long> exitValueCounts = new TreeMap<>();
+            stats.exitValueCounts.forEach((exitValue, count) -> exitValueCounts.put(exitValue, count.sum()));
+            list.add(new MagickCommandStatistics(backend, subCommand, inFlightCounts.get(key).get(),
+                    stats.failures.sum(), stats.timeouts.sum(), stats.bytesIn.sum(), stats.bytesOut.sum(),
+                    stats.histogram, exitValueCounts));
+        }
+
+        return list;
+    }
+
+    @Override
+    public List<MagickVariantStatistics> getVariantStatistics() {
+        final List<MagickVariantStatistics> list = new ArrayList<>();
+
+        new TreeMap<>(variantStats).forEach((variantName, stats) -> list
+                .add(new MagickVariantStatistics(variantName, stats.failures.sum(), stats.histogram)));
+
+        return list;
+    }
+
+    @Override
+    public void reset() {
+        commandStats.clear();
+        variantStats.clear();
+    }
+
+    private void loadListeners() {
+        try {
+            for (MagickCommandListener listener : ServiceLoader.load(MagickCommandListener.class,
+                    MagickCommandMetrics.class.getClassLoader())) {
+                log.info("Adding Magick command listener: {}", listener.getClass().getName());
+                listeners.add(listener);
+            }
+        } catch (ServiceConfigurationError e) {
+            log.warn("Cannot load Magick command listeners: {}", e.toString());
+        }
+    }
+
+    private void endExecution(final Execution execution, final MagickCommandEvent event) {
+        execution.inFlight.decrementAndGet();
+
+        final CommandStats stats = commandStats.computeIfAbsent(execution.key, key -> new CommandStats());
+        stats.histogram.record(event.getDurationNanos());
+        stats.exitValueCounts.computeIfAbsent(event.getExitValue(), key -> new LongAdder()).increment();
+        stats.bytesIn.add(event.getBytesIn());
+        stats.bytesOut.add(event.getBytesOut());
+
+        if (!event.isSucceeded()) {
+            stats.failures.increment();
+        }
+
+        if (event.isTimedOut()) {
+            stats.timeouts.increment();
+        }
+
+        for (MagickCommandListener listener : listeners) {
+            try {
+                listener.commandCompleted(event);
+            } catch (RuntimeException e) {
+                log.warn("Magick command listener failed: {}", e.toString());
+            }
+        }
+    }
+
+    private static String toKey(final String backend, final String subCommand) {
+        return backend.replace(' ', '_') + " " + subCommand;
+    }
+
+    /**
+     * A Magick command execution in flight, started by {@link MagickCommandMetrics#startExecution(String, String)}.
+     */
+    class Execution {
+
+        private final String backend;
+
+        private final String subCommand;
+
+        private final String key;
+
+        private final AtomicInteger inFlight;
+
+        private final MagickCommandExecutionEvent event;
+
+        private final long startNanos = System.nanoTime();
+
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        private Execution(final String backend, final String subCommand, final String key,
+                final AtomicInteger inFlight, final MagickCommandExecutionEvent event) {
+            this.backend = backend;
+            this.subCommand = subCommand;
+            this.key = key;
+            this.inFlight = inFlight;
+            this.event = event;
+        }
+
+        /**
+         * Records the completion of this execution. Calls after the first one are ignored.
+         * @param exitValue exit value of the process, or <code>-1</code> if unknown
+         * @param timedOut whether or not the process was killed after the execution timeout
+         * @param bytesIn number of bytes written to the standard input of the process
+         * @param bytesOut number of bytes read from the standard output of the process
+         */
+        void end(final int exitValue, final boolean timedOut, final long bytesIn, final long bytesOut) {
+            if (ended.compareAndSet(false, true)) {
+                event.end();
+
+                if (event.shouldCommit()) {
+                    event.exitValue = exitValue;
+                    event.timedOut = timedOut;
+                    event.bytesIn = bytesIn;
+                    event.bytesOut = bytesOut;
+                    event.commit();
+                }
+
+                endExecution(this, new MagickCommandEvent(backend, subCommand, System.nanoTime() - startNanos,
+                        exitValue, timedOut, bytesIn, bytesOut));
+            }
+        }
+    }
+
+    private static class CommandStats {
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private final ConcurrentMap<Integer, LongAdder> exitValueCounts = new ConcurrentHashMap<>();
+
+        private final LongAdder failures = new LongAdder();
+
+        private final LongAdder timeouts = new LongAdder();
+
+        private final LongAdder bytesIn = new LongAdder();
+
+        private final LongAdder bytesOut = new LongAdder();
+    }
+
+    private static class VariantStats {
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private final LongAdder failures = new LongAdder();
+    }
+}
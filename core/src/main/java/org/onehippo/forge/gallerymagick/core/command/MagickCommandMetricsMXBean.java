@@ -0,0 +1,53 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.util.List;
+
+/**
+ * JMX management interface of {@link MagickCommandMetrics}, registered as {@link MagickCommandMetrics#OBJECT_NAME}.
+ */
+public interface MagickCommandMetricsMXBean {
+
+    /**
+     * Returns the number of Magick command executions currently running.
+     * @return the number of Magick command executions currently running
+     */
+    int getInFlight();
+
+    /**
+     * Returns the inclusive upper bounds in milliseconds of the latency histogram buckets.
+     * @return the inclusive upper bounds in milliseconds of the latency histogram buckets
+     */
+    long[] getLatencyBucketBounds();
+
+    /**
+     * Returns the execution statistics of each backend and sub-command.
+     * @return the execution statistics of each backend and sub-command
+     */
+    List<MagickCommandStatistics> getCommandStatistics();
+
+    /**
+     * Returns the processing time statistics of each image variant.
+     * @return the processing time statistics of each image variant
+     */
+    List<MagickVariantStatistics> getVariantStatistics();
+
+    /**
+     * Clears all the collected statistics except the executions currently running.
+     */
+    void reset();
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of the execution statistics of a sub-command of a backend, collected by {@link MagickCommandMetrics}.
+ * Times are in milliseconds.
+ */
+public class MagickCommandStatistics {
+
+    private final String backend;
+
+    private final String subCommand;
+
+    private final int inFlight;
+
+    private final long invocations;
+
+    private final long failures;
+
+    private final long timeouts;
+
+    private final long bytesIn;
+
+    private final long bytesOut;
+
+    private final long totalTime;
+
+    private final long maxTime;
+
+    private final double meanTime;
+
+    private final long percentile50;
+
+    private final long percentile95;
+
+    private final long percentile99;
+
+    private final long[] latencyHistogram;
+
+    private final Map<Integer, Long> exitValueCounts;
+
+    MagickCommandStatistics(final String backend, final String subCommand, final int inFlight, final long failures,
+            final long timeouts, final long bytesIn, final long bytesOut, final LatencyHistogram histogram,
+            final Map<Integer, Long> exitValueCounts) {
+        this.backend = backend;
+        this.subCommand = subCommand;
+        this.inFlight = inFlight;
+        this.failures = failures;
+        this.timeouts = timeouts;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.exitValueCounts = Collections.unmodifiableMap(exitValueCounts);
+        invocations = histogram.getCount();
+        totalTime = histogram.getTotalTime();
+        maxTime = histogram.getMaxTime();
+        meanTime = histogram.getMeanTime();
+        percentile50 = histogram.getPercentile(0.5);
+        percentile95 = histogram.getPercentile(0.95);
+        percentile99 = histogram.getPercentile(0.99);
+        latencyHistogram = histogram.getBucketCounts();
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public String getSubCommand() {
+        return subCommand;
+    }
+
+    /**
+     * Returns the number of executions currently running.
+     * @return the number of executions currently running
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the number of completed executions.
+     * @return the number of completed executions
+     */
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * Returns the number of executions which exited with non-zero or timed out.
+     * @return the number of executions which exited with non-zero or timed out
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the number of executions killed after the execution timeout.
+     * @return the number of executions killed after the execution timeout
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Returns the total number of bytes written to the standard input of the processes.
+     * @return the total number of bytes written to the standard input of the processes
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Returns the total number of bytes read from the standard output of the processes.
+     * @return the total number of bytes read from the standard output of the processes
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public double getMeanTime() {
+        return meanTime;
+    }
+
+    public long getPercentile50() {
+        return percentile50;
+    }
+
+    public long getPercentile95() {
+        return percentile95;
+    }
+
+    public long getPercentile99() {
+        return percentile99;
+    }
+
+    /**
+     * Returns the execution counts of each latency bucket, bounded by {@link MagickCommandMetrics#getLatencyBucketBounds()}.
+     * The last element counts executions longer than the last bound.
+     * @return the execution counts of each latency bucket
+     */
+    public long[] getLatencyHistogram() {
+        return latencyHistogram.clone();
+    }
+
+    /**
+     * Returns the number of completed executions by exit value. <code>-1</code> stands for an unknown exit value.
+     * @return the number of completed executions by exit value
+     */
+    public Map<Integer, Long> getExitValueCounts() {
+        return exitValueCounts;
+    }
+}
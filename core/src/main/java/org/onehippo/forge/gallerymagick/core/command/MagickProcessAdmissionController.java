@@ -0,0 +1,300 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide admission controller limiting the number of Magick processes running at the same time.
+ * <P>
+ * Executions beyond {@link #getMaxProcesses()} wait in a bounded FIFO queue. An execution is rejected with
+ * {@link MagickProcessRejectedException} if the queue is full or if it cannot be admitted within the wait timeout.
+ * </P>
+ * <P>
+ * The default instance, used by {@link AbstractMagickCommand#execute(java.io.OutputStream)} and
+ * {@link GraphicsMagickBatchProcessPool}, is configured by the system properties, {@link #PROP_MAX_PROCESSES},
+ * {@link #PROP_MAX_QUEUE_SIZE} and {@link #PROP_WAIT_TIMEOUT}.
+ * </P>
+ */
+public class MagickProcessAdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(MagickProcessAdmissionController.class);
+
+    /**
+     * System property name for the maximum number of Magick processes running at the same time.
+     * The default value is the number of available processors. No limit if zero or negative.
+     */
+    public static final String PROP_MAX_PROCESSES = "org.onehippo.forge.gallerymagick.core.command.admission.maxProcesses";
+
+    /**
+     * System property name for the maximum number of executions waiting to be admitted.
+     * The default value is {@link #DEFAULT_MAX_QUEUE_SIZE}.
+     */
+    public static final String PROP_MAX_QUEUE_SIZE = "org.onehippo.forge.gallerymagick.core.command.admission.maxQueueSize";
+
+    /**
+     * System property name for the maximum time in milliseconds for an execution to wait to be admitted.
+     * The default value is {@link #DEFAULT_WAIT_TIMEOUT}.
+     */
+    public static final String PROP_WAIT_TIMEOUT = "org.onehippo.forge.gallerymagick.core.command.admission.waitTimeout";
+
+    /**
+     * The default maximum number of executions waiting to be admitted.
+     */
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 1000;
+
+    /**
+     * The default maximum time in milliseconds for an execution to wait to be admitted.
+     */
+    public static final long DEFAULT_WAIT_TIMEOUT = 60000L;
+
+    private static volatile MagickProcessAdmissionController defaultInstance;
+
+    private final int maxProcesses;
+
+    private final int maxQueueSize;
+
+    private final long waitTimeout;
+
+    private final Semaphore permits;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicInteger runningCount = new AtomicInteger();
+
+    private final AtomicLong admittedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Constructs an admission controller.
+     * @param maxProcesses maximum number of processes running at the same time. No limit if zero or negative.
+     * @param maxQueueSize maximum number of executions waiting to be admitted
+     * @param waitTimeout maximum time in milliseconds for an execution to wait to be admitted
+     */
+    public MagickProcessAdmissionController(final int maxProcesses, final int maxQueueSize, final long waitTimeout) {
+        this.maxProcesses = maxProcesses;
+        this.maxQueueSize = Math.max(0, maxQueueSize);
+        this.waitTimeout = waitTimeout;
+        permits = (maxProcesses > 0) ? new Semaphore(maxProcesses, true) : null;
+    }
+
+    /**
+     * Returns the default admission controller configured by system properties.
+     * @return the default admission controller configured by system properties
+     */
+    public static MagickProcessAdmissionController getDefaultInstance() {
+        MagickProcessAdmissionController instance = defaultInstance;
+
+        if (instance == null) {
+            synchronized (MagickProcessAdmissionController.class) {
+                instance = defaultInstance;
+
+                if (instance == null) {
+                    instance = new MagickProcessAdmissionController(
+                            NumberUtils.toInt(System.getProperty(PROP_MAX_PROCESSES),
+                                    Runtime.getRuntime().availableProcessors()),
+                            NumberUtils.toInt(System.getProperty(PROP_MAX_QUEUE_SIZE), DEFAULT_MAX_QUEUE_SIZE),
+                            NumberUtils.toLong(System.getProperty(PROP_WAIT_TIMEOUT), DEFAULT_WAIT_TIMEOUT));
+                    defaultInstance = instance;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Waits until a Magick process may be started. {@link #release()} must be called after the process ends.
+     * @throws MagickProcessRejectedException if the wait queue is full, or if not admitted within the wait timeout
+     */
+    public void acquire() throws MagickProcessRejectedException {
+        if (permits == null) {
+            runningCount.incrementAndGet();
+            admittedCount.incrementAndGet();
+            return;
+        }
+
+        if (!tryAcquireWithoutWaiting()) {
+            if (queueDepth.incrementAndGet() > maxQueueSize) {
+                queueDepth.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                throw new MagickProcessRejectedException("Magick process rejected: " + maxQueueSize
+                        + " execution(s) already waiting for " + maxProcesses + " running process(es).");
+            }
+
+            final long waitStart = System.nanoTime();
+
+            try {
+                if (!permits.tryAcquire(Math.max(0L, waitTimeout), TimeUnit.MILLISECONDS)) {
+                    rejectedCount.incrementAndGet();
+                    throw new MagickProcessRejectedException(
+                            "Magick process rejected: not admitted within " + waitTimeout + "ms.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejectedCount.incrementAndGet();
+                throw new MagickProcessRejectedException("Interrupted while waiting for a Magick process.", e);
+            } finally {
+                queueDepth.decrementAndGet();
+                recordWait(System.nanoTime() - waitStart);
+            }
+        }
+
+        runningCount.incrementAndGet();
+        admittedCount.incrementAndGet();
+    }
+
+    /**
+     * Returns a future completed when a Magick process may be started. {@link #release()} must be called after
+     * the process ends. It completes immediately if admitted without waiting, or else waits in the {@code executor}.
+     * @param executor executor to wait for the admission in
+     * @return a future completed when a Magick process may be started, or completed exceptionally with
+     *         a {@link MagickProcessRejectedException} if not admitted
+     */
+    public CompletableFuture<Void> acquireAsync(final Executor executor) {
+        if (permits == null || tryAcquireWithoutWaiting()) {
+            runningCount.incrementAndGet();
+            admittedCount.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return CompletableFuture.runAsync(() -> {
+            try {
+                acquire();
+            } catch (MagickProcessRejectedException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Releases the admission acquired by {@link #acquire()} or {@link #acquireAsync(Executor)}.
+     */
+    public void release() {
+        runningCount.decrementAndGet();
+
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns the maximum number of processes running at the same time. No limit if zero or negative.
+     * @return the maximum number of processes running at the same time
+     */
+    public int getMaxProcesses() {
+        return maxProcesses;
+    }
+
+    /**
+     * Returns the maximum number of executions waiting to be admitted.
+     * @return the maximum number of executions waiting to be admitted
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds for an execution to wait to be admitted.
+     * @return the maximum time in milliseconds for an execution to wait to be admitted
+     */
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    /**
+     * Returns the number of executions currently waiting to be admitted.
+     * @return the number of executions currently waiting to be admitted
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Returns the number of processes currently admitted.
+     * @return the number of processes currently admitted
+     */
+    public int getRunningCount() {
+        return runningCount.get();
+    }
+
+    /**
+     * Returns the total number of admitted executions.
+     * @return the total number of admitted executions
+     */
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    /**
+     * Returns the total number of rejected executions.
+     * @return the total number of rejected executions
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the total time in milliseconds spent by executions waiting to be admitted.
+     * @return the total time in milliseconds spent by executions waiting to be admitted
+     */
+    public long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    /**
+     * Returns the longest time in milliseconds an execution waited to be admitted.
+     * @return the longest time in milliseconds an execution waited to be admitted
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /*
+     * Unlike the untimed Semaphore#tryAcquire(), the timed variant honors the fairness setting, so that an execution
+     * does not take a released permit ahead of the executions already waiting in the queue.
+     */
+    private boolean tryAcquireWithoutWaiting() {
+        try {
+            return permits.tryAcquire(0L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void recordWait(final long waitNanos) {
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        log.debug("Waited {}ms for a Magick process to be admitted. Queue depth: {}",
+                TimeUnit.NANOSECONDS.toMillis(waitNanos), queueDepth.get());
+    }
+}
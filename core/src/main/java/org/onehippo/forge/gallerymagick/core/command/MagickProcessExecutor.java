@@ -0,0 +1,390 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide engine executing Magick processes with shared threads, instead of starting stream pumper, watchdog and
+ * result handler threads for each execution.
+ * <P>
+ * The standard streams of all the processes are pumped by a shared executor, on virtual threads if the JVM supports
+ * them and {@link #PROP_VIRTUAL_THREADS} is not false, or else on a cached pool of daemon threads. A single scheduler thread watches the timeouts of all the
+ * processes. The standard output of a process is discarded by the operating system if nobody wants it, and only
+ * the last {@link #PROP_STDERR_MAX_BYTES} bytes of the standard error are kept for error messages.
+ * </P>
+ * <P>
+ * {@link #executeAsync(ProcessBuilder, OutputStream, long)} completes the result by {@link Process#onExit()}
+ * without a thread waiting for the process. The blocking steps of the asynchronous API, such as waiting for
+ * an admission or resizing in the JVM, run in the {@link #getAsyncExecutor() async executor}, on virtual threads
+ * if the JVM supports them and {@link #PROP_VIRTUAL_THREADS} is not false, or else on a fixed pool of daemon threads
+ * as many as the available processors.
+ * </P>
+ */
+class MagickProcessExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(MagickProcessExecutor.class);
+
+    /**
+     * System property name for the maximum number of the last bytes of the standard error of a process kept
+     * for error messages. The default value is {@link #DEFAULT_STDERR_MAX_BYTES}.
+     */
+    static final String PROP_STDERR_MAX_BYTES = "org.onehippo.forge.gallerymagick.core.command.stderr.maxBytes";
+
+    /**
+     * The default maximum number of the last bytes of the standard error of a process kept for error messages.
+     */
+    static final int DEFAULT_STDERR_MAX_BYTES = 8192;
+
+    /**
+     * System property name for whether or not to use virtual threads for the pumps and the asynchronous API
+     * if the JVM supports them. True by default.
+     */
+    static final String PROP_VIRTUAL_THREADS = "org.onehippo.forge.gallerymagick.core.command.virtualThreads";
+
+    /**
+     * The maximum time in milliseconds to wait for the pumps to drain the streams of an exited process, which may be
+     * held open by a child process of it.
+     */
+    private static final long PUMP_DRAIN_TIMEOUT = 1000L;
+
+    private static volatile MagickProcessExecutor defaultInstance;
+
+    private final ExecutorService pumpExecutor;
+
+    private final ExecutorService asyncExecutor;
+
+    private final ScheduledThreadPoolExecutor watchdogScheduler;
+
+    private final int stderrMaxBytes;
+
+    /**
+     * Constructs an execution engine.
+     * @param stderrMaxBytes maximum number of the last bytes of the standard error of a process kept
+     * @param virtualThreads whether or not to use virtual threads if the JVM supports them
+     */
+    MagickProcessExecutor(final int stderrMaxBytes, final boolean virtualThreads) {
+        this.stderrMaxBytes = stderrMaxBytes;
+        final ExecutorService virtualThreadExecutor = (virtualThreads) ? createVirtualThreadExecutor() : null;
+
+        if (virtualThreadExecutor != null) {
+            pumpExecutor = virtualThreadExecutor;
+            asyncExecutor = virtualThreadExecutor;
+        } else {
+            pumpExecutor = Executors.newCachedThreadPool(createDaemonThreadFactory("magick-pump-"));
+            asyncExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    createDaemonThreadFactory("magick-async-"));
+        }
+
+        watchdogScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "magick-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdogScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns the default execution engine configured by system properties.
+     * @return the default execution engine configured by system properties
+     */
+    static MagickProcessExecutor getDefaultInstance() {
+        MagickProcessExecutor instance = defaultInstance;
+
+        if (instance == null) {
+            synchronized (MagickProcessExecutor.class) {
+                instance = defaultInstance;
+
+                if (instance == null) {
+                    instance = new MagickProcessExecutor(
+                            NumberUtils.toInt(System.getProperty(PROP_STDERR_MAX_BYTES), DEFAULT_STDERR_MAX_BYTES),
+                            BooleanUtils.toBoolean(System.getProperty(PROP_VIRTUAL_THREADS, "true")));
+                    defaultInstance = instance;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the executor running the blocking steps of the asynchronous API.
+     * @return the executor running the blocking steps of the asynchronous API
+     */
+    Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Runs the blocking {@code task} in the async executor and returns its future result.
+     * @param task blocking task
+     * @param <T> result type
+     * @return the future result of the task, completed exceptionally with the exception thrown by the task
+     */
+    <T> CompletableFuture<T> supplyAsync(final Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, asyncExecutor);
+    }
+
+    /**
+     * Returns a new buffer keeping the last bytes of the standard error of a process.
+     * @return a new buffer keeping the last bytes of the standard error of a process
+     */
+    RingBufferOutputStream createErrorBuffer() {
+        return new RingBufferOutputStream(stderrMaxBytes);
+    }
+
+    /**
+     * Copies {@code in} to {@code out} in a pump thread until the end of {@code in}.
+     * @param in input stream
+     * @param out output stream
+     * @param closeOutput whether or not to close {@code out} at the end
+     * @param counter (optional) counter of the bytes copied
+     * @return the future of the copy
+     */
+    Future<?> pump(final InputStream in, final OutputStream out, final boolean closeOutput, final AtomicLong counter) {
+        return pumpExecutor.submit(() -> copyQuietly(in, out, closeOutput, counter));
+    }
+
+    /**
+     * Schedules {@code task} to run after {@code timeout} milliseconds in the watchdog thread.
+     * @param task task to run on timeout, e.g, to destroy a process
+     * @param timeout timeout in milliseconds
+     * @return the scheduled future, to cancel if the process exits in time
+     */
+    ScheduledFuture<?> scheduleTimeout(final Runnable task, final long timeout) {
+        return watchdogScheduler.schedule(task, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a process by the {@code processBuilder} and waits for it to exit, pumping its standard output
+     * to {@code stdOut} and keeping the last bytes of its standard error.
+     * @param processBuilder process builder
+     * @param stdOut (optional) standard output stream. The standard output is discarded if null.
+     * @param timeout timeout in milliseconds, after which the process is destroyed. No timeout if zero or negative.
+     * @return the result of the execution
+     * @throws IOException if the process cannot be started
+     * @throws InterruptedException if interrupted while waiting for the process, which is destroyed then
+     */
+    Result execute(final ProcessBuilder processBuilder, final OutputStream stdOut, final long timeout)
+            throws IOException, InterruptedException {
+        if (stdOut == null) {
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        }
+
+        final Process process = processBuilder.start();
+        final RingBufferOutputStream errBuffer = createErrorBuffer();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> watchdog = null;
+
+        try {
+            IOUtils.closeQuietly(process.getOutputStream());
+            final Future<?> outPump = (stdOut != null) ? pump(process.getInputStream(), stdOut, false, null) : null;
+            final Future<?> errPump = pump(process.getErrorStream(), errBuffer, false, null);
+
+            if (timeout > 0) {
+                watchdog = scheduleTimeout(() -> {
+                    timedOut.set(true);
+                    process.destroy();
+                }, timeout);
+            }
+
+            final int exitValue = process.waitFor();
+            awaitPump(outPump);
+            awaitPump(errPump);
+
+            return new Result(exitValue, timedOut.get(), StringUtils.trim(errBuffer.toString(StandardCharsets.UTF_8)));
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Starts a process by the {@code processBuilder} and returns the future result completed when the process exits
+     * and its streams are drained, pumping its standard output to {@code stdOut} and keeping the last bytes of its
+     * standard error. No thread waits for the process.
+     * @param processBuilder process builder
+     * @param stdOut (optional) standard output stream. The standard output is discarded if null.
+     * @param timeout timeout in milliseconds, after which the process is destroyed. No timeout if zero or negative.
+     * @return the future result of the execution
+     * @throws IOException if the process cannot be started
+     */
+    CompletableFuture<Result> executeAsync(final ProcessBuilder processBuilder, final OutputStream stdOut,
+            final long timeout) throws IOException {
+        if (stdOut == null) {
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        }
+
+        final Process process = processBuilder.start();
+        final RingBufferOutputStream errBuffer = createErrorBuffer();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+
+        IOUtils.closeQuietly(process.getOutputStream());
+        final CompletableFuture<Void> outPump = (stdOut != null)
+                ? pumpAsync(process.getInputStream(), stdOut) : CompletableFuture.completedFuture(null);
+        final CompletableFuture<Void> errPump = pumpAsync(process.getErrorStream(), errBuffer);
+        final ScheduledFuture<?> watchdog = (timeout > 0) ? scheduleTimeout(() -> {
+            timedOut.set(true);
+            process.destroy();
+        }, timeout) : null;
+
+        return process.onExit().thenCompose(exited -> {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+
+            return CompletableFuture.allOf(outPump, errPump)
+                    .completeOnTimeout(null, PUMP_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .thenApply(drained -> new Result(exited.exitValue(), timedOut.get(),
+                            StringUtils.trim(errBuffer.toString(StandardCharsets.UTF_8))));
+        });
+    }
+
+    private CompletableFuture<Void> pumpAsync(final InputStream in, final OutputStream out) {
+        return CompletableFuture.runAsync(() -> copyQuietly(in, out, false, null), pumpExecutor);
+    }
+
+    private static void awaitPump(final Future<?> pump) throws InterruptedException {
+        if (pump == null) {
+            return;
+        }
+
+        try {
+            pump.get(PUMP_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.debug("Stream of an exited Magick process not drained in time.");
+            pump.cancel(true);
+        } catch (ExecutionException e) {
+            log.debug("Failed to pump a stream of a Magick process: {}", e.toString());
+        }
+    }
+
+    private static void copyQuietly(final InputStream in, final OutputStream out, final boolean closeOutput,
+            final AtomicLong counter) {
+        final byte[] buffer = new byte[8192];
+        int len;
+
+        try {
+            if (in != null) {
+                while ((len = in.read(buffer)) != -1) {
+                    synchronized (out) {
+                        out.write(buffer, 0, len);
+                    }
+
+                    if (counter != null) {
+                        counter.addAndGet(len);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Stopped pumping a stream of a Magick process: {}", e.toString());
+        } finally {
+            if (closeOutput) {
+                IOUtils.closeQuietly(out);
+            }
+        }
+    }
+
+    /**
+     * Creates a virtual thread per task executor if the JVM supports it, or returns null.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Virtual threads not available. Using daemon thread pools.");
+            return null;
+        }
+    }
+
+    private static ThreadFactory createDaemonThreadFactory(final String namePrefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return runnable -> {
+            final Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Result of a process execution.
+     */
+    static class Result {
+
+        private final int exitValue;
+
+        private final boolean timedOut;
+
+        private final String errorOutput;
+
+        Result(final int exitValue, final boolean timedOut, final String errorOutput) {
+            this.exitValue = exitValue;
+            this.timedOut = timedOut;
+            this.errorOutput = errorOutput;
+        }
+
+        int getExitValue() {
+            return exitValue;
+        }
+
+        boolean isTimedOut() {
+            return timedOut;
+        }
+
+        String getErrorOutput() {
+            return errorOutput;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Standard output of a running Magick process as an {@link InputStream}.
+ * <P>
+ * The standard input of the process is fed from another stream by a pump of {@link MagickProcessExecutor}. When the end of the standard
+ * output is reached, it waits for the process to exit and throws a {@link MagickExecuteException} if the process
+ * failed, so a consumer never mistakes a truncated output for a complete one.
+ * </P>
+ */
+class MagickProcessInputStream extends FilterInputStream {
+
+    private static final Logger log = LoggerFactory.getLogger(MagickProcessInputStream.class);
+
+    private final Process process;
+
+    private final String commandLine;
+
+    private final Runnable onExit;
+
+    private final MagickCommandMetrics.Execution execution;
+
+    private final AtomicLong bytesIn = new AtomicLong();
+
+    private long bytesOut;
+
+    private final RingBufferOutputStream errBuffer;
+
+    private final Future<?> errPump;
+
+    private final ScheduledFuture<?> watchdog;
+
+    private volatile boolean timedOut;
+
+    private boolean exited;
+
+    /**
+     * Constructs the standard output stream of the {@code process}, and starts feeding {@code stdIn} to it.
+     * @param process running Magick process
+     * @param commandLine command line string of the process, used in error messages
+     * @param stdIn (optional) input stream to feed to the standard input of the process
+     * @param timeout execution timeout in milliseconds. No timeout if zero or negative.
+     * @param onExit (optional) callback invoked once when the process exits or the stream is closed
+     * @param execution (optional) execution metrics to end when the process exits
+     */
+    MagickProcessInputStream(final Process process, final String commandLine, final InputStream stdIn,
+            final long timeout, final Runnable onExit, final MagickCommandMetrics.Execution execution) {
+        super(process.getInputStream());
+        this.process = process;
+        this.commandLine = commandLine;
+        this.onExit = onExit;
+        this.execution = execution;
+
+        final MagickProcessExecutor executor = MagickProcessExecutor.getDefaultInstance();
+        errBuffer = executor.createErrorBuffer();
+        errPump = executor.pump(process.getErrorStream(), errBuffer, false, null);
+        executor.pump(stdIn, process.getOutputStream(), true, bytesIn);
+
+        if (timeout > 0) {
+            watchdog = executor.scheduleTimeout(() -> {
+                timedOut = true;
+                process.destroyForcibly();
+            }, timeout);
+        } else {
+            watchdog = null;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+
+        if (b == -1) {
+            waitForExit();
+        } else {
+            ++bytesOut;
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int n = super.read(b, off, len);
+
+        if (n == -1) {
+            waitForExit();
+        } else {
+            bytesOut += n;
+        }
+
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (!exited) {
+                if (process.isAlive()) {
+                    log.debug("Destroying the Magick process as the output stream closed before the end: {}",
+                            commandLine);
+                    process.destroy();
+                }
+
+                try {
+                    waitForExit();
+                } catch (MagickExecuteException e) {
+                    log.debug("Magick process ended unsuccessfully after its output stream closed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private synchronized void waitForExit() throws IOException {
+        if (exited) {
+            return;
+        }
+
+        int exitValue = -1;
+
+        try {
+            exitValue = process.waitFor();
+            errPump.get(1000L, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            log.debug("Standard error of the Magick process not drained: {}", e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            exitValue = -1;
+        } finally {
+            exited = true;
+
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+
+            if (onExit != null) {
+                onExit.run();
+            }
+
+            if (execution != null) {
+                execution.end(exitValue, timedOut, bytesIn.get(), bytesOut);
+            }
+        }
+
+        if (exitValue != 0) {
+            final String errOutput = StringUtils.trim(errBuffer.toString(StandardCharsets.UTF_8));
+
+            throw new MagickExecuteException(errOutput + " " + commandLine + ". "
+                    + (timedOut ? "Process timed out." : "Process exited with " + exitValue + "."), exitValue);
+        }
+    }
+}
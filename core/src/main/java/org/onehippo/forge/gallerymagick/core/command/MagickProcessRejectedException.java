@@ -0,0 +1,39 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+/**
+ * An exception indicating that a Magick process was not started because the {@link MagickProcessAdmissionController}
+ * rejected it, either because the wait queue was full or because it waited too long.
+ */
+public class MagickProcessRejectedException extends MagickExecuteException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Exit value used for the rejected executions, as no process has been started.
+     */
+    public static final int REJECTED_EXIT_VALUE = -1;
+
+    public MagickProcessRejectedException(final String message) {
+        super(message, REJECTED_EXIT_VALUE);
+    }
+
+    public MagickProcessRejectedException(final String message, final Throwable cause) {
+        super(message, REJECTED_EXIT_VALUE, cause);
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide budget of the CPU cores and memory shared by the Magick processes running at the same time.
+ * <P>
+ * Each ImageMagick or GraphicsMagick process uses all the cores through OpenMP and a large memory and memory map
+ * limit by default, so parallel processes oversubscribe the machine. {@link AbstractMagickCommand} allocates
+ * a share of the budget to each execution by the number of processes currently running, and passes it
+ * by <code>-limit</code> options and the <code>OMP_NUM_THREADS</code> environment variable.
+ * </P>
+ * <P>
+ * The default instance is configured by the system properties, {@link #PROP_ENABLED}, {@link #PROP_CORES},
+ * {@link #PROP_MEMORY}, {@link #PROP_DISK} and {@link #PROP_DISK_BACKED_MEMORY}.
+ * </P>
+ */
+public class MagickResourceBudget {
+
+    private static final Logger log = LoggerFactory.getLogger(MagickResourceBudget.class);
+
+    /**
+     * System property name for whether or not to limit the resources of each Magick process. True by default.
+     */
+    public static final String PROP_ENABLED = "org.onehippo.forge.gallerymagick.core.command.resources.enabled";
+
+    /**
+     * System property name for the number of cores shared by the Magick processes.
+     * The default value is the number of available processors.
+     */
+    public static final String PROP_CORES = "org.onehippo.forge.gallerymagick.core.command.resources.cores";
+
+    /**
+     * System property name for the memory in bytes shared by the Magick processes.
+     * The default value is half of the physical memory.
+     */
+    public static final String PROP_MEMORY = "org.onehippo.forge.gallerymagick.core.command.resources.memory";
+
+    /**
+     * System property name for the disk space in bytes shared by the Magick processes for their pixel caches.
+     * No limit if zero or negative, which is the default.
+     */
+    public static final String PROP_DISK = "org.onehippo.forge.gallerymagick.core.command.resources.disk";
+
+    /**
+     * System property name for the memory limit in bytes of a Magick process retried after being killed for running
+     * out of memory, forcing its pixel cache to the disk. The default value is {@link #DEFAULT_DISK_BACKED_MEMORY}.
+     */
+    public static final String PROP_DISK_BACKED_MEMORY = "org.onehippo.forge.gallerymagick.core.command.resources.diskBackedMemory";
+
+    /**
+     * The default memory limit in bytes of a Magick process retried after being killed for running out of memory.
+     */
+    public static final long DEFAULT_DISK_BACKED_MEMORY = 64L * 1024L * 1024L;
+
+    /**
+     * Exit value of a process killed by <code>SIGKILL</code>, as done by the kernel OOM killer or a container runtime
+     * exceeding its memory limit.
+     */
+    public static final int EXIT_VALUE_KILLED = 128 + 9;
+
+    /**
+     * The minimum memory limit in bytes allocated to a Magick process.
+     */
+    private static final long MIN_MEMORY = 16L * 1024L * 1024L;
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private static volatile MagickResourceBudget defaultInstance;
+
+    private final boolean enabled;
+
+    private final int cores;
+
+    private final long memory;
+
+    private final long disk;
+
+    private final long diskBackedMemory;
+
+    /**
+     * Constructs a resource budget.
+     * @param enabled whether or not to limit the resources of each Magick process
+     * @param cores number of cores shared by the Magick processes
+     * @param memory memory in bytes shared by the Magick processes
+     * @param disk disk space in bytes shared by the Magick processes. No limit if zero or negative.
+     * @param diskBackedMemory memory limit in bytes of a Magick process retried after running out of memory
+     */
+    public MagickResourceBudget(final boolean enabled, final int cores, final long memory, final long disk,
+            final long diskBackedMemory) {
+        this.enabled = enabled;
+        this.cores = Math.max(1, cores);
+        this.memory = Math.max(MIN_MEMORY, memory);
+        this.disk = disk;
+        this.diskBackedMemory = Math.max(MIN_MEMORY, diskBackedMemory);
+    }
+
+    /**
+     * Returns the default resource budget configured by system properties.
+     * @return the default resource budget configured by system properties
+     */
+    public static MagickResourceBudget getDefaultInstance() {
+        MagickResourceBudget instance = defaultInstance;
+
+        if (instance == null) {
+            synchronized (MagickResourceBudget.class) {
+                instance = defaultInstance;
+
+                if (instance == null) {
+                    instance = new MagickResourceBudget(
+                            BooleanUtils.toBoolean(System.getProperty(PROP_ENABLED, "true")),
+                            NumberUtils.toInt(System.getProperty(PROP_CORES), Runtime.getRuntime().availableProcessors()),
+                            NumberUtils.toLong(System.getProperty(PROP_MEMORY), getPhysicalMemorySize() / 2L),
+                            NumberUtils.toLong(System.getProperty(PROP_DISK), 0L),
+                            NumberUtils.toLong(System.getProperty(PROP_DISK_BACKED_MEMORY), DEFAULT_DISK_BACKED_MEMORY));
+                    log.debug("Magick resource budget: {} core(s), {} bytes of memory, {} bytes of disk.",
+                            instance.getCores(), instance.getMemory(), instance.getDisk());
+                    defaultInstance = instance;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns true if the resources of each Magick process are limited.
+     * @return true if the resources of each Magick process are limited
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the number of cores shared by the Magick processes.
+     * @return the number of cores shared by the Magick processes
+     */
+    public int getCores() {
+        return cores;
+    }
+
+    /**
+     * Returns the memory in bytes shared by the Magick processes.
+     * @return the memory in bytes shared by the Magick processes
+     */
+    public long getMemory() {
+        return memory;
+    }
+
+    /**
+     * Returns the disk space in bytes shared by the Magick processes, or zero or a negative value if not limited.
+     * @return the disk space in bytes shared by the Magick processes
+     */
+    public long getDisk() {
+        return disk;
+    }
+
+    /**
+     * Allocates the share of a Magick process running along with other processes, or returns null if disabled.
+     * @param concurrency number of Magick processes running at the same time, including the one to start
+     * @return the share of a Magick process, or null if disabled
+     */
+    public Limits allocate(final int concurrency) {
+        if (!enabled) {
+            return null;
+        }
+
+        final int share = Math.max(1, concurrency);
+        final long memoryShare = Math.max(MIN_MEMORY, memory / share);
+        return new Limits(Math.max(1, cores / share), memoryShare, 2L * memoryShare,
+                (disk > 0L) ? Math.max(MIN_MEMORY, disk / share) : 0L);
+    }
+
+    /**
+     * Allocates the share of a Magick process retried after being killed for running out of memory, with the memory
+     * and memory map limits lowered to force its pixel cache to the disk, or returns null if disabled.
+     * @param concurrency number of Magick processes running at the same time, including the one to start
+     * @return the share of a Magick process keeping its pixel cache on the disk, or null if disabled
+     */
+    public Limits allocateDiskBacked(final int concurrency) {
+        final Limits limits = allocate(concurrency);
+
+        if (limits == null) {
+            return null;
+        }
+
+        final long memoryShare = Math.min(diskBackedMemory, limits.getMemory());
+        return new Limits(limits.getThreads(), memoryShare, 2L * memoryShare, limits.getDisk());
+    }
+
+    /**
+     * Returns true if the exit value tells that the process was killed for running out of memory.
+     * @param exitValue exit value of a process
+     * @return true if the exit value tells that the process was killed for running out of memory
+     */
+    public static boolean isOutOfMemoryKill(final int exitValue) {
+        return exitValue == EXIT_VALUE_KILLED;
+    }
+
+    private static long getPhysicalMemorySize() {
+        final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            final long size = ((com.sun.management.OperatingSystemMXBean) osBean).getTotalMemorySize();
+
+            if (size > 0L) {
+                return size;
+            }
+        }
+
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Resource limits of a Magick process.
+     */
+    public static class Limits {
+
+        private final int threads;
+
+        private final long memory;
+
+        private final long map;
+
+        private final long disk;
+
+        /**
+         * Constructs resource limits.
+         * @param threads maximum number of threads
+         * @param memory maximum heap memory in bytes for the pixel cache
+         * @param map maximum memory mapped in bytes for the pixel cache
+         * @param disk maximum disk space in bytes for the pixel cache. No limit if zero or negative.
+         */
+        public Limits(final int threads, final long memory, final long map, final long disk) {
+            this.threads = threads;
+            this.memory = memory;
+            this.map = map;
+            this.disk = disk;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getMemory() {
+            return memory;
+        }
+
+        public long getMap() {
+            return map;
+        }
+
+        public long getDisk() {
+            return disk;
+        }
+
+        /**
+         * Returns the limit in bytes as a <code>-limit</code> option value in megabytes, e.g, <code>256MB</code>.
+         * @param bytes limit in bytes
+         * @return the limit as a <code>-limit</code> option value in megabytes
+         */
+        static String toOptionValue(final long bytes) {
+            return Math.max(1L, bytes / MEGABYTE) + "MB";
+        }
+
+        @Override
+        public String toString() {
+            return "threads=" + threads + ", memory=" + toOptionValue(memory) + ", map=" + toOptionValue(map)
+                    + ((disk > 0L) ? ", disk=" + toOptionValue(disk) : "");
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manager of the temporary image files spooled and rendered for the Magick commands, replacing
+ * {@link File#createTempFile(String, String)} in <code>java.io.tmpdir</code>.
+ * <P>
+ * Temporary files are created in a fast directory such as a tmpfs mount as long as its size budget allows,
+ * or in the fallback directory on the disk otherwise. In each directory, the files of a JVM are created under its own
+ * session folder, <code>gallery-magick/&lt;session&gt;</code>, spread over shard folders not to grow a huge flat folder.
+ * A session folder is named after the process ID of the JVM, so the session folders left by a crashed or killed JVM
+ * are deleted by {@link #cleanUpOrphans(long)} on the next start, along with the old <code>_magickproc*</code> files
+ * created directly in the directories.
+ * </P>
+ * <P>
+ * The default instance is configured by the system properties, {@link #PROP_DIRECTORY}, {@link #PROP_MAX_SIZE},
+ * {@link #PROP_FALLBACK_DIRECTORY}, {@link #PROP_SHARDS} and {@link #PROP_ORPHAN_AGE}.
+ * </P>
+ */
+public class MagickTempFileManager {
+
+    private static final Logger log = LoggerFactory.getLogger(MagickTempFileManager.class);
+
+    /**
+     * System property name for the fast directory of temporary files, e.g, <code>/dev/shm</code>.
+     * Only the fallback directory is used if not set, which is the default.
+     */
+    public static final String PROP_DIRECTORY = "org.onehippo.forge.gallerymagick.core.command.temp.directory";
+
+    /**
+     * System property name for the size budget in bytes of the temporary files in the fast directory.
+     * The default value is {@link #DEFAULT_MAX_SIZE}.
+     */
+    public static final String PROP_MAX_SIZE = "org.onehippo.forge.gallerymagick.core.command.temp.maxSize";
+
+    /**
+     * System property name for the fallback directory of temporary files on the disk.
+     * The default value is <code>java.io.tmpdir</code>.
+     */
+    public static final String PROP_FALLBACK_DIRECTORY = "org.onehippo.forge.gallerymagick.core.command.temp.fallbackDirectory";
+
+    /**
+     * System property name for the number of shard folders in a session folder. The default value is {@link #DEFAULT_SHARDS}.
+     */
+    public static final String PROP_SHARDS = "org.onehippo.forge.gallerymagick.core.command.temp.shards";
+
+    /**
+     * System property name for the minimum age in milliseconds of an orphaned temporary file or session folder
+     * not named after a process ID to delete on start. The default value is {@link #DEFAULT_ORPHAN_AGE}.
+     */
+    public static final String PROP_ORPHAN_AGE = "org.onehippo.forge.gallerymagick.core.command.temp.orphanAge";
+
+    /**
+     * The default size budget in bytes of the temporary files in the fast directory.
+     */
+    public static final long DEFAULT_MAX_SIZE = 512L * 1024L * 1024L;
+
+    /**
+     * The default number of shard folders in a session folder.
+     */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /**
+     * The default minimum age in milliseconds of an orphaned temporary file to delete on start.
+     */
+    public static final long DEFAULT_ORPHAN_AGE = 60L * 60L * 1000L;
+
+    /**
+     * The prefix of the temporary image file names.
+     */
+    public static final String TEMP_FILE_PREFIX = "_magickproc";
+
+    /**
+     * The size in bytes reserved in the fast directory for a temporary file of an unknown size, until it is reconciled
+     * with the actual file size.
+     */
+    static final long DEFAULT_EXPECTED_SIZE = 16L * 1024L * 1024L;
+
+    private static final String ROOT_FOLDER_NAME = "gallery-magick";
+
+    private static volatile MagickTempFileManager defaultInstance;
+
+    private final Tier fastTier;
+
+    private final Tier fallbackTier;
+
+    private final long maxSize;
+
+    private final int shards;
+
+    private final Map<File, Long> fastReservations = new ConcurrentHashMap<>();
+
+    private long fastUsage;
+
+    /**
+     * Constructs a temporary file manager.
+     * @param directory (optional) fast directory of temporary files, e.g, a tmpfs mount
+     * @param maxSize size budget in bytes of the temporary files in the fast directory
+     * @param fallbackDirectory fallback directory of temporary files on the disk
+     * @param shards number of shard folders in a session folder
+     */
+    public MagickTempFileManager(final File directory, final long maxSize, final File fallbackDirectory,
+            final int shards) {
+        fastTier = (directory != null) ? new Tier(directory) : null;
+        fallbackTier = new Tier(fallbackDirectory);
+        this.maxSize = Math.max(0L, maxSize);
+        this.shards = Math.max(1, shards);
+    }
+
+    /**
+     * Returns the default temporary file manager configured by system properties, deleting the orphaned temporary
+     * files on the first call.
+     * @return the default temporary file manager configured by system properties
+     */
+    public static MagickTempFileManager getDefaultInstance() {
+        MagickTempFileManager instance = defaultInstance;
+
+        if (instance == null) {
+            synchronized (MagickTempFileManager.class) {
+                instance = defaultInstance;
+
+                if (instance == null) {
+                    final String directory = StringUtils.trimToNull(System.getProperty(PROP_DIRECTORY));
+                    instance = new MagickTempFileManager((directory != null) ? new File(directory) : null,
+                            NumberUtils.toLong(System.getProperty(PROP_MAX_SIZE), DEFAULT_MAX_SIZE),
+                            new File(StringUtils.defaultIfBlank(System.getProperty(PROP_FALLBACK_DIRECTORY),
+                                    System.getProperty("java.io.tmpdir"))),
+                            NumberUtils.toInt(System.getProperty(PROP_SHARDS), DEFAULT_SHARDS));
+                    instance.cleanUpOrphans(NumberUtils.toLong(System.getProperty(PROP_ORPHAN_AGE), DEFAULT_ORPHAN_AGE));
+                    defaultInstance = instance;
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the fast directory of temporary files, or null if not configured.
+     * @return the fast directory of temporary files, or null if not configured
+     */
+    public File getDirectory() {
+        return (fastTier != null) ? fastTier.directory : null;
+    }
+
+    /**
+     * Returns the fallback directory of temporary files on the disk.
+     * @return the fallback directory of temporary files on the disk
+     */
+    public File getFallbackDirectory() {
+        return fallbackTier.directory;
+    }
+
+    /**
+     * Returns the size budget in bytes of the temporary files in the fast directory.
+     * @return the size budget in bytes of the temporary files in the fast directory
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the size in bytes currently reserved by the temporary files in the fast directory.
+     * @return the size in bytes currently reserved by the temporary files in the fast directory
+     */
+    public synchronized long getUsage() {
+        return fastUsage;
+    }
+
+    /**
+     * Creates an empty temporary file in the fast directory if the {@code expectedSize} fits in its size budget and
+     * free space, or in the fallback directory otherwise.
+     * @param prefix file name prefix, e.g, {@link #TEMP_FILE_PREFIX}
+     * @param suffix file name suffix, e.g, <code>.jpg</code>
+     * @param expectedSize expected size in bytes of the file, or a negative value if unknown
+     * @return an empty temporary file
+     * @throws IOException if the file cannot be created
+     */
+    public File createTempFile(final String prefix, final String suffix, final long expectedSize) throws IOException {
+        final long size = (expectedSize >= 0L) ? expectedSize : DEFAULT_EXPECTED_SIZE;
+
+        if (fastTier != null && reserve(size)) {
+            try {
+                final File file = File.createTempFile(prefix, suffix, fastTier.nextShardFolder());
+                fastReservations.put(file, size);
+                return file;
+            } catch (IOException e) {
+                log.debug("Failed to create a temporary file in '{}'. Falling back to '{}': {}", fastTier.directory,
+                        fallbackTier.directory, e.toString());
+                release(size);
+            }
+        }
+
+        return File.createTempFile(prefix, suffix, fallbackTier.nextShardFolder());
+    }
+
+    /**
+     * Deletes a temporary file and releases its reservation in the fast directory.
+     * @param file temporary file
+     * @return true if the file is deleted or does not exist
+     */
+    public boolean delete(final File file) {
+        if (file == null) {
+            return false;
+        }
+
+        final Long size = fastReservations.remove(file);
+
+        if (size != null) {
+            release(size);
+        }
+
+        return file.delete() || !file.exists();
+    }
+
+    /**
+     * Returns the session folder in the fallback directory, used as the working directory of Magick processes,
+     * or null if it cannot be created.
+     * @return the session folder in the fallback directory, or null if it cannot be created
+     */
+    public File getWorkingDirectory() {
+        try {
+            return fallbackTier.getSessionFolder();
+        } catch (IOException e) {
+            log.warn("Failed to create the temporary session folder in '{}'.", fallbackTier.directory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the session folders left by JVMs not running any more, and the <code>_magickproc*</code> files
+     * and session folders not named after a process ID older than {@code orphanAge} in the directories.
+     * @param orphanAge minimum age in milliseconds of an orphaned temporary file or session folder not named after
+     * a process ID
+     * @return the number of the deleted files and folders
+     */
+    public int cleanUpOrphans(final long orphanAge) {
+        int count = 0;
+
+        if (fastTier != null) {
+            count += fastTier.cleanUpOrphans(orphanAge);
+        }
+
+        if (fastTier == null || !fallbackTier.directory.equals(fastTier.directory)) {
+            count += fallbackTier.cleanUpOrphans(orphanAge);
+        }
+
+        return count;
+    }
+
+    private synchronized boolean reserve(final long size) {
+        if (fastUsage + size > maxSize) {
+            reconcile();
+
+            if (fastUsage + size > maxSize) {
+                log.debug("The temporary files in '{}' reached the size budget, {}. Falling back to '{}'.",
+                        fastTier.directory, maxSize, fallbackTier.directory);
+                return false;
+            }
+        }
+
+        if (fastTier.directory.getUsableSpace() < size) {
+            log.debug("No space left for a temporary file in '{}'. Falling back to '{}'.", fastTier.directory,
+                    fallbackTier.directory);
+            return false;
+        }
+
+        fastUsage += size;
+        return true;
+    }
+
+    private synchronized void release(final long size) {
+        fastUsage = Math.max(0L, fastUsage - size);
+    }
+
+    /**
+     * Drops the reservations of the temporary files deleted without {@link #delete(File)}, and raises the reservations
+     * of the files grown larger than expected.
+     */
+    private synchronized void reconcile() {
+        long usage = 0L;
+
+        for (Iterator<Map.Entry<File, Long>> it = fastReservations.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<File, Long> entry = it.next();
+            final File file = entry.getKey();
+
+            if (!file.exists()) {
+                it.remove();
+            } else {
+                final long size = Math.max(entry.getValue(), file.length());
+                entry.setValue(size);
+                usage += size;
+            }
+        }
+
+        fastUsage = usage;
+    }
+
+    /**
+     * Directory of temporary files, holding the session folder of this JVM.
+     */
+    private class Tier {
+
+        private final File directory;
+
+        private final File rootFolder;
+
+        private final AtomicInteger shardCounter = new AtomicInteger();
+
+        private File sessionFolder;
+
+        private Tier(final File directory) {
+            this.directory = directory.getAbsoluteFile();
+            rootFolder = new File(this.directory, ROOT_FOLDER_NAME);
+        }
+
+        private File nextShardFolder() throws IOException {
+            final int shard = Math.floorMod(shardCounter.getAndIncrement(), shards);
+            final File shardFolder = new File(getSessionFolder(), String.format("%02x", shard));
+            Files.createDirectories(shardFolder.toPath());
+            return shardFolder;
+        }
+
+        /**
+         * Returns the session folder of this JVM, creating it on the first call.
+         */
+        private synchronized File getSessionFolder() throws IOException {
+            if (sessionFolder == null) {
+                final File folder = new File(rootFolder,
+                        ProcessHandle.current().pid() + "-" + Long.toString(System.nanoTime(), 36));
+                Files.createDirectories(folder.toPath());
+                sessionFolder = folder;
+            }
+
+            return sessionFolder;
+        }
+
+        private int cleanUpOrphans(final long orphanAge) {
+            final long orphanTime = System.currentTimeMillis() - Math.max(0L, orphanAge);
+            int count = 0;
+            long bytes = 0L;
+
+            final File [] files = directory.listFiles((dir, name) -> name.startsWith(TEMP_FILE_PREFIX));
+
+            if (files != null) {
+                for (File file : files) {
+                    if (file.lastModified() < orphanTime) {
+                        bytes += FileUtils.sizeOf(file);
+
+                        if (FileUtils.deleteQuietly(file)) {
+                            ++count;
+                        }
+                    }
+                }
+            }
+
+            final File [] folders = rootFolder.listFiles(File::isDirectory);
+
+            if (folders != null) {
+                for (File folder : folders) {
+                    if (!folder.equals(sessionFolder) && isOrphanedSessionFolder(folder, orphanTime)) {
+                        bytes += FileUtils.sizeOfDirectory(folder);
+
+                        if (FileUtils.deleteQuietly(folder)) {
+                            ++count;
+                        }
+                    }
+                }
+            }
+
+            if (count > 0) {
+                log.info("Deleted {} orphaned temporary file(s) or folder(s) of {} bytes in '{}'.", count, bytes,
+                        directory);
+            }
+
+            return count;
+        }
+
+        /**
+         * Returns true if the process named by the <code>&lt;pid&gt;-</code> prefix of the session folder is not
+         * running any more, or if the session folder is not named after a process ID and is older than the
+         * {@code orphanTime}. The session folders of this JVM, e.g, by the manager of another web application,
+         * are not orphaned.
+         */
+        private boolean isOrphanedSessionFolder(final File folder, final long orphanTime) {
+            final long pid = NumberUtils.toLong(StringUtils.substringBefore(folder.getName(), "-"), -1L);
+
+            if (pid < 0L) {
+                return folder.lastModified() < orphanTime;
+            }
+
+            if (pid == ProcessHandle.current().pid()) {
+                return false;
+            }
+
+            return !ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+        }
+    }
+}
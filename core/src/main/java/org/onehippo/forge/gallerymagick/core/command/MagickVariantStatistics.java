@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+/**
+ * Snapshot of the processing time statistics of an image variant, collected by {@link MagickCommandMetrics}.
+ * Times are in milliseconds.
+ */
+public class MagickVariantStatistics {
+
+    private final String variantName;
+
+    private final long invocations;
+
+    private final long failures;
+
+    private final long totalTime;
+
+    private final long maxTime;
+
+    private final double meanTime;
+
+    private final long percentile50;
+
+    private final long percentile95;
+
+    private final long percentile99;
+
+    private final long[] latencyHistogram;
+
+    MagickVariantStatistics(final String variantName, final long failures, final LatencyHistogram histogram) {
+        this.variantName = variantName;
+        this.failures = failures;
+        invocations = histogram.getCount();
+        totalTime = histogram.getTotalTime();
+        maxTime = histogram.getMaxTime();
+        meanTime = histogram.getMeanTime();
+        percentile50 = histogram.getPercentile(0.5);
+        percentile95 = histogram.getPercentile(0.95);
+        percentile99 = histogram.getPercentile(0.99);
+        latencyHistogram = histogram.getBucketCounts();
+    }
+
+    public String getVariantName() {
+        return variantName;
+    }
+
+    /**
+     * Returns the number of times the image variant has been processed.
+     * @return the number of times the image variant has been processed
+     */
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * Returns the number of times processing the image variant threw an exception.
+     * @return the number of times processing the image variant threw an exception
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public double getMeanTime() {
+        return meanTime;
+    }
+
+    public long getPercentile50() {
+        return percentile50;
+    }
+
+    public long getPercentile95() {
+        return percentile95;
+    }
+
+    public long getPercentile99() {
+        return percentile99;
+    }
+
+    /**
+     * Returns the processing counts of each latency bucket, bounded by {@link MagickCommandMetrics#getLatencyBucketBounds()}.
+     * The last element counts processing longer than the last bound.
+     * @return the processing counts of each latency bucket
+     */
+    public long[] getLatencyHistogram() {
+        return latencyHistogram.clone();
+    }
+}
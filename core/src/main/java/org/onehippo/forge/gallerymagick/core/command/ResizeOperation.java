@@ -0,0 +1,43 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+
+/**
+ * An operation resizing a source image file to a target image file,
+ * e.g, <code>ImageMagickCommandUtils::resizeImage</code> or <code>GraphicsMagickCommandUtils::resizeImage</code>.
+ */
+@FunctionalInterface
+public interface ResizeOperation {
+
+    /**
+     * Resize the given image {@code sourceFile} to {@code dimension} and store the resized image to {@code targetFile},
+     * with appending {@code extraOptions} if provided.
+     * @param sourceFile source image file
+     * @param targetFile target image file
+     * @param dimension image dimension
+     * @param extraOptions extra command line options
+     * @throws MagickExecuteException if execution exception occurs
+     * @throws IOException if IO exception occurs
+     */
+    void resizeImage(File sourceFile, File targetFile, ImageDimension dimension, String ... extraOptions)
+            throws IOException;
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * {@link OutputStream} keeping only the last bytes written up to its capacity, so the standard error of a process
+ * can be kept for error messages without growing unbounded. It is thread-safe.
+ */
+class RingBufferOutputStream extends OutputStream {
+
+    private final byte[] buffer;
+
+    private int position;
+
+    private long count;
+
+    /**
+     * Constructs a ring buffer keeping the last {@code capacity} bytes.
+     * @param capacity maximum number of bytes kept
+     */
+    RingBufferOutputStream(final int capacity) {
+        buffer = new byte[Math.max(1, capacity)];
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        buffer[position] = (byte) b;
+        position = (position + 1) % buffer.length;
+        ++count;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        count += len;
+
+        if (len >= buffer.length) {
+            System.arraycopy(b, off + len - buffer.length, buffer, 0, buffer.length);
+            position = 0;
+            return;
+        }
+
+        final int head = Math.min(len, buffer.length - position);
+        System.arraycopy(b, off, buffer, position, head);
+        System.arraycopy(b, off + head, buffer, 0, len - head);
+        position = (position + len) % buffer.length;
+    }
+
+    /**
+     * Returns the total number of bytes written, including the ones no longer kept.
+     * @return the total number of bytes written
+     */
+    synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the bytes kept, oldest first.
+     * @return the bytes kept, oldest first
+     */
+    synchronized byte[] toByteArray() {
+        if (count < buffer.length) {
+            final byte[] bytes = new byte[position];
+            System.arraycopy(buffer, 0, bytes, 0, position);
+            return bytes;
+        }
+
+        final byte[] bytes = new byte[buffer.length];
+        System.arraycopy(buffer, position, bytes, 0, buffer.length - position);
+        System.arraycopy(buffer, 0, bytes, buffer.length - position, position);
+        return bytes;
+    }
+
+    /**
+     * Returns the bytes kept as a string, prefixed by <code>...</code> if earlier bytes were dropped.
+     * @param charset charset
+     * @return the bytes kept as a string
+     */
+    synchronized String toString(final Charset charset) {
+        final String text = new String(toByteArray(), charset);
+        return (count > buffer.length) ? "..." + text : text;
+    }
+}
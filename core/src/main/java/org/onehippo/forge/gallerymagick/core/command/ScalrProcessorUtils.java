@@ -15,14 +15,21 @@
  */
 package org.onehippo.forge.gallerymagick.core.command;
 
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.FileImageInputStream;
@@ -32,25 +39,45 @@ import javax.imageio.stream.ImageOutputStream;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.imgscalr.Scalr;
 import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.ImageHeaderReader;
 
 /**
  * Utility to identify or resize images using Scalr library.
  */
 public class ScalrProcessorUtils {
 
+    /**
+     * System property name for the minimum number of pixels of a tiled source image to be read region by region.
+     */
+    public static final String PROP_TILED_DECODING_MIN_PIXELS = "org.onehippo.forge.gallerymagick.core.command.scalr.tiledDecoding.minPixels";
+
+    /**
+     * The default minimum number of pixels of a tiled source image to be read region by region.
+     */
+    private static final long DEFAULT_TILED_DECODING_MIN_PIXELS = 4096L * 4096L;
+
     private ScalrProcessorUtils() {
     }
 
     /**
      * Detects the {@code sourceFile} and returns the size dimension from it.
+     * The dimension is read from the image header by {@link ImageHeaderReader} without an image reader
+     * if the image format is supported by it.
      * @param sourceFile source image file
      * @return Detects the {@code sourceFile} and returns the size dimension from it
      * @throws IOException if IO exception occurs
      */
     public static ImageDimension identifyDimension(File sourceFile) throws IOException {
-        ImageDimension dimension = null;
+        ImageDimension dimension = ImageHeaderReader.readDimension(sourceFile);
+
+        if (dimension != null) {
+            return dimension;
+        }
+
         String extension = FilenameUtils.getExtension(sourceFile.getName());
         Iterator<ImageReader> it = ImageIO.getImageReadersBySuffix(extension);
 
@@ -74,6 +101,16 @@ public class ScalrProcessorUtils {
         return dimension;
     }
 
+    /**
+     * Asynchronous version of {@link #identifyDimension(File)}, running in the async executor of the default
+     * {@link MagickProcessExecutor}, on a virtual thread if enabled.
+     * @param sourceFile source image file
+     * @return the future dimension, completed exceptionally if IO exception occurs
+     */
+    public static CompletableFuture<ImageDimension> identifyDimensionAsync(File sourceFile) {
+        return MagickProcessExecutor.getDefaultInstance().supplyAsync(() -> identifyDimension(sourceFile));
+    }
+
     /**
      * Resize the given image {@code sourceFile} with resizing it to {@code width} and {@code height}
      * and store the resized image to {@code targetFile}.
@@ -101,6 +138,11 @@ public class ScalrProcessorUtils {
             throw new IllegalArgumentException("Invalid dimension: " + dimension);
         }
 
+        if (isPassThrough(sourceFile, targetFile, dimension, extraOptions)) {
+            Files.copy(sourceFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+
         ImageReader reader = null;
         ImageWriter writer = null;
 
@@ -117,19 +159,22 @@ public class ScalrProcessorUtils {
                 throw new IllegalArgumentException("Unsupported image file name extension for writing: " + targetFile);
             }
 
-            BufferedImage sourceImage = reader.read(0);
+            final ImageDimension sourceDimension = ImageDimension.from(reader.getWidth(0), reader.getHeight(0));
+            final ImageDimension resizedDimension = dimension.resize(sourceDimension);
             BufferedImage resizedImage;
-            if (dimension.getHeight() == 0 && dimension.getWidth() == 0) {
-                resizedImage = sourceImage;
+
+            if (resizedDimension.equals(sourceDimension)) {
+                resizedImage = reader.read(0);
             } else {
-                Scalr.Mode mode = Scalr.Mode.AUTOMATIC;
-                if (dimension.getWidth() == 0) {
-                    mode = Scalr.Mode.FIT_TO_HEIGHT;
-                } else if (dimension.getHeight() == 0) {
-                    mode = Scalr.Mode.FIT_TO_WIDTH;
+                final BufferedImage sourceImage = readImage(reader, sourceDimension, resizedDimension);
+
+                if (sourceImage.getWidth() == resizedDimension.getWidth()
+                        && sourceImage.getHeight() == resizedDimension.getHeight()) {
+                    resizedImage = sourceImage;
+                } else {
+                    resizedImage = Scalr.resize(sourceImage, Scalr.Method.QUALITY, Scalr.Mode.FIT_EXACT,
+                            resizedDimension.getWidth(), resizedDimension.getHeight());
                 }
-                resizedImage = Scalr.resize(sourceImage, Scalr.Method.QUALITY, mode,
-                        dimension.getWidth(), dimension.getHeight());
             }
 
             final ImageWriteParam writeParam = writer.getDefaultWriteParam();
@@ -156,6 +201,145 @@ public class ScalrProcessorUtils {
         }
     }
 
+    /**
+     * Asynchronous version of {@link #resizeImage(File, File, ImageDimension, String...)}, running in the async
+     * executor of the default {@link MagickProcessExecutor}, on a virtual thread if enabled.
+     * @param sourceFile source image file
+     * @param targetFile target image file
+     * @param dimension image dimension
+     * @param extraOptions extra command line options
+     * @return the future completed when the resized image is stored, or completed exceptionally if IO exception occurs
+     */
+    public static CompletableFuture<Void> resizeImageAsync(File sourceFile, File targetFile, ImageDimension dimension,
+            String... extraOptions) {
+        return MagickProcessExecutor.getDefaultInstance().supplyAsync(() -> {
+            resizeImage(sourceFile, targetFile, dimension, extraOptions);
+            return null;
+        });
+    }
+
+    /**
+     * Reads the source image to be resized to {@code resizedDimension}, subsampled as long as it stays larger than
+     * the decoding hint of {@link ShrinkOnLoadUtils}, so the heap used by the decoded image is bounded by the target
+     * size rather than the source size.
+     * <P>
+     * The image readers of row interleaved formats like JPEG and PNG decode the rows one by one and keep only
+     * the subsampled pixels. A tiled image larger than {@link #PROP_TILED_DECODING_MIN_PIXELS} is read region by region
+     * along its tile grid, each region subsampled directly into the destination raster.
+     * </P>
+     * @param reader image reader
+     * @param sourceDimension source image dimension
+     * @param resizedDimension resized image dimension
+     * @return the source image, possibly subsampled
+     * @throws IOException if IOException occurs
+     */
+    static BufferedImage readImage(ImageReader reader, ImageDimension sourceDimension, ImageDimension resizedDimension)
+            throws IOException {
+        final int subsampling = getSourceSubsampling(sourceDimension, resizedDimension);
+
+        if (subsampling <= 1) {
+            return reader.read(0);
+        }
+
+        final ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+        final long sourcePixels = (long) sourceDimension.getWidth() * sourceDimension.getHeight();
+
+        if (!reader.isImageTiled(0) || sourcePixels < getTiledDecodingMinPixels()) {
+            return reader.read(0, param);
+        }
+
+        final Iterator<ImageTypeSpecifier> imageTypes = reader.getImageTypes(0);
+
+        if (!imageTypes.hasNext()) {
+            return reader.read(0, param);
+        }
+
+        final int width = sourceDimension.getWidth();
+        final int height = sourceDimension.getHeight();
+        final BufferedImage destination = imageTypes.next().createBufferedImage(
+                (width + subsampling - 1) / subsampling, (height + subsampling - 1) / subsampling);
+        param.setDestination(destination);
+
+        // Regions start at multiples of the subsampling, so each region keeps the same sampling grid as the whole image.
+        final int stepX = ((reader.getTileWidth(0) + subsampling - 1) / subsampling) * subsampling;
+        final int stepY = ((reader.getTileHeight(0) + subsampling - 1) / subsampling) * subsampling;
+
+        for (int y = 0; y < height; y += stepY) {
+            for (int x = 0; x < width; x += stepX) {
+                param.setSourceRegion(new Rectangle(x, y, Math.min(stepX, width - x), Math.min(stepY, height - y)));
+                param.setDestinationOffset(new Point(x / subsampling, y / subsampling));
+                reader.read(0, param);
+            }
+        }
+
+        return destination;
+    }
+
+    /**
+     * Returns the largest source subsampling keeping the subsampled image at least as large as the decoding hint
+     * of {@link ShrinkOnLoadUtils} for the {@code resizedDimension}, or 1 if the source image should not be subsampled.
+     * @param sourceDimension source image dimension
+     * @param resizedDimension resized image dimension
+     * @return the source subsampling
+     */
+    static int getSourceSubsampling(ImageDimension sourceDimension, ImageDimension resizedDimension) {
+        if (!ShrinkOnLoadUtils.isEnabled()) {
+            return 1;
+        }
+
+        final ImageDimension hint = ShrinkOnLoadUtils.getDecodeHint(resizedDimension);
+
+        if (hint == null) {
+            return 1;
+        }
+
+        // The subsampled width is ceil(width / subsampling), which is not less than the hint if width / hint is floored.
+        return Math.max(1, Math.min(sourceDimension.getWidth() / hint.getWidth(),
+                sourceDimension.getHeight() / hint.getHeight()));
+    }
+
+    /**
+     * Returns true if resizing the {@code sourceFile} to the {@code targetFile} keeps the image as it is, so the file
+     * can be copied without decoding and encoding the image: without {@code extraOptions}, in the same format
+     * by the file name extensions, and by a dimension of 0x0 or keeping the size read from the image header.
+     * @param sourceFile source image file
+     * @param targetFile target image file
+     * @param dimension image dimension
+     * @param extraOptions extra command line options
+     * @return true if the {@code sourceFile} can be copied to the {@code targetFile} as it is
+     */
+    static boolean isPassThrough(File sourceFile, File targetFile, ImageDimension dimension, String... extraOptions) {
+        if ((extraOptions != null && extraOptions.length > 0)
+                || !getFormatName(sourceFile).equals(getFormatName(targetFile))) {
+            return false;
+        }
+
+        if (dimension.getWidth() == 0 && dimension.getHeight() == 0) {
+            return true;
+        }
+
+        final ImageDimension sourceDimension = ImageHeaderReader.readDimension(sourceFile);
+        return sourceDimension != null && dimension.resize(sourceDimension).equals(sourceDimension);
+    }
+
+    private static String getFormatName(File file) {
+        final String extension = StringUtils.lowerCase(FilenameUtils.getExtension(file.getName()));
+
+        if ("jpg".equals(extension)) {
+            return "jpeg";
+        } else if ("tif".equals(extension)) {
+            return "tiff";
+        }
+
+        return StringUtils.defaultString(extension);
+    }
+
+    private static long getTiledDecodingMinPixels() {
+        return NumberUtils.toLong(System.getProperty(PROP_TILED_DECODING_MIN_PIXELS), DEFAULT_TILED_DECODING_MIN_PIXELS);
+    }
+
     /**
      * Creates and returns an {@link ImageReader} instance from the {@code sourceFile}.
      * @param sourceFile source file
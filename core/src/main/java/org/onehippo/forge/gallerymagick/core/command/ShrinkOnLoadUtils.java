@@ -0,0 +1,207 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.ImageHeader;
+import org.onehippo.forge.gallerymagick.core.ImageHeaderReader;
+
+/**
+ * Utility to compute the decoding hints which let the JPEG decoder of Image Magick or Graphics Magick
+ * shrink a large source image while loading it, by DCT scaling of 1/2, 1/4 or 1/8,
+ * instead of decoding it in full size just to resize it down to a small image variant afterward.
+ * <P>
+ * A decoding hint must be given <em>before</em> the input image in the command line:
+ * <code>-define jpeg:size=WxH</code> for Image Magick and <code>-size WxH</code> for Graphics Magick.
+ * The decoder picks the smallest scale keeping both sides of the decoded image at least as large as the hint,
+ * so the hint is the target dimension multiplied by an oversampling factor, configured by the system property,
+ * {@link #PROP_OVERSAMPLING}, to leave enough pixels for the resizing filter.
+ * </P>
+ * <P>
+ * {@link ScalrProcessorUtils} uses the same hint to subsample the source image while reading it with an image reader.
+ * </P>
+ */
+public class ShrinkOnLoadUtils {
+
+    /**
+     * System property name to enable or disable the decoding hints. Enabled by default.
+     */
+    public static final String PROP_ENABLED = "org.onehippo.forge.gallerymagick.core.command.shrinkOnLoad.enabled";
+
+    /**
+     * System property name for the oversampling factor of the decoding hint to the target dimension.
+     */
+    public static final String PROP_OVERSAMPLING = "org.onehippo.forge.gallerymagick.core.command.shrinkOnLoad.oversampling";
+
+    /**
+     * The default oversampling factor. Resizing from at least twice the target size keeps the output
+     * as sharp as resizing from the full size image.
+     */
+    static final double DEFAULT_OVERSAMPLING = 2.0;
+
+    /**
+     * Image formats of which the decoder of both Image Magick and Graphics Magick supports shrink-on-load.
+     * WebP is not included because neither of their WebP coders passes a scaled size to libwebp.
+     */
+    private static final Set<String> SHRINK_ON_LOAD_FORMATS = new HashSet<>(
+            Arrays.asList("jpg", "jpeg", "jpe", "jfif"));
+
+    private ShrinkOnLoadUtils() {
+    }
+
+    /**
+     * Returns true if the decoding hints are enabled by the system property, {@link #PROP_ENABLED}.
+     * @return true if the decoding hints are enabled
+     */
+    public static boolean isEnabled() {
+        return BooleanUtils.toBoolean(System.getProperty(PROP_ENABLED, "true"));
+    }
+
+    /**
+     * Returns true if the decoder of an image in the {@code format} supports shrink-on-load.
+     * @param format image format name or file extension, e.g, <code>jpg</code>
+     * @return true if the decoder of an image in the {@code format} supports shrink-on-load
+     */
+    public static boolean isShrinkOnLoadFormat(final String format) {
+        return format != null && SHRINK_ON_LOAD_FORMATS.contains(StringUtils.lowerCase(format));
+    }
+
+    /**
+     * Returns the decoding hint dimension for resizing an image to the {@code dimension},
+     * or null if the image must be decoded in full size, e.g, for <code>0x0</code>.
+     * @param dimension target image dimension
+     * @return the decoding hint dimension, or null if the image must be decoded in full size
+     */
+    public static ImageDimension getDecodeHint(final ImageDimension dimension) {
+        return getDecodeHint(dimension, getOversampling());
+    }
+
+    /**
+     * Returns the decoding hint dimension covering all the {@code dimensions} of the image variants resized
+     * from a single decoded source image, or null if the image must be decoded in full size for any of them.
+     * @param dimensions target image dimensions
+     * @return the decoding hint dimension, or null if the image must be decoded in full size
+     */
+    public static ImageDimension getDecodeHint(final Collection<ImageDimension> dimensions) {
+        final double oversampling = getOversampling();
+        int width = 0;
+        int height = 0;
+
+        for (ImageDimension dimension : dimensions) {
+            final ImageDimension hint = getDecodeHint(dimension, oversampling);
+
+            if (hint == null) {
+                return null;
+            }
+
+            width = Math.max(width, hint.getWidth());
+            height = Math.max(height, hint.getHeight());
+        }
+
+        return (width > 0 && height > 0) ? ImageDimension.from(width, height) : null;
+    }
+
+    static ImageDimension getDecodeHint(final ImageDimension dimension, final double oversampling) {
+        if (dimension == null) {
+            return null;
+        }
+
+        int width = dimension.getWidth();
+        int height = dimension.getHeight();
+
+        if (width <= 0 && height <= 0) {
+            return null;
+        }
+
+        // The decoder keeps both sides at least as large as the hint, so when only one side is bounded,
+        // bounding the other side by the same size only makes the decoded image larger, never too small.
+        if (width <= 0) {
+            width = height;
+        } else if (height <= 0) {
+            height = width;
+        }
+
+        final double factor = Math.max(oversampling, 1.0);
+        return ImageDimension.from((int) Math.ceil(width * factor), (int) Math.ceil(height * factor));
+    }
+
+    /**
+     * Returns true if the decoder shrinks the source image in the {@code format} while loading it to resize it to
+     * the {@code dimension}. The decoder rounds up the size of the shrunk image, e.g, 1000x765 to 500x383 at 1/2,
+     * and the image is resized from that size, so the size of the resized image may be one pixel off the size
+     * predicted from the source dimension by {@link ImageDimension#resize(ImageDimension)}.
+     * @param format source image format or file extension, e.g, <code>jpeg</code>
+     * @param sourceDimension source image dimension
+     * @param dimension target image dimension
+     * @return true if the decoder shrinks the source image while loading it
+     */
+    public static boolean isShrunkOnLoad(final String format, final ImageDimension sourceDimension,
+            final ImageDimension dimension) {
+        if (!isEnabled() || !isShrinkOnLoadFormat(format) || sourceDimension == null) {
+            return false;
+        }
+
+        final ImageDimension hint = getDecodeHint(dimension);
+
+        if (hint == null) {
+            return false;
+        }
+
+        // The decoder scales by 1/N, N being the smaller ratio of the source size to the hint, floored.
+        return Math.min(sourceDimension.getWidth() / hint.getWidth(),
+                sourceDimension.getHeight() / hint.getHeight()) >= 2;
+    }
+
+    /**
+     * Returns true if the {@code extraOptions} already give a decoding hint, which must be respected.
+     * @param extraOptions extra command line options
+     * @return true if the {@code extraOptions} already give a decoding hint
+     */
+    static boolean containsDecodeHint(final List<String> extraOptions) {
+        for (String option : extraOptions) {
+            if ("-size".equals(option) || StringUtils.startsWith(option, "jpeg:size")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the format of the {@code sourceFile}, read from its header, or its file extension if not readable.
+     * @param sourceFile source image file
+     * @return the format of the {@code sourceFile}
+     */
+    static String getSourceFormat(final File sourceFile) {
+        final ImageHeader header = ImageHeaderReader.read(sourceFile);
+        return (header != null) ? header.getFormat() : FilenameUtils.getExtension(sourceFile.getName());
+    }
+
+    private static double getOversampling() {
+        return NumberUtils.toDouble(System.getProperty(PROP_OVERSAMPLING), DEFAULT_OVERSAMPLING);
+    }
+}
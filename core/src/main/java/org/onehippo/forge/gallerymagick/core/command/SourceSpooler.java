@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.onehippo.forge.gallerymagick.core.ImageHeaderReader;
+
+/**
+ * Utility to spool a source image to a file in a single pass, computing the SHA-256 digest and detecting the format
+ * by the magic bytes of the content while copying it.
+ * <P>
+ * The content is copied through a pooled direct buffer of {@link #PROP_BUFFER_SIZE} bytes, which the digest reads
+ * without copying it to the heap. A {@link FileInputStream} is read through its channel, and any other stream
+ * through a channel wrapping it. The digest is remembered by
+ * {@link ContentDigestUtils}, so the caches keyed by the content digest do not hash the spooled file again.
+ * </P>
+ */
+public class SourceSpooler {
+
+    /**
+     * System property name for the size in bytes of the buffers to spool source images.
+     * The default value is {@link #DEFAULT_BUFFER_SIZE}.
+     */
+    public static final String PROP_BUFFER_SIZE = "org.onehippo.forge.gallerymagick.core.command.spool.bufferSize";
+
+    /**
+     * The default size in bytes of the buffers to spool source images.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The maximum number of idle direct buffers kept for reuse.
+     */
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private static final int BUFFER_SIZE = Math.max(ImageHeaderReader.MAGIC_LENGTH,
+            NumberUtils.toInt(System.getProperty(PROP_BUFFER_SIZE), DEFAULT_BUFFER_SIZE));
+
+    private static final Queue<ByteBuffer> pooledBuffers = new ConcurrentLinkedQueue<>();
+
+    private SourceSpooler() {
+    }
+
+    /**
+     * Spools the {@code input} to the {@code targetFile}, replacing its content. The {@code input} is not closed.
+     * @param input source image input stream
+     * @param targetFile target file
+     * @return the spooled source
+     * @throws IOException if IO exception occurs
+     */
+    public static SpooledSource spool(final InputStream input, final File targetFile) throws IOException {
+        final ReadableByteChannel channel = (input instanceof FileInputStream)
+                ? ((FileInputStream) input).getChannel() : Channels.newChannel(input);
+        return spool(channel, targetFile);
+    }
+
+    /**
+     * Spools the {@code input} channel to the {@code targetFile}, replacing its content. The {@code input} is not closed.
+     * @param input source image channel
+     * @param targetFile target file
+     * @return the spooled source
+     * @throws IOException if IO exception occurs
+     */
+    public static SpooledSource spool(final ReadableByteChannel input, final File targetFile) throws IOException {
+        final MessageDigest messageDigest = ContentDigestUtils.createSha256Digest();
+        final MagicBytes magic = new MagicBytes();
+        final ByteBuffer buffer = borrowBuffer();
+        long length = 0L;
+
+        try (FileChannel output = openOutputChannel(targetFile)) {
+            while (input.read(buffer.clear()) != -1) {
+                buffer.flip();
+                magic.update(buffer.duplicate());
+                messageDigest.update(buffer.duplicate());
+                length += buffer.remaining();
+                writeFully(output, buffer);
+            }
+        } finally {
+            returnBuffer(buffer);
+        }
+
+        return createSpooledSource(targetFile, length, messageDigest, magic);
+    }
+
+    private static FileChannel openOutputChannel(final File targetFile) throws IOException {
+        return FileChannel.open(targetFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void writeFully(final FileChannel output, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+
+    private static SpooledSource createSpooledSource(final File targetFile, final long length,
+            final MessageDigest messageDigest, final MagicBytes magic) throws IOException {
+        final String digest = ContentDigestUtils.toHex(messageDigest.digest());
+        ContentDigestUtils.rememberDigest(targetFile, digest);
+        return new SpooledSource(targetFile, length, digest, magic.detectFormat());
+    }
+
+    private static ByteBuffer borrowBuffer() {
+        final ByteBuffer buffer = pooledBuffers.poll();
+        return (buffer != null) ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void returnBuffer(final ByteBuffer buffer) {
+        if (pooledBuffers.size() < MAX_POOLED_BUFFERS) {
+            pooledBuffers.offer(buffer);
+        }
+    }
+
+    /**
+     * The magic bytes collected from the beginning of the content, which may span several reads.
+     */
+    private static class MagicBytes {
+
+        private final byte [] bytes = new byte[ImageHeaderReader.MAGIC_LENGTH];
+
+        private int length;
+
+        private void update(final ByteBuffer buffer) {
+            final int count = Math.min(buffer.remaining(), bytes.length - length);
+
+            if (count > 0) {
+                buffer.get(bytes, length, count);
+                length += count;
+            }
+        }
+
+        private String detectFormat() {
+            return ImageHeaderReader.detectFormat(bytes, length);
+        }
+    }
+}
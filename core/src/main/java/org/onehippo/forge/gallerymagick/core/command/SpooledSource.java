@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+
+/**
+ * Source image file spooled by {@link SourceSpooler}, with the length, the SHA-256 digest and the format
+ * detected while spooling it.
+ */
+public class SpooledSource {
+
+    private final File file;
+
+    private final long length;
+
+    private final String digest;
+
+    private final String format;
+
+    public SpooledSource(final File file, final long length, final String digest, final String format) {
+        this.file = file;
+        this.length = length;
+        this.digest = digest;
+        this.format = format;
+    }
+
+    /**
+     * Returns the spooled file.
+     * @return the spooled file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the length in bytes of the spooled file.
+     * @return the length in bytes of the spooled file
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 digest of the content.
+     * @return the hexadecimal SHA-256 digest of the content
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Returns the image format name detected by the magic bytes, e.g, <code>jpeg</code>, <code>png</code>,
+     * or null if not detected.
+     * @return the image format name detected by the magic bytes, or null if not detected
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    @Override
+    public String toString() {
+        return "SpooledSource [file=" + file + ", length=" + length + ", digest=" + digest + ", format=" + format + "]";
+    }
+}
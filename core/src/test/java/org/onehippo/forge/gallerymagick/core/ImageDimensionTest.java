@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core;
+
+import org.junit.Test;
+import org.onehippo.forge.gallerymagick.core.ImageDimension.ResizeMode;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImageDimensionTest {
+
+    @Test
+    public void testToCommandArgument() throws Exception {
+        assertEquals("120x80", ImageDimension.from(120, 80).toCommandArgument());
+        assertEquals("120", ImageDimension.from(120, 0).toCommandArgument());
+        assertEquals("x80", ImageDimension.from(0, 80).toCommandArgument());
+        assertEquals("100%", ImageDimension.from(0, 0, ResizeMode.SHRINK_ONLY).toCommandArgument());
+        assertEquals("120x80>", ImageDimension.from(120, 80, ResizeMode.SHRINK_ONLY).toCommandArgument());
+        assertEquals("120x80^", ImageDimension.from(120, 80, ResizeMode.FILL).toCommandArgument());
+        assertEquals("120x80!", ImageDimension.from(120, 80, ResizeMode.EXACT).toCommandArgument());
+        assertEquals("x80>", ImageDimension.from(0, 80, ResizeMode.SHRINK_ONLY).toCommandArgument());
+    }
+
+    @Test
+    public void testFromGeometry() throws Exception {
+        assertEquals(ImageDimension.from(120, 80), ImageDimension.from("120x80"));
+        assertEquals(ImageDimension.from(120, 80, ResizeMode.SHRINK_ONLY), ImageDimension.from("120x80>"));
+        assertEquals(ImageDimension.from(120, 0, ResizeMode.FILL), ImageDimension.from("120x^"));
+        assertEquals(ImageDimension.from(0, 80, ResizeMode.EXACT), ImageDimension.from("x80!"));
+        assertEquals("120x80>", ImageDimension.from("120x80>").toString());
+    }
+
+    @Test
+    public void testResizeFit() throws Exception {
+        assertEquals(ImageDimension.from(120, 90), ImageDimension.from("120x120").resize(ImageDimension.from(800, 600)));
+        assertEquals(ImageDimension.from(100, 33), ImageDimension.from("100x100").resize(ImageDimension.from(1000, 333)));
+        assertEquals(ImageDimension.from(100, 100), ImageDimension.from("x100").resize(ImageDimension.from(1001, 1000)));
+        assertEquals(ImageDimension.from(33, 100), ImageDimension.from("x100").resize(ImageDimension.from(333, 1000)));
+        assertEquals(ImageDimension.from(240, 180), ImageDimension.from("240x").resize(ImageDimension.from(80, 60)));
+        assertEquals(ImageDimension.from(800, 600), ImageDimension.from("0x0").resize(ImageDimension.from(800, 600)));
+    }
+
+    @Test
+    public void testResizeNeverBelowOnePixel() throws Exception {
+        assertEquals(ImageDimension.from(100, 1), ImageDimension.from("100x100").resize(ImageDimension.from(1000, 1)));
+    }
+
+    @Test
+    public void testResizeShrinkOnly() throws Exception {
+        assertEquals(ImageDimension.from(100, 50), ImageDimension.from("120x120>").resize(ImageDimension.from(100, 50)));
+        assertEquals(ImageDimension.from(120, 90), ImageDimension.from("120x120>").resize(ImageDimension.from(800, 600)));
+        assertEquals(ImageDimension.from(120, 60), ImageDimension.from("120x120>").resize(ImageDimension.from(240, 120)));
+    }
+
+    @Test
+    public void testResizeFillAndExact() throws Exception {
+        assertEquals(ImageDimension.from(160, 120), ImageDimension.from("120x120^").resize(ImageDimension.from(800, 600)));
+        assertEquals(ImageDimension.from(120, 120), ImageDimension.from("120x120!").resize(ImageDimension.from(800, 600)));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ImageHeaderReaderTest {
+
+    @Test
+    public void testReadTestImages() throws Exception {
+        for (String name : new String[] { "hippo.jpg", "hippo.png", "hippo.gif" }) {
+            File file = FileUtils.toFile(getClass().getResource("/" + name));
+            BufferedImage image = ImageIO.read(file);
+            ImageHeader header = ImageHeaderReader.read(file);
+
+            assertNotNull(name, header);
+            assertEquals(name, ImageDimension.from(image.getWidth(), image.getHeight()), header.getDimension());
+        }
+    }
+
+    @Test
+    public void testReadBmpAndTiff() throws Exception {
+        BufferedImage image = new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB);
+
+        for (String format : new String[] { "bmp", "tiff" }) {
+            File file = new File("target/ImageHeaderReaderTest-30x20." + format);
+            ImageIO.write(image, format, file);
+            ImageHeader header = ImageHeaderReader.read(file);
+
+            assertNotNull(format, header);
+            assertEquals(format, ImageDimension.from(30, 20), header.getDimension());
+        }
+    }
+
+    @Test
+    public void testReadWebp() throws Exception {
+        // VP8X: canvas width - 1 and height - 1 in 24 bits.
+        File file = writeBytes("vp8x.webp", 'R', 'I', 'F', 'F', 22, 0, 0, 0, 'W', 'E', 'B', 'P',
+                'V', 'P', '8', 'X', 10, 0, 0, 0, 0, 0, 0, 0, 0x1F, 0x03, 0, 0xC7, 0x01, 0);
+        assertEquals(ImageDimension.from(800, 456), ImageHeaderReader.readDimension(file));
+
+        // VP8L: 14 bit width - 1 and height - 1 after the signature.
+        int bits = (640 - 1) | ((480 - 1) << 14);
+        file = writeBytes("vp8l.webp", 'R', 'I', 'F', 'F', 22, 0, 0, 0, 'W', 'E', 'B', 'P',
+                'V', 'P', '8', 'L', 10, 0, 0, 0, 0x2F, bits & 0xFF, (bits >> 8) & 0xFF, (bits >> 16) & 0xFF,
+                (bits >> 24) & 0xFF, 0, 0, 0, 0, 0);
+        assertEquals(ImageDimension.from(640, 480), ImageHeaderReader.readDimension(file));
+
+        // VP8: 14 bit width and height after the start code.
+        file = writeBytes("vp8.webp", 'R', 'I', 'F', 'F', 22, 0, 0, 0, 'W', 'E', 'B', 'P',
+                'V', 'P', '8', ' ', 10, 0, 0, 0, 0, 0, 0, 0x9D, 0x01, 0x2A, 0x40, 0x01, 0xF0, 0x00);
+        assertEquals(ImageDimension.from(320, 240), ImageHeaderReader.readDimension(file));
+    }
+
+    @Test
+    public void testJpegExifOrientation() throws Exception {
+        File file = writeBytes("rotated.jpg",
+                0xFF, 0xD8,
+                // APP1 Exif with a big endian IFD having only the orientation tag (274) = 6.
+                0xFF, 0xE1, 0, 34, 'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0, 0, 0, 0, 0,
+                // SOF0: precision, height 300, width 400.
+                0xFF, 0xC0, 0, 11, 8, 0x01, 0x2C, 0x01, 0x90, 1, 1, 0x11, 0,
+                0xFF, 0xD9);
+        ImageHeader header = ImageHeaderReader.read(file);
+
+        assertNotNull(header);
+        assertEquals(6, header.getOrientation());
+        assertEquals(ImageDimension.from(400, 300), header.getDimension());
+        assertEquals(ImageDimension.from(300, 400), header.getDisplayDimension());
+    }
+
+    @Test
+    public void testUnknownFormat() throws Exception {
+        File file = writeBytes("unknown.pdf", '%', 'P', 'D', 'F', '-', '1', '.', '4', '\n', '%', 0xE2, 0xE3);
+        assertNull(ImageHeaderReader.read(file));
+    }
+
+    private static File writeBytes(final String name, final int ... bytes) throws Exception {
+        byte [] data = new byte[bytes.length];
+
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+        }
+
+        File file = new File("target/ImageHeaderReaderTest-" + name);
+        FileUtils.writeByteArrayToFile(file, data);
+        return file;
+    }
+}
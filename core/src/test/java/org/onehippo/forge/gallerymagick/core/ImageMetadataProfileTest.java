@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core;
+
+import java.util.Calendar;
+import java.util.Map;
+
+import org.junit.Test;
+import org.onehippo.forge.gallerymagick.core.ImageMetadataField.Type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ImageMetadataProfileTest {
+
+    @Test
+    public void testParseFields() throws Exception {
+        ImageMetadataField field = ImageMetadataField.parse("exif.isoSpeed:long=%[EXIF:ISOSpeedRatings]");
+        assertEquals("exif.isoSpeed", field.getName());
+        assertEquals(Type.LONG, field.getType());
+        assertEquals("%[EXIF:ISOSpeedRatings]", field.getGraphicsMagickEscape());
+
+        field = ImageMetadataField.parse("colorspace=%[colorspace]|%r");
+        assertEquals(Type.STRING, field.getType());
+        assertEquals("%[colorspace]", field.getImageMagickEscape());
+        assertEquals("%r", field.getGraphicsMagickEscape());
+        assertEquals("colorspace:string=%[colorspace]|%r", field.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFieldName() throws Exception {
+        ImageMetadataField.parse("exif:Model=%[EXIF:Model]");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEscapeWithWhitespace() throws Exception {
+        ImageMetadataField.parse("size=%w x %h");
+    }
+
+    @Test
+    public void testTypedValues() throws Exception {
+        ImageMetadataProfile profile = ImageMetadataProfile.parse("width:long=%w", "fNumber:double=%[EXIF:FNumber]",
+                "taken:date=%[EXIF:DateTimeOriginal]", "model=%[EXIF:Model]", "caption=%[IPTC:2:120]");
+        assertEquals("%w\u001F%[EXIF:FNumber]\u001F%[EXIF:DateTimeOriginal]\u001F%[EXIF:Model]\u001F%[IPTC:2:120]\u001F",
+                profile.toImageMagickFormat());
+
+        Map<String, Object> values = profile.toValues(
+                "640\u001F28/10\u001F2024:05:31 14:02:11\u001F Canon EOS R5 \u001F\u001F");
+
+        assertEquals(Long.valueOf(640), values.get("width"));
+        assertEquals(2.8, (Double) values.get("fNumber"), 0.0001);
+        Calendar taken = (Calendar) values.get("taken");
+        assertEquals(2024, taken.get(Calendar.YEAR));
+        assertEquals(Calendar.MAY, taken.get(Calendar.MONTH));
+        assertEquals(14, taken.get(Calendar.HOUR_OF_DAY));
+        assertEquals("Canon EOS R5", values.get("model"));
+        assertFalse(values.containsKey("caption"));
+    }
+
+    @Test
+    public void testUnconvertibleValues() throws Exception {
+        assertNull(new ImageMetadataField("iso", Type.LONG, "%[EXIF:ISOSpeedRatings]").toValue("unknown"));
+        assertNull(new ImageMetadataField("fNumber", Type.DOUBLE, "%[EXIF:FNumber]").toValue("28/0"));
+        assertNull(new ImageMetadataField("taken", Type.DATE, "%[EXIF:DateTimeOriginal]").toValue("    :  :     :  :  "));
+        assertEquals(Long.valueOf(72), new ImageMetadataField("xres", Type.LONG, "%x").toValue("72 PixelsPerInch"));
+    }
+}
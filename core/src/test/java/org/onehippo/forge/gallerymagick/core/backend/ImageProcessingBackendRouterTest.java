@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.backend;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.backend.ImageProcessingBackend.Operation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImageProcessingBackendRouterTest {
+
+    private static final long SMALL = 800L * 600L;
+
+    private static final long HUGE = 8000L * 6000L;
+
+    private final ScalrBackend scalr = new ScalrBackend();
+
+    private final GraphicsMagickBackend graphicsMagick = new GraphicsMagickBackend();
+
+    @Test
+    public void testRouteByFormatAndPixels() throws Exception {
+        ImageProcessingBackendRouter router = new ImageProcessingBackendRouter(Arrays.asList(scalr, graphicsMagick),
+                4000L * 1000L, 0);
+
+        assertSame(scalr, router.route(Operation.RESIZE, "jpg", SMALL));
+        assertSame(scalr, router.route(Operation.RESIZE, "PNG", SMALL));
+        assertSame(graphicsMagick, router.route(Operation.RESIZE, "jpg", HUGE));
+        assertSame(graphicsMagick, router.route(Operation.RESIZE, "jpg", 0L));
+        assertSame(graphicsMagick, router.route(Operation.RESIZE, "tiff", SMALL));
+        assertSame(graphicsMagick, router.route(Operation.RESIZE, "psd", SMALL));
+        assertSame(scalr, router.route(Operation.IDENTIFY, "tiff", 0L));
+        assertSame(graphicsMagick, router.route(Operation.IDENTIFY, "psd", 0L));
+
+        assertSame(graphicsMagick, router.getBackend(GraphicsMagickBackend.NAME));
+        assertNull(router.getBackend(ImageMagickBackend.NAME));
+    }
+
+    @Test
+    public void testRouteByLatency() throws Exception {
+        ImageProcessingBackendRouter router = new ImageProcessingBackendRouter(Arrays.asList(scalr, graphicsMagick),
+                4000L * 1000L, 0);
+
+        for (int i = 0; i < ImageProcessingBackendRouter.MIN_SAMPLES; i++) {
+            router.recordLatency(scalr, Operation.RESIZE, SMALL, 90_000_000L);
+        }
+
+        // Not enough samples of graphicsmagick yet, so the first one is preferred.
+        assertSame(scalr, router.route(Operation.RESIZE, "jpg", SMALL));
+
+        for (int i = 0; i < ImageProcessingBackendRouter.MIN_SAMPLES; i++) {
+            router.recordLatency(graphicsMagick, Operation.RESIZE, SMALL, 30_000_000L);
+        }
+
+        assertSame(graphicsMagick, router.route(Operation.RESIZE, "jpg", SMALL));
+        assertEquals(30_000_000.0, router.getAverageLatency(graphicsMagick, Operation.RESIZE, SMALL), 0.1);
+        // Latencies are kept per size class.
+        assertEquals(-1.0, router.getAverageLatency(graphicsMagick, Operation.RESIZE, 3000L * 1000L), 0.1);
+
+        for (int i = 0; i < 20; i++) {
+            router.recordLatency(graphicsMagick, Operation.RESIZE, SMALL, 300_000_000L);
+        }
+
+        assertTrue(router.getAverageLatency(graphicsMagick, Operation.RESIZE, SMALL) > 90_000_000.0);
+        assertSame(scalr, router.route(Operation.RESIZE, "jpg", SMALL));
+    }
+
+    @Test
+    public void testExploration() throws Exception {
+        ImageProcessingBackendRouter router = new ImageProcessingBackendRouter(Arrays.asList(scalr, graphicsMagick),
+                4000L * 1000L, 3);
+
+        for (int i = 0; i < ImageProcessingBackendRouter.MIN_SAMPLES; i++) {
+            router.recordLatency(scalr, Operation.RESIZE, SMALL, 10_000_000L);
+        }
+
+        assertSame(scalr, router.route(Operation.RESIZE, "jpg", SMALL));
+        assertSame(scalr, router.route(Operation.RESIZE, "jpg", SMALL));
+        assertSame(graphicsMagick, router.route(Operation.RESIZE, "jpg", SMALL));
+        assertSame(scalr, router.route(Operation.RESIZE, "jpg", SMALL));
+    }
+
+    @Test
+    public void testFallbackToSupportingBackend() throws Exception {
+        ImageProcessingBackendRouter router = new ImageProcessingBackendRouter(Collections.singletonList(scalr),
+                4000L * 1000L, 0);
+
+        // No backend is eligible for the pixels, so it falls back to the one supporting the format.
+        assertSame(scalr, router.route(Operation.RESIZE, "jpg", HUGE));
+
+        try {
+            router.route(Operation.RESIZE, "psd", SMALL);
+            fail("Must be rejected as no backend supports the format.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testDefaultInstance() throws Exception {
+        ImageProcessingBackendRouter router = ImageProcessingBackendRouter.getDefaultInstance(ImageMagickBackend.NAME);
+
+        assertSame(router, ImageProcessingBackendRouter.getDefaultInstance(ImageMagickBackend.NAME));
+        assertEquals(ScalrBackend.NAME, router.getBackends().get(0).getName());
+        assertEquals(ImageMagickBackend.NAME, router.getBackends().get(1).getName());
+        assertEquals(GraphicsMagickBackend.NAME,
+                ImageProcessingBackendRouter.getDefaultInstance(GraphicsMagickBackend.NAME).getBackends().get(1).getName());
+
+        try {
+            ImageProcessingBackendRouter.getDefaultInstance(ScalrBackend.NAME);
+            fail("Must be rejected as it is not a Magick backend name.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testScalrBackend() throws Exception {
+        File sourceFile = new File("src/test/resources/hippo.png");
+        File targetFile = new File("target/testScalrBackendResizeImages-120x120-hippo.png");
+
+        try {
+            Map<File, ImageDimension> resized = scalr.resizeImages(sourceFile,
+                    Collections.singletonMap(targetFile, ImageDimension.from("120x120")));
+            ImageDimension dimension = scalr.identifyDimension(targetFile);
+            assertEquals(dimension, resized.get(targetFile));
+            assertTrue(dimension.getWidth() <= 120 && dimension.getHeight() <= 120);
+        } finally {
+            FileUtils.deleteQuietly(targetFile);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CachingResizeOperationTest {
+
+    private File cacheDirectory;
+
+    private File sourceFile;
+
+    private final AtomicInteger resizeCount = new AtomicInteger();
+
+    private final ResizeOperation fakeResizeOperation = (sourceFile, targetFile, dimension, extraOptions) -> {
+        resizeCount.incrementAndGet();
+        FileUtils.writeStringToFile(targetFile,
+                FileUtils.readFileToString(sourceFile, StandardCharsets.UTF_8) + "@" + dimension.toCommandArgument(),
+                StandardCharsets.UTF_8);
+    };
+
+    @Before
+    public void before() throws Exception {
+        cacheDirectory = new File("target/CachingResizeOperationTest/cache");
+        FileUtils.deleteDirectory(cacheDirectory);
+        sourceFile = new File("target/CachingResizeOperationTest/source.jpg");
+        FileUtils.writeStringToFile(sourceFile, "source image content", StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCacheHitAndMiss() throws Exception {
+        CachingResizeOperation operation = new CachingResizeOperation(fakeResizeOperation, "fake 1.0", cacheDirectory,
+                CachingResizeOperation.DEFAULT_MAX_SIZE);
+        File targetFile = new File("target/CachingResizeOperationTest/target.jpg");
+
+        operation.resizeImage(sourceFile, targetFile, ImageDimension.from("120x120"));
+        assertEquals(1, resizeCount.get());
+        assertEquals(1, operation.getMissCount());
+        assertEquals(1, operation.getEntryCount());
+
+        targetFile.delete();
+        operation.resizeImage(sourceFile, targetFile, ImageDimension.from("120x120"));
+        assertEquals(1, resizeCount.get());
+        assertEquals(1, operation.getHitCount());
+        assertEquals("source image content@120x120", FileUtils.readFileToString(targetFile, StandardCharsets.UTF_8));
+
+        operation.resizeImage(sourceFile, targetFile, ImageDimension.from("60x60"));
+        assertEquals(2, resizeCount.get());
+
+        operation.resizeImage(sourceFile, targetFile, ImageDimension.from("120x120"), "-quality", "80");
+        assertEquals(3, resizeCount.get());
+        assertEquals(3, operation.getMissCount());
+    }
+
+    @Test
+    public void testCacheKeyedBySourceContentAndIdentity() throws Exception {
+        CachingResizeOperation operation = new CachingResizeOperation(fakeResizeOperation, "fake 1.0", cacheDirectory,
+                CachingResizeOperation.DEFAULT_MAX_SIZE);
+        File copiedSourceFile = new File("target/CachingResizeOperationTest/copied-source.jpg");
+        FileUtils.copyFile(sourceFile, copiedSourceFile);
+        File targetFile = new File("target/CachingResizeOperationTest/target.jpg");
+
+        operation.resizeImage(sourceFile, targetFile, ImageDimension.from("120x120"));
+        operation.resizeImage(copiedSourceFile, targetFile, ImageDimension.from("120x120"));
+        assertEquals(1, resizeCount.get());
+
+        CachingResizeOperation upgradedOperation = new CachingResizeOperation(fakeResizeOperation, "fake 2.0",
+                cacheDirectory, CachingResizeOperation.DEFAULT_MAX_SIZE);
+        assertEquals(1, upgradedOperation.getEntryCount());
+        assertFalse(upgradedOperation.fetch(sourceFile, targetFile, ImageDimension.from("120x120")));
+
+        CachingResizeOperation reloadedOperation = new CachingResizeOperation(fakeResizeOperation, "fake 1.0",
+                cacheDirectory, CachingResizeOperation.DEFAULT_MAX_SIZE);
+        assertTrue(reloadedOperation.fetch(sourceFile, targetFile, ImageDimension.from("120x120")));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        CachingResizeOperation operation = new CachingResizeOperation(fakeResizeOperation, "fake 1.0", cacheDirectory,
+                60L);
+        File targetFile = new File("target/CachingResizeOperationTest/target.jpg");
+
+        operation.resizeImage(sourceFile, targetFile, ImageDimension.from("10x10"));
+        operation.resizeImage(sourceFile, targetFile, ImageDimension.from("20x20"));
+        assertEquals(2, operation.getEntryCount());
+
+        assertTrue(operation.fetch(sourceFile, targetFile, ImageDimension.from("10x10")));
+        operation.resizeImage(sourceFile, targetFile, ImageDimension.from("30x30"));
+
+        assertEquals(2, operation.getEntryCount());
+        assertTrue(operation.getSize() <= 60L);
+        assertTrue(operation.fetch(sourceFile, targetFile, ImageDimension.from("10x10")));
+        assertFalse(operation.fetch(sourceFile, targetFile, ImageDimension.from("20x20")));
+    }
+
+    @Test
+    public void testSharedInstancePerDirectory() throws Exception {
+        AtomicInteger constructionCount = new AtomicInteger();
+        File sharedDirectory = new File("target/CachingResizeOperationTest/shared");
+        FileUtils.deleteDirectory(sharedDirectory);
+
+        CachingResizeOperation operation = CachingResizeOperation.getInstance(sharedDirectory, () -> {
+            constructionCount.incrementAndGet();
+            return new CachingResizeOperation(fakeResizeOperation, "fake 1.0", sharedDirectory,
+                    CachingResizeOperation.DEFAULT_MAX_SIZE);
+        });
+        CachingResizeOperation sameOperation = CachingResizeOperation.getInstance(
+                new File("target/CachingResizeOperationTest/cache/../shared"), () -> {
+                    constructionCount.incrementAndGet();
+                    return new CachingResizeOperation(fakeResizeOperation, "fake 2.0", sharedDirectory,
+                            CachingResizeOperation.DEFAULT_MAX_SIZE);
+                });
+
+        assertSame(operation, sameOperation);
+        assertEquals(1, constructionCount.get());
+        assertEquals("fake 1.0", sameOperation.getIdentity());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assume;
+import org.junit.Test;
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GraphicsMagickBatchProcessPoolTest extends AbstractGraphicsMagickCommandTest {
+
+    @Test
+    public void testToBatchCommandLine() throws Exception {
+        GraphicsMagickCommand cmd = new GraphicsMagickCommand(null, "convert");
+        cmd.addArgument("/tmp/my image.jpg");
+        cmd.addArgument("+profile");
+        cmd.addArgument("*");
+        cmd.addArgument("a\"b\\c");
+
+        assertEquals("convert \"/tmp/my image.jpg\" \"+profile\" \"*\" \"a\\\"b\\\\c\"",
+                GraphicsMagickBatchProcess.toBatchCommandLine(cmd));
+    }
+
+    @Test
+    public void testIdentifyAndConvertInBatch() throws Exception {
+        Assume.assumeTrue(isGraphicsMagickAvailable());
+
+        try (GraphicsMagickBatchProcessPool pool = new GraphicsMagickBatchProcessPool(null, new File("target"), 2, 3,
+                10000L)) {
+            for (File sourceFile : getTestImageFiles()) {
+                final String targetFileName = FilenameUtils.getBaseName(sourceFile.getName()) + "-thumbnail."
+                        + FilenameUtils.getExtension(sourceFile.getName());
+                final File targetFile = new File("target/testGraphicsMagickBatch-120x120-" + targetFileName);
+
+                GraphicsMagickCommand cmd = new GraphicsMagickCommand(null, "convert");
+                cmd.addArgument(sourceFile.getCanonicalPath());
+                cmd.addArgument("-resize");
+                cmd.addArgument("120x120");
+                cmd.addArgument(targetFile.getCanonicalPath());
+                pool.execute(cmd, null);
+
+                cmd = new GraphicsMagickCommand(null, "identify");
+                cmd.addArgument("-format");
+                cmd.addArgument("%wx%h");
+                cmd.addArgument(targetFile.getCanonicalPath());
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(40);
+                pool.execute(cmd, baos);
+                ImageDimension dimension = ImageDimension.from(StringUtils.trim(baos.toString("UTF-8")));
+
+                assertTrue(dimension.getWidth() <= 120);
+                assertTrue(dimension.getHeight() <= 120);
+            }
+        }
+    }
+
+    @Test
+    public void testFailedCommandKeepsPoolUsable() throws Exception {
+        Assume.assumeTrue(isGraphicsMagickAvailable());
+
+        try (GraphicsMagickBatchProcessPool pool = new GraphicsMagickBatchProcessPool(null, new File("target"), 1, 0,
+                10000L)) {
+            GraphicsMagickCommand cmd = new GraphicsMagickCommand(null, "identify");
+            cmd.addArgument("target/non-existing-image.jpg");
+
+            try {
+                pool.execute(cmd, new ByteArrayOutputStream());
+                fail("Identifying a non-existing image must fail.");
+            } catch (MagickExecuteException expected) {
+            }
+
+            File sourceFile = getTestImageFiles().get(0);
+            cmd = new GraphicsMagickCommand(null, "identify");
+            cmd.addArgument("-format");
+            cmd.addArgument("%wx%h");
+            cmd.addArgument(sourceFile.getCanonicalPath());
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(40);
+            pool.execute(cmd, baos);
+
+            assertTrue(ImageDimension.from(StringUtils.trim(baos.toString("UTF-8"))).getWidth() > 0);
+        }
+    }
+
+    @Test
+    public void testErrorOutputPerCommand() throws Exception {
+        Assume.assumeTrue(new File("/bin/sh").canExecute());
+
+        // a fake gm batch writing the error output of a command before its feedback, like gm does.
+        File executable = new File("target/testErrorOutputPerCommand/gm");
+        FileUtils.writeStringToFile(executable, "#!/bin/sh\n"
+                + "while [ $# -gt 0 ]; do\n"
+                + "  case \"$1\" in -pass) pass=\"$2\"; shift;; -fail) fail=\"$2\"; shift;; esac; shift\n"
+                + "done\n"
+                + "while read -r line; do\n"
+                + "  case \"$line\" in\n"
+                + "    warn*) echo \"warning of $line\" >&2; echo \"$pass\";;\n"
+                + "    fail*) echo \"error of $line\" >&2; echo \"$fail\";;\n"
+                + "    *) echo \"$pass\";;\n"
+                + "  esac\n"
+                + "done\n", StandardCharsets.UTF_8);
+        assertTrue(executable.setExecutable(true));
+
+        GraphicsMagickBatchProcess process = new GraphicsMagickBatchProcess(executable.getCanonicalPath(), null);
+
+        try {
+            // the warning of a passed command must not be taken as the error output of the next command.
+            process.execute(new GraphicsMagickCommand(null, "warn"), null);
+
+            try {
+                process.execute(new GraphicsMagickCommand(null, "fail1"), null);
+                fail("The command must fail.");
+            } catch (MagickExecuteException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("error of fail1 fail1"));
+                assertFalse(e.getMessage(), e.getMessage().contains("warning"));
+            }
+
+            try {
+                process.execute(new GraphicsMagickCommand(null, "fail2"), null);
+                fail("The command must fail.");
+            } catch (MagickExecuteException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("error of fail2 fail2"));
+            }
+
+            assertTrue(process.isUsable());
+        } finally {
+            process.destroy();
+            FileUtils.deleteDirectory(executable.getParentFile());
+        }
+    }
+}
@@ -16,12 +16,18 @@
 package org.onehippo.forge.gallerymagick.core.command;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.ImageMetadataProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +43,18 @@ public class GraphicsMagickCommandUtilsTest extends AbstractGraphicsMagickComman
         Assume.assumeTrue(isGraphicsMagickAvailable());
     }
 
+    @Test
+    public void testGraphicsMagickIdentifyMetadata() throws Exception {
+        for (File sourceFile : getTestImageFiles()) {
+            Map<String, Object> metadata = GraphicsMagickCommandUtils.identifyMetadata(sourceFile, ImageMetadataProfile.DEFAULT);
+            log.debug("Metadata of {} : {}", sourceFile, metadata);
+            ImageDimension dimension = GraphicsMagickCommandUtils.identifyDimension(sourceFile);
+            assertEquals(Long.valueOf(dimension.getWidth()), metadata.get("width"));
+            assertEquals(Long.valueOf(dimension.getHeight()), metadata.get("height"));
+            assertTrue(metadata.get("format") instanceof String);
+        }
+    }
+
     @Test
     public void testGraphicsMagickIdentifyDimension() throws Exception {
         ImageDimension dimension;
@@ -100,4 +118,68 @@ public class GraphicsMagickCommandUtilsTest extends AbstractGraphicsMagickComman
         }
     }
 
+    @Test
+    public void testGraphicsMagickResizeImages() throws Exception {
+        String sourceFileName;
+        String sourceExtension;
+        String targetFileName;
+
+        for (File sourceFile : getTestImageFiles()) {
+            sourceFileName = sourceFile.getName();
+            sourceExtension = FilenameUtils.getExtension(sourceFileName);
+            targetFileName = FilenameUtils.getBaseName(sourceFileName) + "-variant." + sourceExtension;
+
+            Map<File, ImageDimension> targets = new LinkedHashMap<>();
+            targets.put(new File("target/testGraphicsMagickResizeImages-60x60-" + targetFileName), ImageDimension.from("60x60"));
+            targets.put(new File("target/testGraphicsMagickResizeImages-120x0-" + targetFileName), ImageDimension.from("120x0"));
+            targets.put(new File("target/testGraphicsMagickResizeImages-0x0-" + targetFileName), ImageDimension.from("0x0"));
+
+            Map<File, ImageDimension> dimensions = GraphicsMagickCommandUtils.resizeImages(sourceFile, targets);
+
+            assertEquals(targets.size(), dimensions.size());
+
+            for (File targetFile : targets.keySet()) {
+                assertTrue(targetFile.isFile());
+                assertTrue(targetFile.length() > 0L);
+                assertEquals(GraphicsMagickCommandUtils.identifyDimension(targetFile), dimensions.get(targetFile));
+            }
+
+            ImageDimension thumbnailDimension = dimensions.get(new File("target/testGraphicsMagickResizeImages-60x60-" + targetFileName));
+            assertTrue(thumbnailDimension.getWidth() <= 60);
+            assertTrue(thumbnailDimension.getHeight() <= 60);
+            assertEquals(120, dimensions.get(new File("target/testGraphicsMagickResizeImages-120x0-" + targetFileName)).getWidth());
+            assertEquals(GraphicsMagickCommandUtils.identifyDimension(sourceFile),
+                    dimensions.get(new File("target/testGraphicsMagickResizeImages-0x0-" + targetFileName)));
+        }
+    }
+
+    @Test
+    public void testGraphicsMagickResizeImageAsStream() throws Exception {
+        String sourceExtension;
+        File targetFile;
+
+        for (File sourceFile : getTestImageFiles()) {
+            sourceExtension = FilenameUtils.getExtension(sourceFile.getName());
+
+            if (!AbstractMagickCommand.isStreamableFormat(sourceExtension)) {
+                continue;
+            }
+
+            targetFile = new File("target/testGraphicsMagickResizeImageAsStream-120x0-" + sourceFile.getName());
+
+            try (InputStream input = new FileInputStream(sourceFile);
+                    InputStream resized = GraphicsMagickCommandUtils.resizeImageAsStream(input, sourceExtension, ImageDimension.from("120x0"))) {
+                FileUtils.copyInputStreamToFile(resized, targetFile);
+            }
+
+            assertTrue(targetFile.length() > 0L);
+
+            try (InputStream input = new FileInputStream(targetFile)) {
+                ImageDimension dimension = GraphicsMagickCommandUtils.identifyDimension(input, sourceExtension);
+                assertEquals(120, dimension.getWidth());
+                assertEquals(GraphicsMagickCommandUtils.identifyDimension(targetFile), dimension);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImageIdentificationCacheTest {
+
+    private File cacheDirectory;
+
+    private File sourceFile;
+
+    private final AtomicInteger identifyCount = new AtomicInteger();
+
+    private final ImageIdentificationCache.Identifier fakeIdentifier = sourceFile -> {
+        identifyCount.incrementAndGet();
+        return "identified " + sourceFile.length();
+    };
+
+    @Before
+    public void before() throws Exception {
+        cacheDirectory = new File("target/ImageIdentificationCacheTest/cache");
+        FileUtils.deleteDirectory(cacheDirectory);
+        sourceFile = new File("target/ImageIdentificationCacheTest/source.jpg");
+        FileUtils.writeStringToFile(sourceFile, "source image content", StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testIdentifyOnlyOncePerContentAndKind() throws Exception {
+        ImageIdentificationCache cache = new ImageIdentificationCache(10, null);
+        File copiedSourceFile = new File("target/ImageIdentificationCacheTest/copied-source.jpg");
+        FileUtils.copyFile(sourceFile, copiedSourceFile);
+
+        assertEquals("identified 20", cache.identify(sourceFile, "test.dimension", fakeIdentifier));
+        assertEquals("identified 20", cache.identify(copiedSourceFile, "test.dimension", fakeIdentifier));
+        assertEquals(1, identifyCount.get());
+
+        cache.identify(sourceFile, "test.metadata", fakeIdentifier);
+        assertEquals(2, identifyCount.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testPutIfAbsent() throws Exception {
+        ImageIdentificationCache cache = new ImageIdentificationCache(10, null);
+
+        cache.putIfAbsent(sourceFile, "test.dimension", "120x80");
+        cache.putIfAbsent(sourceFile, "test.dimension", "60x40");
+
+        assertEquals("120x80", cache.identify(sourceFile, "test.dimension", fakeIdentifier));
+        assertEquals(0, identifyCount.get());
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        ImageIdentificationCache cache = new ImageIdentificationCache(10, cacheDirectory);
+        cache.identify(sourceFile, "test.dimension", fakeIdentifier);
+
+        ImageIdentificationCache reloadedCache = new ImageIdentificationCache(10, cacheDirectory);
+        assertEquals("identified 20", reloadedCache.identify(sourceFile, "test.dimension", fakeIdentifier));
+        assertEquals(1, identifyCount.get());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        ImageIdentificationCache cache = new ImageIdentificationCache(0, null);
+
+        cache.identify(sourceFile, "test.dimension", fakeIdentifier);
+        cache.identify(sourceFile, "test.dimension", fakeIdentifier);
+        assertEquals(2, identifyCount.get());
+    }
+}
@@ -15,13 +15,23 @@
  */
 package org.onehippo.forge.gallerymagick.core.command;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.onehippo.forge.gallerymagick.core.ImageDimension;
+import org.onehippo.forge.gallerymagick.core.ImageHeaderReader;
+import org.onehippo.forge.gallerymagick.core.ImageMetadataProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +47,18 @@ public class ImageMagickCommandUtilsTest extends AbstractImageMagickCommandTest
         Assume.assumeTrue(isImageMagickAvailable());
     }
 
+    @Test
+    public void testImageMagickIdentifyMetadata() throws Exception {
+        for (File sourceFile : getTestImageFiles()) {
+            Map<String, Object> metadata = ImageMagickCommandUtils.identifyMetadata(sourceFile, ImageMetadataProfile.DEFAULT);
+            log.debug("Metadata of {} : {}", sourceFile, metadata);
+            ImageDimension dimension = ImageMagickCommandUtils.identifyDimension(sourceFile);
+            assertEquals(Long.valueOf(dimension.getWidth()), metadata.get("width"));
+            assertEquals(Long.valueOf(dimension.getHeight()), metadata.get("height"));
+            assertTrue(metadata.get("format") instanceof String);
+        }
+    }
+
     @Test
     public void testImageMagickIdentifyDimension() throws Exception {
         ImageDimension dimension;
@@ -100,4 +122,84 @@ public class ImageMagickCommandUtilsTest extends AbstractImageMagickCommandTest
         }
     }
 
+    @Test
+    public void testImageMagickResizeImageShrunkOnLoad() throws Exception {
+        File sourceFile = new File("target/testImageMagickResizeImageShrunkOnLoad-1000x765.jpg");
+        ImageIO.write(new BufferedImage(1000, 765, BufferedImage.TYPE_INT_RGB), "jpg", sourceFile);
+        File targetFile = new File("target/testImageMagickResizeImageShrunkOnLoad-160x160.jpg");
+        ImageDimension dimension = ImageDimension.from("160x160");
+        ImageDimension sourceDimension = ImageDimension.from(1000, 765);
+
+        ImageMagickCommandUtils.resizeImage(sourceFile, targetFile, dimension);
+
+        // decoded at 1/2 to 500x383 for the 320x320 hint, then resized to 160x123 instead of 160x122.
+        assertTrue(ShrinkOnLoadUtils.isShrunkOnLoad("jpeg", sourceDimension, dimension));
+        assertEquals(ImageDimension.from(160, 122), dimension.resize(sourceDimension));
+        assertEquals(ImageDimension.from(160, 123), ImageHeaderReader.readDimension(targetFile));
+    }
+
+    @Test
+    public void testImageMagickResizeImages() throws Exception {
+        String sourceFileName;
+        String sourceExtension;
+        String targetFileName;
+
+        for (File sourceFile : getTestImageFiles()) {
+            sourceFileName = sourceFile.getName();
+            sourceExtension = FilenameUtils.getExtension(sourceFileName);
+            targetFileName = FilenameUtils.getBaseName(sourceFileName) + "-variant." + sourceExtension;
+
+            Map<File, ImageDimension> targets = new LinkedHashMap<>();
+            targets.put(new File("target/testImageMagickResizeImages-60x60-" + targetFileName), ImageDimension.from("60x60"));
+            targets.put(new File("target/testImageMagickResizeImages-120x0-" + targetFileName), ImageDimension.from("120x0"));
+            targets.put(new File("target/testImageMagickResizeImages-0x0-" + targetFileName), ImageDimension.from("0x0"));
+
+            Map<File, ImageDimension> dimensions = ImageMagickCommandUtils.resizeImages(sourceFile, targets);
+
+            assertEquals(targets.size(), dimensions.size());
+
+            for (File targetFile : targets.keySet()) {
+                assertTrue(targetFile.isFile());
+                assertTrue(targetFile.length() > 0L);
+                assertEquals(ImageMagickCommandUtils.identifyDimension(targetFile), dimensions.get(targetFile));
+            }
+
+            ImageDimension thumbnailDimension = dimensions.get(new File("target/testImageMagickResizeImages-60x60-" + targetFileName));
+            assertTrue(thumbnailDimension.getWidth() <= 60);
+            assertTrue(thumbnailDimension.getHeight() <= 60);
+            assertEquals(120, dimensions.get(new File("target/testImageMagickResizeImages-120x0-" + targetFileName)).getWidth());
+            assertEquals(ImageMagickCommandUtils.identifyDimension(sourceFile),
+                    dimensions.get(new File("target/testImageMagickResizeImages-0x0-" + targetFileName)));
+        }
+    }
+
+    @Test
+    public void testImageMagickResizeImageAsStream() throws Exception {
+        String sourceExtension;
+        File targetFile;
+
+        for (File sourceFile : getTestImageFiles()) {
+            sourceExtension = FilenameUtils.getExtension(sourceFile.getName());
+
+            if (!AbstractMagickCommand.isStreamableFormat(sourceExtension)) {
+                continue;
+            }
+
+            targetFile = new File("target/testImageMagickResizeImageAsStream-120x0-" + sourceFile.getName());
+
+            try (InputStream input = new FileInputStream(sourceFile);
+                    InputStream resized = ImageMagickCommandUtils.resizeImageAsStream(input, sourceExtension, ImageDimension.from("120x0"))) {
+                FileUtils.copyInputStreamToFile(resized, targetFile);
+            }
+
+            assertTrue(targetFile.length() > 0L);
+
+            try (InputStream input = new FileInputStream(targetFile)) {
+                ImageDimension dimension = ImageMagickCommandUtils.identifyDimension(input, sourceExtension);
+                assertEquals(120, dimension.getWidth());
+                assertEquals(ImageMagickCommandUtils.identifyDimension(targetFile), dimension);
+            }
+        }
+    }
+
 }
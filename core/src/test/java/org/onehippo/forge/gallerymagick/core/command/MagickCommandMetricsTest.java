@@ -0,0 +1,198 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MagickCommandMetricsTest {
+
+    @Test
+    public void testExecutionStatistics() throws Exception {
+        MagickCommandMetrics metrics = new MagickCommandMetrics();
+
+        MagickCommandMetrics.Execution execution1 = metrics.startExecution("graphicsmagick", "convert");
+        MagickCommandMetrics.Execution execution2 = metrics.startExecution("graphicsmagick", "convert");
+        assertEquals(2, metrics.getInFlight());
+
+        execution1.end(0, false, 100L, 2000L);
+        execution1.end(1, false, 100L, 2000L);
+        execution2.end(137, true, 0L, 0L);
+        assertEquals(0, metrics.getInFlight());
+
+        List<MagickCommandStatistics> statsList = metrics.getCommandStatistics();
+        assertEquals(1, statsList.size());
+
+        MagickCommandStatistics stats = statsList.get(0);
+        assertEquals("graphicsmagick", stats.getBackend());
+        assertEquals("convert", stats.getSubCommand());
+        assertEquals(0, stats.getInFlight());
+        assertEquals(2L, stats.getInvocations());
+        assertEquals(1L, stats.getFailures());
+        assertEquals(1L, stats.getTimeouts());
+        assertEquals(100L, stats.getBytesIn());
+        assertEquals(2000L, stats.getBytesOut());
+        assertEquals(Long.valueOf(1L), stats.getExitValueCounts().get(0));
+        assertEquals(Long.valueOf(1L), stats.getExitValueCounts().get(137));
+        assertEquals(metrics.getLatencyBucketBounds().length + 1, stats.getLatencyHistogram().length);
+
+        metrics.reset();
+        assertEquals(0L, metrics.getCommandStatistics().get(0).getInvocations());
+    }
+
+    @Test
+    public void testListeners() throws Exception {
+        MagickCommandMetrics metrics = new MagickCommandMetrics();
+        final List<String> notified = new ArrayList<>();
+
+        metrics.addListener(new MagickCommandListener() {
+            @Override
+            public void commandStarted(String backend, String subCommand) {
+                throw new IllegalStateException("A failing listener must not break the execution.");
+            }
+        });
+        metrics.addListener(new MagickCommandListener() {
+            @Override
+            public void commandStarted(String backend, String subCommand) {
+                notified.add("started " + backend + " " + subCommand);
+            }
+
+            @Override
+            public void commandCompleted(MagickCommandEvent event) {
+                notified.add("completed " + event.getSubCommand() + " " + event.isSucceeded());
+            }
+
+            @Override
+            public void variantProcessed(String variantName, long durationNanos, boolean succeeded) {
+                notified.add("variant " + variantName + " " + succeeded);
+            }
+        });
+
+        metrics.startExecution("imagemagick", "identify").end(0, false, 0L, 10L);
+        metrics.recordVariant("hippogallery:thumbnail", TimeUnit.MILLISECONDS.toNanos(30L), false);
+
+        assertEquals(3, notified.size());
+        assertEquals("started imagemagick identify", notified.get(0));
+        assertEquals("completed identify true", notified.get(1));
+        assertEquals("variant hippogallery:thumbnail false", notified.get(2));
+
+        MagickVariantStatistics variantStats = metrics.getVariantStatistics().get(0);
+        assertEquals("hippogallery:thumbnail", variantStats.getVariantName());
+        assertEquals(1L, variantStats.getInvocations());
+        assertEquals(1L, variantStats.getFailures());
+        assertEquals(30L, variantStats.getMaxTime());
+        assertEquals(30L, variantStats.getPercentile99());
+    }
+
+    @Test
+    public void testLatencyPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(3L));
+        }
+
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(200L));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(70000L));
+
+        assertEquals(100L, histogram.getCount());
+        assertEquals(5L, histogram.getPercentile(0.5));
+        assertEquals(5L, histogram.getPercentile(0.95));
+        assertEquals(250L, histogram.getPercentile(0.99));
+        assertEquals(70000L, histogram.getPercentile(1.0));
+        assertEquals(70000L, histogram.getMaxTime());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        MagickCommandMetrics metrics = new MagickCommandMetrics();
+        String objectName = MagickCommandMetrics.OBJECT_NAME + ",name=test";
+        metrics.registerMBean(objectName);
+
+        try {
+            metrics.startExecution("graphicsmagick", "identify").end(1, false, 0L, 0L);
+            metrics.recordVariant("hippogallery:original", 1000L, true);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            assertTrue(server.isRegistered(name));
+
+            CompositeData[] commandStats = (CompositeData[]) server.getAttribute(name, "CommandStatistics");
+            assertEquals(1, commandStats.length);
+            assertEquals("identify", commandStats[0].get("subCommand"));
+            assertEquals(1L, commandStats[0].get("failures"));
+
+            CompositeData[] variantStats = (CompositeData[]) server.getAttribute(name, "VariantStatistics");
+            assertEquals("hippogallery:original", variantStats[0].get("variantName"));
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, metrics.getVariantStatistics().size());
+        } finally {
+            metrics.unregisterMBean();
+        }
+
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(objectName)));
+    }
+
+    @Test
+    public void testFlightRecorderEvent() throws Exception {
+        MagickCommandMetrics metrics = new MagickCommandMetrics();
+        File recordingFile = File.createTempFile("magick-command-metrics", ".jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable(MagickCommandExecutionEvent.NAME);
+            recording.start();
+            metrics.startExecution("imagemagick", "convert", Arrays.asList("in.jpg", "-resize", "120x120", "out.jpg"))
+                    .end(0, false, 0L, 0L);
+            recording.stop();
+            recording.dump(recordingFile.toPath());
+
+            List<RecordedEvent> events = new ArrayList<>();
+
+            for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile.toPath())) {
+                if (MagickCommandExecutionEvent.NAME.equals(event.getEventType().getName())) {
+                    events.add(event);
+                }
+            }
+
+            assertEquals(1, events.size());
+            assertEquals("imagemagick", events.get(0).getString("backend"));
+            assertEquals("convert", events.get(0).getString("subCommand"));
+            assertEquals("in.jpg -resize 120x120 out.jpg", events.get(0).getString("arguments"));
+            assertEquals(0, events.get(0).getInt("exitValue"));
+        } finally {
+            recordingFile.delete();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MagickProcessAdmissionControllerTest {
+
+    @Test
+    public void testAdmissionWithinLimit() throws Exception {
+        MagickProcessAdmissionController controller = new MagickProcessAdmissionController(2, 0, 100L);
+
+        controller.acquire();
+        controller.acquire();
+        assertEquals(2, controller.getRunningCount());
+
+        controller.release();
+        controller.release();
+        assertEquals(0, controller.getRunningCount());
+        assertEquals(2, controller.getAdmittedCount());
+        assertEquals(0, controller.getRejectedCount());
+    }
+
+    @Test
+    public void testRejectionWhenQueueIsFull() throws Exception {
+        MagickProcessAdmissionController controller = new MagickProcessAdmissionController(1, 0, 1000L);
+        controller.acquire();
+
+        try {
+            controller.acquire();
+            fail("Must be rejected as no execution may wait.");
+        } catch (MagickProcessRejectedException expected) {
+        } finally {
+            controller.release();
+        }
+
+        assertEquals(1, controller.getRejectedCount());
+        assertEquals(0, controller.getQueueDepth());
+    }
+
+    @Test
+    public void testRejectionOnWaitTimeout() throws Exception {
+        MagickProcessAdmissionController controller = new MagickProcessAdmissionController(1, 1, 50L);
+        controller.acquire();
+
+        try {
+            controller.acquire();
+            fail("Must be rejected as the running process is not released.");
+        } catch (MagickProcessRejectedException expected) {
+        } finally {
+            controller.release();
+        }
+
+        assertEquals(1, controller.getRejectedCount());
+        assertTrue(controller.getMaxWaitTime() >= 40L);
+    }
+
+    @Test
+    public void testWaitingExecutionAdmittedOnRelease() throws Exception {
+        final MagickProcessAdmissionController controller = new MagickProcessAdmissionController(1, 1, 5000L);
+        final CountDownLatch admitted = new CountDownLatch(1);
+        controller.acquire();
+
+        Thread waiter = new Thread(() -> {
+            try {
+                controller.acquire();
+                admitted.countDown();
+                controller.release();
+            } catch (MagickProcessRejectedException e) {
+                // admitted latch is not counted down.
+            }
+        });
+        waiter.start();
+
+        while (controller.getQueueDepth() == 0 && waiter.isAlive()) {
+            Thread.sleep(5L);
+        }
+
+        assertEquals(1, controller.getQueueDepth());
+        controller.release();
+
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertEquals(2, controller.getAdmittedCount());
+    }
+
+    @Test
+    public void testWaitingExecutionAdmittedBeforeLaterExecution() throws Exception {
+        // Repeated as a later execution taking the released permit first depends on the thread scheduling.
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Arrays.asList("waiter", "later"), getAdmissionOrderOfWaitingAndLaterExecutions());
+        }
+    }
+
+    private List<String> getAdmissionOrderOfWaitingAndLaterExecutions() throws Exception {
+        final MagickProcessAdmissionController controller = new MagickProcessAdmissionController(1, 2, 5000L);
+        final List<String> admissionOrder = Collections.synchronizedList(new ArrayList<>());
+        controller.acquire();
+
+        Thread waiter = new Thread(() -> {
+            try {
+                controller.acquire();
+                admissionOrder.add("waiter");
+                controller.release();
+            } catch (MagickProcessRejectedException e) {
+                // not added to the admission order.
+            }
+        });
+        waiter.start();
+
+        while (waiter.getState() != Thread.State.TIMED_WAITING && waiter.isAlive()) {
+            Thread.sleep(1L);
+        }
+
+        assertEquals(1, controller.getQueueDepth());
+
+        // The later execution must not take the released permit ahead of the waiting execution.
+        controller.release();
+        controller.acquire();
+        admissionOrder.add("later");
+        controller.release();
+
+        waiter.join();
+        assertEquals(3, controller.getAdmittedCount());
+        return admissionOrder;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MagickProcessExecutorTest {
+
+    @Before
+    public void before() throws Exception {
+        Assume.assumeTrue(new File("/bin/sh").canExecute());
+    }
+
+    @Test
+    public void testRingBuffer() throws Exception {
+        RingBufferOutputStream buffer = new RingBufferOutputStream(8);
+
+        buffer.write("abc".getBytes(StandardCharsets.UTF_8));
+        assertEquals("abc", buffer.toString(StandardCharsets.UTF_8));
+
+        buffer.write("defgh".getBytes(StandardCharsets.UTF_8));
+        assertEquals("abcdefgh", buffer.toString(StandardCharsets.UTF_8));
+
+        buffer.write('i');
+        buffer.write("jk".getBytes(StandardCharsets.UTF_8), 0, 2);
+        assertEquals("...defghijk", buffer.toString(StandardCharsets.UTF_8));
+
+        buffer.write("0123456789".getBytes(StandardCharsets.UTF_8));
+        assertEquals("...23456789", buffer.toString(StandardCharsets.UTF_8));
+        assertEquals(21L, buffer.getCount());
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        MagickProcessExecutor executor = new MagickProcessExecutor(16, true);
+        ByteArrayOutputStream stdOut = new ByteArrayOutputStream();
+
+        MagickProcessExecutor.Result result = executor.execute(
+                new ProcessBuilder("/bin/sh", "-c", "echo hello; echo 0123456789abcdefghij >&2; exit 3"), stdOut,
+                10000L);
+        assertEquals(3, result.getExitValue());
+        assertFalse(result.isTimedOut());
+        assertEquals("hello", stdOut.toString("UTF-8").trim());
+        assertEquals("...56789abcdefghij", result.getErrorOutput());
+
+        result = executor.execute(new ProcessBuilder("/bin/sh", "-c", "echo discarded"), null, 10000L);
+        assertEquals(0, result.getExitValue());
+        assertEquals("", result.getErrorOutput());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        MagickProcessExecutor executor = new MagickProcessExecutor(1024, true);
+        final long start = System.currentTimeMillis();
+
+        MagickProcessExecutor.Result result = executor.execute(new ProcessBuilder("/bin/sh", "-c", "exec sleep 10"),
+                null, 200L);
+        assertTrue(result.isTimedOut());
+        assertTrue(result.getExitValue() != 0);
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+    }
+
+    @Test
+    public void testExecuteAsync() throws Exception {
+        MagickProcessExecutor executor = new MagickProcessExecutor(1024, false);
+        List<CompletableFuture<MagickProcessExecutor.Result>> results = new ArrayList<>();
+        List<ByteArrayOutputStream> stdOuts = new ArrayList<>();
+        final long start = System.currentTimeMillis();
+
+        for (int i = 0; i < 20; i++) {
+            ByteArrayOutputStream stdOut = new ByteArrayOutputStream();
+            stdOuts.add(stdOut);
+            results.add(executor.executeAsync(new ProcessBuilder("/bin/sh", "-c", "sleep 0.5; echo " + i), stdOut,
+                    10000L));
+        }
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10L, TimeUnit.SECONDS);
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, results.get(i).get().getExitValue());
+            assertEquals(String.valueOf(i), stdOuts.get(i).toString("UTF-8").trim());
+        }
+
+        MagickProcessExecutor.Result result = executor.executeAsync(
+                new ProcessBuilder("/bin/sh", "-c", "exec sleep 10"), null, 200L).get(5L, TimeUnit.SECONDS);
+        assertTrue(result.isTimedOut());
+        assertTrue(result.getExitValue() != 0);
+    }
+}
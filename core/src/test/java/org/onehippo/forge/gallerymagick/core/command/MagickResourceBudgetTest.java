@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MagickResourceBudgetTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    @Test
+    public void testAllocate() throws Exception {
+        MagickResourceBudget budget = new MagickResourceBudget(true, 8, 4096L * MB, 0L, 64L * MB);
+
+        MagickResourceBudget.Limits limits = budget.allocate(1);
+        assertEquals(8, limits.getThreads());
+        assertEquals(4096L * MB, limits.getMemory());
+        assertEquals(8192L * MB, limits.getMap());
+        assertEquals(0L, limits.getDisk());
+
+        limits = budget.allocate(4);
+        assertEquals(2, limits.getThreads());
+        assertEquals(1024L * MB, limits.getMemory());
+
+        limits = budget.allocate(16);
+        assertEquals(1, limits.getThreads());
+        assertEquals(256L * MB, limits.getMemory());
+
+        limits = budget.allocateDiskBacked(4);
+        assertEquals(2, limits.getThreads());
+        assertEquals(64L * MB, limits.getMemory());
+        assertEquals(128L * MB, limits.getMap());
+
+        assertNull(new MagickResourceBudget(false, 8, 4096L * MB, 0L, 64L * MB).allocate(1));
+    }
+
+    @Test
+    public void testResourceLimitArguments() throws Exception {
+        MagickResourceBudget budget = new MagickResourceBudget(true, 8, 4096L * MB, 8192L * MB, 64L * MB);
+
+        GraphicsMagickCommand gmCmd = new GraphicsMagickCommand(null, "convert");
+        gmCmd.addArgument("in.jpg");
+        gmCmd.addArgument("out.jpg");
+        gmCmd.setResourceLimits(budget.allocate(2));
+        assertEquals("convert -limit threads 4 -limit memory 2048MB -limit map 4096MB -limit disk 4096MB"
+                + " \"in.jpg\" \"out.jpg\"", GraphicsMagickBatchProcess.toBatchCommandLine(gmCmd));
+
+        ImageMagickCommand imCmd = new ImageMagickCommand(null, "identify");
+        imCmd.addArgument("in.jpg");
+        imCmd.setResourceLimits(budget.allocate(2));
+        assertEquals(Arrays.asList("-limit", "thread", "4", "-limit", "memory", "2048MB", "-limit", "map", "4096MB",
+                "-limit", "disk", "4096MB"), imCmd.getResourceLimitArguments());
+
+        GraphicsMagickCommand versionCmd = new GraphicsMagickCommand(null, "version");
+        versionCmd.setResourceLimits(budget.allocate(1));
+        assertTrue(versionCmd.getResourceLimitArguments().isEmpty());
+    }
+
+    @Test
+    public void testRetryOnOutOfMemoryKill() throws Exception {
+        Assume.assumeTrue(new File("/bin/sh").canExecute());
+        Assume.assumeTrue(MagickResourceBudget.getDefaultInstance().isEnabled());
+
+        File marker = new File("target/testRetryOnOutOfMemoryKill.marker");
+        FileUtils.deleteQuietly(marker);
+
+        ShellCommand cmd = new ShellCommand("if [ -f \"" + marker.getAbsolutePath() + "\" ]; then echo \"$OMP_NUM_THREADS\"; "
+                + "else touch \"" + marker.getAbsolutePath() + "\"; kill -9 $$; fi");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try {
+            cmd.execute(baos);
+            assertTrue(marker.isFile());
+            assertEquals(String.valueOf(cmd.getResourceLimits().getThreads()), baos.toString("UTF-8").trim());
+            assertTrue(cmd.getResourceLimits().getMemory() <= MagickResourceBudget.DEFAULT_DISK_BACKED_MEMORY);
+        } finally {
+            FileUtils.deleteQuietly(marker);
+        }
+    }
+
+    @Test
+    public void testRetryOnOutOfMemoryKillAsync() throws Exception {
+        Assume.assumeTrue(new File("/bin/sh").canExecute());
+        Assume.assumeTrue(MagickResourceBudget.getDefaultInstance().isEnabled());
+
+        File marker = new File("target/testRetryOnOutOfMemoryKillAsync.marker");
+        FileUtils.deleteQuietly(marker);
+
+        ShellCommand cmd = new ShellCommand("if [ -f \"" + marker.getAbsolutePath() + "\" ]; then echo \"$OMP_NUM_THREADS\"; "
+                + "else touch \"" + marker.getAbsolutePath() + "\"; kill -9 $$; fi");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int runningCount = MagickProcessAdmissionController.getDefaultInstance().getRunningCount();
+
+        try {
+            cmd.executeAsync(baos).get(30L, TimeUnit.SECONDS);
+            assertTrue(marker.isFile());
+            assertEquals(String.valueOf(cmd.getResourceLimits().getThreads()), baos.toString("UTF-8").trim());
+            assertTrue(cmd.getResourceLimits().getMemory() <= MagickResourceBudget.DEFAULT_DISK_BACKED_MEMORY);
+            assertEquals(runningCount, MagickProcessAdmissionController.getDefaultInstance().getRunningCount());
+        } finally {
+            FileUtils.deleteQuietly(marker);
+        }
+    }
+
+    @Test
+    public void testAdmissionReleasedOnFailureBeforeExecutionAsync() throws Exception {
+        AbstractMagickCommand cmd = new AbstractMagickCommand("/bin/sh", "sh") {
+            @Override
+            protected CommandLine createCommandLine() {
+                throw new IllegalStateException("Cannot create the command line.");
+            }
+        };
+        int runningCount = MagickProcessAdmissionController.getDefaultInstance().getRunningCount();
+
+        try {
+            cmd.executeAsync(null).get(30L, TimeUnit.SECONDS);
+            fail("Must fail as the command line cannot be created.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(runningCount, MagickProcessAdmissionController.getDefaultInstance().getRunningCount());
+    }
+
+    private static class ShellCommand extends AbstractMagickCommand {
+
+        private final String script;
+
+        ShellCommand(final String script) {
+            super("/bin/sh", "sh");
+            this.script = script;
+        }
+
+        @Override
+        protected CommandLine createCommandLine() {
+            CommandLine cmdLine = new CommandLine(getExecutable());
+            cmdLine.addArgument("-c");
+            cmdLine.addArgument(script, false);
+            return cmdLine;
+        }
+    }
+}
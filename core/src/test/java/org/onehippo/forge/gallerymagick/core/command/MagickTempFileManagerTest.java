@@ -0,0 +1,134 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MagickTempFileManagerTest {
+
+    private File fastDirectory;
+
+    private File fallbackDirectory;
+
+    @Before
+    public void before() throws Exception {
+        fastDirectory = new File("target/MagickTempFileManagerTest/fast");
+        fallbackDirectory = new File("target/MagickTempFileManagerTest/disk");
+        FileUtils.deleteDirectory(fastDirectory.getParentFile());
+        fastDirectory.mkdirs();
+        fallbackDirectory.mkdirs();
+    }
+
+    @Test
+    public void testFallbackWhenSizeBudgetIsExhausted() throws Exception {
+        MagickTempFileManager manager = new MagickTempFileManager(fastDirectory, 100L, fallbackDirectory, 4);
+
+        File first = manager.createTempFile(MagickTempFileManager.TEMP_FILE_PREFIX, ".jpg", 60L);
+        assertTrue(isUnder(first, fastDirectory));
+        assertEquals(60L, manager.getUsage());
+
+        File second = manager.createTempFile(MagickTempFileManager.TEMP_FILE_PREFIX, ".jpg", 60L);
+        assertTrue(isUnder(second, fallbackDirectory));
+        assertEquals(60L, manager.getUsage());
+
+        assertTrue(manager.delete(first));
+        assertFalse(first.exists());
+        assertEquals(0L, manager.getUsage());
+
+        File third = manager.createTempFile(MagickTempFileManager.TEMP_FILE_PREFIX, ".jpg", 60L);
+        assertTrue(isUnder(third, fastDirectory));
+
+        // deleted without the manager, so the reservation is reconciled when the budget looks exhausted.
+        assertTrue(third.delete());
+        File fourth = manager.createTempFile(MagickTempFileManager.TEMP_FILE_PREFIX, ".jpg", 60L);
+        assertTrue(isUnder(fourth, fastDirectory));
+        assertEquals(60L, manager.getUsage());
+    }
+
+    @Test
+    public void testShardFolders() throws Exception {
+        MagickTempFileManager manager = new MagickTempFileManager(null, 0L, fallbackDirectory, 4);
+        Set<File> shardFolders = new HashSet<>();
+
+        for (int i = 0; i < 8; i++) {
+            File file = manager.createTempFile(MagickTempFileManager.TEMP_FILE_PREFIX, ".jpg", -1L);
+            assertTrue(isUnder(file, fallbackDirectory));
+            shardFolders.add(file.getParentFile());
+        }
+
+        assertEquals(4, shardFolders.size());
+        assertEquals(manager.getWorkingDirectory(), shardFolders.iterator().next().getParentFile());
+    }
+
+    @Test
+    public void testCleanUpOrphans() throws Exception {
+        MagickTempFileManager manager = new MagickTempFileManager(null, 0L, fallbackDirectory, 4);
+        File liveFile = manager.createTempFile(MagickTempFileManager.TEMP_FILE_PREFIX, ".jpg", -1L);
+
+        // a session folder named after a process not running any more.
+        File orphanedSessionFolder = new File(fallbackDirectory, "gallery-magick/" + getExitedProcessId() + "-crashed");
+        FileUtils.writeStringToFile(new File(orphanedSessionFolder, "00/_magickproc123.jpg"), "leftover",
+                StandardCharsets.UTF_8);
+        // a recent session folder not named after a process ID.
+        File unknownSessionFolder = new File(fallbackDirectory, "gallery-magick/unknown");
+        FileUtils.writeStringToFile(new File(unknownSessionFolder, "00/_magickproc321.jpg"), "in use",
+                StandardCharsets.UTF_8);
+
+        File oldFile = new File(fallbackDirectory, "_magickproc456.jpg");
+        FileUtils.writeStringToFile(oldFile, "leftover", StandardCharsets.UTF_8);
+        oldFile.setLastModified(System.currentTimeMillis() - 2L * MagickTempFileManager.DEFAULT_ORPHAN_AGE);
+        File recentFile = new File(fallbackDirectory, "_magickproc789.jpg");
+        FileUtils.writeStringToFile(recentFile, "in use", StandardCharsets.UTF_8);
+        File otherFile = new File(fallbackDirectory, "other.jpg");
+        FileUtils.writeStringToFile(otherFile, "other", StandardCharsets.UTF_8);
+        otherFile.setLastModified(System.currentTimeMillis() - 2L * MagickTempFileManager.DEFAULT_ORPHAN_AGE);
+
+        // a session folder of another manager in this JVM is still in use.
+        MagickTempFileManager otherManager = new MagickTempFileManager(null, 0L, fallbackDirectory, 4);
+        File otherLiveFile = otherManager.createTempFile(MagickTempFileManager.TEMP_FILE_PREFIX, ".jpg", -1L);
+
+        assertEquals(2, manager.cleanUpOrphans(MagickTempFileManager.DEFAULT_ORPHAN_AGE));
+        assertFalse(orphanedSessionFolder.exists());
+        assertTrue(unknownSessionFolder.exists());
+        assertFalse(oldFile.exists());
+        assertTrue(recentFile.exists());
+        assertTrue(otherFile.exists());
+        assertTrue(liveFile.exists());
+        assertTrue(otherLiveFile.exists());
+    }
+
+    private static long getExitedProcessId() throws Exception {
+        Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-version").redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        process.waitFor();
+        return process.pid();
+    }
+
+    private static boolean isUnder(final File file, final File directory) {
+        return file.getAbsolutePath().startsWith(directory.getAbsolutePath() + File.separator);
+    }
+}
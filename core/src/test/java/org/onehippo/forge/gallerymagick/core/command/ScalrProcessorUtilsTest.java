@@ -15,8 +15,20 @@
  */
 package org.onehippo.forge.gallerymagick.core.command;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
-
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.Test;
 import org.onehippo.forge.gallerymagick.core.ImageDimension;
@@ -24,7 +36,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ScalrProcessorUtilsTest extends AbstractMagickCommandTest {
 
@@ -95,6 +109,124 @@ public class ScalrProcessorUtilsTest extends AbstractMagickCommandTest {
         }
     }
 
+    @Test
+    public void testSourceSubsampling() throws Exception {
+        assertEquals(5, ScalrProcessorUtils.getSourceSubsampling(ImageDimension.from(12000, 9000),
+                ImageDimension.from(1200, 900)));
+        assertEquals(1, ScalrProcessorUtils.getSourceSubsampling(ImageDimension.from(800, 600),
+                ImageDimension.from(600, 450)));
+        assertEquals(1, ScalrProcessorUtils.getSourceSubsampling(ImageDimension.from(800, 600),
+                ImageDimension.from(800, 600)));
+    }
+
+    @Test
+    public void testResizeLargeImageWithSubsampling() throws Exception {
+        File sourceFile = new File("target/testScalrProcessorResizeLargeImage-2000x1500.png");
+        ImageIO.write(createGradientImage(2000, 1500), "png", sourceFile);
+
+        File targetFile = new File("target/testScalrProcessorResizeLargeImage-100x100.png");
+        ScalrProcessorUtils.resizeImage(sourceFile, targetFile, ImageDimension.from("100x100"));
+        BufferedImage targetImage = ImageIO.read(targetFile);
+
+        assertEquals(100, targetImage.getWidth());
+        assertEquals(75, targetImage.getHeight());
+        assertGradientColor(targetImage, 50, 37);
+    }
+
+    @Test
+    public void testResizeTiledImage() throws Exception {
+        File sourceFile = new File("target/testScalrProcessorResizeTiledImage-1000x600.tif");
+        ImageWriter writer = ImageIO.getImageWritersBySuffix("tif").next();
+
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(sourceFile)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(128, 128, 0, 0);
+            writer.write(null, new IIOImage(createGradientImage(1000, 600), null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        System.setProperty(ScalrProcessorUtils.PROP_TILED_DECODING_MIN_PIXELS, "1");
+
+        try {
+            File targetFile = new File("target/testScalrProcessorResizeTiledImage-100x100.png");
+            ScalrProcessorUtils.resizeImage(sourceFile, targetFile, ImageDimension.from("100x100"));
+            BufferedImage targetImage = ImageIO.read(targetFile);
+
+            assertEquals(100, targetImage.getWidth());
+            assertEquals(60, targetImage.getHeight());
+            assertGradientColor(targetImage, 50, 30);
+            assertGradientColor(targetImage, 90, 55);
+        } finally {
+            System.clearProperty(ScalrProcessorUtils.PROP_TILED_DECODING_MIN_PIXELS);
+        }
+    }
+
+    @Test
+    public void testResizeImageAsync() throws Exception {
+        File sourceFile = new File("target/testScalrProcessorResizeImageAsync-800x600.png");
+        ImageIO.write(createGradientImage(800, 600), "png", sourceFile);
+
+        File targetFile = new File("target/testScalrProcessorResizeImageAsync-80x80.png");
+        CompletableFuture<ImageDimension> future = ScalrProcessorUtils
+                .resizeImageAsync(sourceFile, targetFile, ImageDimension.from("80x80"))
+                .thenCompose(resized -> ScalrProcessorUtils.identifyDimensionAsync(targetFile));
+        assertEquals(ImageDimension.from(80, 60), future.get(30L, TimeUnit.SECONDS));
+
+        try {
+            ScalrProcessorUtils.resizeImageAsync(sourceFile, targetFile, null).get(30L, TimeUnit.SECONDS);
+            fail("Must fail with an invalid dimension.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testResizeImagePassThrough() throws Exception {
+        File sourceFile = new File("target/testScalrProcessorResizeImagePassThrough-800x600.png");
+        ImageIO.write(createGradientImage(800, 600), "png", sourceFile);
+        // trailing bytes which re-encoding would drop, so only an untouched copy is identical.
+        FileUtils.writeByteArrayToFile(sourceFile, "trailing".getBytes(StandardCharsets.UTF_8), true);
+
+        File targetFile = new File("target/testScalrProcessorResizeImagePassThrough-0x0.png");
+        ScalrProcessorUtils.resizeImage(sourceFile, targetFile, ImageDimension.from("0x0"));
+        assertTrue(FileUtils.contentEquals(sourceFile, targetFile));
+
+        targetFile = new File("target/testScalrProcessorResizeImagePassThrough-1000x1000.png");
+        ScalrProcessorUtils.resizeImage(sourceFile, targetFile,
+                ImageDimension.from(1000, 1000, ImageDimension.ResizeMode.SHRINK_ONLY));
+        assertTrue(FileUtils.contentEquals(sourceFile, targetFile));
+
+        assertTrue(ScalrProcessorUtils.isPassThrough(sourceFile, new File("target.PNG"), ImageDimension.from("0x0")));
+        assertFalse(ScalrProcessorUtils.isPassThrough(sourceFile, new File("target.jpg"), ImageDimension.from("0x0")));
+        assertFalse(ScalrProcessorUtils.isPassThrough(sourceFile, targetFile, ImageDimension.from("0x0"),
+                "-quality", "80"));
+        assertFalse(ScalrProcessorUtils.isPassThrough(sourceFile, targetFile, ImageDimension.from("400x400")));
+        assertFalse(ScalrProcessorUtils.isPassThrough(sourceFile, targetFile, ImageDimension.from("1000x1000")));
+        assertTrue(ScalrProcessorUtils.isPassThrough(new File("source.jpg"), new File("target.jpeg"),
+                ImageDimension.from("0x0")));
+    }
+
+    private static BufferedImage createGradientImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, ((255 * x / width) << 16) | ((255 * y / height) << 8));
+            }
+        }
+
+        return image;
+    }
+
+    private static void assertGradientColor(BufferedImage image, int x, int y) {
+        int rgb = image.getRGB(x, y);
+        assertEquals(255 * x / image.getWidth(), (rgb >> 16) & 0xFF, 8);
+        assertEquals(255 * y / image.getHeight(), (rgb >> 8) & 0xFF, 8);
+    }
+
     @Override
     protected String [] getTestImageFileExtensions() {
         return SCALR_PROCESSOR_TEST_IMAGE_FILE_EXTENSIONS;
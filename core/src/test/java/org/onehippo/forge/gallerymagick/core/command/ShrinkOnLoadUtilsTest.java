@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.onehippo.forge.gallerymagick.core.ImageDimension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShrinkOnLoadUtilsTest {
+
+    @Test
+    public void testDecodeHint() throws Exception {
+        assertEquals(ImageDimension.from(120, 120), ShrinkOnLoadUtils.getDecodeHint(ImageDimension.from(60, 60), 2.0));
+        assertEquals(ImageDimension.from(240, 240), ShrinkOnLoadUtils.getDecodeHint(ImageDimension.from(120, 0), 2.0));
+        assertEquals(ImageDimension.from(90, 90), ShrinkOnLoadUtils.getDecodeHint(ImageDimension.from("x60>"), 1.5));
+        assertEquals(ImageDimension.from(60, 40), ShrinkOnLoadUtils.getDecodeHint(ImageDimension.from(60, 40), 0.5));
+        assertNull(ShrinkOnLoadUtils.getDecodeHint(ImageDimension.from(0, 0), 2.0));
+    }
+
+    @Test
+    public void testDecodeHintForMultipleTargets() throws Exception {
+        assertEquals(ImageDimension.from(400, 240), ShrinkOnLoadUtils.getDecodeHint(
+                Arrays.asList(ImageDimension.from(60, 60), ImageDimension.from(200, 120))));
+        assertNull(ShrinkOnLoadUtils.getDecodeHint(
+                Arrays.asList(ImageDimension.from(60, 60), ImageDimension.from(0, 0))));
+    }
+
+    @Test
+    public void testShrinkOnLoadFormatAndUserHint() throws Exception {
+        assertTrue(ShrinkOnLoadUtils.isShrinkOnLoadFormat("JPG"));
+        assertFalse(ShrinkOnLoadUtils.isShrinkOnLoadFormat("png"));
+        assertFalse(ShrinkOnLoadUtils.isShrinkOnLoadFormat("webp"));
+
+        assertTrue(ShrinkOnLoadUtils.containsDecodeHint(Arrays.asList("-define", "jpeg:size=640x480")));
+        assertTrue(ShrinkOnLoadUtils.containsDecodeHint(Arrays.asList("-size", "640x480")));
+        assertFalse(ShrinkOnLoadUtils.containsDecodeHint(Collections.singletonList("-strip")));
+    }
+
+    @Test
+    public void testShrunkOnLoad() throws Exception {
+        // 1000x765 is decoded at 1/2 for the 320x320 hint of 160x160.
+        assertTrue(ShrinkOnLoadUtils.isShrunkOnLoad("jpeg", ImageDimension.from(1000, 765),
+                ImageDimension.from(160, 160)));
+        // 600x600 is decoded in full size as 1/2 makes it smaller than the 320x320 hint.
+        assertFalse(ShrinkOnLoadUtils.isShrunkOnLoad("jpeg", ImageDimension.from(600, 600),
+                ImageDimension.from(160, 160)));
+        assertFalse(ShrinkOnLoadUtils.isShrunkOnLoad("png", ImageDimension.from(1000, 765),
+                ImageDimension.from(160, 160)));
+        assertFalse(ShrinkOnLoadUtils.isShrunkOnLoad("jpeg", ImageDimension.from(1000, 765),
+                ImageDimension.from(0, 0)));
+    }
+
+    @Test
+    public void testSourceFormat() throws Exception {
+        File sourceFile = new File("target/ShrinkOnLoadUtilsTest-hippo.png");
+        FileUtils.copyFile(FileUtils.toFile(getClass().getResource("/hippo.jpg")), sourceFile);
+        assertEquals("jpeg", ShrinkOnLoadUtils.getSourceFormat(sourceFile));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2024 Bloomreach B.V. (http://www.bloomreach.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.gallerymagick.core.command;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SourceSpoolerTest {
+
+    @Test
+    public void testSpoolStream() throws Exception {
+        File sourceFile = FileUtils.toFile(getClass().getResource("/hippo.png"));
+        byte [] content = FileUtils.readFileToByteArray(sourceFile);
+        File targetFile = new File("target/SourceSpoolerTest-stream.png");
+
+        // ByteArrayInputStream is not a FileInputStream, so read through a channel wrapping it.
+        SpooledSource spooled = SourceSpooler.spool(new ByteArrayInputStream(content), targetFile);
+        assertEquals(targetFile, spooled.getFile());
+        assertEquals(content.length, spooled.getLength());
+        assertEquals(sha256Hex(content), spooled.getDigest());
+        assertEquals("png", spooled.getFormat());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+        assertEquals(spooled.getDigest(), ContentDigestUtils.sha256Hex(targetFile));
+    }
+
+    @Test
+    public void testSpoolFileChannel() throws Exception {
+        File sourceFile = FileUtils.toFile(getClass().getResource("/hippo.jpg"));
+        byte [] content = FileUtils.readFileToByteArray(sourceFile);
+        File targetFile = new File("target/SourceSpoolerTest-channel.jpg");
+        FileUtils.writeStringToFile(targetFile, "previous content to be replaced", "UTF-8");
+
+        try (InputStream input = new FileInputStream(sourceFile)) {
+            SpooledSource spooled = SourceSpooler.spool(input, targetFile);
+            assertEquals(content.length, spooled.getLength());
+            assertEquals(sha256Hex(content), spooled.getDigest());
+            assertEquals("jpeg", spooled.getFormat());
+        }
+
+        assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+    }
+
+    @Test
+    public void testSpoolMagicBytesSpanningReads() throws Exception {
+        byte [] content = new byte[] { 'G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0, 0, 0, 0, 0, 0 };
+        File targetFile = new File("target/SourceSpoolerTest-split.gif");
+
+        // a stream returning a few bytes on each read, read through a channel.
+        InputStream trickling = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+
+        SpooledSource spooled = SourceSpooler.spool(Channels.newChannel(trickling), targetFile);
+        assertEquals(content.length, spooled.getLength());
+        assertEquals("gif", spooled.getFormat());
+        assertArrayEquals(content, FileUtils.readFileToByteArray(targetFile));
+    }
+
+    @Test
+    public void testSpoolUnknownFormat() throws Exception {
+        byte [] content = new byte[] { '%', 'P', 'D', 'F', '-', '1', '.', '4' };
+        File targetFile = new File("target/SourceSpoolerTest-unknown.pdf");
+
+        SpooledSource spooled = SourceSpooler.spool(new ByteArrayInputStream(content), targetFile);
+        assertEquals(8L, spooled.getLength());
+        assertNull(spooled.getFormat());
+
+        spooled = SourceSpooler.spool(new ByteArrayInputStream(new byte[0]), targetFile);
+        assertEquals(0L, spooled.getLength());
+        assertEquals(sha256Hex(new byte[0]), spooled.getDigest());
+        assertEquals(0L, targetFile.length());
+    }
+
+    private static String sha256Hex(final byte [] content) throws Exception {
+        byte [] digest = MessageDigest.getInstance("SHA-256").digest(content);
+        StringBuilder sb = new StringBuilder();
+
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+
+        return sb.toString();
+    }
+}